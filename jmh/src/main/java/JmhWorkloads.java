@@ -0,0 +1,150 @@
+/**
+ * JmhWorkloads.java
+ *
+ * The workloads measured by the JMH benchmarks in ruleengine.jmh. This class lives in
+ * the default package, like the engine, and builds the same scenarios as
+ * BenchmarkSuite from its helpers; every engine is checked against the hardcoded
+ * dashboard or the linear scan before it is handed out.
+ */
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntToLongFunction;
+
+import ruleengine.jmh.Workload;
+
+public final class JmhWorkloads {
+
+    private JmhWorkloads() {
+    }
+
+    /**
+     * Creates a workload; called reflectively by Workload.create.
+     *
+     * @param operation The operation, e.g. "engine.evaluate" or "scaling.evaluateAll"
+     * @param mode The evaluation mode or variant
+     * @param rules The number of synthetic rules for the scaling operations
+     * @return The workload
+     * @throws IllegalArgumentException if the operation or mode is unknown
+     * @throws IllegalStateException if the engine differs from its reference
+     */
+    public static Workload create(String operation, String mode, int rules) {
+        switch (operation) {
+            case "dashboard.processProjectDecision":
+                return dashboard(mode);
+            case "engine.evaluate":
+            case "engine.evaluateAll":
+            case "engine.evaluateAllActions":
+                return engine(operation, mode);
+            case "scaling.evaluate":
+            case "scaling.evaluateAll":
+                return scaling(operation, mode, rules);
+            case "parser.parse":
+                return parser(mode);
+            default:
+                throw new IllegalArgumentException("Unknown operation: " + operation);
+        }
+    }
+
+    private static Workload workload(int inputs, IntToLongFunction operation) {
+        return new Workload() {
+            @Override
+            public int inputs() {
+                return inputs;
+            }
+
+            @Override
+            public long run(int input) {
+                return operation.applyAsLong(input);
+            }
+        };
+    }
+
+    private static Workload dashboard(String implementation) {
+        boolean[][] inputs = BenchmarkSuite.dashboardInputs();
+        switch (implementation) {
+            case "hardcoded":
+                return workload(16, i -> {
+                    boolean[] in = inputs[i];
+                    return DailyOperationsDashboard.processProjectDecision(in[0], in[1], in[2], in[3]).size();
+                });
+            case "interpreter":
+                InterpreterDashboard dashboard = new InterpreterDashboard();
+                return workload(16, i -> {
+                    boolean[] in = inputs[i];
+                    return dashboard.processProjectDecision(in[0], in[1], in[2], in[3]).size();
+                });
+            default:
+                throw new IllegalArgumentException("Unknown dashboard: " + implementation);
+        }
+    }
+
+    private static Workload engine(String operation, String mode) {
+        RuleEngine engine = BenchmarkSuite.dashboardEngine(mode);
+        BenchmarkSuite.verifyAgainstHardcoded(mode, engine);
+        boolean[][] inputs = BenchmarkSuite.dashboardInputs();
+        Context[] contexts = new Context[16];
+        for (int i = 0; i < 16; i++) {
+            contexts[i] = new Context(inputs[i][0], inputs[i][1], inputs[i][2], inputs[i][3]);
+        }
+        switch (operation) {
+            case "engine.evaluate":
+                return workload(16, i -> engine.evaluate(contexts[i]).getRuleIndex());
+            case "engine.evaluateAll":
+                return workload(16, i -> engine.evaluateAll(contexts[i]).getActions().size());
+            default:
+                return workload(16, i -> engine.evaluateAllActions(contexts[i]).size());
+        }
+    }
+
+    private static Workload scaling(String operation, String mode, int rules) {
+        if (!List.of("scan", "literal-index", "program", "parallel", "decision-cache").contains(mode)) {
+            throw new IllegalArgumentException("Unknown scaling mode: " + mode);
+        }
+        // Tree-walking, as in BenchmarkSuite, so 100k rules do not load 100k generated classes
+        RuleEngine scan = new RuleEngine();
+        scan.setCompilationEnabled(false);
+        scan.addRules(BenchmarkSuite.syntheticRules(rules, 42));
+        RuleEngine engine = scan;
+        if (!mode.equals("scan")) {
+            engine = new RuleEngine();
+            engine.setCompilationEnabled(false);
+            engine.setLiteralIndexEnabled(mode.equals("literal-index"));
+            engine.setProgramEnabled(mode.equals("program"));
+            engine.setParallelEvaluationEnabled(mode.equals("parallel"));
+            engine.setDecisionCacheEnabled(mode.equals("decision-cache"));
+            engine.addRules(BenchmarkSuite.syntheticRules(rules, 42));
+        }
+        Context[] contexts = BenchmarkSuite.syntheticContexts(256, 7);
+        for (Context context : contexts) {
+            if (scan.evaluate(context).getRuleIndex() != engine.evaluate(context).getRuleIndex()
+                || !scan.evaluateAllMatches(context).equals(engine.evaluateAllMatches(context))) {
+                throw new IllegalStateException(mode + " differs from the linear scan at " + rules + " rules");
+            }
+        }
+        RuleEngine measured = engine;
+        if (operation.equals("scaling.evaluate")) {
+            return workload(256, i -> measured.evaluate(contexts[i]).getRuleIndex());
+        }
+        return workload(256, i -> measured.evaluateAll(contexts[i]).getActions().size());
+    }
+
+    private static Workload parser(String cache) {
+        Random random = new Random(3);
+        String[] conditions = new String[1024];
+        for (int i = 0; i < conditions.length; i++) {
+            conditions[i] = BenchmarkSuite.randomCondition(random, 3);
+        }
+        ConditionParser parser;
+        switch (cache) {
+            case "uncached":
+                parser = new ConditionParser(0);
+                break;
+            case "cached":
+                parser = new ConditionParser(4096);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown parser variant: " + cache);
+        }
+        return workload(1024, i -> parser.parse(conditions[i]).hashCode());
+    }
+}
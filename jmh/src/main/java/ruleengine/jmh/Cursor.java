@@ -0,0 +1,25 @@
+/**
+ * Cursor.java
+ *
+ * Per-thread position in a workload's inputs, so threads sharing one engine in a
+ * multi-threaded run (-t) do not contend on a shared counter.
+ */
+package ruleengine.jmh;
+
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+@State(Scope.Thread)
+public class Cursor {
+    private int next;
+
+    /**
+     * Gets the next input index.
+     *
+     * @param mask The workload's input count minus one
+     * @return The index
+     */
+    int next(int mask) {
+        return next++ & mask;
+    }
+}
@@ -0,0 +1,47 @@
+/**
+ * DashboardBenchmark.java
+ *
+ * One project decision through the hardcoded dashboard and through the interpreter
+ * dashboard, cycling through the 16 combinations of its four conditions.
+ */
+package ruleengine.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DashboardBenchmark {
+
+    @Param({"hardcoded", "interpreter"})
+    public String implementation;
+
+    private Workload workload;
+    private int mask;
+
+    @Setup
+    public void setUp() {
+        workload = Workload.create("dashboard.processProjectDecision", implementation, 0);
+        mask = workload.inputs() - 1;
+    }
+
+    @Benchmark
+    public long processProjectDecision(Cursor cursor) {
+        return workload.run(cursor.next(mask));
+    }
+}
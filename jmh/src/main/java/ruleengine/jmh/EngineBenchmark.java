@@ -0,0 +1,53 @@
+/**
+ * EngineBenchmark.java
+ *
+ * RuleEngine.evaluate, evaluateAll and evaluateAllActions on the dashboard rules in
+ * every evaluation mode. Each engine is checked against the hardcoded dashboard
+ * first. Run with -t to share one engine between threads, and with -prof gc for the
+ * bytes allocated per call.
+ */
+package ruleengine.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EngineBenchmark {
+
+    @Param({"tree", "compiled", "truth-table", "decision-diagram", "literal-index", "program", "memoized",
+        "adaptive", "decision-cache"})
+    public String mode;
+
+    @Param({"evaluate", "evaluateAll", "evaluateAllActions"})
+    public String operation;
+
+    private Workload workload;
+    private int mask;
+
+    @Setup
+    public void setUp() {
+        workload = Workload.create("engine." + operation, mode, 0);
+        mask = workload.inputs() - 1;
+    }
+
+    @Benchmark
+    public long run(Cursor cursor) {
+        return workload.run(cursor.next(mask));
+    }
+}
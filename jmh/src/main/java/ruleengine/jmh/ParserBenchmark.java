@@ -0,0 +1,47 @@
+/**
+ * ParserBenchmark.java
+ *
+ * ConditionParser.parse per condition over 1024 random conditions, without and with
+ * the parse cache.
+ */
+package ruleengine.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+
+    @Param({"uncached", "cached"})
+    public String cache;
+
+    private Workload workload;
+    private int mask;
+
+    @Setup
+    public void setUp() {
+        workload = Workload.create("parser.parse", cache, 0);
+        mask = workload.inputs() - 1;
+    }
+
+    @Benchmark
+    public long parse(Cursor cursor) {
+        return workload.run(cursor.next(mask));
+    }
+}
@@ -0,0 +1,55 @@
+/**
+ * ScalingBenchmark.java
+ *
+ * evaluate and evaluateAll over synthetic rule sets (conjunctions of 2-4 literals over
+ * 64 conditions), linear scan against literal index, rule program, parallel scan and
+ * decision cache. Each engine is checked against the linear scan first; none of them
+ * compiles its conditions, so 100k rules do not load 100k generated classes.
+ */
+package ruleengine.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class ScalingBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    public int rules;
+
+    @Param({"scan", "literal-index", "program", "parallel", "decision-cache"})
+    public String mode;
+
+    @Param({"evaluate", "evaluateAll"})
+    public String operation;
+
+    private Workload workload;
+    private int mask;
+
+    @Setup
+    public void setUp() {
+        workload = Workload.create("scaling." + operation, mode, rules);
+        mask = workload.inputs() - 1;
+    }
+
+    @Benchmark
+    public long run(Cursor cursor) {
+        return workload.run(cursor.next(mask));
+    }
+}
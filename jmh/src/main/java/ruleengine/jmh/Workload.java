@@ -0,0 +1,47 @@
+/**
+ * Workload.java
+ *
+ * One measured operation of the rule engine, cycling through its inputs. JMH does not
+ * generate benchmarks in the default package, and classes in a named package cannot
+ * refer to the engine's default-package classes, so the benchmarks here call the
+ * engine through this interface. JmhWorkloads, next to the engine in the default
+ * package, implements it.
+ */
+package ruleengine.jmh;
+
+public interface Workload {
+
+    /**
+     * Gets the number of inputs the operation cycles through, a power of two.
+     *
+     * @return The input count
+     */
+    int inputs();
+
+    /**
+     * Runs the operation once.
+     *
+     * @param input The input index, below inputs()
+     * @return A value derived from the result, to be consumed by the benchmark
+     */
+    long run(int input);
+
+    /**
+     * Creates a workload through JmhWorkloads.create. The lookup is reflective, but it
+     * happens once per trial; the measured calls are plain interface calls.
+     *
+     * @param operation The operation, named as in BenchmarkSuite, e.g. "engine.evaluate"
+     * @param mode The evaluation mode or variant
+     * @param rules The number of synthetic rules, where the operation uses them
+     * @return The workload, checked against a reference before it is measured
+     */
+    static Workload create(String operation, String mode, int rules) {
+        try {
+            return (Workload) Class.forName("JmhWorkloads")
+                .getMethod("create", String.class, String.class, int.class)
+                .invoke(null, operation, mode, rules);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not create workload " + operation + " (" + mode + ")", e);
+        }
+    }
+}
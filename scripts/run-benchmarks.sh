@@ -0,0 +1,19 @@
+#!/bin/bash
+# run-benchmarks.sh - Compile the project and run the benchmark suite
+#
+# Usage: scripts/run-benchmarks.sh [--quick] [--groups latency,throughput,scaling,parser]
+#                                  [--threads 1,2,4] [--rules 10,100,1000,10000,100000]
+# Results are written to build/benchmarks/results-<timestamp>.json
+
+set -e
+cd "$(dirname "$0")/.."
+
+echo "Compiling Java files from src/ to build/..."
+mkdir -p build/benchmarks
+javac -encoding UTF-8 -d build src/*.java
+
+OUT="build/benchmarks/results-$(date +%Y%m%d-%H%M%S).json"
+java -Dfile.encoding=UTF-8 -Xms1g -Xmx1g -cp build BenchmarkSuite --out "$OUT" "$@"
+
+# Keep a stable name for the latest run so runs are easy to diff
+cp "$OUT" build/benchmarks/latest.json
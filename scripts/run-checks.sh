@@ -0,0 +1,17 @@
+#!/bin/bash
+# run-checks.sh - Compile the project and run the self-checking test programs
+#
+# Usage: scripts/run-checks.sh
+# Exits with a non-zero status if any check fails
+
+set -e
+cd "$(dirname "$0")/.."
+
+echo "Compiling Java files from src/ to build/..."
+mkdir -p build
+javac -encoding UTF-8 -d build src/*.java
+
+java -Dfile.encoding=UTF-8 -cp build RuleJournalRecoveryTest
+java -Dfile.encoding=UTF-8 -cp build RuleSetFormatTest
+java -Dfile.encoding=UTF-8 -cp build TenantRegistryTest
+java -Dfile.encoding=UTF-8 -cp build ActionDispatcherTest
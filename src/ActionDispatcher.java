@@ -0,0 +1,790 @@
+/**
+ * ActionDispatcher.java
+ *
+ * Carries out matched actions off the evaluating thread. Submitting an action puts it
+ * on a bounded queue and returns; one dispatcher thread takes the queued actions in
+ * batches of up to batchSize and passes each batch to every ActionHandler in turn.
+ * Batches are not held back to fill up: under light load a batch is whatever arrived
+ * since the last one, under heavy load it is full.
+ *
+ * The queue is a lock-free ring of slots, each with a sequence number that tells a
+ * submitting thread whether the slot is free and the dispatcher thread whether it is
+ * filled. Submitting threads claim slots with one compare-and-set on the tail; the
+ * dispatcher thread is the only one to take from the head, so taking needs no atomic
+ * update at all. An idle dispatcher thread parks and is woken by the next submission.
+ * The thread starts when the first handler is added; until then actions wait.
+ *
+ * Identical actions for the same target are coalesced: after an action is dispatched
+ * for a target, the same action for that target submitted within the coalescing
+ * window is counted and skipped. A window of 0 dispatches every action.
+ *
+ * When the queue is full, the backpressure policy decides:
+ *
+ * - BLOCK: the submitting thread waits for a free slot (or for close()).
+ * - DROP: the action is counted and discarded; submit() returns false.
+ * - SPILL: the action is appended to a spill file, and so is every later action until
+ *   the dispatcher thread has read the file back, which it does once the queue is
+ *   empty. Actions thus keep their submission order, apart from threads racing at the
+ *   moment the queue fills. Actions left in the file by a crash are dispatched first
+ *   when a dispatcher opens it again.
+ *
+ * Metrics: the queue and spill depths, counters for each outcome, and a histogram of
+ * the dispatch lag, the time from submit() to the start of the batch's handlers.
+ */
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+public final class ActionDispatcher implements Closeable {
+    public static final int DEFAULT_CAPACITY = 8192;
+    public static final int DEFAULT_BATCH_SIZE = 256;
+    public static final long DEFAULT_COALESCE_WINDOW_MILLIS = 1000;
+    public static final String SPILL_FILE = "actions.spill";
+
+    /**
+     * What submit() does when the queue is full.
+     */
+    public enum Backpressure {
+        BLOCK, DROP, SPILL
+    }
+
+    // How long a blocked submitting thread sleeps between attempts
+    private static final long BLOCK_PARK_NANOS = 50_000;
+    // How long an idle dispatcher thread sleeps when no submission wakes it
+    private static final long IDLE_PARK_NANOS = 100_000_000;
+    // Spilled records are read back in blocks of this size, so none may be larger
+    private static final int SPILL_READ_BYTES = 64 * 1024;
+    // Coalescing windows kept before expired ones are removed
+    private static final int MIN_PRUNE_SIZE = 1024;
+
+    private final int capacity;
+    private final int mask;
+    private final AtomicReferenceArray<ActionEvent> slots;
+    // Slot i is free for tail t when its sequence is t, filled for head h when it is h + 1
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head;
+
+    private final int batchSize;
+    private final long coalesceWindowNanos;
+    private final Backpressure backpressure;
+    private final List<ActionHandler> handlers = new CopyOnWriteArrayList<>();
+    private final Thread thread;
+    private boolean started;
+    private volatile boolean waiting;
+    private volatile boolean closed;
+
+    // Spill file state, guarded by spillLock
+    private final Object spillLock = new Object();
+    private final FileChannel spill;
+    private long spillWritePosition;
+    private long spillReadPosition;
+    // Records before this position were recovered, so their submission times are void
+    private long recoveredUntil;
+    private final long openedNanos = System.nanoTime();
+    private volatile long spillDepth;
+    private boolean spillFailureReported;
+
+    // Used by the dispatcher thread only: the end of each (action, target) window
+    private final Map<Key, Long> windows = new HashMap<>();
+    private int pruneSize = MIN_PRUNE_SIZE;
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder spilled = new LongAdder();
+    private final LongAdder blocked = new LongAdder();
+    private final LatencyHistogram lag = new LatencyHistogram();
+    // Written by the dispatcher thread only
+    private volatile long dispatched;
+    private volatile long coalesced;
+    private volatile long batches;
+    private volatile long handlerFailures;
+    private volatile long processed;
+    private volatile long peakDepth;
+
+    /**
+     * Creates a dispatcher with the default capacity, batch size and coalescing window.
+     *
+     * @param backpressure What to do when the queue is full; not SPILL, which needs a
+     *                     directory
+     */
+    public ActionDispatcher(Backpressure backpressure) {
+        this(DEFAULT_CAPACITY, DEFAULT_BATCH_SIZE, DEFAULT_COALESCE_WINDOW_MILLIS, backpressure, null);
+    }
+
+    /**
+     * Creates a dispatcher.
+     *
+     * @param capacity The queue capacity, rounded up to a power of two
+     * @param batchSize The largest number of actions passed to the handlers at once
+     * @param coalesceWindowMillis How long the same action for the same target is
+     *                             skipped after being dispatched; 0 disables coalescing
+     * @param backpressure What to do when the queue is full
+     * @param spillDirectory The directory of the spill file; required for SPILL and
+     *                       ignored otherwise
+     * @throws IllegalArgumentException if a size is out of range, or SPILL has no
+     *         directory or its spill file cannot be opened
+     */
+    public ActionDispatcher(int capacity, int batchSize, long coalesceWindowMillis,
+                            Backpressure backpressure, Path spillDirectory) {
+        if (capacity < 1 || capacity > 1 << 30 || batchSize < 1 || coalesceWindowMillis < 0
+                || backpressure == null) {
+            throw new IllegalArgumentException("Invalid action dispatcher settings");
+        }
+        this.capacity = Math.max(2, Integer.highestOneBit(capacity - 1) << 1);
+        this.mask = this.capacity - 1;
+        this.slots = new AtomicReferenceArray<>(this.capacity);
+        this.sequences = new AtomicLongArray(this.capacity);
+        for (int i = 0; i < this.capacity; i++) {
+            sequences.set(i, i);
+        }
+        this.batchSize = batchSize;
+        this.coalesceWindowNanos = coalesceWindowMillis * 1_000_000;
+        this.backpressure = backpressure;
+        if (backpressure == Backpressure.SPILL) {
+            if (spillDirectory == null) {
+                throw new IllegalArgumentException("The SPILL policy needs a spill directory");
+            }
+            try {
+                Files.createDirectories(spillDirectory);
+                this.spill = FileChannel.open(spillDirectory.resolve(SPILL_FILE), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+                recoverSpill();
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Cannot open the spill file in " + spillDirectory
+                    + ": " + e.getMessage(), e);
+            }
+        } else {
+            this.spill = null;
+        }
+        this.thread = new Thread(this::run, "action-dispatcher");
+        thread.setDaemon(true);
+    }
+
+    /**
+     * Adds a handler; it receives every batch dispatched from now on. The first
+     * handler starts the dispatcher thread.
+     *
+     * @param handler The handler to add
+     */
+    public void addHandler(ActionHandler handler) {
+        handlers.add(handler);
+        synchronized (this) {
+            if (!started && !closed) {
+                started = true;
+                thread.start();
+            }
+        }
+    }
+
+    /**
+     * Removes a handler.
+     *
+     * @param handler The handler to remove
+     * @return true if the handler was registered
+     */
+    public boolean removeHandler(ActionHandler handler) {
+        return handlers.remove(handler);
+    }
+
+    /**
+     * Submits an action that no rule produced.
+     *
+     * @param action The action name
+     * @param target The target the action applies to
+     * @return true if the action was queued or spilled, false if it was dropped
+     */
+    public boolean submit(String action, String target) {
+        return submit(action, target, null);
+    }
+
+    /**
+     * Submits an action for dispatch.
+     *
+     * @param action The action name
+     * @param target The target the action applies to
+     * @param ruleName The name of the rule that produced the action, or null
+     * @return true if the action was queued or spilled, false if it was dropped or the
+     *         dispatcher is closed
+     */
+    public boolean submit(String action, String target, String ruleName) {
+        ActionEvent event = new ActionEvent(action, target, ruleName, System.nanoTime());
+        if (closed) {
+            return false;
+        }
+        submitted.increment();
+        // While actions wait on disk, later ones queue behind them there
+        if (backpressure == Backpressure.SPILL && spillDepth > 0) {
+            return spill(event);
+        }
+        if (offer(event)) {
+            accepted.increment();
+            wake();
+            return true;
+        }
+        switch (backpressure) {
+            case BLOCK:
+                blocked.increment();
+                while (!closed) {
+                    LockSupport.parkNanos(this, BLOCK_PARK_NANOS);
+                    if (offer(event)) {
+                        accepted.increment();
+                        wake();
+                        return true;
+                    }
+                }
+                dropped.increment();
+                return false;
+            case SPILL:
+                return spill(event);
+            default:
+                dropped.increment();
+                return false;
+        }
+    }
+
+    /**
+     * Submits every action of an evaluation result.
+     *
+     * @param result The evaluation result
+     * @param target The target the actions apply to
+     * @return The number of actions queued or spilled
+     */
+    public int submitAll(EvaluationResult result, String target) {
+        String ruleName = result.getRule() != null ? result.getRule().getName() : null;
+        int count = 0;
+        for (String action : result.getActions()) {
+            if (submit(action, target, ruleName)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Waits until every action accepted before this call has been handled or coalesced.
+     *
+     * @param timeoutMillis The longest time to wait
+     * @return true if the actions were handled in time
+     */
+    public boolean flush(long timeoutMillis) {
+        long target = accepted.sum();
+        long deadline = System.nanoTime() + timeoutMillis * 1_000_000;
+        while (processed < target) {
+            if (System.nanoTime() - deadline >= 0 || !thread.isAlive()) {
+                return processed >= target;
+            }
+            wake();
+            LockSupport.parkNanos(this, BLOCK_PARK_NANOS);
+        }
+        return true;
+    }
+
+    /**
+     * Claims the slot at the tail, unless the queue is full.
+     */
+    private boolean offer(ActionEvent event) {
+        long t = tail.get();
+        while (true) {
+            int index = (int) t & mask;
+            long difference = sequences.get(index) - t;
+            if (difference == 0) {
+                if (tail.compareAndSet(t, t + 1)) {
+                    slots.lazySet(index, event);
+                    sequences.set(index, t + 1);
+                    return true;
+                }
+                t = tail.get();
+            } else if (difference < 0) {
+                // The slot still holds the action from one lap ago
+                return false;
+            } else {
+                // Another thread claimed this slot first
+                t = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Takes the action at the head; called by the dispatcher thread only.
+     */
+    private ActionEvent poll() {
+        long h = head;
+        int index = (int) h & mask;
+        if (sequences.get(index) != h + 1) {
+            return null;
+        }
+        ActionEvent event = slots.get(index);
+        slots.lazySet(index, null);
+        sequences.set(index, h + capacity);
+        head = h + 1;
+        return event;
+    }
+
+    private void wake() {
+        if (waiting) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    private boolean isIdle() {
+        return sequences.get((int) head & mask) != head + 1 && spillDepth == 0;
+    }
+
+    private void run() {
+        List<ActionEvent> drained = new ArrayList<>(batchSize);
+        while (true) {
+            // Read before draining, so nothing submitted before close() is left behind
+            boolean closing = closed;
+            if (drainAndDispatch(drained)) {
+                continue;
+            }
+            if (closing) {
+                return;
+            }
+            waiting = true;
+            if (isIdle() && !closed) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+            waiting = false;
+        }
+    }
+
+    /**
+     * Takes one batch from the queue, or from the spill file once the queue is empty,
+     * and dispatches it.
+     *
+     * @return false if there was nothing to take
+     */
+    private boolean drainAndDispatch(List<ActionEvent> drained) {
+        long depth = tail.get() - head;
+        if (depth > peakDepth) {
+            peakDepth = depth;
+        }
+        ActionEvent event;
+        while (drained.size() < batchSize && (event = poll()) != null) {
+            drained.add(event);
+        }
+        if (drained.size() < batchSize && spillDepth > 0) {
+            readSpill(drained, batchSize - drained.size());
+        }
+        if (drained.isEmpty()) {
+            return false;
+        }
+        dispatch(drained);
+        drained.clear();
+        return true;
+    }
+
+    private void dispatch(List<ActionEvent> drained) {
+        long now = System.nanoTime();
+        List<ActionEvent> batch = coalesceWindowNanos == 0 ? drained : coalesce(drained, now);
+        if (!batch.isEmpty()) {
+            for (ActionEvent event : batch) {
+                lag.record(now - event.getSubmittedNanos());
+            }
+            List<ActionEvent> view = Collections.unmodifiableList(batch);
+            for (ActionHandler handler : handlers) {
+                try {
+                    handler.handle(view);
+                } catch (Exception e) {
+                    handlerFailures++;
+                    System.err.println("Action handler " + handler.getClass().getSimpleName()
+                        + " failed a batch of " + batch.size() + ": " + e);
+                }
+            }
+            dispatched += batch.size();
+            batches++;
+        }
+        processed += drained.size();
+    }
+
+    /**
+     * Removes the actions whose (action, target) window is still open and opens a
+     * window for the others.
+     */
+    private List<ActionEvent> coalesce(List<ActionEvent> drained, long now) {
+        List<ActionEvent> batch = new ArrayList<>(drained.size());
+        for (ActionEvent event : drained) {
+            Key key = new Key(event.getAction(), event.getTarget());
+            Long end = windows.get(key);
+            if (end != null && event.getSubmittedNanos() - end < 0) {
+                coalesced++;
+                continue;
+            }
+            windows.put(key, event.getSubmittedNanos() + coalesceWindowNanos);
+            batch.add(event);
+        }
+        if (windows.size() >= pruneSize) {
+            windows.values().removeIf(end -> end - now <= 0);
+            pruneSize = Math.max(MIN_PRUNE_SIZE, windows.size() * 2);
+        }
+        return batch;
+    }
+
+    /**
+     * Appends an action to the spill file.
+     */
+    private boolean spill(ActionEvent event) {
+        try {
+            ByteBuffer record = encode(event);
+            synchronized (spillLock) {
+                if (!spill.isOpen()) {
+                    dropped.increment();
+                    return false;
+                }
+                long position = spillWritePosition;
+                while (record.hasRemaining()) {
+                    position += spill.write(record, position);
+                }
+                spillWritePosition = position;
+                spillDepth++;
+            }
+        } catch (IOException e) {
+            dropped.increment();
+            synchronized (spillLock) {
+                if (!spillFailureReported) {
+                    spillFailureReported = true;
+                    System.err.println("Action spill failed, overflowing actions are dropped: " + e.getMessage());
+                }
+            }
+            return false;
+        }
+        spilled.increment();
+        accepted.increment();
+        wake();
+        return true;
+    }
+
+    /**
+     * Encodes a record as [int length][UTF action][UTF target][boolean hasRule]
+     * [UTF rule][long submittedNanos].
+     */
+    private static ByteBuffer encode(ActionEvent event) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0);
+        out.writeUTF(event.getAction());
+        out.writeUTF(event.getTarget());
+        out.writeBoolean(event.getRuleName() != null);
+        if (event.getRuleName() != null) {
+            out.writeUTF(event.getRuleName());
+        }
+        out.writeLong(event.getSubmittedNanos());
+        ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+        if (record.capacity() > SPILL_READ_BYTES) {
+            throw new IOException("Action record of " + record.capacity() + " bytes is too large to spill");
+        }
+        record.putInt(0, record.capacity() - 4);
+        return record;
+    }
+
+    private static ActionEvent decode(byte[] record, long recoveredNanos) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        String action = in.readUTF();
+        String target = in.readUTF();
+        String ruleName = in.readBoolean() ? in.readUTF() : null;
+        long submittedNanos = in.readLong();
+        return new ActionEvent(action, target, ruleName, recoveredNanos != 0 ? recoveredNanos : submittedNanos);
+    }
+
+    /**
+     * Reads spilled actions back into the batch; called by the dispatcher thread only.
+     * The file is truncated once everything in it has been read.
+     */
+    private void readSpill(List<ActionEvent> into, int max) {
+        synchronized (spillLock) {
+            try {
+                ByteBuffer block = ByteBuffer.allocate((int) Math.min(SPILL_READ_BYTES,
+                    spillWritePosition - spillReadPosition));
+                while (block.hasRemaining()) {
+                    if (spill.read(block, spillReadPosition + block.position()) < 0) {
+                        break;
+                    }
+                }
+                block.flip();
+                int count = 0;
+                while (count < max && block.remaining() >= 4
+                        && block.remaining() - 4 >= block.getInt(block.position())) {
+                    byte[] record = new byte[block.getInt()];
+                    block.get(record);
+                    into.add(decode(record, spillReadPosition < recoveredUntil ? openedNanos : 0));
+                    spillReadPosition += 4 + record.length;
+                    spillDepth--;
+                    count++;
+                }
+                if (spillReadPosition == spillWritePosition) {
+                    spill.truncate(0);
+                    spillReadPosition = 0;
+                    spillWritePosition = 0;
+                    recoveredUntil = 0;
+                    spillDepth = 0;
+                }
+            } catch (IOException | RuntimeException e) {
+                // Unreadable records cannot be dispatched; give up on what is on disk
+                System.err.println("Could not read spilled actions, " + spillDepth + " are lost: " + e);
+                dropped.add(spillDepth);
+                processed += spillDepth;
+                spillReadPosition = 0;
+                spillWritePosition = 0;
+                recoveredUntil = 0;
+                spillDepth = 0;
+                try {
+                    spill.truncate(0);
+                } catch (IOException ignored) {
+                    // Later records overwrite the file from the start anyway
+                }
+            }
+        }
+    }
+
+    /**
+     * Counts the complete records a previous dispatcher left in the spill file and
+     * cuts off a record that a crash left incomplete.
+     */
+    private void recoverSpill() throws IOException {
+        long size = spill.size();
+        long position = 0;
+        long records = 0;
+        ByteBuffer header = ByteBuffer.allocate(4);
+        while (position + 4 <= size) {
+            header.clear();
+            while (header.hasRemaining() && spill.read(header, position + header.position()) >= 0) {
+                // keep reading
+            }
+            int length = header.getInt(0);
+            if (length <= 0 || length > SPILL_READ_BYTES || position + 4 + length > size) {
+                break;
+            }
+            position += 4 + length;
+            records++;
+        }
+        spill.truncate(position);
+        spillWritePosition = position;
+        recoveredUntil = position;
+        spillDepth = records;
+        accepted.add(records);
+    }
+
+    /**
+     * Stops accepting actions, dispatches everything already accepted and stops the
+     * dispatcher thread. Actions submitted while close() runs may be refused. If no
+     * handler was ever added, nothing is dispatched and spilled actions stay on disk.
+     */
+    @Override
+    public void close() throws IOException {
+        boolean running;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            running = started;
+        }
+        if (running) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            // Submissions that passed the closed check as the thread stopped
+            List<ActionEvent> drained = new ArrayList<>(batchSize);
+            while (!thread.isAlive() && drainAndDispatch(drained)) {
+                // keep dispatching
+            }
+        }
+        if (spill != null) {
+            synchronized (spillLock) {
+                spill.close();
+            }
+        }
+    }
+
+    /**
+     * Gets the number of actions in the queue.
+     *
+     * @return The queue depth
+     */
+    public int getQueueDepth() {
+        return (int) Math.max(0, Math.min(capacity, tail.get() - head));
+    }
+
+    /**
+     * Gets the largest queue depth the dispatcher thread has seen.
+     *
+     * @return The peak queue depth
+     */
+    public long getPeakQueueDepth() {
+        return peakDepth;
+    }
+
+    /**
+     * Gets the queue capacity.
+     *
+     * @return The capacity
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Gets the number of actions waiting in the spill file.
+     *
+     * @return The spill depth
+     */
+    public long getSpillDepth() {
+        return spillDepth;
+    }
+
+    /**
+     * Gets the backpressure policy.
+     *
+     * @return The policy
+     */
+    public Backpressure getBackpressure() {
+        return backpressure;
+    }
+
+    /**
+     * Gets the number of submit() calls while open.
+     *
+     * @return The submitted count
+     */
+    public long getSubmittedCount() {
+        return submitted.sum();
+    }
+
+    /**
+     * Gets the number of actions passed to the handlers.
+     *
+     * @return The dispatched count
+     */
+    public long getDispatchedCount() {
+        return dispatched;
+    }
+
+    /**
+     * Gets the number of actions skipped because the same action for the same target
+     * was dispatched within the coalescing window.
+     *
+     * @return The coalesced count
+     */
+    public long getCoalescedCount() {
+        return coalesced;
+    }
+
+    /**
+     * Gets the number of actions discarded: refused under DROP, pending under BLOCK when
+     * the dispatcher closed, or lost by a failing spill file.
+     *
+     * @return The dropped count
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * Gets the number of actions written to the spill file.
+     *
+     * @return The spilled count
+     */
+    public long getSpilledCount() {
+        return spilled.sum();
+    }
+
+    /**
+     * Gets the number of submissions that had to wait for a free slot under BLOCK.
+     *
+     * @return The blocked count
+     */
+    public long getBlockedCount() {
+        return blocked.sum();
+    }
+
+    /**
+     * Gets the number of batches passed to the handlers.
+     *
+     * @return The batch count
+     */
+    public long getBatchCount() {
+        return batches;
+    }
+
+    /**
+     * Gets the number of handler calls that threw.
+     *
+     * @return The failure count
+     */
+    public long getHandlerFailureCount() {
+        return handlerFailures;
+    }
+
+    /**
+     * Gets the dispatch lag: the time from submit() to the start of the handlers.
+     *
+     * @return The lag histogram
+     */
+    public LatencyHistogram getDispatchLag() {
+        return lag;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ActionDispatcher: %s, depth %d/%d (peak %d, %d spilled on disk), %d submitted, "
+                + "%d dispatched in %d batches, %d coalesced, %d dropped, %d blocked, %d handler failures, "
+                + "lag p50 %d ns, p99 %d ns",
+            backpressure, getQueueDepth(), capacity, peakDepth, spillDepth, getSubmittedCount(),
+            dispatched, batches, coalesced, getDroppedCount(), getBlockedCount(), handlerFailures,
+            lag.getPercentile(50), lag.getPercentile(99));
+    }
+
+    /**
+     * The (action, target) pair identical notifications share.
+     */
+    private static final class Key {
+        private final String action;
+        private final String target;
+        private final int hash;
+
+        Key(String action, String target) {
+            this.action = action;
+            this.target = target;
+            this.hash = action.hashCode() * 31 + target.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return hash == key.hash && action.equals(key.action) && target.equals(key.target);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,379 @@
+/**
+ * ActionDispatcherTest.java
+ *
+ * Checks for ActionDispatcher:
+ *
+ * - with 8 threads submitting into a small queue behind a slow handler, BLOCK and
+ *   SPILL hand every action to the handler exactly once, and BLOCK keeps each
+ *   thread's actions in submission order;
+ * - under DROP, every submission is either handled or counted as dropped, and
+ *   submit() tells which;
+ * - the same action for the same target is coalesced within the window and
+ *   dispatched again after it, while other actions and targets are not affected;
+ * - actions left in the spill file are dispatched in order by the next dispatcher
+ *   opened on it;
+ * - a spill file cut at any byte, or ending in a damaged length, is truncated to
+ *   its complete records, and records spilled afterwards follow them.
+ *
+ * Exits with status 1 on the first failed check.
+ *
+ * Usage: java ActionDispatcherTest
+ */
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+public class ActionDispatcherTest {
+
+    private static final int THREADS = 8;
+    private static final int PER_THREAD = 25_000;
+
+    private final Path work;
+    private int checks;
+
+    private ActionDispatcherTest(Path work) {
+        this.work = work;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path work = Files.createTempDirectory("action-dispatcher-test");
+        ActionDispatcherTest test = new ActionDispatcherTest(work);
+        try {
+            System.out.println("=== Action Dispatcher Test ===");
+            test.nothingLost(ActionDispatcher.Backpressure.BLOCK);
+            test.nothingLost(ActionDispatcher.Backpressure.SPILL);
+            test.dropAccounting();
+            test.concurrentDropAccounting();
+            test.coalescing();
+            test.spillReplay();
+            test.tornSpillTails();
+            test.damagedSpillLength();
+            System.out.println("All " + test.checks + " checks passed");
+        } catch (AssertionError e) {
+            System.out.println("FAILED: " + e.getMessage());
+            System.exit(1);
+        } finally {
+            delete(work);
+        }
+    }
+
+    /**
+     * Records the targets of every handled action. Only the dispatcher thread writes;
+     * the test reads after flush() or close(), which order the writes before the reads.
+     */
+    private static final class Recorder implements ActionHandler {
+        final List<ActionEvent> handled = new ArrayList<>();
+        final long pauseNanos;
+
+        Recorder(long pauseNanos) {
+            this.pauseNanos = pauseNanos;
+        }
+
+        @Override
+        public void handle(List<ActionEvent> batch) {
+            handled.addAll(batch);
+            if (pauseNanos > 0) {
+                LockSupport.parkNanos(pauseNanos);
+            }
+        }
+
+        List<String> targets() {
+            List<String> targets = new ArrayList<>();
+            for (ActionEvent event : handled) {
+                targets.add(event.getTarget());
+            }
+            return targets;
+        }
+    }
+
+    private void nothingLost(ActionDispatcher.Backpressure policy) throws Exception {
+        ActionDispatcher dispatcher = new ActionDispatcher(64, 16, 0, policy, work.resolve("lost-" + policy));
+        Recorder recorder = new Recorder(20_000);
+        dispatcher.addHandler(recorder);
+        AtomicLong refused = new AtomicLong();
+        submitConcurrently(dispatcher, refused);
+        check(dispatcher.flush(60_000), policy + ": every accepted action is handled");
+        dispatcher.close();
+
+        int total = THREADS * PER_THREAD;
+        check(refused.get() == 0, policy + ": no submission is refused");
+        check(dispatcher.getDroppedCount() == 0, policy + ": nothing is dropped");
+        check(recorder.handled.size() == total, policy + ": " + recorder.handled.size() + " of " + total
+            + " actions handled");
+        boolean[] seen = new boolean[total];
+        int[] last = new int[THREADS];
+        Arrays.fill(last, -1);
+        boolean ordered = true;
+        for (ActionEvent event : recorder.handled) {
+            int thread = Integer.parseInt(event.getRuleName());
+            int index = Integer.parseInt(event.getTarget());
+            check(!seen[index], policy + ": action " + index + " is handled once");
+            seen[index] = true;
+            ordered &= index > last[thread];
+            last[thread] = index;
+        }
+        if (policy == ActionDispatcher.Backpressure.BLOCK) {
+            check(ordered, "BLOCK: each thread's actions are handled in submission order");
+            check(dispatcher.getBlockedCount() > 0, "BLOCK: the full queue made submitters wait");
+        } else {
+            check(dispatcher.getSpilledCount() > 0, "SPILL: the full queue overflowed to disk");
+            check(dispatcher.getSpillDepth() == 0, "SPILL: the spill file is read back completely");
+            check(Files.size(work.resolve("lost-" + policy).resolve(ActionDispatcher.SPILL_FILE)) == 0,
+                "SPILL: the spill file is emptied once read back");
+        }
+        System.out.println(policy + ": " + total + " actions from " + THREADS + " threads, each handled once ("
+            + dispatcher.getBlockedCount() + " blocked, " + dispatcher.getSpilledCount() + " spilled)");
+    }
+
+    /**
+     * Submits PER_THREAD actions from each of THREADS threads. Targets number the
+     * actions across all threads; the rule name is the submitting thread.
+     */
+    private static void submitConcurrently(ActionDispatcher dispatcher, AtomicLong refused)
+            throws InterruptedException {
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            int thread = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < PER_THREAD; i++) {
+                    int index = thread * PER_THREAD + i;
+                    if (!dispatcher.submit("notify", Integer.toString(index), Integer.toString(thread))) {
+                        refused.incrementAndGet();
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    private void dropAccounting() throws IOException {
+        ActionDispatcher dispatcher = new ActionDispatcher(16, 4, 0, ActionDispatcher.Backpressure.DROP, null);
+        // Without a handler nothing is taken from the queue, so it fills after 16
+        int queued = 0;
+        for (int i = 0; i < 100; i++) {
+            if (dispatcher.submit("notify", "t" + i)) {
+                check(i < 16, "only the first 16 actions fit the queue");
+                queued++;
+            }
+        }
+        check(queued == 16, "16 actions are queued");
+        check(dispatcher.getDroppedCount() == 84, "84 actions are counted as dropped");
+        check(dispatcher.getSubmittedCount() == 100, "100 submissions are counted");
+        Recorder recorder = new Recorder(0);
+        dispatcher.addHandler(recorder);
+        check(dispatcher.flush(10_000), "the queued actions are handled once a handler is added");
+        dispatcher.close();
+        check(recorder.handled.size() == 16 && dispatcher.getDispatchedCount() == 16,
+            "the 16 queued actions are dispatched");
+        for (int i = 0; i < 16; i++) {
+            check(recorder.handled.get(i).getTarget().equals("t" + i), "queued actions keep their order");
+        }
+        check(!dispatcher.submit("notify", "late"), "a closed dispatcher refuses actions");
+        System.out.println("DROP: 16 of 100 actions queued, 84 counted as dropped");
+    }
+
+    private void concurrentDropAccounting() throws Exception {
+        ActionDispatcher dispatcher = new ActionDispatcher(64, 16, 0, ActionDispatcher.Backpressure.DROP, null);
+        Recorder recorder = new Recorder(20_000);
+        dispatcher.addHandler(recorder);
+        AtomicLong refused = new AtomicLong();
+        submitConcurrently(dispatcher, refused);
+        check(dispatcher.flush(60_000), "DROP: every accepted action is handled");
+        dispatcher.close();
+
+        long total = (long) THREADS * PER_THREAD;
+        check(refused.get() > 0, "DROP: the full queue refuses actions");
+        check(dispatcher.getSubmittedCount() == total, "DROP: every submission is counted");
+        check(dispatcher.getDroppedCount() == refused.get(), "DROP: every refused action is counted as dropped");
+        check(recorder.handled.size() == total - refused.get(), "DROP: every accepted action is handled");
+        check(dispatcher.getDispatchedCount() + dispatcher.getDroppedCount() == total,
+            "DROP: dispatched and dropped add up to the submissions");
+        System.out.println("DROP: " + refused.get() + " of " + total + " actions dropped under load, the rest handled");
+    }
+
+    private void coalescing() throws IOException {
+        ActionDispatcher dispatcher = new ActionDispatcher(1024, 64, 500, ActionDispatcher.Backpressure.DROP, null);
+        Recorder recorder = new Recorder(0);
+        dispatcher.addHandler(recorder);
+        for (int i = 0; i < 10; i++) {
+            dispatcher.submit("alert", "p1");
+        }
+        dispatcher.submit("alert", "p2");
+        dispatcher.submit("escalate", "p1");
+        check(dispatcher.flush(10_000), "coalesced actions count as handled");
+        check(recorder.targets().equals(List.of("p1", "p2", "p1")),
+            "one action per (action, target) is dispatched within the window");
+        check(dispatcher.getCoalescedCount() == 9, "the 9 repeats within the window are coalesced");
+
+        // The window runs from the submission that opened it
+        LockSupport.parkNanos(700_000_000L);
+        dispatcher.submit("alert", "p1");
+        dispatcher.submit("alert", "p1");
+        check(dispatcher.flush(10_000), "actions after the window are handled");
+        dispatcher.close();
+        check(recorder.handled.size() == 4, "the same action is dispatched again after the window");
+        check(dispatcher.getCoalescedCount() == 10, "and its repeat within the new window is coalesced");
+        check(dispatcher.getDispatchedCount() + dispatcher.getCoalescedCount() == dispatcher.getSubmittedCount(),
+            "dispatched and coalesced add up to the submissions");
+
+        ActionDispatcher every = new ActionDispatcher(1024, 64, 0, ActionDispatcher.Backpressure.DROP, null);
+        Recorder all = new Recorder(0);
+        every.addHandler(all);
+        for (int i = 0; i < 10; i++) {
+            every.submit("alert", "p1");
+        }
+        check(every.flush(10_000), "actions without a window are handled");
+        every.close();
+        check(all.handled.size() == 10 && every.getCoalescedCount() == 0, "a window of 0 dispatches every action");
+        System.out.println("Coalescing: 9 of 10 repeats skipped within 500 ms, dispatched again after it");
+    }
+
+    private void spillReplay() throws IOException {
+        Path directory = work.resolve("replay");
+        ActionDispatcher first = new ActionDispatcher(4, 4, 0, ActionDispatcher.Backpressure.SPILL, directory);
+        for (int i = 0; i < 20; i++) {
+            check(first.submit("notify", "t" + i, "rule " + i), "a full queue spills instead of refusing");
+        }
+        check(first.getSpilledCount() == 16 && first.getSpillDepth() == 16, "16 actions wait in the spill file");
+        // No handler was added, so this leaves the file as a crash would
+        first.close();
+
+        ActionDispatcher second = new ActionDispatcher(4, 4, 0, ActionDispatcher.Backpressure.SPILL, directory);
+        check(second.getSpillDepth() == 16, "the next dispatcher finds the 16 spilled actions");
+        second.submit("notify", "t20", "rule 20");
+        Recorder recorder = new Recorder(0);
+        second.addHandler(recorder);
+        check(second.flush(10_000), "the spilled actions are handled");
+        second.close();
+        check(recorder.handled.size() == 17, "the spilled actions and the new one are handled");
+        for (int i = 0; i < 17; i++) {
+            ActionEvent event = recorder.handled.get(i);
+            check(event.getTarget().equals("t" + (i + 4)) && event.getRuleName().equals("rule " + (i + 4))
+                && event.getAction().equals("notify"), "spilled actions are replayed intact and in order");
+        }
+        check(Files.size(directory.resolve(ActionDispatcher.SPILL_FILE)) == 0, "the replayed file is emptied");
+        System.out.println("Spill replay: 16 actions left on disk dispatched by the next dispatcher, in order");
+    }
+
+    private void tornSpillTails() throws IOException {
+        Path source = work.resolve("torn-source");
+        ActionDispatcher writer = new ActionDispatcher(2, 4, 0, ActionDispatcher.Backpressure.SPILL, source);
+        for (int i = 0; i < 12; i++) {
+            writer.submit("notify", "t" + i, i % 2 == 0 ? "rule " + i : null);
+        }
+        writer.close();
+        byte[] file = Files.readAllBytes(source.resolve(ActionDispatcher.SPILL_FILE));
+        List<Integer> ends = recordEnds(file);
+        check(ends.size() == 10, "10 actions are spilled behind a queue of 2");
+
+        for (int cut = 0; cut <= file.length; cut++) {
+            Path directory = work.resolve("torn-" + cut);
+            Files.createDirectories(directory);
+            Files.write(directory.resolve(ActionDispatcher.SPILL_FILE), Arrays.copyOf(file, cut));
+            int complete = 0;
+            while (complete < ends.size() && ends.get(complete) <= cut) {
+                complete++;
+            }
+            int kept = complete == 0 ? 0 : ends.get(complete - 1);
+
+            ActionDispatcher reader = new ActionDispatcher(2, 4, 0, ActionDispatcher.Backpressure.SPILL, directory);
+            check(reader.getSpillDepth() == complete, "cut at " + cut + ": " + complete + " complete records found");
+            check(Files.size(directory.resolve(ActionDispatcher.SPILL_FILE)) == kept,
+                "cut at " + cut + ": the incomplete record is truncated");
+            // Behind the recovered records these are spilled too, right after them
+            reader.submit("notify", "after", null);
+            reader.close();
+
+            ActionDispatcher replay = new ActionDispatcher(2, 4, 0, ActionDispatcher.Backpressure.SPILL, directory);
+            Recorder recorder = new Recorder(0);
+            replay.addHandler(recorder);
+            check(replay.flush(10_000), "cut at " + cut + ": the recovered records are handled");
+            replay.close();
+            List<String> expected = new ArrayList<>();
+            for (int i = 0; i < complete; i++) {
+                expected.add("t" + (i + 2));
+            }
+            if (complete > 0) {
+                expected.add("after");
+            }
+            check(recorder.targets().equals(expected), "cut at " + cut + ": " + recorder.targets()
+                + " handled, expected " + expected);
+            delete(directory);
+        }
+        System.out.println("Torn spill tails: cut at every byte of " + file.length + ", complete records kept");
+    }
+
+    private void damagedSpillLength() throws IOException {
+        Path source = work.resolve("damaged-source");
+        ActionDispatcher writer = new ActionDispatcher(2, 4, 0, ActionDispatcher.Backpressure.SPILL, source);
+        for (int i = 0; i < 5; i++) {
+            writer.submit("notify", "t" + i);
+        }
+        writer.close();
+        byte[] file = Files.readAllBytes(source.resolve(ActionDispatcher.SPILL_FILE));
+
+        for (int length : new int[] {0, -1, Integer.MAX_VALUE, 1 << 20}) {
+            Path directory = work.resolve("damaged-" + length);
+            Files.createDirectories(directory);
+            byte[] damaged = Arrays.copyOf(file, file.length + 64);
+            ByteBuffer.wrap(damaged).putInt(file.length, length);
+            Files.write(directory.resolve(ActionDispatcher.SPILL_FILE), damaged);
+            ActionDispatcher reader = new ActionDispatcher(2, 4, 0, ActionDispatcher.Backpressure.SPILL, directory);
+            check(reader.getSpillDepth() == 3, "length " + length + ": the records before it are kept");
+            Recorder recorder = new Recorder(0);
+            reader.addHandler(recorder);
+            check(reader.flush(10_000), "length " + length + ": the kept records are handled");
+            reader.close();
+            check(recorder.targets().equals(List.of("t2", "t3", "t4")),
+                "length " + length + ": the damaged tail is not dispatched");
+        }
+        System.out.println("Damaged spill length: records before a bad length header kept, the rest cut");
+    }
+
+    /**
+     * Gets the offset after each complete record of a spill file.
+     */
+    private static List<Integer> recordEnds(byte[] file) throws IOException {
+        List<Integer> ends = new ArrayList<>();
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(file));
+        int position = 0;
+        while (position + 4 <= file.length) {
+            int length = in.readInt();
+            in.skipBytes(length);
+            position += 4 + length;
+            ends.add(position);
+        }
+        return ends;
+    }
+
+    private void check(boolean condition, String description) {
+        if (!condition) {
+            throw new AssertionError(description);
+        }
+        checks++;
+    }
+
+    private static void delete(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(path)) {
+            for (Path p : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(p);
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/**
+ * ActionEvent.java
+ *
+ * One action to carry out, as queued by an ActionDispatcher: the action name, the
+ * target it applies to (for example a project id), the rule that produced it and
+ * when it was submitted.
+ */
+public final class ActionEvent {
+    private final String action;
+    private final String target;
+    private final String ruleName;
+    private final long submittedNanos;
+
+    /**
+     * Creates an action event.
+     *
+     * @param action The action name
+     * @param target The target the action applies to
+     * @param ruleName The name of the rule that produced the action, or null
+     * @param submittedNanos The System.nanoTime() at which the action was submitted
+     */
+    public ActionEvent(String action, String target, String ruleName, long submittedNanos) {
+        if (action == null || target == null) {
+            throw new IllegalArgumentException("An action event needs an action and a target");
+        }
+        this.action = action;
+        this.target = target;
+        this.ruleName = ruleName;
+        this.submittedNanos = submittedNanos;
+    }
+
+    /**
+     * Gets the action name.
+     *
+     * @return The action name
+     */
+    public String getAction() {
+        return action;
+    }
+
+    /**
+     * Gets the target the action applies to.
+     *
+     * @return The target
+     */
+    public String getTarget() {
+        return target;
+    }
+
+    /**
+     * Gets the name of the rule that produced the action.
+     *
+     * @return The rule name, or null if the action was submitted on its own
+     */
+    public String getRuleName() {
+        return ruleName;
+    }
+
+    /**
+     * Gets the System.nanoTime() at which the action was submitted.
+     *
+     * @return The submission time
+     */
+    public long getSubmittedNanos() {
+        return submittedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return action + " -> " + target + (ruleName != null ? " (" + ruleName + ")" : "");
+    }
+}
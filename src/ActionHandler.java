@@ -0,0 +1,21 @@
+/**
+ * ActionHandler.java
+ *
+ * Carries out the actions queued on an ActionDispatcher. The dispatcher calls its
+ * handlers one after another on its own thread, each with the same batch, so a
+ * handler can make one round trip for many actions (one mail, one bulk request).
+ *
+ * A handler that throws has failed that batch only: the dispatcher counts the
+ * failure, passes the batch on to the remaining handlers and does not retry it.
+ */
+import java.util.List;
+
+public interface ActionHandler {
+    /**
+     * Called with each batch of actions, in submission order.
+     *
+     * @param batch The actions of this batch (unmodifiable, valid only during the call)
+     * @throws Exception if the batch could not be handled
+     */
+    void handle(List<ActionEvent> batch) throws Exception;
+}
@@ -0,0 +1,218 @@
+/**
+ * ActionRegistry.java
+ *
+ * Interns action names to small integer ids, so a rule's actions can be held as an
+ * ActionSet bitset and the actions of several rules combined with a bitwise OR.
+ * Names are only looked up again when a result is turned back into strings.
+ * The registry is shared by every engine, so rules that name the same action, in any
+ * engine, also share one copy of its name.
+ *
+ * An id stays in use while its Action handle is reachable. Action sets hold the
+ * handles of their actions, so an id is freed once no rule or result names the action,
+ * and is reused for the next new name. Names arrive from request bodies and imported
+ * files, so a name may be at most MAX_NAME_LENGTH characters and at most MAX_ACTIONS
+ * names are in use at once.
+ */
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+public final class ActionRegistry {
+
+    public static final int MAX_ACTIONS = 1 << 20;
+    public static final int MAX_NAME_LENGTH = 256;
+
+    private static final ConcurrentHashMap<String, ActionReference> ids = new ConcurrentHashMap<>();
+    private static final ReferenceQueue<Action> collected = new ReferenceQueue<>();
+    // Grown by doubling; an id is published in ids only after its reference is stored here
+    private static volatile ActionReference[] references = new ActionReference[16];
+    private static volatile int count;
+    // Ids below count whose handle was collected, reused before count grows
+    private static int[] free = new int[16];
+    private static int freeCount;
+    private static int live;
+
+    private ActionRegistry() {
+    }
+
+    /**
+     * An action name and the id it holds while this handle is reachable.
+     */
+    public static final class Action {
+        private final String name;
+        private final int id;
+
+        private Action(String name, int id) {
+            this.name = name;
+            this.id = id;
+        }
+
+        /**
+         * Gets the registered copy of the action name.
+         *
+         * @return The action name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Gets the id of the action.
+         *
+         * @return The action id
+         */
+        public int getId() {
+            return id;
+        }
+
+        @Override
+        public String toString() {
+            return name + "#" + id;
+        }
+    }
+
+    private static final class ActionReference extends WeakReference<Action> {
+        private final String name;
+        private final int id;
+
+        ActionReference(Action action) {
+            super(action, collected);
+            this.name = action.name;
+            this.id = action.id;
+        }
+    }
+
+    /**
+     * Gets the handle for an action name, assigning an id if the name is not in use.
+     * The id stays assigned to the name for as long as the caller holds the handle.
+     *
+     * @param actionName The action name
+     * @return The handle holding the action's id
+     * @throws IllegalArgumentException if the name is new and too long, or
+     *         MAX_ACTIONS names are already in use
+     */
+    public static Action register(String actionName) {
+        ActionReference reference = ids.get(actionName);
+        Action action = reference != null ? reference.get() : null;
+        if (action != null) {
+            return action;
+        }
+        synchronized (ActionRegistry.class) {
+            reclaim();
+            reference = ids.get(actionName);
+            action = reference != null ? reference.get() : null;
+            if (action != null) {
+                return action;
+            }
+            if (actionName.length() > MAX_NAME_LENGTH) {
+                throw new IllegalArgumentException("Action name longer than " + MAX_NAME_LENGTH + " characters");
+            }
+            if (live == MAX_ACTIONS) {
+                throw new IllegalArgumentException("No more than " + MAX_ACTIONS + " distinct action names in use");
+            }
+            int id;
+            ActionReference[] current = references;
+            if (freeCount > 0) {
+                id = free[--freeCount];
+            } else {
+                id = count;
+                if (id == current.length) {
+                    current = Arrays.copyOf(current, id * 2);
+                }
+            }
+            live++;
+            action = new Action(actionName, id);
+            reference = new ActionReference(action);
+            current[id] = reference;
+            references = current;
+            if (id == count) {
+                count = id + 1;
+            }
+            // A stale entry for the same name is replaced here and skipped when reclaimed
+            ids.put(actionName, reference);
+            return action;
+        }
+    }
+
+    /**
+     * Frees the ids of collected handles. Called with the class lock held.
+     */
+    private static void reclaim() {
+        Reference<? extends Action> reference;
+        while ((reference = collected.poll()) != null) {
+            ActionReference freed = (ActionReference) reference;
+            ids.remove(freed.name, freed);
+            references[freed.id] = null;
+            if (freeCount == free.length) {
+                free = Arrays.copyOf(free, freeCount * 2);
+            }
+            free[freeCount++] = freed.id;
+            live--;
+        }
+    }
+
+    /**
+     * Gets the registered copy of an action name, registering it if it is new.
+     *
+     * @param actionName The action name
+     * @return A string equal to actionName that is shared by every rule naming it
+     */
+    public static String canonical(String actionName) {
+        return register(actionName).getName();
+    }
+
+    /**
+     * Looks up the id for an action name without registering it.
+     *
+     * @param actionName The action name
+     * @return The id, or -1 if the name is not in use
+     */
+    public static int lookup(String actionName) {
+        ActionReference reference = ids.get(actionName);
+        return reference != null && reference.get() != null ? reference.id : -1;
+    }
+
+    /**
+     * Gets the handle registered for an id.
+     *
+     * @param id The action id
+     * @return The handle, or null if the id is free
+     */
+    public static Action actionOf(int id) {
+        ActionReference reference = references[id];
+        return reference != null ? reference.get() : null;
+    }
+
+    /**
+     * Gets the action name registered for an id.
+     *
+     * @param id The action id
+     * @return The action name, or null if the id is free
+     */
+    public static String nameOf(int id) {
+        Action action = actionOf(id);
+        return action != null ? action.name : null;
+    }
+
+    /**
+     * Gets the number of ids handed out so far, free or in use. Every id is below
+     * this bound.
+     *
+     * @return The id range in use
+     */
+    public static int size() {
+        return count;
+    }
+
+    /**
+     * Gets the number of action names currently holding an id.
+     *
+     * @return The number of live names
+     */
+    public static synchronized int liveCount() {
+        reclaim();
+        return live;
+    }
+}
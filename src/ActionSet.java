@@ -0,0 +1,347 @@
+/**
+ * ActionSet.java
+ * 
+ * An immutable set of actions over ActionRegistry ids. A set whose ids lie close
+ * together is stored as a bitset over the span of words between its lowest and highest
+ * id; a set whose ids are far apart keeps only its sorted ids, so a rule that names
+ * an early and a late action does not carry a bitset of every action in between.
+ * Combining the actions of several rules is a union of their sets, so an action
+ * shared by several matching rules appears once. Sets iterate and materialize in id
+ * order. A set holds the registry handles of its actions, so its ids stay registered
+ * for as long as the set is reachable.
+ */
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+public final class ActionSet {
+    public static final ActionSet EMPTY = new ActionSet(new ActionRegistry.Action[0], 0, null);
+    
+    // A set stays a bitset while its span is at most this many words per action
+    private static final int DENSE_WORDS_PER_ACTION = 2;
+    
+    // Sorted by id, one handle per action
+    private final ActionRegistry.Action[] actions;
+    // words[i] holds ids 64 * (offset + i) and up, with no leading or trailing zero
+    // words; null when the set is sparse
+    private final int offset;
+    private final long[] words;
+    private volatile List<String> names;
+    
+    private ActionSet(ActionRegistry.Action[] actions, int offset, long[] words) {
+        this.actions = actions;
+        this.offset = offset;
+        this.words = words;
+    }
+    
+    /**
+     * Creates the set of the given actions, registering any new names.
+     * 
+     * @param actionNames The action names
+     * @return The action set
+     */
+    public static ActionSet of(String... actionNames) {
+        if (actionNames.length == 0) {
+            return EMPTY;
+        }
+        ActionRegistry.Action[] registered = new ActionRegistry.Action[actionNames.length];
+        for (int i = 0; i < registered.length; i++) {
+            registered[i] = ActionRegistry.register(actionNames[i]);
+        }
+        Arrays.sort(registered, Comparator.comparingInt(ActionRegistry.Action::getId));
+        int distinct = 0;
+        for (ActionRegistry.Action action : registered) {
+            if (distinct == 0 || registered[distinct - 1] != action) {
+                registered[distinct++] = action;
+            }
+        }
+        return fromSorted(distinct == registered.length ? registered : Arrays.copyOf(registered, distinct));
+    }
+    
+    /**
+     * Builds a set from distinct handles sorted by id, choosing the bitset form when
+     * the ids are close enough together.
+     */
+    private static ActionSet fromSorted(ActionRegistry.Action[] sorted) {
+        if (sorted.length == 0) {
+            return EMPTY;
+        }
+        int low = sorted[0].getId() >>> 6;
+        int span = (sorted[sorted.length - 1].getId() >>> 6) - low + 1;
+        if (span > DENSE_WORDS_PER_ACTION * sorted.length) {
+            return new ActionSet(sorted, 0, null);
+        }
+        long[] words = new long[span];
+        for (ActionRegistry.Action action : sorted) {
+            int id = action.getId();
+            words[(id >>> 6) - low] |= 1L << id;
+        }
+        return new ActionSet(sorted, low, words);
+    }
+    
+    /**
+     * Combines this set with another.
+     * 
+     * @param other The other set
+     * @return The set of actions in either set
+     */
+    public ActionSet union(ActionSet other) {
+        if (other.actions.length == 0 || other == this) {
+            return this;
+        }
+        if (actions.length == 0) {
+            return other;
+        }
+        ActionRegistry.Action[] merged = new ActionRegistry.Action[actions.length + other.actions.length];
+        int i = 0;
+        int j = 0;
+        int n = 0;
+        while (i < actions.length && j < other.actions.length) {
+            int left = actions[i].getId();
+            int right = other.actions[j].getId();
+            if (left < right) {
+                merged[n++] = actions[i++];
+            } else if (left > right) {
+                merged[n++] = other.actions[j++];
+            } else {
+                merged[n++] = actions[i++];
+                j++;
+            }
+        }
+        while (i < actions.length) {
+            merged[n++] = actions[i++];
+        }
+        while (j < other.actions.length) {
+            merged[n++] = other.actions[j++];
+        }
+        if (n == actions.length) {
+            return this;
+        }
+        if (n == other.actions.length) {
+            return other;
+        }
+        return fromSorted(n == merged.length ? merged : Arrays.copyOf(merged, n));
+    }
+    
+    /**
+     * Checks whether the set holds an action.
+     * 
+     * @param actionName The action name
+     * @return true if the action is in the set
+     */
+    public boolean contains(String actionName) {
+        int id = ActionRegistry.lookup(actionName);
+        return id >= 0 && containsId(id);
+    }
+    
+    /**
+     * Checks whether the set holds an action id.
+     * 
+     * @param id The ActionRegistry id
+     * @return true if the action is in the set
+     */
+    public boolean containsId(int id) {
+        if (words != null) {
+            int word = (id >>> 6) - offset;
+            return word >= 0 && word < words.length && (words[word] >>> id & 1L) != 0;
+        }
+        int low = 0;
+        int high = actions.length - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int middleId = actions[middle].getId();
+            if (middleId < id) {
+                low = middle + 1;
+            } else if (middleId > id) {
+                high = middle - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Gets the number of actions in the set.
+     * 
+     * @return The action count
+     */
+    public int size() {
+        return actions.length;
+    }
+    
+    /**
+     * Checks whether the set is empty.
+     * 
+     * @return true if the set holds no action
+     */
+    public boolean isEmpty() {
+        return actions.length == 0;
+    }
+    
+    /**
+     * Gets the ids of the actions in the set.
+     * 
+     * @return The ids in ascending order
+     */
+    public int[] toIds() {
+        int[] ids = new int[actions.length];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = actions[i].getId();
+        }
+        return ids;
+    }
+    
+    /**
+     * Gets the action names, materialized once per set.
+     * 
+     * @return Unmodifiable list of the action names in id order
+     */
+    public List<String> toList() {
+        List<String> list = names;
+        if (list == null) {
+            List<String> built = new ArrayList<>(actions.length);
+            for (ActionRegistry.Action action : actions) {
+                built.add(action.getName());
+            }
+            list = Collections.unmodifiableList(built);
+            names = list;
+        }
+        return list;
+    }
+    
+    @Override
+    public boolean equals(Object other) {
+        // Handles are unique per live id, so equal sets hold the same handles
+        return other instanceof ActionSet && Arrays.equals(actions, ((ActionSet) other).actions);
+    }
+    
+    @Override
+    public int hashCode() {
+        int hash = 1;
+        for (ActionRegistry.Action action : actions) {
+            hash = 31 * hash + action.getId();
+        }
+        return hash;
+    }
+    
+    @Override
+    public String toString() {
+        return toList().toString();
+    }
+    
+    /**
+     * A reusable, mutable union of action sets. As an ActionSink it collects the
+     * actions of every matching rule of an all-matches evaluation without allocating
+     * once its storage has grown to the largest id and match count seen.
+     * Not thread-safe; use one per thread.
+     */
+    public static final class Accumulator implements ActionSink {
+        private long[] words = new long[1];
+        // Words outside [low, length) are zero
+        private int low;
+        private int length;
+        // The sets added since the last clear(), which keep their ids registered
+        private ActionSet[] added = new ActionSet[16];
+        private int addedCount;
+        
+        /**
+         * Adds every action of a set.
+         * 
+         * @param actions The actions to add
+         */
+        public void add(ActionSet actions) {
+            ActionRegistry.Action[] members = actions.actions;
+            if (members.length == 0) {
+                return;
+            }
+            if (addedCount == added.length) {
+                added = Arrays.copyOf(added, addedCount * 2);
+            }
+            added[addedCount++] = actions;
+            int first = members[0].getId() >>> 6;
+            int end = (members[members.length - 1].getId() >>> 6) + 1;
+            if (end > words.length) {
+                words = Arrays.copyOf(words, Math.max(end, words.length * 2));
+            }
+            long[] other = actions.words;
+            if (other != null) {
+                for (int i = 0; i < other.length; i++) {
+                    words[actions.offset + i] |= other[i];
+                }
+            } else {
+                for (ActionRegistry.Action action : members) {
+                    int id = action.getId();
+                    words[id >>> 6] |= 1L << id;
+                }
+            }
+            low = length == 0 ? first : Math.min(low, first);
+            length = Math.max(length, end);
+        }
+        
+        @Override
+        public void accept(int ruleIndex, Rule rule) {
+            add(rule.getActionSet());
+        }
+        
+        /**
+         * Checks whether an action id has been added.
+         * 
+         * @param id The ActionRegistry id
+         * @return true if the action was added since the last clear()
+         */
+        public boolean containsId(int id) {
+            int word = id >>> 6;
+            return word >= low && word < length && (words[word] >>> id & 1L) != 0;
+        }
+        
+        /**
+         * Checks whether nothing has been added since the last clear().
+         * 
+         * @return true if the accumulator is empty
+         */
+        public boolean isEmpty() {
+            return addedCount == 0;
+        }
+        
+        /**
+         * Removes every action, keeping the storage for reuse.
+         */
+        public void clear() {
+            Arrays.fill(words, low, length, 0);
+            Arrays.fill(added, 0, addedCount, null);
+            low = 0;
+            length = 0;
+            addedCount = 0;
+        }
+        
+        /**
+         * Gets the accumulated actions as an immutable set.
+         * 
+         * @return The actions added since the last clear()
+         */
+        public ActionSet toActionSet() {
+            if (addedCount == 1) {
+                return added[0];
+            }
+            int size = 0;
+            for (int i = low; i < length; i++) {
+                size += Long.bitCount(words[i]);
+            }
+            if (size == 0) {
+                return EMPTY;
+            }
+            // The added sets hold every id, so each resolves to its live handle
+            ActionRegistry.Action[] sorted = new ActionRegistry.Action[size];
+            int next = 0;
+            for (int word = low; word < length; word++) {
+                for (long bits = words[word]; bits != 0; bits &= bits - 1) {
+                    sorted[next++] = ActionRegistry.actionOf((word << 6) + Long.numberOfTrailingZeros(bits));
+                }
+            }
+            return fromSorted(sorted);
+        }
+    }
+}
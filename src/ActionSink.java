@@ -0,0 +1,19 @@
+/**
+ * ActionSink.java
+ * 
+ * Receives the matching rules of an all-matches evaluation, in rule order, so the
+ * caller can accumulate actions into its own reusable structures instead of the
+ * engine building a list for every evaluation.
+ * 
+ * A sink runs inside the evaluation and must not start another evaluation on the
+ * same thread.
+ */
+public interface ActionSink {
+    /**
+     * Called once for each matching rule.
+     * 
+     * @param ruleIndex The index of the rule in the evaluated rule set
+     * @param rule The matching rule; its getActions() is a shared, unmodifiable view
+     */
+    void accept(int ruleIndex, Rule rule);
+}
@@ -2,11 +2,15 @@
  * AndExpression.java
  * 
  * NonTerminalExpression - represents the logical AND operator.
- * Evaluates to true only if both sub-expressions are true.
+ * Evaluates to true only if all sub-expressions are true.
+ * The operator is n-ary, so a chain like a AND b AND c is one node rather than a
+ * nested binary tree.
  */
+import java.util.Arrays;
+
 public class AndExpression implements Expression {
-    private Expression left;
-    private Expression right;
+    private Expression[] operands;
+    private int hash;
     
     /**
      * Creates an AND expression with two sub-expressions.
@@ -15,24 +19,104 @@ public class AndExpression implements Expression {
      * @param right The right operand expression
      */
     public AndExpression(Expression left, Expression right) {
-        this.left = left;
-        this.right = right;
+        this.operands = new Expression[] {left, right};
+    }
+    
+    /**
+     * Creates an AND expression over any number of sub-expressions.
+     * 
+     * @param operands The operand expressions, evaluated in this order
+     */
+    public AndExpression(Expression... operands) {
+        if (operands.length == 0) {
+            throw new IllegalArgumentException("AND needs at least one operand");
+        }
+        this.operands = operands.clone();
     }
     
     /**
-     * Evaluates both sub-expressions and returns true only if both are true.
+     * Evaluates the sub-expressions in order and returns true only if all are true.
+     * Stops at the first false operand.
      * 
      * @param context The context for evaluation
-     * @return true if both left AND right evaluate to true
+     * @return true if every operand evaluates to true
      */
     @Override
     public boolean interpret(Context context) {
-        return left.interpret(context) && right.interpret(context);
+        for (Expression operand : operands) {
+            if (!operand.interpret(context)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Gets the number of operands.
+     * 
+     * @return The operand count
+     */
+    public int getOperandCount() {
+        return operands.length;
+    }
+    
+    /**
+     * Gets an operand by position.
+     * 
+     * @param index The operand index
+     * @return The operand expression
+     */
+    public Expression getOperand(int index) {
+        return operands[index];
+    }
+    
+    /**
+     * Gets the operands in evaluation order.
+     * 
+     * @return A copy of the operand array
+     */
+    public Expression[] getOperands() {
+        return operands.clone();
+    }
+    
+    /**
+     * Compares structurally: two AND nodes are equal when their operands are equal
+     * and in the same order.
+     * 
+     * @param other The object to compare with
+     * @return true if other is a structurally equal AND expression
+     */
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof AndExpression)) {
+            return false;
+        }
+        AndExpression that = (AndExpression) other;
+        return hashCode() == that.hashCode() && Arrays.equals(operands, that.operands);
+    }
+    
+    @Override
+    public int hashCode() {
+        int h = hash;
+        if (h == 0) {
+            h = 31 * Arrays.hashCode(operands) + 1;
+            hash = h;
+        }
+        return h;
     }
     
     @Override
     public String toString() {
-        return "(" + left + " AND " + right + ")";
+        StringBuilder text = new StringBuilder("(");
+        for (int i = 0; i < operands.length; i++) {
+            if (i > 0) {
+                text.append(" AND ");
+            }
+            text.append(operands[i]);
+        }
+        return text.append(")").toString();
     }
 }
-
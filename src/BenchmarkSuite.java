@@ -0,0 +1,773 @@
+/**
+ * BenchmarkSuite.java
+ *
+ * Reproducible benchmarks for the decision logic, written as plain Java so they run
+ * with the same javac/java setup as the rest of the project (see scripts/run-benchmarks.sh).
+ *
+ * Groups:
+ *   latency     - single-evaluation time for the hardcoded dashboard, the interpreter
+ *                 dashboard and each RuleEngine evaluation mode, with bytes allocated per op
+ *   throughput  - operations per second with several threads sharing one engine
+ *   scaling     - evaluation time for 10 to 100k synthetic rules, linear scan vs literal index
+ *   parser      - ConditionParser throughput with and without its parse cache
+ *   allocation  - bytes allocated per call of the allocation-free evaluation API in
+ *                 each mode; the run fails if a mode that should allocate nothing does
+ *   restore     - time to reopen a rule journal and install its rules as the server
+ *                 does at startup; the run fails if the install compiles them in line
+ *
+ * Every scenario is checked against the hardcoded dashboard (or the linear scan)
+ * before it is timed. Results are printed as a table and written as JSON, one result
+ * object per line, so two runs can be compared with diff or any JSON tool.
+ *
+ * This is the quick smoke run; the JMH module under jmh/ measures the same scenarios
+ * with forked JVMs and builds its engines with the scenario helpers here.
+ *
+ * Usage: java BenchmarkSuite [--quick] [--out file.json] [--groups latency,throughput,...]
+ *                            [--threads 1,2,4] [--rules 10,100,1000,10000,100000]
+ */
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+public class BenchmarkSuite {
+
+    private static final String[] CONDITIONS = {"projectActive", "taskOverdue", "kpiBreach", "dependencyBlocked"};
+
+    private final long warmupMillis;
+    private final long measureMillis;
+    private final int iterations;
+    private final int[] threadCounts;
+    private final int[] ruleCounts;
+    private final List<Result> results = new ArrayList<>();
+    // Receives every accumulated result so the JIT cannot drop the measured work
+    private volatile long blackhole;
+
+    /**
+     * A measured operation. The index lets the operation cycle through its inputs,
+     * and the returned value is accumulated so the JIT cannot drop the work.
+     */
+    interface Operation {
+        long run(int index);
+    }
+
+    /**
+     * One benchmark result.
+     */
+    static final class Result {
+        final String group;
+        final String name;
+        final Map<String, Object> params;
+        final double score;
+        final double error;
+        final String unit;
+        final double p50;
+        final double p99;
+        final double bytesPerOp;
+
+        Result(String group, String name, Map<String, Object> params, double score, double error,
+               String unit, double p50, double p99, double bytesPerOp) {
+            this.group = group;
+            this.name = name;
+            this.params = params;
+            this.score = score;
+            this.error = error;
+            this.unit = unit;
+            this.p50 = p50;
+            this.p99 = p99;
+            this.bytesPerOp = bytesPerOp;
+        }
+    }
+
+    BenchmarkSuite(long warmupMillis, long measureMillis, int iterations, int[] threadCounts, int[] ruleCounts) {
+        this.warmupMillis = warmupMillis;
+        this.measureMillis = measureMillis;
+        this.iterations = iterations;
+        this.threadCounts = threadCounts;
+        this.ruleCounts = ruleCounts;
+    }
+
+    public static void main(String[] args) throws IOException {
+        boolean quick = false;
+        String out = "benchmark-results.json";
+        List<String> groups = Arrays.asList("latency", "throughput", "scaling", "parser", "allocation", "restore");
+        int cpus = Runtime.getRuntime().availableProcessors();
+        int[] threads = cpus > 1 ? new int[] {1, cpus, cpus * 2} : new int[] {1, 2};
+        int[] rules = {10, 100, 1_000, 10_000, 100_000};
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--quick": quick = true; break;
+                case "--out": out = args[++i]; break;
+                case "--groups": groups = Arrays.asList(args[++i].split(",")); break;
+                case "--threads": threads = parseInts(args[++i]); break;
+                case "--rules": rules = parseInts(args[++i]); break;
+                default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        BenchmarkSuite suite = quick
+            ? new BenchmarkSuite(200, 200, 3, threads, rules)
+            : new BenchmarkSuite(1000, 1000, 5, threads, rules);
+
+        System.out.println("=== Rule Engine Benchmark Suite ===");
+        System.out.printf("%d CPUs, Java %s, %s mode%n%n", cpus, System.getProperty("java.version"),
+            quick ? "quick" : "full");
+        System.out.printf("%-11s %-34s %-22s %14s %10s %10s %10s %10s%n",
+            "group", "benchmark", "params", "score", "error", "p50", "p99", "B/op");
+
+        if (groups.contains("latency")) {
+            suite.latency();
+        }
+        if (groups.contains("throughput")) {
+            suite.throughput();
+        }
+        if (groups.contains("scaling")) {
+            suite.scaling();
+        }
+        if (groups.contains("parser")) {
+            suite.parser();
+        }
+        if (groups.contains("allocation")) {
+            suite.allocation();
+        }
+        if (groups.contains("restore")) {
+            suite.restore();
+        }
+
+        suite.writeJson(Paths.get(out));
+        System.out.println();
+        System.out.println("Results written to " + out);
+    }
+
+    private static int[] parseInts(String list) {
+        return Arrays.stream(list.split(",")).mapToInt(s -> Integer.parseInt(s.trim())).toArray();
+    }
+
+    // ------------------------------------------------------------------ scenarios
+
+    /**
+     * The 16 combinations of the four dashboard conditions.
+     */
+    static boolean[][] dashboardInputs() {
+        boolean[][] inputs = new boolean[16][];
+        for (int i = 0; i < 16; i++) {
+            inputs[i] = new boolean[] {(i & 1) != 0, (i & 2) != 0, (i & 4) != 0, (i & 8) != 0};
+        }
+        return inputs;
+    }
+
+    /**
+     * Creates an engine with the dashboard rules in one evaluation mode.
+     */
+    static RuleEngine dashboardEngine(String mode) {
+        RuleEngine engine = new RuleEngine();
+        engine.setCompilationEnabled(!mode.equals("tree"));
+        engine.setOptimizationEnabled(!mode.equals("tree"));
+        engine.setTruthTableEnabled(mode.equals("truth-table"));
+        engine.setDecisionDiagramEnabled(mode.equals("decision-diagram"));
+        engine.setLiteralIndexEnabled(mode.equals("literal-index"));
+        engine.setProgramEnabled(mode.equals("program"));
+        engine.setMemoizationEnabled(mode.equals("memoized"));
+        engine.setAdaptiveReorderingEnabled(mode.equals("adaptive"));
+        engine.setDecisionCacheEnabled(mode.equals("decision-cache"));
+        List<Rule> copies = new ArrayList<>();
+        for (Rule rule : new InterpreterDashboard().getRuleEngine().getRules()) {
+            copies.add(new Rule(rule.getName(), rule.getCondition(), rule.getActions().toArray(new String[0])));
+        }
+        engine.addRules(copies);
+        return engine;
+    }
+
+    static String[] engineModes() {
+        return new String[] {"tree", "compiled", "truth-table", "decision-diagram", "literal-index",
+            "program", "memoized", "adaptive", "decision-cache"};
+    }
+
+    /**
+     * Checks that an engine gives the same actions as the hardcoded dashboard.
+     */
+    static void verifyAgainstHardcoded(String name, RuleEngine engine) {
+        for (boolean[] in : dashboardInputs()) {
+            List<String> expected = DailyOperationsDashboard.processProjectDecision(in[0], in[1], in[2], in[3]);
+            List<String> actual = engine.evaluateFirstMatch(new Context(in[0], in[1], in[2], in[3]));
+            // The hardcoded dashboard merges overlapping rules, so only compare the first action
+            if (expected.isEmpty() != actual.isEmpty()
+                || (!expected.isEmpty() && !expected.get(0).equals(actual.get(0)))) {
+                throw new IllegalStateException(name + " differs from the hardcoded dashboard for "
+                    + Arrays.toString(in) + ": " + actual + " vs " + expected);
+            }
+        }
+    }
+
+    void latency() {
+        boolean[][] inputs = dashboardInputs();
+        measureLatency("latency", "hardcoded.processProjectDecision", params(), i -> {
+            boolean[] in = inputs[i & 15];
+            return DailyOperationsDashboard.processProjectDecision(in[0], in[1], in[2], in[3]).size();
+        });
+
+        InterpreterDashboard dashboard = new InterpreterDashboard();
+        measureLatency("latency", "interpreter.processProjectDecision", params(), i -> {
+            boolean[] in = inputs[i & 15];
+            return dashboard.processProjectDecision(in[0], in[1], in[2], in[3]).size();
+        });
+
+        Context[] contexts = new Context[16];
+        for (int i = 0; i < 16; i++) {
+            contexts[i] = new Context(inputs[i][0], inputs[i][1], inputs[i][2], inputs[i][3]);
+        }
+        for (String mode : engineModes()) {
+            RuleEngine engine = dashboardEngine(mode);
+            verifyAgainstHardcoded(mode, engine);
+            measureLatency("latency", "engine.evaluate", params("mode", mode),
+                i -> engine.evaluate(contexts[i & 15]).getRuleIndex());
+            measureLatency("latency", "engine.evaluateAll", params("mode", mode),
+                i -> engine.evaluateAll(contexts[i & 15]).getActions().size());
+            measureLatency("latency", "engine.evaluateAllActions", params("mode", mode),
+                i -> engine.evaluateAllActions(contexts[i & 15]).size());
+        }
+    }
+
+    void throughput() {
+        Context[] contexts = new Context[16];
+        boolean[][] inputs = dashboardInputs();
+        for (int i = 0; i < 16; i++) {
+            contexts[i] = new Context(inputs[i][0], inputs[i][1], inputs[i][2], inputs[i][3]);
+        }
+        for (String mode : new String[] {"compiled", "truth-table", "literal-index"}) {
+            RuleEngine engine = dashboardEngine(mode);
+            for (int threads : threadCounts) {
+                measureThroughput("throughput", "engine.evaluate", params("mode", mode, "threads", threads),
+                    threads, i -> engine.evaluate(contexts[i & 15]).getRuleIndex());
+            }
+        }
+        for (int threads : threadCounts) {
+            measureThroughput("throughput", "hardcoded.processProjectDecision", params("threads", threads),
+                threads, i -> {
+                    boolean[] in = inputs[i & 15];
+                    return DailyOperationsDashboard.processProjectDecision(in[0], in[1], in[2], in[3]).size();
+                });
+        }
+    }
+
+    /**
+     * Builds n synthetic rules: conjunctions of two to four literals over 64 conditions,
+     * about one literal in five negated.
+     */
+    static List<Rule> syntheticRules(int n, long seed) {
+        Random random = new Random(seed);
+        List<Rule> rules = new ArrayList<>(n);
+        for (int r = 0; r < n; r++) {
+            Expression[] literals = new Expression[2 + random.nextInt(3)];
+            for (int l = 0; l < literals.length; l++) {
+                Expression terminal = new TerminalExpression("c" + random.nextInt(64));
+                literals[l] = random.nextInt(5) == 0 ? new NotExpression(terminal) : terminal;
+            }
+            rules.add(new Rule("rule-" + r, new AndExpression(literals), "action-" + r));
+        }
+        return rules;
+    }
+
+    /**
+     * Builds contexts over the synthetic conditions with about a quarter of them set.
+     */
+    static Context[] syntheticContexts(int count, long seed) {
+        Random random = new Random(seed);
+        Context[] contexts = new Context[count];
+        for (int i = 0; i < count; i++) {
+            contexts[i] = new Context();
+            for (int c = 0; c < 64; c++) {
+                contexts[i].setCondition("c" + c, random.nextInt(4) == 0);
+            }
+        }
+        return contexts;
+    }
+
+    void scaling() {
+        Context[] contexts = syntheticContexts(256, 7);
+        for (int n : ruleCounts) {
+            List<Rule> rules = syntheticRules(n, 42);
+            // Tree-walking, so 100k rules do not load 100k generated classes
+            RuleEngine scan = new RuleEngine();
+            scan.setCompilationEnabled(false);
+            long start = System.nanoTime();
+            scan.addRules(rules);
+            double loadMillis = (System.nanoTime() - start) / 1_000_000.0;
+
+            RuleEngine indexed = new RuleEngine();
+            indexed.setCompilationEnabled(false);
+            indexed.setLiteralIndexEnabled(true);
+            indexed.addRules(syntheticRules(n, 42));
+            start = System.nanoTime();
+            indexed.getLiteralIndex();
+            double indexMillis = (System.nanoTime() - start) / 1_000_000.0;
+
+            RuleEngine program = new RuleEngine();
+            program.setCompilationEnabled(false);
+            program.setProgramEnabled(true);
+            program.addRules(syntheticRules(n, 42));
+            start = System.nanoTime();
+            program.getProgram();
+            double programMillis = (System.nanoTime() - start) / 1_000_000.0;
+
+            // 256 distinct contexts repeat, so after the first pass every lookup hits
+            RuleEngine cached = new RuleEngine();
+            cached.setCompilationEnabled(false);
+            cached.setDecisionCacheEnabled(true);
+            cached.addRules(syntheticRules(n, 42));
+
+            for (Context context : contexts) {
+                if (scan.evaluate(context).getRuleIndex() != cached.evaluate(context).getRuleIndex()) {
+                    throw new IllegalStateException("Decision cache differs from linear scan at " + n + " rules");
+                }
+                if (scan.evaluate(context).getRuleIndex() != indexed.evaluate(context).getRuleIndex()
+                    || !scan.evaluateAllMatches(context).equals(indexed.evaluateAllMatches(context))) {
+                    throw new IllegalStateException("Literal index differs from linear scan at " + n + " rules");
+                }
+                if (scan.evaluate(context).getRuleIndex() != program.evaluate(context).getRuleIndex()
+                    || !scan.evaluateAllMatches(context).equals(program.evaluateAllMatches(context))) {
+                    throw new IllegalStateException("Rule program differs from linear scan at " + n + " rules");
+                }
+            }
+
+            measureLatency("scaling", "evaluate", params("rules", n, "mode", "scan", "loadMs", round(loadMillis)),
+                i -> scan.evaluate(contexts[i & 255]).getRuleIndex());
+            measureLatency("scaling", "evaluate", params("rules", n, "mode", "literal-index",
+                "buildMs", round(indexMillis)), i -> indexed.evaluate(contexts[i & 255]).getRuleIndex());
+            measureLatency("scaling", "evaluate", params("rules", n, "mode", "program",
+                "buildMs", round(programMillis)), i -> program.evaluate(contexts[i & 255]).getRuleIndex());
+            measureLatency("scaling", "evaluate", params("rules", n, "mode", "decision-cache"),
+                i -> cached.evaluate(contexts[i & 255]).getRuleIndex());
+            measureLatency("scaling", "evaluateAll", params("rules", n, "mode", "scan"),
+                i -> scan.evaluateAll(contexts[i & 255]).getActions().size());
+            measureLatency("scaling", "evaluateAll", params("rules", n, "mode", "literal-index"),
+                i -> indexed.evaluateAll(contexts[i & 255]).getActions().size());
+            measureLatency("scaling", "evaluateAll", params("rules", n, "mode", "program"),
+                i -> program.evaluateAll(contexts[i & 255]).getActions().size());
+            measureLatency("scaling", "evaluateAllActions", params("rules", n, "mode", "literal-index"),
+                i -> indexed.evaluateAllActions(contexts[i & 255]).size());
+
+            // The tree-walking scan again, split across cores above the parallel threshold
+            if (n >= RuleEngine.DEFAULT_PARALLEL_THRESHOLD) {
+                scan.setParallelEvaluationEnabled(true);
+                for (Context context : contexts) {
+                    if (scan.evaluate(context).getRuleIndex() != indexed.evaluate(context).getRuleIndex()
+                        || !scan.evaluateAllMatches(context).equals(indexed.evaluateAllMatches(context))) {
+                        throw new IllegalStateException("Parallel scan differs from literal index at " + n + " rules");
+                    }
+                }
+                int cpus = Runtime.getRuntime().availableProcessors();
+                measureLatency("scaling", "evaluate", params("rules", n, "mode", "parallel", "cpus", cpus),
+                    i -> scan.evaluate(contexts[i & 255]).getRuleIndex());
+                measureLatency("scaling", "evaluateAll", params("rules", n, "mode", "parallel", "cpus", cpus),
+                    i -> scan.evaluateAll(contexts[i & 255]).getActions().size());
+                scan.setParallelEvaluationEnabled(false);
+            }
+        }
+    }
+
+    void parser() {
+        Random random = new Random(3);
+        String[] conditions = new String[1024];
+        long bytes = 0;
+        for (int i = 0; i < conditions.length; i++) {
+            conditions[i] = randomCondition(random, 3);
+            bytes += conditions[i].length();
+        }
+        Map<String, Object> params = params("conditions", conditions.length, "avgChars", bytes / conditions.length);
+
+        ConditionParser uncached = new ConditionParser(0);
+        measureLatency("parser", "parse.uncached", params, i -> uncached.parse(conditions[i & 1023]).hashCode());
+        ConditionParser cached = new ConditionParser(4096);
+        measureLatency("parser", "parse.cached", params, i -> cached.parse(conditions[i & 1023]).hashCode());
+    }
+
+    /**
+     * Counts matching rules and their actions without storing anything.
+     */
+    private static final class CountingSink implements ActionSink {
+        long rules;
+        long actions;
+
+        @Override
+        public void accept(int ruleIndex, Rule rule) {
+            rules++;
+            actions += rule.getActions().size();
+        }
+    }
+
+    private static long accumulate(RuleEngine engine, Context context, ActionSet.Accumulator accumulator) {
+        accumulator.clear();
+        engine.evaluateAllMatches(context, accumulator);
+        return accumulator.isEmpty() ? 0 : 1;
+    }
+
+    void allocation() {
+        boolean[][] inputs = dashboardInputs();
+        Context[] dashboardContexts = new Context[16];
+        for (int i = 0; i < 16; i++) {
+            dashboardContexts[i] = new Context(inputs[i][0], inputs[i][1], inputs[i][2], inputs[i][3]);
+        }
+        Context[] syntheticContexts = syntheticContexts(256, 7);
+        CountingSink sink = new CountingSink();
+        ActionSet.Accumulator accumulator = new ActionSet.Accumulator();
+
+        for (String mode : engineModes()) {
+            // Adaptive mode rebuilds conditions from its samples, which allocates by design
+            boolean allocationFree = !mode.equals("adaptive");
+            RuleEngine engine = dashboardEngine(mode);
+            verifyAgainstHardcoded(mode, engine);
+            measureAllocation("dashboard.evaluateFirstMatchIndex", mode, allocationFree,
+                i -> engine.evaluateFirstMatchIndex(dashboardContexts[i & 15]));
+            measureAllocation("dashboard.evaluateFirstMatchActions", mode, allocationFree,
+                i -> engine.evaluateFirstMatchActions(dashboardContexts[i & 15]).size());
+            measureAllocation("dashboard.evaluateAllMatches(sink)", mode, allocationFree,
+                i -> engine.evaluateAllMatches(dashboardContexts[i & 15], sink));
+            measureAllocation("dashboard.evaluateAllMatches(accumulator)", mode, allocationFree,
+                i -> accumulate(engine, dashboardContexts[i & 15], accumulator));
+        }
+
+        for (String mode : new String[] {"scan", "literal-index", "program", "memoized", "decision-cache"}) {
+            RuleEngine engine = new RuleEngine();
+            engine.setLiteralIndexEnabled(mode.equals("literal-index"));
+            engine.setProgramEnabled(mode.equals("program"));
+            engine.setMemoizationEnabled(mode.equals("memoized"));
+            engine.setDecisionCacheEnabled(mode.equals("decision-cache"));
+            engine.addRules(syntheticRules(1_000, 42));
+            // Keys of contexts with conditions past slot 63 are arrays, built per lookup
+            boolean allocationFree = !mode.equals("decision-cache");
+            measureAllocation("synthetic.evaluateFirstMatchIndex", mode, allocationFree,
+                i -> engine.evaluateFirstMatchIndex(syntheticContexts[i & 255]));
+            measureAllocation("synthetic.evaluateAllMatches(sink)", mode, allocationFree,
+                i -> engine.evaluateAllMatches(syntheticContexts[i & 255], sink));
+            measureAllocation("synthetic.evaluateAllMatches(accumulator)", mode, allocationFree,
+                i -> accumulate(engine, syntheticContexts[i & 255], accumulator));
+        }
+        blackhole += sink.rules + sink.actions;
+    }
+
+    /**
+     * Measures the bytes allocated per operation over a fixed number of operations,
+     * with nothing else allocating on the thread in between.
+     */
+    private void measureAllocation(String name, String mode, boolean allocationFree, Operation operation) {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long sink = runFor(operation, warmupMillis, 0);
+        int operations = 1_000_000;
+        long before = allocatedBytes(threads);
+        for (int i = 0; i < operations; i++) {
+            sink += operation.run(i);
+        }
+        long after = allocatedBytes(threads);
+        if (before < 0) {
+            System.out.println("Allocation counters are not available on this JVM; skipping " + name);
+            return;
+        }
+        double bytesPerOp = (double) (after - before) / operations;
+        record(new Result("allocation", name, params("mode", mode), bytesPerOp, 0, "B/op",
+            Double.NaN, Double.NaN, bytesPerOp), sink);
+        // Allow for the counter reads themselves
+        if (allocationFree && bytesPerOp > 0.01) {
+            throw new IllegalStateException(name + " in " + mode + " mode allocates "
+                + format(bytesPerOp) + " bytes per call");
+        }
+    }
+
+    void restore() throws IOException {
+        for (int n : ruleCounts) {
+            Path directory = Files.createTempDirectory("benchmark-journal");
+            try {
+                RuleJournal written = RuleJournal.open(directory);
+                written.rulesAdded(syntheticRules(n, 42));
+                written.close();
+
+                // The first restore warms up the decoder and the install path
+                double[] openMillis = new double[iterations + 1];
+                double[] installMillis = new double[iterations + 1];
+                long sink = 0;
+                for (int it = 0; it <= iterations; it++) {
+                    long start = System.nanoTime();
+                    RuleJournal journal = RuleJournal.open(directory);
+                    long opened = System.nanoTime();
+                    // Compiling, like the server, so an install that compiles in line shows up here
+                    RuleEngine engine = new RuleEngine();
+                    engine.replaceAllRules(journal.getRecoveredRules());
+                    long installed = System.nanoTime();
+                    openMillis[it] = (opened - start) / 1_000_000.0;
+                    installMillis[it] = (installed - opened) / 1_000_000.0;
+                    sink += engine.getRules().size();
+                    // Stops the background compilation before the next restore
+                    engine.setCompilationEnabled(false);
+                    journal.close();
+                }
+                double[] totalMillis = new double[iterations];
+                for (int it = 0; it < iterations; it++) {
+                    totalMillis[it] = openMillis[it + 1] + installMillis[it + 1];
+                }
+                double install = mean(Arrays.copyOfRange(installMillis, 1, iterations + 1));
+                record(new Result("restore", "journal.restore", params("rules", n,
+                    "openMs", round(mean(Arrays.copyOfRange(openMillis, 1, iterations + 1))),
+                    "installMs", round(install)), mean(totalMillis), error(totalMillis), "ms",
+                    Double.NaN, Double.NaN, Double.NaN), sink);
+                // Compiling in line costs 100-200 us per rule, installing interpreted about 10
+                double limit = 50 + 0.02 * n;
+                if (install > limit) {
+                    throw new IllegalStateException("Restoring " + n + " rules takes " + format(install)
+                        + " ms to install, more than " + format(limit) + " ms");
+                }
+            } finally {
+                try (Stream<Path> paths = Files.walk(directory)) {
+                    for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                        Files.delete(path);
+                    }
+                }
+            }
+        }
+    }
+
+    static String randomCondition(Random random, int depth) {
+        if (depth == 0 || random.nextInt(4) == 0) {
+            String name = CONDITIONS[random.nextInt(CONDITIONS.length)];
+            return random.nextInt(4) == 0 ? "NOT " + name : name;
+        }
+        String operator = random.nextBoolean() ? " AND " : " OR ";
+        int operands = 2 + random.nextInt(3);
+        StringBuilder text = new StringBuilder("(");
+        for (int i = 0; i < operands; i++) {
+            if (i > 0) {
+                text.append(operator);
+            }
+            text.append(randomCondition(random, depth - 1));
+        }
+        return text.append(")").toString();
+    }
+
+    // ------------------------------------------------------------------ harness
+
+    /**
+     * Measures average time per operation on one thread. Each iteration is split into
+     * batches; p50/p99 are taken over the per-batch averages.
+     */
+    void measureLatency(String group, String name, Map<String, Object> params, Operation operation) {
+        long sink = runFor(operation, warmupMillis, 0);
+        int batch = 1000;
+        List<Double> batchNanos = new ArrayList<>();
+        double[] iterationNanos = new double[iterations];
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long allocatedBefore = allocatedBytes(threads);
+        long operations = 0;
+        int index = 0;
+
+        for (int it = 0; it < iterations; it++) {
+            long iterationStart = System.nanoTime();
+            long deadline = iterationStart + measureMillis * 1_000_000L;
+            long iterationOps = 0;
+            long now;
+            do {
+                long batchStart = System.nanoTime();
+                for (int i = 0; i < batch; i++) {
+                    sink += operation.run(index++);
+                }
+                now = System.nanoTime();
+                batchNanos.add((double) (now - batchStart) / batch);
+                iterationOps += batch;
+            } while (now < deadline);
+            iterationNanos[it] = (double) (now - iterationStart) / iterationOps;
+            operations += iterationOps;
+        }
+
+        long allocatedAfter = allocatedBytes(threads);
+        double bytesPerOp = allocatedBefore < 0 ? Double.NaN : (double) (allocatedAfter - allocatedBefore) / operations;
+        double[] sorted = batchNanos.stream().mapToDouble(Double::doubleValue).sorted().toArray();
+        record(new Result(group, name, params, mean(iterationNanos), error(iterationNanos), "ns/op",
+            percentile(sorted, 0.50), percentile(sorted, 0.99), bytesPerOp), sink);
+    }
+
+    /**
+     * Measures total operations per second with several threads running the same operation.
+     */
+    void measureThroughput(String group, String name, Map<String, Object> params, int threadCount,
+                           Operation operation) {
+        runFor(operation, warmupMillis, 0);
+        double[] perSecond = new double[iterations];
+        AtomicLong sink = new AtomicLong();
+        for (int it = 0; it < iterations; it++) {
+            AtomicLong operations = new AtomicLong();
+            CountDownLatch start = new CountDownLatch(1);
+            CountDownLatch done = new CountDownLatch(threadCount);
+            for (int t = 0; t < threadCount; t++) {
+                int offset = t * 7;
+                Thread thread = new Thread(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    long count = 0;
+                    long local = 0;
+                    long deadline = System.nanoTime() + measureMillis * 1_000_000L;
+                    while (System.nanoTime() < deadline) {
+                        for (int i = 0; i < 256; i++) {
+                            local += operation.run(offset + (int) count++);
+                        }
+                    }
+                    operations.addAndGet(count);
+                    sink.addAndGet(local);
+                    done.countDown();
+                });
+                thread.setDaemon(true);
+                thread.start();
+            }
+            long begin = System.nanoTime();
+            start.countDown();
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            perSecond[it] = operations.get() / ((System.nanoTime() - begin) / 1_000_000_000.0);
+        }
+        record(new Result(group, name, params, mean(perSecond), error(perSecond), "ops/s",
+            Double.NaN, Double.NaN, Double.NaN), sink.get());
+    }
+
+    private static long runFor(Operation operation, long millis, int index) {
+        long sink = 0;
+        long deadline = System.nanoTime() + millis * 1_000_000L;
+        while (System.nanoTime() < deadline) {
+            for (int i = 0; i < 1000; i++) {
+                sink += operation.run(index++);
+            }
+        }
+        return sink;
+    }
+
+    private static long allocatedBytes(ThreadMXBean threads) {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean extended = (com.sun.management.ThreadMXBean) threads;
+            if (extended.isThreadAllocatedMemorySupported() && extended.isThreadAllocatedMemoryEnabled()) {
+                return extended.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    private void record(Result result, long sink) {
+        results.add(result);
+        System.out.printf("%-11s %-34s %-22s %14s %10s %10s %10s %10s%n",
+            result.group, result.name, compact(result.params), format(result.score), format(result.error),
+            format(result.p50), format(result.p99), format(result.bytesPerOp));
+        blackhole += sink;
+    }
+
+    private static double mean(double[] values) {
+        return Arrays.stream(values).average().orElse(Double.NaN);
+    }
+
+    /**
+     * Gets a 99.9% confidence half-width, assuming roughly normal iteration scores.
+     */
+    private static double error(double[] values) {
+        if (values.length < 2) {
+            return Double.NaN;
+        }
+        double mean = mean(values);
+        double variance = Arrays.stream(values).map(v -> (v - mean) * (v - mean)).sum() / (values.length - 1);
+        return 3.29 * Math.sqrt(variance / values.length);
+    }
+
+    private static double percentile(double[] sorted, double fraction) {
+        return sorted.length == 0 ? Double.NaN : sorted[(int) Math.min(sorted.length - 1, fraction * sorted.length)];
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+
+    private static String format(double value) {
+        if (Double.isNaN(value)) {
+            return "-";
+        }
+        return value >= 1000 ? String.format("%.0f", value) : String.format("%.2f", value);
+    }
+
+    private static Map<String, Object> params(Object... keyValues) {
+        Map<String, Object> params = new LinkedHashMap<>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            params.put((String) keyValues[i], keyValues[i + 1]);
+        }
+        return params;
+    }
+
+    private static String compact(Map<String, Object> params) {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, Object> entry : params.entrySet()) {
+            if (entry.getKey().endsWith("Ms")) {
+                continue;
+            }
+            if (text.length() > 0) {
+                text.append(',');
+            }
+            text.append(entry.getKey()).append('=').append(entry.getValue());
+        }
+        return text.toString();
+    }
+
+    // ------------------------------------------------------------------ output
+
+    void writeJson(Path file) throws IOException {
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write("{\n");
+            out.write("  \"timestamp\": \"" + Instant.now() + "\",\n");
+            out.write("  \"java\": \"" + json(System.getProperty("java.version")) + "\",\n");
+            out.write("  \"vm\": \"" + json(System.getProperty("java.vm.name")) + "\",\n");
+            out.write("  \"os\": \"" + json(System.getProperty("os.name") + " " + System.getProperty("os.arch")) + "\",\n");
+            out.write("  \"cpus\": " + Runtime.getRuntime().availableProcessors() + ",\n");
+            out.write("  \"warmupMillis\": " + warmupMillis + ",\n");
+            out.write("  \"measureMillis\": " + measureMillis + ",\n");
+            out.write("  \"iterations\": " + iterations + ",\n");
+            out.write("  \"results\": [\n");
+            for (int i = 0; i < results.size(); i++) {
+                Result r = results.get(i);
+                out.write("    {\"group\": \"" + json(r.group) + "\", \"benchmark\": \"" + json(r.name) + "\", \"params\": {");
+                int p = 0;
+                for (Map.Entry<String, Object> entry : r.params.entrySet()) {
+                    out.write((p++ > 0 ? ", " : "") + "\"" + json(entry.getKey()) + "\": ");
+                    Object value = entry.getValue();
+                    out.write(value instanceof Number ? value.toString() : "\"" + json(String.valueOf(value)) + "\"");
+                }
+                out.write("}, \"score\": " + number(r.score) + ", \"error\": " + number(r.error)
+                    + ", \"unit\": \"" + r.unit + "\", \"p50\": " + number(r.p50) + ", \"p99\": " + number(r.p99)
+                    + ", \"bytesPerOp\": " + number(r.bytesPerOp) + "}");
+                out.write(i < results.size() - 1 ? ",\n" : "\n");
+            }
+            out.write("  ]\n}\n");
+        }
+    }
+
+    private static String number(double value) {
+        return Double.isNaN(value) || Double.isInfinite(value) ? "null" : String.valueOf(round(value));
+    }
+
+    private static String json(String text) {
+        return text.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
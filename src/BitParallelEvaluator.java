@@ -0,0 +1,61 @@
+/**
+ * BitParallelEvaluator.java
+ * 
+ * Evaluates expressions over 64 contexts at once.
+ * Each condition is a 64-bit word holding one row per bit, so AND, OR and NOT become
+ * single bitwise instructions on whole words.
+ */
+public final class BitParallelEvaluator {
+    
+    private BitParallelEvaluator() {
+    }
+    
+    /**
+     * Evaluates an expression for the 64 rows in one word of a batch.
+     * 
+     * @param expression The expression to evaluate
+     * @param batch The columnar condition values
+     * @param word The word index
+     * @param rows The rows that still need a result
+     * @return A word with a bit set for each requested row where the expression is true;
+     *         bits outside rows are unspecified and must be masked by the caller
+     */
+    public static long evaluate(Expression expression, ConditionBatch batch, int word, long rows) {
+        if (expression instanceof TerminalExpression) {
+            return batch.getWord(((TerminalExpression) expression).getSlot(), word);
+        } else if (expression instanceof NotExpression) {
+            return ~evaluate(((NotExpression) expression).getExpression(), batch, word, rows) & rows;
+        } else if (expression instanceof ConstantExpression) {
+            return ((ConstantExpression) expression).getValue() ? rows : 0;
+        } else if (expression instanceof AndExpression) {
+            AndExpression and = (AndExpression) expression;
+            // Each operand only needs the rows where every earlier operand held
+            long result = rows;
+            for (int i = 0; i < and.getOperandCount() && result != 0; i++) {
+                result &= evaluate(and.getOperand(i), batch, word, result);
+            }
+            return result;
+        } else if (expression instanceof OrExpression) {
+            OrExpression or = (OrExpression) expression;
+            // Each operand only needs the rows no earlier operand has satisfied
+            long result = 0;
+            long pending = rows;
+            for (int i = 0; i < or.getOperandCount() && pending != 0; i++) {
+                long hit = evaluate(or.getOperand(i), batch, word, pending) & pending;
+                result |= hit;
+                pending &= ~hit;
+            }
+            return result;
+        }
+        
+        // Unknown expression type - fall back to evaluating each requested row
+        long result = 0;
+        for (long remaining = rows; remaining != 0; remaining &= remaining - 1) {
+            int bit = Long.numberOfTrailingZeros(remaining);
+            if (expression.interpret(batch.toContext((word << 6) + bit))) {
+                result |= 1L << bit;
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,128 @@
+/**
+ * ConditionBatch.java
+ * 
+ * Columnar input for batch evaluation: one bit-column per condition, where bit
+ * (row % 64) of word (row / 64) holds the condition's value for that row.
+ * Conditions without a column read as false for every row. A column set by name keeps
+ * its condition's registry slot in use for as long as the batch is reachable.
+ */
+import java.util.Arrays;
+
+public class ConditionBatch {
+    private final int rows;
+    private long[][] columns;
+    private ConditionRegistry.Slot[] held;
+    
+    /**
+     * Creates an empty batch where every condition is false.
+     * 
+     * @param rows The number of rows (contexts) in the batch
+     */
+    public ConditionBatch(int rows) {
+        this.rows = rows;
+        this.columns = new long[ConditionRegistry.size()][];
+        this.held = new ConditionRegistry.Slot[columns.length];
+    }
+    
+    /**
+     * Gets the number of 64-bit words per column.
+     * 
+     * @param rows The number of rows
+     * @return The column length in words
+     */
+    public static int wordsFor(int rows) {
+        return (rows + 63) >>> 6;
+    }
+    
+    /**
+     * Sets the bit-column for a condition.
+     * 
+     * @param conditionName The name of the condition
+     * @param bits The column, at least wordsFor(getRows()) words long
+     */
+    public void setColumn(String conditionName, long[] bits) {
+        if (bits.length < wordsFor(rows)) {
+            throw new IllegalArgumentException("Column for '" + conditionName + "' has "
+                + bits.length + " words, expected " + wordsFor(rows));
+        }
+        setColumn(ConditionRegistry.register(conditionName), bits);
+    }
+    
+    private void setColumn(ConditionRegistry.Slot registered, long[] bits) {
+        int slot = registered.getIndex();
+        if (slot >= columns.length) {
+            columns = Arrays.copyOf(columns, slot + 1);
+            held = Arrays.copyOf(held, slot + 1);
+        }
+        columns[slot] = bits;
+        held[slot] = registered;
+    }
+    
+    /**
+     * Sets a single condition value, allocating the column if needed.
+     * 
+     * @param row The row index
+     * @param conditionName The name of the condition
+     * @param value The boolean value to set
+     */
+    public void set(int row, String conditionName, boolean value) {
+        ConditionRegistry.Slot registered = ConditionRegistry.register(conditionName);
+        int slot = registered.getIndex();
+        if (slot >= columns.length || columns[slot] == null) {
+            setColumn(registered, new long[wordsFor(rows)]);
+        }
+        long[] column = columns[slot];
+        if (value) {
+            column[row >>> 6] |= 1L << row;
+        } else {
+            column[row >>> 6] &= ~(1L << row);
+        }
+    }
+    
+    /**
+     * Gets one word of a condition's column.
+     * 
+     * @param slot The ConditionRegistry slot of the condition
+     * @param word The word index
+     * @return 64 condition values, one per row
+     */
+    public long getWord(int slot, int word) {
+        return slot < columns.length && columns[slot] != null ? columns[slot][word] : 0L;
+    }
+    
+    /**
+     * Gets the mask of rows that exist in a word (the last word may be partial).
+     * 
+     * @param word The word index
+     * @return The mask of valid rows
+     */
+    public long validRows(int word) {
+        int remaining = rows - (word << 6);
+        return remaining >= 64 ? -1L : (1L << remaining) - 1;
+    }
+    
+    /**
+     * Builds a row-oriented Context for a single row.
+     * 
+     * @param row The row index
+     * @return A context holding that row's condition values
+     */
+    public Context toContext(int row) {
+        Context context = new Context();
+        for (int slot = 0; slot < columns.length; slot++) {
+            if (columns[slot] != null && (columns[slot][row >>> 6] >>> row & 1L) != 0) {
+                context.setCondition(slot, true);
+            }
+        }
+        return context;
+    }
+    
+    /**
+     * Gets the number of rows in the batch.
+     * 
+     * @return The row count
+     */
+    public int getRows() {
+        return rows;
+    }
+}
@@ -0,0 +1,351 @@
+/**
+ * ConditionParser.java
+ *
+ * Parses condition text such as "projectActive AND NOT (taskOverdue OR kpiBreach)"
+ * into an Expression tree.
+ *
+ * The text is tokenized once and parsed by precedence climbing, so parsing is linear in
+ * the length of the text. Operators bind in the usual order NOT > AND > OR, keywords are
+ * case-insensitive, and &&, || and ! are accepted as aliases. TRUE and FALSE are constants. Chains of the same operator
+ * are flattened into a single n-ary node, so "a AND b AND c" is one AndExpression with
+ * three operands rather than a one-sided binary tree.
+ *
+ * Parsed trees are immutable and kept in a bounded LRU cache keyed by the normalized
+ * token text, so a condition that is submitted again (with any spacing or keyword case)
+ * is not parsed a second time.
+ */
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ConditionParser {
+
+    // Deepest nesting of parentheses and NOTs accepted, to keep recursion bounded
+    public static final int MAX_DEPTH = 500;
+
+    private static final int IDENTIFIER = 0;
+    private static final int AND = 1;
+    private static final int OR = 2;
+    private static final int NOT = 3;
+    private static final int OPEN = 4;
+    private static final int CLOSE = 5;
+    private static final int END = 6;
+
+    private static final String[] TOKEN_NAMES = {"condition name", "AND", "OR", "NOT", "'('", "')'", "end of input"};
+
+    private final int cacheCapacity;
+    private final Map<String, Expression> cache;
+    private long hits;
+    private long misses;
+
+    /**
+     * Creates a parser with a cache of 1024 conditions.
+     */
+    public ConditionParser() {
+        this(1024);
+    }
+
+    /**
+     * Creates a parser with a specific cache size.
+     *
+     * @param cacheCapacity The number of parsed conditions to keep; 0 disables the cache
+     */
+    public ConditionParser(int cacheCapacity) {
+        this.cacheCapacity = cacheCapacity;
+        this.cache = new LinkedHashMap<String, Expression>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Expression> eldest) {
+                return size() > ConditionParser.this.cacheCapacity;
+            }
+        };
+    }
+
+    /**
+     * Parses condition text into an expression, using the cache when possible.
+     *
+     * @param condition The condition text
+     * @return The expression tree; trees returned for equal conditions may be shared
+     * @throws ConditionSyntaxException if the text is not a valid condition
+     */
+    public Expression parse(String condition) {
+        Expression cached = cached(condition);
+        if (cached != null) {
+            return cached;
+        }
+        Tokens tokens = new Tokens(condition);
+        String key = tokens.normalized();
+        cached = cached(key);
+        boolean parsed = cached == null;
+        if (parsed) {
+            cached = new Parser(tokens).parseCondition();
+        }
+        remember(condition, key, cached, parsed);
+        return cached;
+    }
+
+    private synchronized Expression cached(String key) {
+        Expression expression = cache.get(key);
+        if (expression != null) {
+            hits++;
+        }
+        return expression;
+    }
+
+    private synchronized void remember(String condition, String key, Expression expression, boolean parsed) {
+        if (parsed) {
+            misses++;
+        }
+        if (cacheCapacity > 0) {
+            cache.put(key, expression);
+            cache.put(condition, expression);
+        }
+    }
+
+    /**
+     * Gets the number of parse calls answered from the cache.
+     *
+     * @return The cache hit count
+     */
+    public synchronized long getCacheHits() {
+        return hits;
+    }
+
+    /**
+     * Gets the number of parse calls that had to build a new tree.
+     *
+     * @return The cache miss count
+     */
+    public synchronized long getCacheMisses() {
+        return misses;
+    }
+
+    /**
+     * Gets the number of entries in the cache. Each condition may be held under both its
+     * raw and its normalized text.
+     *
+     * @return The cache size
+     */
+    public synchronized int getCacheSize() {
+        return cache.size();
+    }
+
+    /**
+     * Empties the cache and resets its statistics.
+     */
+    public synchronized void clearCache() {
+        cache.clear();
+        hits = 0;
+        misses = 0;
+    }
+
+    /**
+     * The token stream of one condition, held as parallel arrays.
+     */
+    private static class Tokens {
+        final String text;
+        int[] types = new int[16];
+        int[] starts = new int[16];
+        int[] ends = new int[16];
+        int count;
+
+        Tokens(String text) {
+            this.text = text;
+            int i = 0;
+            int length = text.length();
+            while (i < length) {
+                char c = text.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    i++;
+                } else if (c == '(') {
+                    add(OPEN, i, ++i);
+                } else if (c == ')') {
+                    add(CLOSE, i, ++i);
+                } else if (c == '!') {
+                    add(NOT, i, ++i);
+                } else if (c == '&' || c == '|') {
+                    if (i + 1 >= length || text.charAt(i + 1) != c) {
+                        throw new ConditionSyntaxException("Unexpected character '" + c + "'", i);
+                    }
+                    add(c == '&' ? AND : OR, i, i += 2);
+                } else if (isIdentifierChar(c)) {
+                    int start = i;
+                    while (i < length && isIdentifierChar(text.charAt(i))) {
+                        i++;
+                    }
+                    add(keyword(start, i), start, i);
+                } else {
+                    throw new ConditionSyntaxException("Unexpected character '" + c + "'", i);
+                }
+            }
+            add(END, length, length);
+        }
+
+        private static boolean isIdentifierChar(char c) {
+            return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || c == '_' || c == '.' || c == '-';
+        }
+
+        private int keyword(int start, int end) {
+            int length = end - start;
+            if (length == 3 && text.regionMatches(true, start, "AND", 0, 3)) {
+                return AND;
+            }
+            if (length == 2 && text.regionMatches(true, start, "OR", 0, 2)) {
+                return OR;
+            }
+            if (length == 3 && text.regionMatches(true, start, "NOT", 0, 3)) {
+                return NOT;
+            }
+            return IDENTIFIER;
+        }
+
+        private void add(int type, int start, int end) {
+            if (count == types.length) {
+                types = Arrays.copyOf(types, count * 2);
+                starts = Arrays.copyOf(starts, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
+            }
+            types[count] = type;
+            starts[count] = start;
+            ends[count] = end;
+            count++;
+        }
+
+        /**
+         * Gets the canonical spelling of the condition: tokens separated by single
+         * spaces, with operators in upper case.
+         */
+        String normalized() {
+            StringBuilder key = new StringBuilder(text.length());
+            for (int t = 0; t < count - 1; t++) {
+                if (t > 0) {
+                    key.append(' ');
+                }
+                if (types[t] == IDENTIFIER) {
+                    key.append(text, starts[t], ends[t]);
+                } else {
+                    key.append(TOKEN_NAMES[types[t]].replace("'", ""));
+                }
+            }
+            return key.toString();
+        }
+    }
+
+    /**
+     * Precedence-climbing parser over a token stream.
+     */
+    private static class Parser {
+        private final Tokens tokens;
+        private int next;
+        private int depth;
+
+        Parser(Tokens tokens) {
+            this.tokens = tokens;
+        }
+
+        Expression parseCondition() {
+            if (tokens.count == 1) {
+                throw new ConditionSyntaxException("Empty condition", 0);
+            }
+            Expression expression = parseBinary(0);
+            if (type() != END) {
+                throw unexpected("AND, OR or end of input");
+            }
+            return expression;
+        }
+
+        /**
+         * Parses operands joined by operators that bind at least as tightly as minPrecedence,
+         * collecting a run of the same operator into one n-ary node.
+         */
+        private Expression parseBinary(int minPrecedence) {
+            Expression left = parseUnary();
+            while (precedence(type()) >= minPrecedence) {
+                int operator = type();
+                List<Expression> operands = new ArrayList<>();
+                addOperand(operands, left, operator);
+                while (type() == operator) {
+                    next++;
+                    addOperand(operands, parseBinary(precedence(operator) + 1), operator);
+                }
+                Expression[] array = operands.toArray(new Expression[0]);
+                left = operator == AND ? new AndExpression(array) : new OrExpression(array);
+            }
+            return left;
+        }
+
+        private static void addOperand(List<Expression> operands, Expression operand, int operator) {
+            // A parenthesized group of the same operator joins the enclosing chain
+            if (operator == AND && operand instanceof AndExpression) {
+                operands.addAll(Arrays.asList(((AndExpression) operand).getOperands()));
+            } else if (operator == OR && operand instanceof OrExpression) {
+                operands.addAll(Arrays.asList(((OrExpression) operand).getOperands()));
+            } else {
+                operands.add(operand);
+            }
+        }
+
+        private static int precedence(int type) {
+            if (type == AND) {
+                return 2;
+            }
+            if (type == OR) {
+                return 1;
+            }
+            return -1;
+        }
+
+        private Expression parseUnary() {
+            int type = type();
+            if (type == NOT) {
+                enter();
+                next++;
+                Expression operand = parseUnary();
+                depth--;
+                return new NotExpression(operand);
+            }
+            if (type == OPEN) {
+                enter();
+                next++;
+                Expression inner = parseBinary(0);
+                if (type() != CLOSE) {
+                    throw unexpected("')'");
+                }
+                next++;
+                depth--;
+                return inner;
+            }
+            if (type == IDENTIFIER) {
+                String name = tokens.text.substring(tokens.starts[next], tokens.ends[next]);
+                next++;
+                if (name.equalsIgnoreCase("TRUE") || name.equalsIgnoreCase("FALSE")) {
+                    return ConstantExpression.of(name.equalsIgnoreCase("TRUE"));
+                }
+                return new TerminalExpression(name);
+            }
+            throw unexpected("condition name, NOT or '('");
+        }
+
+        private void enter() {
+            if (++depth > MAX_DEPTH) {
+                throw new ConditionSyntaxException("Condition nested deeper than " + MAX_DEPTH + " levels",
+                    tokens.starts[next]);
+            }
+        }
+
+        private int type() {
+            return tokens.types[next];
+        }
+
+        private ConditionSyntaxException unexpected(String expected) {
+            int type = type();
+            String found = type == IDENTIFIER
+                ? "'" + tokens.text.substring(tokens.starts[next], tokens.ends[next]) + "'"
+                : TOKEN_NAMES[type];
+            return new ConditionSyntaxException("Expected " + expected + " but found " + found,
+                tokens.starts[next]);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/**
+ * ConditionRegistry.java
+ *
+ * Interns condition names to small integer slots.
+ * Terminal expressions resolve their slot once when they are built, so evaluating a
+ * leaf only needs a shift-and-mask on the Context bitmask instead of a string lookup.
+ *
+ * A slot stays in use while its Slot handle is reachable. Terminal expressions, and
+ * contexts and batches that set a condition by name, hold the handle, so a slot is
+ * freed once no rule in any engine reads the condition. Freed slots are reused for
+ * new names, which keeps the slot range as small as the set of live names.
+ * Names arrive from request bodies and imported files, so a name may be at most
+ * MAX_NAME_LENGTH characters and at most MAX_CONDITIONS names are in use at once.
+ */
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+public final class ConditionRegistry {
+
+    // The four dashboard conditions always occupy the first slots
+    public static final int PROJECT_ACTIVE = 0;
+    public static final int TASK_OVERDUE = 1;
+    public static final int KPI_BREACH = 2;
+    public static final int DEPENDENCY_BLOCKED = 3;
+
+    public static final int MAX_CONDITIONS = 1 << 20;
+    public static final int MAX_NAME_LENGTH = 256;
+
+    private static final ConcurrentHashMap<String, SlotReference> slots = new ConcurrentHashMap<>();
+    private static final ReferenceQueue<Slot> collected = new ReferenceQueue<>();
+    // Grown by doubling; a slot is published in slots only after its name is stored here
+    private static volatile String[] names = new String[16];
+    private static volatile int count;
+    // Slots below count whose handle was collected, reused before count grows
+    private static int[] free = new int[16];
+    private static int freeCount;
+    private static int live;
+
+    // Held for good, so the dashboard conditions keep slots 0-3
+    private static final Slot[] DASHBOARD = {
+        register("projectActive"),
+        register("taskOverdue"),
+        register("kpiBreach"),
+        register("dependencyBlocked")
+    };
+
+    private ConditionRegistry() {
+    }
+
+    /**
+     * A condition name and the slot it holds while this handle is reachable.
+     */
+    public static final class Slot {
+        private final String name;
+        private final int index;
+
+        private Slot(String name, int index) {
+            this.name = name;
+            this.index = index;
+        }
+
+        /**
+         * Gets the registered copy of the condition name.
+         *
+         * @return The condition name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Gets the slot index of the condition.
+         *
+         * @return The slot index
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        @Override
+        public String toString() {
+            return name + "@" + index;
+        }
+    }
+
+    private static final class SlotReference extends WeakReference<Slot> {
+        private final String name;
+        private final int index;
+
+        SlotReference(Slot slot) {
+            super(slot, collected);
+            this.name = slot.name;
+            this.index = slot.index;
+        }
+    }
+
+    /**
+     * Gets the handle for a condition name, assigning a slot if the name is not in use.
+     * The slot stays assigned to the name for as long as the caller holds the handle.
+     *
+     * @param conditionName The condition name
+     * @return The handle holding the condition's slot
+     * @throws IllegalArgumentException if the name is new and too long, or
+     *         MAX_CONDITIONS names are already in use
+     */
+    public static Slot register(String conditionName) {
+        SlotReference reference = slots.get(conditionName);
+        Slot slot = reference != null ? reference.get() : null;
+        if (slot != null) {
+            return slot;
+        }
+        synchronized (ConditionRegistry.class) {
+            reclaim();
+            reference = slots.get(conditionName);
+            slot = reference != null ? reference.get() : null;
+            if (slot != null) {
+                return slot;
+            }
+            if (conditionName.length() > MAX_NAME_LENGTH) {
+                throw new IllegalArgumentException("Condition name longer than " + MAX_NAME_LENGTH + " characters");
+            }
+            if (live == MAX_CONDITIONS) {
+                throw new IllegalArgumentException("No more than " + MAX_CONDITIONS + " distinct condition names in use");
+            }
+            int index;
+            if (freeCount > 0) {
+                index = free[--freeCount];
+                names[index] = conditionName;
+            } else {
+                index = count;
+                String[] current = names;
+                if (index == current.length) {
+                    current = Arrays.copyOf(current, index * 2);
+                }
+                current[index] = conditionName;
+                names = current;
+                count = index + 1;
+            }
+            live++;
+            slot = new Slot(conditionName, index);
+            // A stale entry for the same name is replaced here and skipped when reclaimed
+            slots.put(conditionName, new SlotReference(slot));
+            return slot;
+        }
+    }
+
+    /**
+     * Frees the slots of collected handles. Called with the class lock held.
+     */
+    private static void reclaim() {
+        Reference<? extends Slot> reference;
+        while ((reference = collected.poll()) != null) {
+            SlotReference freed = (SlotReference) reference;
+            slots.remove(freed.name, freed);
+            names[freed.index] = null;
+            if (freeCount == free.length) {
+                free = Arrays.copyOf(free, freeCount * 2);
+            }
+            free[freeCount++] = freed.index;
+            live--;
+        }
+    }
+
+    /**
+     * Looks up the slot for a condition name without registering it.
+     *
+     * @param conditionName The condition name
+     * @return The slot index, or -1 if the name is not in use
+     */
+    public static int lookup(String conditionName) {
+        SlotReference reference = slots.get(conditionName);
+        return reference != null && reference.get() != null ? reference.index : -1;
+    }
+
+    /**
+     * Gets the condition name registered for a slot.
+     *
+     * @param slot The slot index
+     * @return The condition name, or null if the slot is free
+     */
+    public static String nameOf(int slot) {
+        return names[slot];
+    }
+
+    /**
+     * Gets the number of slots handed out so far, free or in use. Every slot index
+     * is below this bound.
+     *
+     * @return The slot range in use
+     */
+    public static int size() {
+        return count;
+    }
+
+    /**
+     * Gets the number of condition names currently holding a slot.
+     *
+     * @return The number of live names
+     */
+    public static synchronized int liveCount() {
+        reclaim();
+        return live;
+    }
+}
@@ -0,0 +1,32 @@
+/**
+ * ConditionSyntaxException.java
+ *
+ * Thrown by ConditionParser when a condition expression cannot be parsed.
+ * Carries the character position of the offending token so API clients can point
+ * at the exact spot in the text they submitted.
+ */
+public class ConditionSyntaxException extends IllegalArgumentException {
+    private static final long serialVersionUID = 1L;
+
+    private final int position;
+
+    /**
+     * Creates a syntax error at a position in the condition text.
+     *
+     * @param message The description of the problem
+     * @param position The zero-based character offset of the problem
+     */
+    public ConditionSyntaxException(String message, int position) {
+        super(message + " at position " + position);
+        this.position = position;
+    }
+
+    /**
+     * Gets the position of the error.
+     *
+     * @return The zero-based character offset in the condition text
+     */
+    public int getPosition() {
+        return position;
+    }
+}
@@ -0,0 +1,52 @@
+/**
+ * ConstantExpression.java
+ *
+ * TerminalExpression for the literals TRUE and FALSE.
+ * Constants come from conditions written with TRUE/FALSE and from the optimizer,
+ * which folds them away wherever they meet an AND or OR.
+ */
+public final class ConstantExpression implements Expression {
+    public static final ConstantExpression TRUE = new ConstantExpression(true);
+    public static final ConstantExpression FALSE = new ConstantExpression(false);
+
+    private final boolean value;
+
+    private ConstantExpression(boolean value) {
+        this.value = value;
+    }
+
+    /**
+     * Gets the constant for a boolean value.
+     *
+     * @param value The value
+     * @return TRUE or FALSE
+     */
+    public static ConstantExpression of(boolean value) {
+        return value ? TRUE : FALSE;
+    }
+
+    /**
+     * Returns the constant value regardless of the context.
+     *
+     * @param context The context for evaluation (unused)
+     * @return The constant value
+     */
+    @Override
+    public boolean interpret(Context context) {
+        return value;
+    }
+
+    /**
+     * Gets the constant value.
+     *
+     * @return The value of this constant
+     */
+    public boolean getValue() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return value ? "TRUE" : "FALSE";
+    }
+}
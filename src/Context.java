@@ -3,12 +3,25 @@
  * 
  * Context - stores and manages data for interpretation.
  * This class holds the state of all conditions that can be evaluated.
+ * 
+ * Conditions are stored as bits indexed by their ConditionRegistry slot: the first
+ * 64 slots live in a single long, and any further slots spill into a long[].
+ * Conditions that were never set read as false. A condition set to true by name keeps
+ * its registry slot in use for as long as the context is reachable.
  */
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 public class Context {
-    private Map<String, Boolean> conditions;
+    private long bits;
+    private long[] overflow;
+    private ConditionRegistry.Slot[] held;
+    private int heldCount;
+    
+    /**
+     * Creates an empty Context where every condition is false.
+     */
+    public Context() {
+    }
     
     /**
      * Creates a new Context with the given condition values.
@@ -19,11 +32,23 @@ public class Context {
      * @param dependencyBlocked Whether any dependency is blocked
      */
     public Context(boolean projectActive, boolean taskOverdue, boolean kpiBreach, boolean dependencyBlocked) {
-        conditions = new HashMap<>();
-        conditions.put("projectActive", projectActive);
-        conditions.put("taskOverdue", taskOverdue);
-        conditions.put("kpiBreach", kpiBreach);
-        conditions.put("dependencyBlocked", dependencyBlocked);
+        bits = pack(projectActive, taskOverdue, kpiBreach, dependencyBlocked);
+    }
+    
+    /**
+     * Packs the four dashboard conditions into their slot bits.
+     * 
+     * @param projectActive Whether the project is active
+     * @param taskOverdue Whether any task is overdue
+     * @param kpiBreach Whether there is a KPI breach
+     * @param dependencyBlocked Whether any dependency is blocked
+     * @return The packed condition bits
+     */
+    public static long pack(boolean projectActive, boolean taskOverdue, boolean kpiBreach, boolean dependencyBlocked) {
+        return (projectActive ? 1L << ConditionRegistry.PROJECT_ACTIVE : 0)
+             | (taskOverdue ? 1L << ConditionRegistry.TASK_OVERDUE : 0)
+             | (kpiBreach ? 1L << ConditionRegistry.KPI_BREACH : 0)
+             | (dependencyBlocked ? 1L << ConditionRegistry.DEPENDENCY_BLOCKED : 0);
     }
     
     /**
@@ -33,7 +58,22 @@ public class Context {
      * @return The boolean value of the condition
      */
     public boolean getCondition(String conditionName) {
-        return conditions.getOrDefault(conditionName, false);
+        int slot = ConditionRegistry.lookup(conditionName);
+        return slot >= 0 && getCondition(slot);
+    }
+    
+    /**
+     * Gets the value of a condition by slot.
+     * 
+     * @param slot The ConditionRegistry slot of the condition
+     * @return The boolean value of the condition
+     */
+    public boolean getCondition(int slot) {
+        if (slot < 64) {
+            return (bits >>> slot & 1L) != 0;
+        }
+        int word = (slot >>> 6) - 1;
+        return overflow != null && word < overflow.length && (overflow[word] >>> slot & 1L) != 0;
     }
     
     /**
@@ -43,7 +83,107 @@ public class Context {
      * @param value The boolean value to set
      */
     public void setCondition(String conditionName, boolean value) {
-        conditions.put(conditionName, value);
+        if (!value) {
+            // A name that is not in use cannot be read as true, so there is nothing to clear
+            int slot = ConditionRegistry.lookup(conditionName);
+            if (slot >= 0) {
+                setCondition(slot, false);
+            }
+            return;
+        }
+        ConditionRegistry.Slot slot = ConditionRegistry.register(conditionName);
+        hold(slot);
+        setCondition(slot.getIndex(), true);
+    }
+    
+    private void hold(ConditionRegistry.Slot slot) {
+        for (int i = 0; i < heldCount; i++) {
+            if (held[i] == slot) {
+                return;
+            }
+        }
+        if (held == null) {
+            held = new ConditionRegistry.Slot[4];
+        } else if (heldCount == held.length) {
+            held = Arrays.copyOf(held, heldCount * 2);
+        }
+        held[heldCount++] = slot;
+    }
+    
+    /**
+     * Sets the value of a condition by slot.
+     * 
+     * @param slot The ConditionRegistry slot of the condition
+     * @param value The boolean value to set
+     */
+    public void setCondition(int slot, boolean value) {
+        if (slot < 64) {
+            bits = value ? bits | 1L << slot : bits & ~(1L << slot);
+            return;
+        }
+        int word = (slot >>> 6) - 1;
+        if (overflow == null || word >= overflow.length) {
+            if (!value) {
+                return;
+            }
+            overflow = overflow == null ? new long[word + 1] : Arrays.copyOf(overflow, word + 1);
+        }
+        overflow[word] = value ? overflow[word] | 1L << slot : overflow[word] & ~(1L << slot);
+    }
+    
+    /**
+     * Gets the bits for the first 64 condition slots.
+     * 
+     * @return The low condition word
+     */
+    public long getBits() {
+        return bits;
+    }
+    
+    /**
+     * Replaces the bits for the first 64 condition slots.
+     * 
+     * @param bits The new low condition word
+     */
+    public void setBits(long bits) {
+        this.bits = bits;
+    }
+    
+    /**
+     * Gets the number of 64-slot words that may hold set conditions.
+     * 
+     * @return The word count, at least 1
+     */
+    public int getWordCount() {
+        return overflow == null ? 1 : overflow.length + 1;
+    }
+    
+    /**
+     * Gets the bits for one 64-slot word of conditions.
+     * 
+     * @param word The word index; word 0 holds slots 0-63
+     * @return The condition word, 0 beyond getWordCount()
+     */
+    public long getWord(int word) {
+        if (word == 0) {
+            return bits;
+        }
+        return overflow != null && word <= overflow.length ? overflow[word - 1] : 0;
+    }
+    
+    /**
+     * Checks whether any condition beyond the first 64 slots is set.
+     * 
+     * @return true if overflow slots hold any set condition
+     */
+    public boolean hasOverflow() {
+        if (overflow != null) {
+            for (long word : overflow) {
+                if (word != 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
     }
 }
-
@@ -0,0 +1,266 @@
+/**
+ * DecisionCache.java
+ *
+ * A bounded cache of first-match results keyed by the packed condition vector of a
+ * context, for traffic that keeps repeating the same condition combinations.
+ *
+ * Every entry records the rule-set version it was computed against, and a lookup only
+ * hits when that version is still current, so a rule change invalidates the whole
+ * cache at once without touching it. Stale entries are the first to be evicted.
+ *
+ * Eviction uses the CLOCK approximation of LRU: a hit only sets the entry's referenced
+ * flag, and an insert into a full cache sweeps a hand around the entries, clearing
+ * flags until it finds an unreferenced one. Lookups never lock; inserts take a lock.
+ */
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+public class DecisionCache {
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private final int capacity;
+    private final ConcurrentHashMap<Object, Entry> entries;
+    // CLOCK ring; guarded by lock
+    private final Entry[] ring;
+    private int size;
+    private int hand;
+    private final Object lock = new Object();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder staleMisses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private static final class Entry {
+        final Object key;
+        final long version;
+        final EvaluationResult result;
+        final int slot;
+        volatile boolean referenced;
+
+        Entry(Object key, EvaluationResult result, int slot) {
+            this.key = key;
+            this.version = result.getVersion();
+            this.result = result;
+            this.slot = slot;
+        }
+    }
+
+    /**
+     * Key for contexts with conditions set beyond the first 64 slots.
+     */
+    private static final class WideKey {
+        final long[] words;
+        final int hash;
+
+        WideKey(long[] words) {
+            this.words = words;
+            this.hash = Arrays.hashCode(words);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof WideKey && Arrays.equals(words, ((WideKey) other).words);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Creates a cache with the default capacity.
+     */
+    public DecisionCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a cache.
+     *
+     * @param capacity The largest number of condition vectors to keep
+     */
+    public DecisionCache(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.entries = new ConcurrentHashMap<>(Math.min(capacity, 1 << 16) * 4 / 3 + 1);
+        this.ring = new Entry[capacity];
+    }
+
+    /**
+     * Gets the cache key of a context: its condition bits as a Long when every set
+     * condition is in the first 64 slots, otherwise all its words without trailing zeros.
+     */
+    private static Object keyOf(Context context) {
+        int words = context.getWordCount();
+        while (words > 1 && context.getWord(words - 1) == 0) {
+            words--;
+        }
+        if (words <= 1) {
+            return context.getBits();
+        }
+        long[] key = new long[words];
+        for (int i = 0; i < words; i++) {
+            key[i] = context.getWord(i);
+        }
+        return new WideKey(key);
+    }
+
+    /**
+     * Looks up the result for a context.
+     *
+     * @param context The context containing condition values
+     * @param version The current rule-set version
+     * @return The cached result computed against that version, or null on a miss
+     */
+    public EvaluationResult get(Context context, long version) {
+        Entry entry = entries.get(keyOf(context));
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        if (entry.version != version) {
+            misses.increment();
+            staleMisses.increment();
+            return null;
+        }
+        if (!entry.referenced) {
+            entry.referenced = true;
+        }
+        hits.increment();
+        return entry.result;
+    }
+
+    /**
+     * Stores the result for a context, replacing any older result for the same
+     * conditions and evicting another entry if the cache is full.
+     *
+     * @param context The context the result was computed for
+     * @param result The first-match result
+     */
+    public void put(Context context, EvaluationResult result) {
+        Object key = keyOf(context);
+        synchronized (lock) {
+            Entry existing = entries.get(key);
+            int slot;
+            if (existing != null) {
+                slot = existing.slot;
+            } else if (size < capacity) {
+                slot = size++;
+            } else {
+                slot = evict(result.getVersion());
+            }
+            Entry entry = new Entry(key, result, slot);
+            ring[slot] = entry;
+            entries.put(key, entry);
+        }
+    }
+
+    /**
+     * Advances the clock hand to an entry that is stale or was not referenced since
+     * the hand last passed, and removes it. Callers must hold the lock.
+     *
+     * @return The freed ring slot
+     */
+    private int evict(long version) {
+        while (true) {
+            Entry entry = ring[hand];
+            int slot = hand;
+            hand = hand + 1 == capacity ? 0 : hand + 1;
+            if (entry.referenced && entry.version == version) {
+                entry.referenced = false;
+                continue;
+            }
+            entries.remove(entry.key);
+            evictions.increment();
+            return slot;
+        }
+    }
+
+    /**
+     * Removes every entry. Statistics are kept.
+     */
+    public void clear() {
+        synchronized (lock) {
+            entries.clear();
+            Arrays.fill(ring, null);
+            size = 0;
+            hand = 0;
+        }
+    }
+
+    /**
+     * Gets the largest number of entries the cache keeps.
+     *
+     * @return The capacity
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Gets the number of entries, including stale ones not yet evicted.
+     *
+     * @return The number of cached condition vectors
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Gets the number of lookups answered from the cache.
+     *
+     * @return The hit count
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Gets the number of lookups that had to be evaluated, including stale ones.
+     *
+     * @return The miss count
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Gets the number of misses caused by an entry from an older rule-set version.
+     *
+     * @return The stale miss count
+     */
+    public long getStaleMissCount() {
+        return staleMisses.sum();
+    }
+
+    /**
+     * Gets the number of entries evicted to make room.
+     *
+     * @return The eviction count
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Gets the fraction of lookups that hit.
+     *
+     * @return The hit rate, or 0 if there were no lookups
+     */
+    public double getHitRate() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("DecisionCache: %d/%d entries, %d hits, %d misses (%d stale), %d evictions",
+            size(), capacity, getHitCount(), getMissCount(), getStaleMissCount(), getEvictionCount());
+    }
+}
@@ -0,0 +1,350 @@
+/**
+ * DecisionDiagram.java
+ *
+ * A reduced ordered binary decision diagram (ROBDD) compiled from an ordered,
+ * first-match rule list.
+ *
+ * Every internal node tests one condition and every leaf holds the index of the rule
+ * that wins for that path (or no match). Equivalent subgraphs are shared through a
+ * unique table, so the whole rule list collapses into one decision structure and any
+ * context is decided in at most N condition tests, where N is the number of
+ * conditions the rules read.
+ *
+ * This is the fallback for rule sets that read too many conditions for a TruthTable.
+ */
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class DecisionDiagram {
+
+    // Largest number of nodes created while compiling before we give up (keys pack 21-bit ids)
+    public static final int MAX_NODES = 1 << 20;
+
+    // Reserved terminals used while building
+    private static final int FALSE = 0;
+    private static final int TRUE = 1;
+    private static final int TERMINAL_LEVEL = Integer.MAX_VALUE;
+
+    // Compiled form: internal nodes are >= 0, leaves encode rule r as -(r + 2) and no match as -1
+    private final int root;
+    private final int[] slot;
+    private final int[] low;
+    private final int[] high;
+    private final int[] variableOrder;
+    private final int createdNodes;
+    private final long compileTimeNanos;
+
+    private DecisionDiagram(int root, int[] slot, int[] low, int[] high, int[] variableOrder,
+                            int createdNodes, long compileTimeNanos) {
+        this.root = root;
+        this.slot = slot;
+        this.low = low;
+        this.high = high;
+        this.variableOrder = variableOrder;
+        this.createdNodes = createdNodes;
+        this.compileTimeNanos = compileTimeNanos;
+    }
+
+    /**
+     * Compiles a first-match rule list into a decision diagram.
+     *
+     * @param rules The rules in evaluation order
+     * @return The diagram, or null if the rules contain custom expression nodes or the
+     *         diagram grows past MAX_NODES
+     */
+    public static DecisionDiagram build(List<Rule> rules) {
+        long start = System.nanoTime();
+        int[] order = chooseVariableOrder(rules);
+        if (order == null) {
+            return null;
+        }
+
+        Builder builder = new Builder(order);
+        try {
+            // Fold from the lowest-priority rule upwards: result = rule_i ? leaf_i : result
+            int result = FALSE;
+            for (int r = rules.size() - 1; r >= 0; r--) {
+                int condition = builder.fromExpression(rules.get(r).getOptimizedCondition());
+                result = builder.ite(condition, builder.leaf(r), result);
+            }
+            return builder.compact(result, System.nanoTime() - start);
+        } catch (IllegalStateException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Chooses the variable order. Conditions that appear often, and in high-priority
+     * rules, are tested first: they decide the most paths early, which keeps the
+     * diagram narrow near the root.
+     *
+     * @param rules The rules in evaluation order
+     * @return The condition slots in test order, or null if a rule contains custom nodes
+     */
+    private static int[] chooseVariableOrder(List<Rule> rules) {
+        Map<Integer, Long> scores = new HashMap<>();
+        Map<Integer, Integer> firstSeen = new HashMap<>();
+        for (int r = 0; r < rules.size(); r++) {
+            long weight = rules.size() - r;
+            List<Integer> occurrences = new ArrayList<>();
+            if (!collectOccurrences(rules.get(r).getOptimizedCondition(), occurrences)) {
+                return null;
+            }
+            for (int s : occurrences) {
+                scores.merge(s, weight, Long::sum);
+                firstSeen.putIfAbsent(s, firstSeen.size());
+            }
+        }
+        return scores.keySet().stream()
+            .sorted((a, b) -> {
+                int byScore = Long.compare(scores.get(b), scores.get(a));
+                return byScore != 0 ? byScore : Integer.compare(firstSeen.get(a), firstSeen.get(b));
+            })
+            .mapToInt(Integer::intValue)
+            .toArray();
+    }
+
+    private static boolean collectOccurrences(Expression expression, List<Integer> occurrences) {
+        if (expression instanceof TerminalExpression) {
+            occurrences.add(((TerminalExpression) expression).getSlot());
+            return true;
+        } else if (expression instanceof NotExpression) {
+            return collectOccurrences(((NotExpression) expression).getExpression(), occurrences);
+        } else if (expression instanceof ConstantExpression) {
+            return true;
+        } else if (expression instanceof AndExpression || expression instanceof OrExpression) {
+            for (Expression operand : Expressions.operandsOf(expression)) {
+                if (!collectOccurrences(operand, occurrences)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Finds the first matching rule for a context.
+     *
+     * @param context The context containing condition values
+     * @return The index of the first matching rule, or -1 if no rule matches
+     */
+    public int firstMatch(Context context) {
+        int node = root;
+        while (node >= 0) {
+            node = context.getCondition(slot[node]) ? high[node] : low[node];
+        }
+        return -node - 2;
+    }
+
+    /**
+     * Gets the number of decision nodes reachable from the root.
+     *
+     * @return The node count of the reduced diagram
+     */
+    public int getNodeCount() {
+        return slot.length;
+    }
+
+    /**
+     * Gets the number of nodes created while compiling, including intermediate results.
+     *
+     * @return The number of nodes created
+     */
+    public int getCreatedNodeCount() {
+        return createdNodes;
+    }
+
+    /**
+     * Gets the condition names in the order they are tested from the root.
+     *
+     * @return The variable order
+     */
+    public List<String> getVariableOrder() {
+        List<String> names = new ArrayList<>();
+        for (int s : variableOrder) {
+            names.add(ConditionRegistry.nameOf(s));
+        }
+        return names;
+    }
+
+    /**
+     * Gets how long compilation took.
+     *
+     * @return The compile time in nanoseconds
+     */
+    public long getCompileTimeNanos() {
+        return compileTimeNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("DecisionDiagram: %d nodes (%d created) over %d conditions, compiled in %.3f ms, order %s",
+            getNodeCount(), createdNodes, variableOrder.length, compileTimeNanos / 1_000_000.0, getVariableOrder());
+    }
+
+    /**
+     * Hash-consing BDD builder with a memoized if-then-else operator.
+     */
+    private static class Builder {
+        private final int[] order;
+        private final Map<Integer, Integer> levelOfSlot = new HashMap<>();
+        private int[] level = new int[1024];
+        private int[] low = new int[1024];
+        private int[] high = new int[1024];
+        private int count;
+        private final Map<Long, Integer> unique = new HashMap<>();
+        private final Map<Long, Integer> iteCache = new HashMap<>();
+        private final Map<Integer, Integer> leaves = new HashMap<>();
+
+        Builder(int[] order) {
+            this.order = order;
+            for (int i = 0; i < order.length; i++) {
+                levelOfSlot.put(order[i], i);
+            }
+            newNode(TERMINAL_LEVEL, -1, -1);
+            newNode(TERMINAL_LEVEL, -2, -2);
+        }
+
+        private int newNode(int nodeLevel, int nodeLow, int nodeHigh) {
+            if (count >= MAX_NODES) {
+                throw new IllegalStateException("Decision diagram exceeded " + MAX_NODES + " nodes");
+            }
+            if (count == level.length) {
+                level = Arrays.copyOf(level, count * 2);
+                low = Arrays.copyOf(low, count * 2);
+                high = Arrays.copyOf(high, count * 2);
+            }
+            level[count] = nodeLevel;
+            low[count] = nodeLow;
+            high[count] = nodeHigh;
+            return count++;
+        }
+
+        int leaf(int ruleIndex) {
+            Integer existing = leaves.get(ruleIndex);
+            if (existing == null) {
+                existing = newNode(TERMINAL_LEVEL, ruleIndex, ruleIndex);
+                leaves.put(ruleIndex, existing);
+            }
+            return existing;
+        }
+
+        /**
+         * Returns the unique node for (level, low, high), applying the reduction rule.
+         */
+        int mk(int nodeLevel, int nodeLow, int nodeHigh) {
+            if (nodeLow == nodeHigh) {
+                return nodeLow;
+            }
+            long key = ((long) nodeLevel << 42) | ((long) nodeLow << 21) | nodeHigh;
+            Integer existing = unique.get(key);
+            if (existing == null) {
+                existing = newNode(nodeLevel, nodeLow, nodeHigh);
+                unique.put(key, existing);
+            }
+            return existing;
+        }
+
+        int fromExpression(Expression expression) {
+            if (expression instanceof TerminalExpression) {
+                return mk(levelOfSlot.get(((TerminalExpression) expression).getSlot()), FALSE, TRUE);
+            } else if (expression instanceof NotExpression) {
+                return ite(fromExpression(((NotExpression) expression).getExpression()), FALSE, TRUE);
+            } else if (expression instanceof ConstantExpression) {
+                return ((ConstantExpression) expression).getValue() ? TRUE : FALSE;
+            } else if (expression instanceof AndExpression) {
+                int result = TRUE;
+                for (Expression operand : ((AndExpression) expression).getOperands()) {
+                    result = ite(result, fromExpression(operand), FALSE);
+                }
+                return result;
+            } else if (expression instanceof OrExpression) {
+                int result = FALSE;
+                for (Expression operand : ((OrExpression) expression).getOperands()) {
+                    result = ite(result, TRUE, fromExpression(operand));
+                }
+                return result;
+            }
+            throw new IllegalStateException("Unsupported expression: " + expression);
+        }
+
+        /**
+         * If-then-else over diagrams, where f is a boolean (TRUE/FALSE-terminated) diagram.
+         */
+        int ite(int f, int g, int h) {
+            if (f == TRUE) {
+                return g;
+            }
+            if (f == FALSE) {
+                return h;
+            }
+            if (g == h) {
+                return g;
+            }
+            if (g == TRUE && h == FALSE) {
+                return f;
+            }
+            long key = ((long) f << 42) | ((long) g << 21) | h;
+            Integer cached = iteCache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+            int top = Math.min(level[f], Math.min(level[g], level[h]));
+            int result = mk(top,
+                ite(cofactor(f, top, false), cofactor(g, top, false), cofactor(h, top, false)),
+                ite(cofactor(f, top, true), cofactor(g, top, true), cofactor(h, top, true)));
+            iteCache.put(key, result);
+            return result;
+        }
+
+        private int cofactor(int node, int atLevel, boolean value) {
+            if (level[node] != atLevel) {
+                return node;
+            }
+            return value ? high[node] : low[node];
+        }
+
+        /**
+         * Copies the nodes reachable from root into dense arrays for evaluation.
+         */
+        DecisionDiagram compact(int rootNode, long compileTimeNanos) {
+            Map<Integer, Integer> renumbered = new HashMap<>();
+            List<Integer> reachable = new ArrayList<>();
+            collect(rootNode, renumbered, reachable);
+
+            int[] slots = new int[reachable.size()];
+            int[] lows = new int[reachable.size()];
+            int[] highs = new int[reachable.size()];
+            for (int i = 0; i < reachable.size(); i++) {
+                int node = reachable.get(i);
+                slots[i] = order[level[node]];
+                lows[i] = encode(low[node], renumbered);
+                highs[i] = encode(high[node], renumbered);
+            }
+            return new DecisionDiagram(encode(rootNode, renumbered), slots, lows, highs, order,
+                count, compileTimeNanos);
+        }
+
+        private void collect(int node, Map<Integer, Integer> renumbered, List<Integer> reachable) {
+            if (level[node] == TERMINAL_LEVEL || renumbered.containsKey(node)) {
+                return;
+            }
+            renumbered.put(node, reachable.size());
+            reachable.add(node);
+            collect(low[node], renumbered, reachable);
+            collect(high[node], renumbered, reachable);
+        }
+
+        private int encode(int node, Map<Integer, Integer> renumbered) {
+            if (level[node] != TERMINAL_LEVEL) {
+                return renumbered.get(node);
+            }
+            // FALSE stores -1 (no match); rule leaves store their rule index
+            return -low[node] - 2;
+        }
+    }
+}
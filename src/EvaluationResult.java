@@ -0,0 +1,79 @@
+/**
+ * EvaluationResult.java
+ * 
+ * The outcome of evaluating a context against one RuleSet snapshot, including the
+ * version of the rule set that produced it.
+ */
+import java.util.List;
+
+public final class EvaluationResult {
+    private final long version;
+    private final int ruleIndex;
+    private final Rule rule;
+    private final List<String> actions;
+    
+    /**
+     * Creates an evaluation result.
+     * 
+     * @param version The rule-set version that was evaluated
+     * @param ruleIndex The index of the first matching rule, or -1 if none matched
+     * @param rule The first matching rule, or null if none matched
+     * @param actions The resulting actions (unmodifiable)
+     */
+    public EvaluationResult(long version, int ruleIndex, Rule rule, List<String> actions) {
+        this.version = version;
+        this.ruleIndex = ruleIndex;
+        this.rule = rule;
+        this.actions = actions;
+    }
+    
+    /**
+     * Gets the version of the rule set this result was computed against.
+     * 
+     * @return The rule-set version
+     */
+    public long getVersion() {
+        return version;
+    }
+    
+    /**
+     * Gets the index of the first matching rule.
+     * 
+     * @return The rule index, or -1 if no rule matched
+     */
+    public int getRuleIndex() {
+        return ruleIndex;
+    }
+    
+    /**
+     * Gets the first matching rule.
+     * 
+     * @return The rule, or null if no rule matched
+     */
+    public Rule getRule() {
+        return rule;
+    }
+    
+    /**
+     * Checks whether any rule matched.
+     * 
+     * @return true if a rule matched
+     */
+    public boolean isMatched() {
+        return ruleIndex >= 0;
+    }
+    
+    /**
+     * Gets the resulting actions.
+     * 
+     * @return Unmodifiable list of actions
+     */
+    public List<String> getActions() {
+        return actions;
+    }
+    
+    @Override
+    public String toString() {
+        return "v" + version + " " + (rule != null ? rule.getName() : "(no match)") + " -> " + actions;
+    }
+}
@@ -0,0 +1,415 @@
+/**
+ * ExpressionCompiler.java
+ *
+ * Compiles an expression tree into a generated JVM class so that evaluating a rule
+ * condition runs straight-line boolean code instead of walking the object graph.
+ *
+ * Each condition is lowered to "jumping code": every leaf becomes a single slot read
+ * through Context.getCondition(int) followed by a conditional branch, and AND/OR/NOT become plain
+ * control flow. The generated class implements Expression and is defined as a hidden
+ * class, so it can be unloaded once the rule that owns it is gone.
+ *
+ * The tree interpreter remains the reference implementation: any expression type the
+ * compiler does not know is called through its own interpret() method. The original
+ * tree is also returned unchanged when the generated method would be longer than
+ * 32767 bytes, or when the JVM refuses the generated class or cannot instantiate it
+ * (a LinkageError such as VerifyError, or a ReflectiveOperationException). Any other
+ * RuntimeException or Error, such as a bug in the generator or an OutOfMemoryError,
+ * propagates to the caller rather than being hidden behind the interpreter.
+ *
+ * Compiled conditions are cached by structure, so rules with equal conditions share
+ * one generated class, also across engines that share a compiler. The cache holds
+ * both sides weakly and does not keep a class alive once no rule uses it.
+ */
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+public class ExpressionCompiler {
+
+    // Largest method body we emit: branch offsets are signed 16-bit values, so every
+    // target must be within 32767 bytes of its branch
+    private static final int MAX_CODE_LENGTH = 32767;
+
+    // Class file version 49 uses the type-inferencing verifier, so no StackMapTable is needed
+    private static final int CLASS_FILE_VERSION = 49;
+
+    private static final String CLASS_NAME = "CompiledExpression";
+    private static final String FALLBACKS_FIELD = "fallbacks";
+    private static final String FALLBACKS_DESCRIPTOR = "[LExpression;";
+
+    // Opcodes used by the generator
+    private static final int ICONST_0 = 0x03;
+    private static final int ICONST_1 = 0x04;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC_W = 0x13;
+    private static final int ALOAD_0 = 0x2a;
+    private static final int ALOAD_1 = 0x2b;
+    private static final int AALOAD = 0x32;
+    private static final int IFEQ = 0x99;
+    private static final int IFNE = 0x9a;
+    private static final int GOTO = 0xa7;
+    private static final int IRETURN = 0xac;
+    private static final int RETURN = 0xb1;
+    private static final int GETFIELD = 0xb4;
+    private static final int PUTFIELD = 0xb5;
+    private static final int INVOKEVIRTUAL = 0xb6;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKEINTERFACE = 0xb9;
+
+    private final MethodHandles.Lookup lookup = MethodHandles.lookup();
+    private final Map<Expression, WeakReference<Expression>> cache = new WeakHashMap<>();
+
+    /**
+     * Compiles an expression into a generated class.
+     *
+     * @param expression The expression tree to compile
+     * @return A compiled expression with the same semantics, or the original tree
+     *         if it is too large to compile or its class was refused
+     * @throws RuntimeException if generating the class fails for another reason
+     */
+    public Expression compile(Expression expression) {
+        synchronized (cache) {
+            WeakReference<Expression> cached = cache.get(expression);
+            Expression compiled = cached == null ? null : cached.get();
+            if (compiled != null) {
+                return compiled;
+            }
+        }
+        // Generated outside the lock; a racing duplicate is harmless
+        Expression compiled = generate(expression);
+        if (compiled != expression) {
+            synchronized (cache) {
+                cache.put(expression, new WeakReference<>(compiled));
+            }
+        }
+        return compiled;
+    }
+
+    private Expression generate(Expression expression) {
+        try {
+            MethodGenerator generator = new MethodGenerator();
+            Label whenFalse = new Label();
+            generator.branch(expression, whenFalse, false);
+            generator.op(ICONST_1);
+            generator.op(IRETURN);
+            generator.place(whenFalse);
+            generator.op(ICONST_0);
+            generator.op(IRETURN);
+            if (generator.code.size() > MAX_CODE_LENGTH) {
+                return expression;
+            }
+
+            byte[] classBytes = generator.toClassFile();
+            Class<?> compiledClass = lookup.defineHiddenClass(classBytes, true).lookupClass();
+            Expression[] fallbacks = generator.fallbacks.toArray(new Expression[0]);
+            return (Expression) lookup
+                .findConstructor(compiledClass, MethodType.methodType(void.class, Expression[].class))
+                .invoke(fallbacks);
+        } catch (IOException | ReflectiveOperationException | LinkageError e) {
+            // The class was rejected or could not be instantiated; the tree stays in use
+            return expression;
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Generated constructor failed", e);
+        }
+    }
+
+    /**
+     * A forward branch target inside the generated method.
+     */
+    private static class Label {
+        int position = -1;
+        List<Integer> pendingBranches = new ArrayList<>();
+    }
+
+    /**
+     * Emits the body of interpret(Context) and the constant pool it refers to.
+     */
+    private static class MethodGenerator {
+        final ByteArrayOutputStream code = new ByteArrayOutputStream();
+        final List<Expression> fallbacks = new ArrayList<>();
+        final List<Label> labels = new ArrayList<>();
+        final ConstantPool pool = new ConstantPool();
+
+        /**
+         * Emits code that jumps to target when the expression evaluates to jumpWhen,
+         * and falls through otherwise.
+         */
+        void branch(Expression expression, Label target, boolean jumpWhen) {
+            if (expression instanceof TerminalExpression) {
+                op(ALOAD_1);
+                pushInt(((TerminalExpression) expression).getSlot());
+                op(INVOKEVIRTUAL);
+                u2(pool.methodRef("Context", "getCondition", "(I)Z"));
+                jump(jumpWhen ? IFNE : IFEQ, target);
+            } else if (expression instanceof NotExpression) {
+                branch(((NotExpression) expression).getExpression(), target, !jumpWhen);
+            } else if (expression instanceof ConstantExpression) {
+                if (((ConstantExpression) expression).getValue() == jumpWhen) {
+                    jump(GOTO, target);
+                }
+            } else if (expression instanceof AndExpression) {
+                AndExpression and = (AndExpression) expression;
+                junction(and.getOperands(), target, jumpWhen, false);
+            } else if (expression instanceof OrExpression) {
+                OrExpression or = (OrExpression) expression;
+                junction(or.getOperands(), target, jumpWhen, true);
+            } else {
+                // Unknown expression type - call its own interpret() method
+                int index = fallbacks.size();
+                fallbacks.add(expression);
+                op(ALOAD_0);
+                op(GETFIELD);
+                u2(pool.fieldRef(CLASS_NAME, FALLBACKS_FIELD, FALLBACKS_DESCRIPTOR));
+                pushInt(index);
+                op(AALOAD);
+                op(ALOAD_1);
+                op(INVOKEINTERFACE);
+                u2(pool.interfaceMethodRef("Expression", "interpret", "(LContext;)Z"));
+                code.write(2);
+                code.write(0);
+                jump(jumpWhen ? IFNE : IFEQ, target);
+            }
+        }
+
+        /**
+         * Emits an n-ary AND (shortCircuitOn = false) or OR (shortCircuitOn = true).
+         * When the jump matches the short-circuit value every operand can jump straight
+         * to target; otherwise all but the last operand skip past on short-circuit and
+         * the last operand decides.
+         */
+        void junction(Expression[] operands, Label target, boolean jumpWhen, boolean shortCircuitOn) {
+            if (jumpWhen == shortCircuitOn) {
+                for (Expression operand : operands) {
+                    branch(operand, target, jumpWhen);
+                }
+                return;
+            }
+            Label skip = new Label();
+            for (int i = 0; i < operands.length - 1; i++) {
+                branch(operands[i], skip, shortCircuitOn);
+            }
+            branch(operands[operands.length - 1], target, jumpWhen);
+            place(skip);
+        }
+        
+        void pushInt(int value) {
+            if (value < 128) {
+                op(BIPUSH);
+                code.write(value);
+            } else if (value < 32768) {
+                op(SIPUSH);
+                u2(value);
+            } else {
+                op(LDC_W);
+                u2(pool.integer(value));
+            }
+        }
+
+        void jump(int opcode, Label target) {
+            target.pendingBranches.add(code.size());
+            op(opcode);
+            u2(0);
+        }
+
+        void place(Label label) {
+            label.position = code.size();
+            labels.add(label);
+        }
+
+        void op(int opcode) {
+            code.write(opcode);
+        }
+
+        void u2(int value) {
+            code.write((value >>> 8) & 0xff);
+            code.write(value & 0xff);
+        }
+
+        /**
+         * Resolves every branch offset. Labels are placed only after all of
+         * their branches have been emitted, so patching happens once at the end.
+         */
+        byte[] patchedCode() {
+            byte[] bytes = code.toByteArray();
+            for (Label label : labels) {
+                for (int branchAt : label.pendingBranches) {
+                    int offset = label.position - branchAt;
+                    bytes[branchAt + 1] = (byte) (offset >>> 8);
+                    bytes[branchAt + 2] = (byte) offset;
+                }
+            }
+            return bytes;
+        }
+
+        byte[] toClassFile() throws IOException {
+            byte[] body = patchedCode();
+
+            int thisClass = pool.classRef(CLASS_NAME);
+            int superClass = pool.classRef("java/lang/Object");
+            int expressionInterface = pool.classRef("Expression");
+            int fieldName = pool.utf8(FALLBACKS_FIELD);
+            int fieldDescriptor = pool.utf8(FALLBACKS_DESCRIPTOR);
+            int fallbacksRef = pool.fieldRef(CLASS_NAME, FALLBACKS_FIELD, FALLBACKS_DESCRIPTOR);
+            int objectInit = pool.methodRef("java/lang/Object", "<init>", "()V");
+            int initName = pool.utf8("<init>");
+            int initDescriptor = pool.utf8("(" + FALLBACKS_DESCRIPTOR + ")V");
+            int interpretName = pool.utf8("interpret");
+            int interpretDescriptor = pool.utf8("(LContext;)Z");
+            int codeAttribute = pool.utf8("Code");
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(CLASS_FILE_VERSION);
+            pool.writeTo(out);
+            out.writeShort(0x0031); // public final super
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(1);
+            out.writeShort(expressionInterface);
+
+            // private final Expression[] fallbacks;
+            out.writeShort(1);
+            out.writeShort(0x0012);
+            out.writeShort(fieldName);
+            out.writeShort(fieldDescriptor);
+            out.writeShort(0);
+
+            out.writeShort(2);
+
+            // public <init>(Expression[] fallbacks)
+            byte[] init = {
+                (byte) ALOAD_0,
+                (byte) INVOKESPECIAL, (byte) (objectInit >>> 8), (byte) objectInit,
+                (byte) ALOAD_0,
+                (byte) ALOAD_1,
+                (byte) PUTFIELD, (byte) (fallbacksRef >>> 8), (byte) fallbacksRef,
+                (byte) RETURN
+            };
+            writeMethod(out, initName, initDescriptor, codeAttribute, init);
+
+            // public boolean interpret(Context context)
+            writeMethod(out, interpretName, interpretDescriptor, codeAttribute, body);
+
+            out.writeShort(0);
+            out.flush();
+            return bytes.toByteArray();
+        }
+
+        private void writeMethod(DataOutputStream out, int name, int descriptor,
+                                 int codeAttribute, byte[] body) throws IOException {
+            out.writeShort(0x0001);
+            out.writeShort(name);
+            out.writeShort(descriptor);
+            out.writeShort(1);
+            out.writeShort(codeAttribute);
+            out.writeInt(12 + body.length);
+            out.writeShort(2); // max stack
+            out.writeShort(2); // max locals: this + one argument
+            out.writeInt(body.length);
+            out.write(body);
+            out.writeShort(0);
+            out.writeShort(0);
+        }
+    }
+
+    /**
+     * Minimal class file constant pool with de-duplication of entries.
+     */
+    private static class ConstantPool {
+        private final ByteArrayOutputStream entries = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(entries);
+        private final Map<String, Integer> indexes = new HashMap<>();
+        private int count = 1;
+
+        int utf8(String value) {
+            return entry("U" + value, () -> {
+                out.writeByte(1);
+                out.writeUTF(value);
+            });
+        }
+
+        int integer(int value) {
+            return entry("I" + value, () -> {
+                out.writeByte(3);
+                out.writeInt(value);
+            });
+        }
+
+        int classRef(String internalName) {
+            int name = utf8(internalName);
+            return entry("C" + internalName, () -> {
+                out.writeByte(7);
+                out.writeShort(name);
+            });
+        }
+
+        int fieldRef(String owner, String name, String descriptor) {
+            return memberRef(9, owner, name, descriptor);
+        }
+
+        int methodRef(String owner, String name, String descriptor) {
+            return memberRef(10, owner, name, descriptor);
+        }
+
+        int interfaceMethodRef(String owner, String name, String descriptor) {
+            return memberRef(11, owner, name, descriptor);
+        }
+
+        private int memberRef(int tag, String owner, String name, String descriptor) {
+            int ownerIndex = classRef(owner);
+            int nameIndex = utf8(name);
+            int descriptorIndex = utf8(descriptor);
+            int nameAndType = entry("N" + name + ":" + descriptor, () -> {
+                out.writeByte(12);
+                out.writeShort(nameIndex);
+                out.writeShort(descriptorIndex);
+            });
+            return entry(tag + owner + "." + name + ":" + descriptor, () -> {
+                out.writeByte(tag);
+                out.writeShort(ownerIndex);
+                out.writeShort(nameAndType);
+            });
+        }
+
+        private int entry(String key, EntryWriter writer) {
+            Integer existing = indexes.get(key);
+            if (existing != null) {
+                return existing;
+            }
+            try {
+                writer.write();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            if (count > 0xffff) {
+                throw new IllegalStateException("Constant pool overflow");
+            }
+            indexes.put(key, count);
+            return count++;
+        }
+
+        void writeTo(DataOutputStream target) throws IOException {
+            out.flush();
+            target.writeShort(count);
+            entries.writeTo(target);
+        }
+    }
+
+    private interface EntryWriter {
+        void write() throws IOException;
+    }
+}
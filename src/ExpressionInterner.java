@@ -0,0 +1,98 @@
+/**
+ * ExpressionInterner.java
+ *
+ * Hash-conses expression trees: structurally identical subexpressions are replaced by
+ * one canonical node, so every rule that repeats a subterm points at the same object.
+ * Interning is bottom-up, which makes equality checks on canonical children a
+ * pointer comparison in practice.
+ *
+ * The table holds its nodes weakly, so nodes of removed rules can be collected.
+ * Custom expression types are left as they are, since their equality is unknown.
+ */
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+public class ExpressionInterner {
+    private final Map<Expression, WeakReference<Expression>> canonical = new WeakHashMap<>();
+    private long internedNodes;
+    private long reusedNodes;
+
+    /**
+     * Returns the canonical form of an expression, interning any node not seen before.
+     *
+     * @param expression The expression to intern
+     * @return A structurally equal expression built from canonical nodes
+     */
+    public synchronized Expression intern(Expression expression) {
+        Expression rebuilt;
+        if (expression instanceof TerminalExpression) {
+            rebuilt = expression;
+        } else if (expression instanceof NotExpression) {
+            Expression inner = ((NotExpression) expression).getExpression();
+            Expression canonicalInner = intern(inner);
+            rebuilt = canonicalInner == inner ? expression : new NotExpression(canonicalInner);
+        } else if (expression instanceof AndExpression || expression instanceof OrExpression) {
+            Expression[] operands = Expressions.operandsOf(expression);
+            boolean changed = false;
+            for (int i = 0; i < operands.length; i++) {
+                Expression operand = intern(operands[i]);
+                changed |= operand != operands[i];
+                operands[i] = operand;
+            }
+            if (!changed) {
+                rebuilt = expression;
+            } else if (expression instanceof AndExpression) {
+                rebuilt = new AndExpression(operands);
+            } else {
+                rebuilt = new OrExpression(operands);
+            }
+        } else {
+            // Constants are already singletons; custom nodes compare by identity
+            return expression;
+        }
+
+        internedNodes++;
+        WeakReference<Expression> existing = canonical.get(rebuilt);
+        Expression shared = existing == null ? null : existing.get();
+        if (shared != null) {
+            reusedNodes++;
+            return shared;
+        }
+        canonical.put(rebuilt, new WeakReference<>(rebuilt));
+        return rebuilt;
+    }
+
+    /**
+     * Gets the number of canonical nodes currently held.
+     *
+     * @return The size of the intern table
+     */
+    public synchronized int size() {
+        return canonical.size();
+    }
+
+    /**
+     * Gets the number of nodes passed through intern().
+     *
+     * @return The number of interned nodes
+     */
+    public synchronized long getInternedNodeCount() {
+        return internedNodes;
+    }
+
+    /**
+     * Gets the number of interned nodes that were replaced by an existing canonical node.
+     *
+     * @return The number of reused nodes
+     */
+    public synchronized long getReusedNodeCount() {
+        return reusedNodes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("ExpressionInterner: %d canonical nodes, %d of %d interned nodes reused",
+            canonical.size(), reusedNodes, internedNodes);
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * ExpressionOptimizer.java
+ *
+ * Rewrites a condition into an equivalent, cheaper expression before it is installed.
+ *
+ * The pass works in one walk that carries the pending negation down the tree:
+ * - NOT is pushed down to the leaves (De Morgan), so double negations cancel and
+ *   only literals are negated (negation normal form)
+ * - nested AND/OR chains of the same operator are flattened into one n-ary node
+ * - TRUE/FALSE constants are folded: FALSE in an AND (TRUE in an OR) decides the node,
+ *   and the identity constant is dropped
+ * - repeated operands are removed, and a literal next to its own negation decides
+ *   the node (x AND NOT x is FALSE, x OR NOT x is TRUE)
+ * - literal operands are moved ahead of compound ones, so the cheapest tests run
+ *   first and short-circuit the rest
+ *
+ * Custom expression types are treated as opaque: they are kept in place and only
+ * wrapped in a NotExpression when a negation reaches them.
+ */
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public final class ExpressionOptimizer {
+
+    private ExpressionOptimizer() {
+    }
+
+    /**
+     * Optimizes an expression.
+     *
+     * @param expression The expression to optimize
+     * @return An equivalent expression; the input tree is not modified
+     */
+    public static Expression optimize(Expression expression) {
+        return optimize(expression, false);
+    }
+
+    private static Expression optimize(Expression expression, boolean negate) {
+        if (expression instanceof TerminalExpression) {
+            return negate ? new NotExpression(expression) : expression;
+        } else if (expression instanceof NotExpression) {
+            return optimize(((NotExpression) expression).getExpression(), !negate);
+        } else if (expression instanceof ConstantExpression) {
+            return ConstantExpression.of(((ConstantExpression) expression).getValue() != negate);
+        } else if (expression instanceof AndExpression || expression instanceof OrExpression) {
+            // De Morgan: a negated AND is an OR of negated operands, and vice versa
+            boolean isAnd = (expression instanceof AndExpression) != negate;
+            return junction(Expressions.operandsOf(expression), negate, isAnd);
+        }
+        return negate ? new NotExpression(expression) : expression;
+    }
+
+    /**
+     * Builds the optimized form of an AND (isAnd) or OR over the given operands.
+     */
+    private static Expression junction(Expression[] operands, boolean negate, boolean isAnd) {
+        // The value that decides the node on its own: FALSE for AND, TRUE for OR
+        boolean dominant = !isAnd;
+        List<Expression> literals = new ArrayList<>();
+        List<Expression> compounds = new ArrayList<>();
+        // Literal text -> polarity, to find duplicates and contradictions
+        Map<String, Boolean> seenLiterals = new HashMap<>();
+        Set<Expression> seenCompounds = new HashSet<>();
+
+        List<Expression> pending = new ArrayList<>();
+        for (Expression operand : operands) {
+            pending.add(optimize(operand, negate));
+        }
+        for (int i = 0; i < pending.size(); i++) {
+            Expression operand = pending.get(i);
+            if (operand instanceof ConstantExpression) {
+                if (((ConstantExpression) operand).getValue() == dominant) {
+                    return operand;
+                }
+            } else if (isAnd ? operand instanceof AndExpression : operand instanceof OrExpression) {
+                // Flatten: splice the child's operands in where the child stood
+                Expression[] children = Expressions.operandsOf(operand);
+                for (int c = 0; c < children.length; c++) {
+                    pending.add(i + 1 + c, children[c]);
+                }
+            } else if (isLiteral(operand)) {
+                boolean positive = operand instanceof TerminalExpression;
+                String name = literalName(operand);
+                Boolean previous = seenLiterals.putIfAbsent(name, positive);
+                if (previous == null) {
+                    literals.add(operand);
+                } else if (previous != positive) {
+                    return ConstantExpression.of(dominant);
+                }
+            } else if (seenCompounds.add(operand)) {
+                compounds.add(operand);
+            }
+        }
+
+        literals.addAll(compounds);
+        if (literals.isEmpty()) {
+            return ConstantExpression.of(!dominant);
+        }
+        if (literals.size() == 1) {
+            return literals.get(0);
+        }
+        Expression[] result = literals.toArray(new Expression[0]);
+        return isAnd ? new AndExpression(result) : new OrExpression(result);
+    }
+
+    private static boolean isLiteral(Expression expression) {
+        return expression instanceof TerminalExpression
+            || (expression instanceof NotExpression
+                && ((NotExpression) expression).getExpression() instanceof TerminalExpression);
+    }
+
+    private static String literalName(Expression literal) {
+        if (literal instanceof NotExpression) {
+            literal = ((NotExpression) literal).getExpression();
+        }
+        return ((TerminalExpression) literal).getConditionName();
+    }
+
+    /**
+     * Counts the nodes of an expression tree.
+     *
+     * @param expression The expression
+     * @return The number of nodes, counting custom nodes as one
+     */
+    public static int nodeCount(Expression expression) {
+        if (expression instanceof NotExpression) {
+            return 1 + nodeCount(((NotExpression) expression).getExpression());
+        } else if (expression instanceof AndExpression || expression instanceof OrExpression) {
+            int count = 1;
+            for (Expression operand : Expressions.operandsOf(expression)) {
+                count += nodeCount(operand);
+            }
+            return count;
+        }
+        return 1;
+    }
+}
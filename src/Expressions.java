@@ -0,0 +1,102 @@
+/**
+ * Expressions.java
+ * 
+ * Structural helpers shared by the components that analyse expression trees
+ * (truth tables, decision diagrams and similar compiled forms).
+ */
+import java.util.ArrayDeque;
+import java.util.BitSet;
+
+public final class Expressions {
+    
+    private Expressions() {
+    }
+    
+    /**
+     * Collects the condition slots read by an expression.
+     * 
+     * @param expression The expression to inspect
+     * @param slots The set that receives the slots
+     * @return true if every node was a known expression type, false if the expression
+     *         contains a custom node whose inputs cannot be determined
+     */
+    public static boolean collectSlots(Expression expression, BitSet slots) {
+        if (expression instanceof TerminalExpression) {
+            slots.set(((TerminalExpression) expression).getSlot());
+            return true;
+        } else if (expression instanceof NotExpression) {
+            return collectSlots(((NotExpression) expression).getExpression(), slots);
+        } else if (expression instanceof ConstantExpression) {
+            return true;
+        } else if (expression instanceof AndExpression || expression instanceof OrExpression) {
+            for (Expression operand : operandsOf(expression)) {
+                if (!collectSlots(operand, slots)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Gets the operands of an AND or OR node.
+     * 
+     * @param expression An AndExpression or OrExpression
+     * @return The operands in evaluation order
+     */
+    public static Expression[] operandsOf(Expression expression) {
+        if (expression instanceof AndExpression) {
+            return ((AndExpression) expression).getOperands();
+        }
+        return ((OrExpression) expression).getOperands();
+    }
+    
+    /**
+     * Checks whether an expression nests deeper than a limit, without recursing, so it
+     * can vet trees too deep for the recursive passes. Custom nodes count as leaves.
+     * 
+     * @param expression The expression to inspect
+     * @param maxDepth The most levels a node may sit below the root
+     * @return true if some node is more than maxDepth levels below the root
+     */
+    public static boolean exceedsDepth(Expression expression, int maxDepth) {
+        ArrayDeque<Expression> nodes = new ArrayDeque<>();
+        ArrayDeque<Integer> depths = new ArrayDeque<>();
+        nodes.push(expression);
+        depths.push(0);
+        while (!nodes.isEmpty()) {
+            Expression node = nodes.pop();
+            int depth = depths.pop();
+            if (depth > maxDepth) {
+                return true;
+            }
+            if (node instanceof NotExpression) {
+                nodes.push(((NotExpression) node).getExpression());
+                depths.push(depth + 1);
+            } else if (node instanceof AndExpression || node instanceof OrExpression) {
+                for (Expression operand : operandsOf(node)) {
+                    nodes.push(operand);
+                    depths.push(depth + 1);
+                }
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Collects the condition slots read by every rule in a rule list.
+     * 
+     * @param rules The rules to inspect
+     * @return The slots read, or null if any rule contains a custom expression node
+     */
+    public static BitSet collectSlots(Iterable<Rule> rules) {
+        BitSet slots = new BitSet();
+        for (Rule rule : rules) {
+            if (!collectSlots(rule.getOptimizedCondition(), slots)) {
+                return null;
+            }
+        }
+        return slots;
+    }
+}
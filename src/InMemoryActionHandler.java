@@ -0,0 +1,67 @@
+/**
+ * InMemoryActionHandler.java
+ *
+ * An ActionHandler that only records the actions it is given, for tests and demos.
+ * Other threads can wait for a number of actions to arrive.
+ */
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class InMemoryActionHandler implements ActionHandler {
+    private final List<ActionEvent> events = new ArrayList<>();
+    private int batchCount;
+
+    @Override
+    public synchronized void handle(List<ActionEvent> batch) {
+        events.addAll(batch);
+        batchCount++;
+        notifyAll();
+    }
+
+    /**
+     * Gets the actions received so far.
+     *
+     * @return A copy of the received actions, in the order they were handled
+     */
+    public synchronized List<ActionEvent> getEvents() {
+        return Collections.unmodifiableList(new ArrayList<>(events));
+    }
+
+    /**
+     * Gets the number of batches received so far.
+     *
+     * @return The batch count
+     */
+    public synchronized int getBatchCount() {
+        return batchCount;
+    }
+
+    /**
+     * Waits until at least the given number of actions has been received.
+     *
+     * @param count The number of actions to wait for
+     * @param timeoutMillis The longest time to wait
+     * @return true if the actions arrived in time
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public synchronized boolean awaitEvents(int count, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (events.size() < count) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    /**
+     * Forgets the received actions and batches.
+     */
+    public synchronized void clear() {
+        events.clear();
+        batchCount = 0;
+    }
+}
@@ -10,17 +10,31 @@
  * - Business logic is separated from implementation
  * - Easy to understand and maintain
  */
+import java.io.IOException;
 import java.util.List;
 
 public class InterpreterDashboard {
     
     private RuleEngine ruleEngine;
+    private volatile ActionDispatcher actionDispatcher;
     
     /**
      * Initializes the dashboard with the business rules.
      */
     public InterpreterDashboard() {
-        ruleEngine = new RuleEngine();
+        this(new RuleEngine());
+    }
+    
+    /**
+     * Initializes the dashboard with the business rules in the given engine.
+     * The engine's evaluation modes are left as the caller set them; the rules read
+     * only four conditions, so a truth table (setTruthTableEnabled) suits them.
+     * 
+     * @param ruleEngine An empty engine, e.g. one sharing its interner and compiler
+     *                   with other engines
+     */
+    public InterpreterDashboard(RuleEngine ruleEngine) {
+        this.ruleEngine = ruleEngine;
         initializeRules();
     }
     
@@ -132,6 +146,64 @@ public class InterpreterDashboard {
         return ruleEngine.evaluateFirstMatch(context);
     }
     
+    /**
+     * Processes a decision for one project and hands its actions to the action
+     * dispatcher, if one is set, instead of running them on the calling thread.
+     * 
+     * @param projectId The project the actions apply to
+     * @param projectActive Whether the project is active
+     * @param taskOverdue Whether any task is overdue
+     * @param kpiBreach Whether there is a KPI breach
+     * @param dependencyBlocked Whether any dependency is blocked
+     * @return List of actions to perform
+     */
+    public List<String> processProjectDecision(String projectId, boolean projectActive, boolean taskOverdue,
+                                                boolean kpiBreach, boolean dependencyBlocked) {
+        EvaluationResult result = evaluateProjectDecision(projectActive, taskOverdue, kpiBreach, dependencyBlocked);
+        ActionDispatcher dispatcher = actionDispatcher;
+        if (dispatcher != null) {
+            dispatcher.submitAll(result, projectId);
+        }
+        return result.getActions();
+    }
+    
+    /**
+     * Processes a project decision and reports which rule matched and which
+     * rule-set version was used.
+     * 
+     * @param projectActive Whether the project is active
+     * @param taskOverdue Whether any task is overdue
+     * @param kpiBreach Whether there is a KPI breach
+     * @param dependencyBlocked Whether any dependency is blocked
+     * @return The first-match evaluation result
+     */
+    public EvaluationResult evaluateProjectDecision(boolean projectActive, boolean taskOverdue,
+                                                    boolean kpiBreach, boolean dependencyBlocked) {
+        return ruleEngine.evaluate(new Context(projectActive, taskOverdue, kpiBreach, dependencyBlocked));
+    }
+    
+    /**
+     * Sets the dispatcher that carries out the actions of project decisions.
+     * Actions are submitted from processProjectDecision, so with the BLOCK policy a
+     * dispatcher must have a handler: without one nothing leaves its queue, and once
+     * the queue is full every later decision blocks until the dispatcher is closed.
+     * DROP or SPILL do not block.
+     * 
+     * @param actionDispatcher The dispatcher, or null to only return the actions
+     */
+    public void setActionDispatcher(ActionDispatcher actionDispatcher) {
+        this.actionDispatcher = actionDispatcher;
+    }
+    
+    /**
+     * Gets the dispatcher that carries out the actions of project decisions.
+     * 
+     * @return The dispatcher, or null if none is set
+     */
+    public ActionDispatcher getActionDispatcher() {
+        return actionDispatcher;
+    }
+    
     /**
      * Gets the rule engine for dynamic rule modification.
      * 
@@ -178,6 +250,25 @@ public class InterpreterDashboard {
         for (int i = 0; i < rules.size(); i++) {
             System.out.println((i + 1) + ". " + rules.get(i));
         }
+        
+        // Demonstrate asynchronous action dispatch; the repeated breach of project-1
+        // falls within the coalescing window, so its actions are sent once
+        System.out.println("\n=== Dispatched Actions ===");
+        InMemoryActionHandler handler = new InMemoryActionHandler();
+        try (ActionDispatcher dispatcher = new ActionDispatcher(ActionDispatcher.Backpressure.DROP)) {
+            dispatcher.addHandler(handler);
+            dashboard.setActionDispatcher(dispatcher);
+            dashboard.processProjectDecision("project-1", true, false, true, false);
+            dashboard.processProjectDecision("project-1", true, false, true, false);
+            dashboard.processProjectDecision("project-2", true, true, false, false);
+            dispatcher.flush(1000);
+            for (ActionEvent event : handler.getEvents()) {
+                System.out.println(" -> " + event);
+            }
+            System.out.println(dispatcher);
+        } catch (IOException e) {
+            System.err.println("Could not close the action dispatcher: " + e.getMessage());
+        }
     }
     
     /**
@@ -0,0 +1,434 @@
+/**
+ * JsonReader.java
+ *
+ * A small single-pass, pull-style JSON reader that works directly on the bytes of an
+ * InputStream. Handlers declare the field names they care about once, then pull each
+ * field in a single pass over the body; unknown fields are skipped without being decoded.
+ *
+ * Field names are matched against the declared names byte-for-byte in a reusable
+ * scratch buffer, so the only allocations per field are the resulting values
+ * (Strings and arrays). Escapes, including \\uXXXX surrogate pairs, are decoded.
+ *
+ * Several top-level values may follow each other in one stream (as in NDJSON);
+ * nextObject() moves from one to the next.
+ */
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class JsonReader {
+
+    // Returned by nextField when the object has no more fields
+    public static final int END_OF_OBJECT = -1;
+    // Returned by nextField for a field that is not in the declared set
+    public static final int UNKNOWN_FIELD = -2;
+
+    private final InputStream in;
+    private final byte[] buffer;
+    private int position;
+    private int limit;
+    private long consumed;
+    private byte[] scratch = new byte[64];
+    private int scratchLength;
+    private boolean firstField;
+
+    /**
+     * The set of field names a caller wants to pull out of an object.
+     */
+    public static final class Fields {
+        private final byte[][] names;
+
+        /**
+         * Declares the field names, in the order their indexes are returned by nextField.
+         *
+         * @param names The field names
+         */
+        public Fields(String... names) {
+            this.names = new byte[names.length][];
+            for (int i = 0; i < names.length; i++) {
+                this.names[i] = names[i].getBytes(StandardCharsets.UTF_8);
+            }
+        }
+
+        int indexOf(byte[] key, int length) {
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].length == length
+                    && Arrays.equals(names[i], 0, length, key, 0, length)) {
+                    return i;
+                }
+            }
+            return UNKNOWN_FIELD;
+        }
+    }
+
+    /**
+     * Creates a reader over a stream.
+     *
+     * @param in The stream to read; it is not closed by the reader
+     */
+    public JsonReader(InputStream in) {
+        this(in, 8192);
+    }
+
+    /**
+     * Creates a reader over a stream with a specific buffer size.
+     *
+     * @param in The stream to read; it is not closed by the reader
+     * @param bufferSize The size of the read buffer in bytes
+     */
+    public JsonReader(InputStream in, int bufferSize) {
+        this.in = in;
+        this.buffer = new byte[bufferSize];
+    }
+
+    /**
+     * Moves to the next top-level object in the stream.
+     *
+     * @return true if an object starts here, false at the end of the stream
+     * @throws IOException if reading fails or the next value is not an object
+     */
+    public boolean nextObject() throws IOException {
+        int c = skipWhitespace();
+        if (c < 0) {
+            return false;
+        }
+        expect('{');
+        firstField = true;
+        return true;
+    }
+
+    /**
+     * Reads the next field name of the current object and positions the reader on its value.
+     * After a known field the caller must read or skip its value; unknown fields
+     * should be skipped with skipValue().
+     *
+     * @param fields The declared field names
+     * @return The index of the field in fields, UNKNOWN_FIELD, or END_OF_OBJECT
+     * @throws IOException if reading fails or the JSON is malformed
+     */
+    public int nextField(Fields fields) throws IOException {
+        int c = skipWhitespace();
+        if (c == '}') {
+            position++;
+            return END_OF_OBJECT;
+        }
+        if (!firstField) {
+            expect(',');
+            skipWhitespace();
+        }
+        firstField = false;
+        expect('"');
+        decodeString();
+        skipWhitespace();
+        expect(':');
+        skipWhitespace();
+        return fields.indexOf(scratch, scratchLength);
+    }
+
+    /**
+     * Reads a string value.
+     *
+     * @return The decoded string
+     * @throws IOException if reading fails or the value is not a string
+     */
+    public String readString() throws IOException {
+        skipWhitespace();
+        expect('"');
+        decodeString();
+        return new String(scratch, 0, scratchLength, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads a boolean value.
+     *
+     * @return The boolean value
+     * @throws IOException if reading fails or the value is not true or false
+     */
+    public boolean readBoolean() throws IOException {
+        int c = skipWhitespace();
+        if (c == 't') {
+            expectLiteral("true");
+            return true;
+        }
+        if (c == 'f') {
+            expectLiteral("false");
+            return false;
+        }
+        throw malformed("Expected true or false");
+    }
+
+    /**
+     * Reads an array of strings.
+     *
+     * @return The decoded strings
+     * @throws IOException if reading fails or the value is not an array of strings
+     */
+    public String[] readStringArray() throws IOException {
+        skipWhitespace();
+        expect('[');
+        List<String> values = new ArrayList<>();
+        if (skipWhitespace() == ']') {
+            position++;
+            return new String[0];
+        }
+        while (true) {
+            values.add(readString());
+            int c = skipWhitespace();
+            position++;
+            if (c == ']') {
+                return values.toArray(new String[0]);
+            }
+            if (c != ',') {
+                throw malformed("Expected , or ] in array");
+            }
+        }
+    }
+
+    /**
+     * Skips over the current value, including nested objects and arrays.
+     *
+     * @throws IOException if reading fails or the JSON is malformed
+     */
+    public void skipValue() throws IOException {
+        int c = skipWhitespace();
+        switch (c) {
+            case '"':
+                position++;
+                skipString();
+                return;
+            case 't':
+                expectLiteral("true");
+                return;
+            case 'f':
+                expectLiteral("false");
+                return;
+            case 'n':
+                expectLiteral("null");
+                return;
+            case '{':
+            case '[':
+                skipContainer();
+                return;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    while ((c = peek()) >= 0 && (c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E'
+                        || (c >= '0' && c <= '9'))) {
+                        position++;
+                    }
+                    return;
+                }
+                throw malformed("Unexpected value");
+        }
+    }
+
+    /**
+     * Skips the rest of the current object, so the reader can move to the next one.
+     *
+     * @throws IOException if reading fails or the JSON is malformed
+     */
+    public void skipRestOfObject() throws IOException {
+        int depth = 1;
+        while (depth > 0) {
+            int c = read();
+            if (c < 0) {
+                throw malformed("Unterminated object");
+            } else if (c == '"') {
+                skipString();
+            } else if (c == '{' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ']') {
+                depth--;
+            }
+        }
+    }
+
+    /**
+     * Checks whether the next value has started to arrive, so reading on will not wait
+     * for the sender. Whitespace already received is skipped. A streaming caller
+     * flushes its output when this returns false, before it blocks on the next value.
+     *
+     * @return true if a non-whitespace byte is buffered or the stream has bytes
+     *         available that contain one
+     * @throws IOException if reading fails
+     */
+    public boolean hasReadyInput() throws IOException {
+        while (true) {
+            while (position < limit) {
+                int c = buffer[position] & 0xff;
+                if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                    return true;
+                }
+                position++;
+            }
+            // available() bytes can be read without blocking
+            if (in.available() <= 0 || !fill()) {
+                return false;
+            }
+        }
+    }
+
+    private void skipContainer() throws IOException {
+        position++;
+        skipRestOfObject();
+    }
+
+    private void skipString() throws IOException {
+        while (true) {
+            int c = read();
+            if (c < 0) {
+                throw malformed("Unterminated string");
+            }
+            if (c == '\\') {
+                read();
+            } else if (c == '"') {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Decodes a string body (after the opening quote) into the scratch buffer as UTF-8.
+     */
+    private void decodeString() throws IOException {
+        scratchLength = 0;
+        while (true) {
+            int c = read();
+            if (c < 0) {
+                throw malformed("Unterminated string");
+            }
+            if (c == '"') {
+                return;
+            }
+            if (c != '\\') {
+                append(c);
+                continue;
+            }
+            int escape = read();
+            switch (escape) {
+                case '"': append('"'); break;
+                case '\\': append('\\'); break;
+                case '/': append('/'); break;
+                case 'b': append('\b'); break;
+                case 'f': append('\f'); break;
+                case 'n': append('\n'); break;
+                case 'r': append('\r'); break;
+                case 't': append('\t'); break;
+                case 'u':
+                    int codePoint = readHex4();
+                    if (Character.isHighSurrogate((char) codePoint)) {
+                        if (read() != '\\' || read() != 'u') {
+                            throw malformed("Unpaired surrogate in \\u escape");
+                        }
+                        int low = readHex4();
+                        if (!Character.isLowSurrogate((char) low)) {
+                            throw malformed("Unpaired surrogate in \\u escape");
+                        }
+                        codePoint = Character.toCodePoint((char) codePoint, (char) low);
+                    } else if (Character.isLowSurrogate((char) codePoint)) {
+                        throw malformed("Unpaired surrogate in \\u escape");
+                    }
+                    appendUtf8(codePoint);
+                    break;
+                default:
+                    throw malformed("Invalid escape");
+            }
+        }
+    }
+
+    private int readHex4() throws IOException {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            int digit = Character.digit(read(), 16);
+            if (digit < 0) {
+                throw malformed("Invalid \\u escape");
+            }
+            value = value << 4 | digit;
+        }
+        return value;
+    }
+
+    private void appendUtf8(int codePoint) {
+        if (codePoint < 0x80) {
+            append(codePoint);
+        } else if (codePoint < 0x800) {
+            append(0xc0 | codePoint >>> 6);
+            append(0x80 | codePoint & 0x3f);
+        } else if (codePoint < 0x10000) {
+            append(0xe0 | codePoint >>> 12);
+            append(0x80 | codePoint >>> 6 & 0x3f);
+            append(0x80 | codePoint & 0x3f);
+        } else {
+            append(0xf0 | codePoint >>> 18);
+            append(0x80 | codePoint >>> 12 & 0x3f);
+            append(0x80 | codePoint >>> 6 & 0x3f);
+            append(0x80 | codePoint & 0x3f);
+        }
+    }
+
+    private void append(int b) {
+        if (scratchLength == scratch.length) {
+            scratch = Arrays.copyOf(scratch, scratch.length * 2);
+        }
+        scratch[scratchLength++] = (byte) b;
+    }
+
+    private void expectLiteral(String literal) throws IOException {
+        for (int i = 0; i < literal.length(); i++) {
+            if (read() != literal.charAt(i)) {
+                throw malformed("Expected " + literal);
+            }
+        }
+    }
+
+    private void expect(char expected) throws IOException {
+        if (read() != expected) {
+            throw malformed("Expected '" + expected + "'");
+        }
+    }
+
+    /**
+     * Skips whitespace and returns the next byte without consuming it, or -1 at end of stream.
+     */
+    private int skipWhitespace() throws IOException {
+        while (true) {
+            int c = peek();
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return c;
+            }
+            position++;
+        }
+    }
+
+    private int peek() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position] & 0xff;
+    }
+
+    private int read() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position++] & 0xff;
+    }
+
+    private boolean fill() throws IOException {
+        consumed += limit;
+        position = 0;
+        limit = 0;
+        int n = in.read(buffer, 0, buffer.length);
+        if (n <= 0) {
+            return false;
+        }
+        limit = n;
+        return true;
+    }
+
+    private IOException malformed(String message) {
+        return new IOException("Malformed JSON at byte " + (consumed + position) + ": " + message);
+    }
+}
@@ -0,0 +1,398 @@
+/**
+ * LiteralIndex.java
+ *
+ * An inverted index from condition to the rules that require it, so a large rule set
+ * only has to look at the rules that can possibly fire for a context.
+ *
+ * A rule requires a condition when its condition cannot be true unless that condition
+ * is true: every positive literal of a conjunction, and the literals every branch of a
+ * disjunction has in common. Evaluation counts, for each rule, how many of its required
+ * conditions are set in the context; only rules whose count is complete are candidates.
+ * Rules that are plain conjunctions of literals are then decided by the count and a
+ * check of their negated literals, the others are verified with Rule.matches().
+ *
+ * Rules that require no condition at all (for example a NOT or an OR with nothing in
+ * common) cannot be indexed and are candidates for every context. Candidates are
+ * visited in rule order, so first-match priority is unchanged. First-match merges the
+ * posting lists in rule order instead of counting, so it stops at the first match.
+ */
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+public class LiteralIndex {
+    private final Rule[] rules;
+    // Condition slot -> rules requiring it, in rule order
+    private final int[][] postings;
+    private final int[] requiredCount;
+    // Negated slots of a plain conjunction, or null if the rule must be verified
+    private final int[][] negated;
+    private final int[] alwaysCandidates;
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private static final class Scratch {
+        int[] counts = new int[0];
+        int[] touched = new int[16];
+        int[] candidates = new int[16];
+        int[][] lists = new int[16][];
+        int[] cursors = new int[16];
+    }
+
+    private LiteralIndex(Rule[] rules, int[][] postings, int[] requiredCount, int[][] negated,
+                         int[] alwaysCandidates) {
+        this.rules = rules;
+        this.postings = postings;
+        this.requiredCount = requiredCount;
+        this.negated = negated;
+        this.alwaysCandidates = alwaysCandidates;
+    }
+
+    /**
+     * Builds the index for a rule list.
+     *
+     * @param rules The rules in evaluation order
+     * @return The index
+     */
+    public static LiteralIndex build(List<Rule> rules) {
+        int n = rules.size();
+        List<List<Integer>> postingLists = new ArrayList<>();
+        int[] requiredCount = new int[n];
+        int[][] negated = new int[n][];
+        List<Integer> always = new ArrayList<>();
+
+        for (int r = 0; r < n; r++) {
+            Expression condition = rules.get(r).getOptimizedCondition();
+            BitSet required = requiredSlots(condition);
+            requiredCount[r] = required.cardinality();
+            if (required.isEmpty()) {
+                always.add(r);
+            }
+            for (int slot = required.nextSetBit(0); slot >= 0; slot = required.nextSetBit(slot + 1)) {
+                while (postingLists.size() <= slot) {
+                    postingLists.add(new ArrayList<>());
+                }
+                postingLists.get(slot).add(r);
+            }
+            negated[r] = negatedLiteralsOfConjunction(condition);
+        }
+
+        int[][] postings = new int[postingLists.size()][];
+        for (int slot = 0; slot < postings.length; slot++) {
+            postings[slot] = postingLists.get(slot).stream().mapToInt(Integer::intValue).toArray();
+        }
+        return new LiteralIndex(rules.toArray(new Rule[0]), postings, requiredCount, negated,
+            always.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    /**
+     * Gets the conditions that must be true for an expression to be true.
+     */
+    private static BitSet requiredSlots(Expression expression) {
+        BitSet required = new BitSet();
+        if (expression instanceof TerminalExpression) {
+            required.set(((TerminalExpression) expression).getSlot());
+        } else if (expression instanceof AndExpression) {
+            for (Expression operand : ((AndExpression) expression).getOperands()) {
+                required.or(requiredSlots(operand));
+            }
+        } else if (expression instanceof OrExpression) {
+            Expression[] operands = ((OrExpression) expression).getOperands();
+            required = requiredSlots(operands[0]);
+            for (int i = 1; i < operands.length && !required.isEmpty(); i++) {
+                required.and(requiredSlots(operands[i]));
+            }
+        }
+        return required;
+    }
+
+    /**
+     * Gets the negated slots of a condition that is a plain conjunction of literals.
+     *
+     * @return The negated slots, or null if the condition is anything else
+     */
+    private static int[] negatedLiteralsOfConjunction(Expression expression) {
+        if (expression instanceof TerminalExpression) {
+            return new int[0];
+        }
+        if (!(expression instanceof AndExpression)) {
+            return null;
+        }
+        List<Integer> slots = new ArrayList<>();
+        for (Expression operand : ((AndExpression) expression).getOperands()) {
+            if (operand instanceof NotExpression
+                && ((NotExpression) operand).getExpression() instanceof TerminalExpression) {
+                slots.add(((TerminalExpression) ((NotExpression) operand).getExpression()).getSlot());
+            } else if (!(operand instanceof TerminalExpression)) {
+                return null;
+            }
+        }
+        return slots.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Finds the first matching rule for a context.
+     *
+     * @param context The context containing condition values
+     * @return The index of the first matching rule, or -1 if no rule matches
+     */
+    public int firstMatch(Context context) {
+        // Merge the posting lists of the set conditions in rule order, so the scan can
+        // stop at the first match instead of counting every posting
+        Scratch scratch = SCRATCH.get();
+        int listCount = openLists(context, scratch);
+        int[][] lists = scratch.lists;
+        int[] cursors = scratch.cursors;
+        int alwaysCursor = 0;
+        int result = -1;
+        while (true) {
+            int rule = alwaysCursor < alwaysCandidates.length ? alwaysCandidates[alwaysCursor] : Integer.MAX_VALUE;
+            for (int l = 0; l < listCount; l++) {
+                if (cursors[l] < lists[l].length && lists[l][cursors[l]] < rule) {
+                    rule = lists[l][cursors[l]];
+                }
+            }
+            if (rule == Integer.MAX_VALUE) {
+                break;
+            }
+            int count = 0;
+            for (int l = 0; l < listCount; l++) {
+                if (cursors[l] < lists[l].length && lists[l][cursors[l]] == rule) {
+                    cursors[l]++;
+                    count++;
+                }
+            }
+            if (alwaysCursor < alwaysCandidates.length && alwaysCandidates[alwaysCursor] == rule) {
+                alwaysCursor++;
+            }
+            if (count == requiredCount[rule] && accepts(rule, context)) {
+                result = rule;
+                break;
+            }
+        }
+        Arrays.fill(lists, 0, listCount, null);
+        return result;
+    }
+
+    /**
+     * Puts the non-empty posting lists of the conditions set in the context into
+     * scratch.lists, with their cursors at the start.
+     *
+     * @return The number of lists
+     */
+    private int openLists(Context context, Scratch scratch) {
+        int listCount = 0;
+        int words = Math.min(context.getWordCount(), (postings.length + 63) >>> 6);
+        for (int word = 0; word < words; word++) {
+            for (long bits = context.getWord(word); bits != 0; bits &= bits - 1) {
+                int slot = (word << 6) + Long.numberOfTrailingZeros(bits);
+                if (slot >= postings.length) {
+                    break;
+                }
+                if (postings[slot].length == 0) {
+                    continue;
+                }
+                if (listCount == scratch.lists.length) {
+                    scratch.lists = Arrays.copyOf(scratch.lists, listCount * 2);
+                    scratch.cursors = Arrays.copyOf(scratch.cursors, listCount * 2);
+                }
+                scratch.lists[listCount] = postings[slot];
+                scratch.cursors[listCount] = 0;
+                listCount++;
+            }
+        }
+        return listCount;
+    }
+
+    /**
+     * Finds every matching rule for a context.
+     *
+     * @param context The context containing condition values
+     * @return The indexes of the matching rules in rule order
+     */
+    public int[] allMatches(Context context) {
+        Scratch scratch = SCRATCH.get();
+        int count = collectCandidates(context, scratch);
+        int[] candidates = scratch.candidates;
+        int matched = 0;
+        for (int i = 0; i < count; i++) {
+            if (accepts(candidates[i], context)) {
+                candidates[matched++] = candidates[i];
+            }
+        }
+        return Arrays.copyOf(candidates, matched);
+    }
+
+    /**
+     * Passes every matching rule for a context to a sink, in rule order, without
+     * allocating.
+     *
+     * @param context The context containing condition values
+     * @param sink Receives each matching rule
+     * @return The index of the first matching rule, or -1 if no rule matches
+     */
+    public int allMatches(Context context, ActionSink sink) {
+        Scratch scratch = SCRATCH.get();
+        int count = collectCandidates(context, scratch);
+        int[] candidates = scratch.candidates;
+        int first = -1;
+        for (int i = 0; i < count; i++) {
+            int rule = candidates[i];
+            if (accepts(rule, context)) {
+                if (first < 0) {
+                    first = rule;
+                }
+                sink.accept(rule, rules[rule]);
+            }
+        }
+        return first;
+    }
+
+    private boolean accepts(int rule, Context context) {
+        int[] negatedSlots = negated[rule];
+        if (negatedSlots == null) {
+            return rules[rule].matches(context);
+        }
+        // Every required condition is set, so only the negated literals are left
+        for (int slot : negatedSlots) {
+            if (context.getCondition(slot)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Counts required conditions per rule and writes the candidate rules, in rule
+     * order, to scratch.candidates.
+     *
+     * @return The number of candidates
+     */
+    private int collectCandidates(Context context, Scratch scratch) {
+        if (scratch.counts.length < rules.length) {
+            scratch.counts = new int[rules.length];
+        }
+        int[] counts = scratch.counts;
+        int touched = 0;
+        int words = Math.min(context.getWordCount(), (postings.length + 63) >>> 6);
+        for (int word = 0; word < words; word++) {
+            for (long bits = context.getWord(word); bits != 0; bits &= bits - 1) {
+                int slot = (word << 6) + Long.numberOfTrailingZeros(bits);
+                if (slot >= postings.length) {
+                    break;
+                }
+                for (int rule : postings[slot]) {
+                    if (counts[rule]++ == 0) {
+                        if (touched == scratch.touched.length) {
+                            scratch.touched = Arrays.copyOf(scratch.touched, touched * 2);
+                        }
+                        scratch.touched[touched++] = rule;
+                    }
+                }
+            }
+        }
+
+        int[] candidates = scratch.candidates;
+        if (candidates.length < touched + alwaysCandidates.length) {
+            candidates = new int[touched + alwaysCandidates.length];
+            scratch.candidates = candidates;
+        }
+        int count = 0;
+        for (int i = 0; i < touched; i++) {
+            int rule = scratch.touched[i];
+            if (counts[rule] == requiredCount[rule]) {
+                candidates[count++] = rule;
+            }
+            counts[rule] = 0;
+        }
+        System.arraycopy(alwaysCandidates, 0, candidates, count, alwaysCandidates.length);
+        count += alwaysCandidates.length;
+        sort(candidates, count);
+        return count;
+    }
+
+    /**
+     * Sorts the first count values in place. Arrays.sort allocates a run buffer for
+     * input made of a few sorted runs, which candidate lists often are, so this uses
+     * insertion sort for short lists and heapsort otherwise.
+     */
+    private static void sort(int[] values, int count) {
+        if (count <= 32) {
+            for (int i = 1; i < count; i++) {
+                int value = values[i];
+                int j = i - 1;
+                while (j >= 0 && values[j] > value) {
+                    values[j + 1] = values[j];
+                    j--;
+                }
+                values[j + 1] = value;
+            }
+            return;
+        }
+        for (int i = count / 2 - 1; i >= 0; i--) {
+            siftDown(values, i, count);
+        }
+        for (int end = count - 1; end > 0; end--) {
+            int top = values[0];
+            values[0] = values[end];
+            values[end] = top;
+            siftDown(values, 0, end);
+        }
+    }
+
+    private static void siftDown(int[] values, int node, int count) {
+        int value = values[node];
+        int child;
+        while ((child = 2 * node + 1) < count) {
+            if (child + 1 < count && values[child + 1] > values[child]) {
+                child++;
+            }
+            if (values[child] <= value) {
+                break;
+            }
+            values[node] = values[child];
+            node = child;
+        }
+        values[node] = value;
+    }
+
+    /**
+     * Gets the number of rules reachable through the index.
+     *
+     * @return The number of rules with at least one required condition
+     */
+    public int getIndexedRuleCount() {
+        return rules.length - alwaysCandidates.length;
+    }
+
+    /**
+     * Gets the number of rules that are checked for every context.
+     *
+     * @return The number of rules with no required condition
+     */
+    public int getUnindexedRuleCount() {
+        return alwaysCandidates.length;
+    }
+
+    /**
+     * Gets the number of rules decided by counting alone, without evaluating their condition.
+     *
+     * @return The number of plain conjunctions of literals
+     */
+    public int getCountedRuleCount() {
+        int counted = 0;
+        for (int[] slots : negated) {
+            if (slots != null) {
+                counted++;
+            }
+        }
+        return counted;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("LiteralIndex: %d indexed rules (%d decided by counting), %d always checked",
+            getIndexedRuleCount(), getCountedRuleCount(), getUnindexedRuleCount());
+    }
+}
@@ -0,0 +1,268 @@
+/**
+ * Metrics.java
+ *
+ * Runtime instrumentation for a RuleEngine and the server in front of it: evaluation
+ * counts, and named timers with a latency histogram and sampled allocation per
+ * operation. Per-rule hit counts live on the rules themselves.
+ *
+ * Everything is recorded with striped or atomic counters, so threads never block each
+ * other. When metrics are disabled, start() returns 0 and every recording call returns
+ * after one volatile read.
+ *
+ * A timer can time every operation or, where operations are so short that reading the
+ * clock twice would dominate (rule evaluation), a random one in N; its histogram then
+ * holds a sample of the operations. Allocation is read from the JVM's per-thread
+ * allocated-bytes counter on about one timed operation in ALLOCATION_SAMPLE_INTERVAL.
+ * Samples are drawn at random so that threads which only handle one request (virtual
+ * threads) are sampled too.
+ */
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+public class Metrics {
+    public static final int ALLOCATION_SAMPLE_INTERVAL = 64;
+
+    private static final com.sun.management.ThreadMXBean THREADS = allocationCounter();
+
+    private volatile boolean enabled;
+    private final LongAdder evaluations = new LongAdder();
+    private final LongAdder unmatched = new LongAdder();
+    private final Map<String, Timer> timers = new ConcurrentSkipListMap<>();
+
+    /**
+     * Times one kind of operation.
+     */
+    public static final class Timer {
+        private final Metrics owner;
+        private final String name;
+        private final int sampleInterval;
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder allocationSamples = new LongAdder();
+        private final LongAdder allocatedBytes = new LongAdder();
+        // Allocated-bytes reading at the last sampled start() on this thread
+        private final ThreadLocal<long[]> allocationStart = ThreadLocal.withInitial(() -> new long[1]);
+
+        private Timer(Metrics owner, String name, int sampleInterval) {
+            this.owner = owner;
+            this.name = name;
+            this.sampleInterval = sampleInterval;
+        }
+
+        /**
+         * Starts timing an operation on the calling thread.
+         *
+         * @return The start token to pass to stop(), or 0 if metrics are disabled or
+         *         this operation is not sampled
+         */
+        public long start() {
+            if (!owner.enabled) {
+                return 0;
+            }
+            int draw = ThreadLocalRandom.current().nextInt(sampleInterval * ALLOCATION_SAMPLE_INTERVAL);
+            if (draw % sampleInterval != 0) {
+                return 0;
+            }
+            // The low bit of the token marks an allocation sample, so stop() only
+            // touches the thread-local when there is something to read
+            if (draw == 0 && THREADS != null) {
+                allocationStart.get()[0] = THREADS.getCurrentThreadAllocatedBytes();
+                return System.nanoTime() | 1;
+            }
+            long start = System.nanoTime() & ~1L;
+            return start == 0 ? 2 : start;
+        }
+
+        /**
+         * Records the operation started with start().
+         *
+         * @param start The token returned by start(); 0 records nothing
+         */
+        public void stop(long start) {
+            if (start == 0) {
+                return;
+            }
+            latency.record(System.nanoTime() - start);
+            if ((start & 1) != 0) {
+                long[] allocation = allocationStart.get();
+                long bytes = THREADS.getCurrentThreadAllocatedBytes() - allocation[0];
+                if (bytes >= 0) {
+                    allocatedBytes.add(bytes);
+                    allocationSamples.increment();
+                }
+            }
+        }
+
+        /**
+         * Gets the name of this timer.
+         *
+         * @return The timer name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Gets how many operations there are per timed operation.
+         *
+         * @return 1 if every operation is timed, otherwise the sampling interval
+         */
+        public int getSampleInterval() {
+            return sampleInterval;
+        }
+
+        /**
+         * Gets the latency histogram.
+         *
+         * @return The latency histogram
+         */
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        /**
+         * Gets the number of operations whose allocation was measured.
+         *
+         * @return The allocation sample count
+         */
+        public long getAllocationSampleCount() {
+            return allocationSamples.sum();
+        }
+
+        /**
+         * Gets the mean number of bytes allocated by a sampled operation.
+         *
+         * @return Bytes per operation, or 0 if no operation was sampled
+         */
+        public double getBytesPerOperation() {
+            long samples = allocationSamples.sum();
+            return samples == 0 ? 0 : (double) allocatedBytes.sum() / samples;
+        }
+
+        @Override
+        public String toString() {
+            return name + ": " + latency + ", " + String.format("%.0f B/op", getBytesPerOperation());
+        }
+    }
+
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean extended = (com.sun.management.ThreadMXBean) threads;
+            try {
+                if (extended.isThreadAllocatedMemorySupported()) {
+                    extended.setThreadAllocatedMemoryEnabled(true);
+                    return extended;
+                }
+            } catch (UnsupportedOperationException e) {
+                // Fall through: latency is still recorded
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Enables or disables recording. Counts recorded so far are kept.
+     *
+     * @param enabled true to record metrics
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Checks whether metrics are being recorded.
+     *
+     * @return true if metrics are enabled
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Gets the timer with the given name, creating it on first use with every
+     * operation timed.
+     *
+     * @param name The timer name
+     * @return The timer
+     */
+    public Timer timer(String name) {
+        return timer(name, 1);
+    }
+
+    /**
+     * Gets the timer with the given name, creating it on first use.
+     *
+     * @param name The timer name
+     * @param sampleInterval Time one operation in this many, chosen at random
+     * @return The timer; an existing timer keeps its sampling interval
+     */
+    public Timer timer(String name, int sampleInterval) {
+        if (sampleInterval < 1) {
+            throw new IllegalArgumentException("Sample interval must be positive");
+        }
+        return timers.computeIfAbsent(name, n -> new Timer(this, n, sampleInterval));
+    }
+
+    /**
+     * Gets every timer.
+     *
+     * @return Unmodifiable map of timer name to timer, sorted by name
+     */
+    public Map<String, Timer> getTimers() {
+        return Collections.unmodifiableMap(timers);
+    }
+
+    /**
+     * Records the outcome of one rule evaluation.
+     *
+     * @param matched The first matching rule, or null if none matched
+     */
+    void recordEvaluation(Rule matched) {
+        evaluations.increment();
+        if (matched == null) {
+            unmatched.increment();
+        } else {
+            matched.recordHit();
+        }
+    }
+
+    /**
+     * Gets the number of evaluations recorded while metrics were enabled.
+     *
+     * @return The evaluation count
+     */
+    public long getEvaluationCount() {
+        return evaluations.sum();
+    }
+
+    /**
+     * Gets the number of recorded evaluations that matched no rule.
+     *
+     * @return The unmatched evaluation count
+     */
+    public long getUnmatchedCount() {
+        return unmatched.sum();
+    }
+
+    /**
+     * Gets the number of recorded evaluations a rule took part in: those since it
+     * was installed in the engine.
+     *
+     * @param rule A rule of the engine that owns these metrics
+     * @return The evaluation count for the rule
+     */
+    public long getEvaluationCount(Rule rule) {
+        return Math.max(0, evaluations.sum() - rule.getEvaluationsAtInstall());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Metrics: %s, %d evaluations (%d unmatched), %d timers",
+            enabled ? "enabled" : "disabled", getEvaluationCount(), getUnmatchedCount(), timers.size());
+    }
+}
@@ -27,6 +27,31 @@ public class NotExpression implements Expression {
         return !expression.interpret(context);
     }
     
+    /**
+     * Gets the negated sub-expression.
+     * 
+     * @return The expression being negated
+     */
+    public Expression getExpression() {
+        return expression;
+    }
+    
+    /**
+     * Compares structurally: two NOT nodes are equal when they negate equal expressions.
+     * 
+     * @param other The object to compare with
+     * @return true if other is a structurally equal NOT expression
+     */
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof NotExpression && expression.equals(((NotExpression) other).expression);
+    }
+    
+    @Override
+    public int hashCode() {
+        return ~expression.hashCode();
+    }
+    
     @Override
     public String toString() {
         return "(NOT " + expression + ")";
@@ -0,0 +1,228 @@
+/**
+ * OperandProfile.java
+ *
+ * Runtime statistics for adaptive operand reordering.
+ *
+ * On a sample of evaluations the engine passes the context here, and every operand of
+ * every AND/OR node in the rule set is evaluated (without short-circuiting) and its
+ * outcome counted. From the resulting true-rates the profile rebuilds conditions so
+ * that each AND tests its most-likely-false operand first and each OR its
+ * most-likely-true operand first, which is where short-circuiting saves the most work.
+ *
+ * Statistics are keyed by the operand's structure, so they survive rebuilds and are
+ * shared by every rule that contains the same subexpression. Nodes that contain
+ * custom expression types keep their operand order, since those may have side effects.
+ */
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+public class OperandProfile {
+    // Assumed true-rate of an operand that has not been sampled yet
+    private static final double UNKNOWN_RATE = 0.5;
+
+    private final ConcurrentHashMap<Expression, Rate> rates = new ConcurrentHashMap<>();
+    private final LongAdder samples = new LongAdder();
+    private final AtomicLong samplesSinceRebuild = new AtomicLong();
+    private final AtomicLong rebuilds = new AtomicLong();
+
+    private static final class Rate {
+        final LongAdder trueCount = new LongAdder();
+        final LongAdder sampleCount = new LongAdder();
+
+        double value() {
+            long n = sampleCount.sum();
+            return n == 0 ? UNKNOWN_RATE : (double) trueCount.sum() / n;
+        }
+    }
+
+    /**
+     * Records the operand outcomes of every rule for one context.
+     *
+     * @param rules The rule set that was evaluated
+     * @param context The context it was evaluated against
+     */
+    public void sample(RuleSet rules, Context context) {
+        for (int i = 0; i < rules.size(); i++) {
+            record(rules.get(i).getOptimizedCondition(), context);
+        }
+        samples.increment();
+        samplesSinceRebuild.incrementAndGet();
+    }
+
+    private boolean record(Expression expression, Context context) {
+        if (expression instanceof AndExpression || expression instanceof OrExpression) {
+            boolean isAnd = expression instanceof AndExpression;
+            boolean result = isAnd;
+            for (Expression operand : Expressions.operandsOf(expression)) {
+                boolean value = record(operand, context);
+                Rate rate = rates.computeIfAbsent(operand, k -> new Rate());
+                rate.sampleCount.increment();
+                if (value) {
+                    rate.trueCount.increment();
+                }
+                result = isAnd ? result && value : result || value;
+            }
+            return result;
+        } else if (expression instanceof NotExpression) {
+            return !record(((NotExpression) expression).getExpression(), context);
+        }
+        return expression.interpret(context);
+    }
+
+    /**
+     * Checks whether enough samples have arrived for a rebuild, claiming the rebuild
+     * if so. Only one caller gets true for each batch of samples.
+     *
+     * @param rebuildSamples The number of samples between rebuilds
+     * @return true if the caller should rebuild now
+     */
+    boolean claimRebuild(int rebuildSamples) {
+        long pending = samplesSinceRebuild.get();
+        return pending >= rebuildSamples && samplesSinceRebuild.compareAndSet(pending, 0);
+    }
+
+    /**
+     * Rebuilds an expression with every AND/OR node's operands ordered by their
+     * sampled true-rate. The sort is stable, so operands without a clear difference
+     * keep their relative order.
+     *
+     * @param expression The expression to reorder
+     * @return The reordered expression, or the same instance if nothing moved
+     */
+    public Expression reorder(Expression expression) {
+        if (expression instanceof NotExpression) {
+            Expression inner = ((NotExpression) expression).getExpression();
+            Expression reordered = reorder(inner);
+            return reordered == inner ? expression : new NotExpression(reordered);
+        }
+        if (!(expression instanceof AndExpression || expression instanceof OrExpression)) {
+            return expression;
+        }
+        boolean isAnd = expression instanceof AndExpression;
+        Expression[] operands = Expressions.operandsOf(expression);
+        Integer[] order = new Integer[operands.length];
+        double[] operandRates = new double[operands.length];
+        boolean changed = false;
+        boolean movable = true;
+        for (int i = 0; i < operands.length; i++) {
+            // Rates are looked up before reordering, since a reordered operand is a new key
+            order[i] = i;
+            operandRates[i] = trueRate(operands[i]);
+            movable &= isPure(operands[i]);
+            Expression reordered = reorder(operands[i]);
+            changed |= reordered != operands[i];
+            operands[i] = reordered;
+        }
+        if (movable) {
+            // AND: most likely false first; OR: most likely true first
+            Comparator<Integer> byRate = Comparator.comparingDouble(i -> operandRates[i]);
+            Arrays.sort(order, isAnd ? byRate : byRate.reversed());
+        }
+        Expression[] result = new Expression[operands.length];
+        for (int i = 0; i < operands.length; i++) {
+            result[i] = operands[order[i]];
+            changed |= order[i] != i;
+        }
+        if (!changed) {
+            return expression;
+        }
+        return isAnd ? new AndExpression(result) : new OrExpression(result);
+    }
+
+    private static boolean isPure(Expression expression) {
+        if (expression instanceof TerminalExpression || expression instanceof ConstantExpression) {
+            return true;
+        } else if (expression instanceof NotExpression) {
+            return isPure(((NotExpression) expression).getExpression());
+        } else if (expression instanceof AndExpression || expression instanceof OrExpression) {
+            for (Expression operand : Expressions.operandsOf(expression)) {
+                if (!isPure(operand)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Gets the sampled probability that an operand is true.
+     *
+     * @param operand An operand of an AND or OR node
+     * @return The true-rate, or 0.5 if the operand has not been sampled
+     */
+    public double trueRate(Expression operand) {
+        Rate rate = rates.get(operand);
+        return rate == null ? UNKNOWN_RATE : rate.value();
+    }
+
+    /**
+     * Drops statistics for operands that no longer occur in the rule set.
+     *
+     * @param rules The current rules
+     */
+    void retain(Rule[] rules) {
+        Set<Expression> live = new HashSet<>();
+        for (Rule rule : rules) {
+            collectOperands(rule.getOptimizedCondition(), live);
+        }
+        rates.keySet().retainAll(live);
+    }
+
+    private static void collectOperands(Expression expression, Set<Expression> operands) {
+        if (expression instanceof NotExpression) {
+            collectOperands(((NotExpression) expression).getExpression(), operands);
+        } else if (expression instanceof AndExpression || expression instanceof OrExpression) {
+            for (Expression operand : Expressions.operandsOf(expression)) {
+                operands.add(operand);
+                collectOperands(operand, operands);
+            }
+        }
+    }
+
+    void rebuilt() {
+        rebuilds.incrementAndGet();
+    }
+
+    /**
+     * Gets the number of evaluations that were sampled.
+     *
+     * @return The sample count
+     */
+    public long getSampleCount() {
+        return samples.sum();
+    }
+
+    /**
+     * Gets the number of times the rules were rebuilt from this profile.
+     *
+     * @return The rebuild count
+     */
+    public long getRebuildCount() {
+        return rebuilds.get();
+    }
+
+    /**
+     * Gets the sampled true-rate of every profiled operand.
+     *
+     * @return Operand text mapped to its true-rate, in no particular order
+     */
+    public Map<String, Double> getTrueRates() {
+        Map<String, Double> result = new LinkedHashMap<>();
+        rates.forEach((operand, rate) -> result.put(operand.toString(), rate.value()));
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("OperandProfile: %d samples, %d operands profiled, %d rebuilds",
+            getSampleCount(), rates.size(), getRebuildCount());
+    }
+}
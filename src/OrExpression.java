@@ -2,11 +2,15 @@
  * OrExpression.java
  * 
  * NonTerminalExpression - represents the logical OR operator.
- * Evaluates to true if either sub-expression is true.
+ * Evaluates to true if any sub-expression is true.
+ * The operator is n-ary, so a chain like a OR b OR c is one node rather than a
+ * nested binary tree.
  */
+import java.util.Arrays;
+
 public class OrExpression implements Expression {
-    private Expression left;
-    private Expression right;
+    private Expression[] operands;
+    private int hash;
     
     /**
      * Creates an OR expression with two sub-expressions.
@@ -15,24 +19,104 @@ public class OrExpression implements Expression {
      * @param right The right operand expression
      */
     public OrExpression(Expression left, Expression right) {
-        this.left = left;
-        this.right = right;
+        this.operands = new Expression[] {left, right};
+    }
+    
+    /**
+     * Creates an OR expression over any number of sub-expressions.
+     * 
+     * @param operands The operand expressions, evaluated in this order
+     */
+    public OrExpression(Expression... operands) {
+        if (operands.length == 0) {
+            throw new IllegalArgumentException("OR needs at least one operand");
+        }
+        this.operands = operands.clone();
     }
     
     /**
-     * Evaluates both sub-expressions and returns true if either is true.
+     * Evaluates the sub-expressions in order and returns true if any is true.
+     * Stops at the first true operand.
      * 
      * @param context The context for evaluation
-     * @return true if either left OR right evaluates to true
+     * @return true if any operand evaluates to true
      */
     @Override
     public boolean interpret(Context context) {
-        return left.interpret(context) || right.interpret(context);
+        for (Expression operand : operands) {
+            if (operand.interpret(context)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Gets the number of operands.
+     * 
+     * @return The operand count
+     */
+    public int getOperandCount() {
+        return operands.length;
+    }
+    
+    /**
+     * Gets an operand by position.
+     * 
+     * @param index The operand index
+     * @return The operand expression
+     */
+    public Expression getOperand(int index) {
+        return operands[index];
+    }
+    
+    /**
+     * Gets the operands in evaluation order.
+     * 
+     * @return A copy of the operand array
+     */
+    public Expression[] getOperands() {
+        return operands.clone();
+    }
+    
+    /**
+     * Compares structurally: two OR nodes are equal when their operands are equal
+     * and in the same order.
+     * 
+     * @param other The object to compare with
+     * @return true if other is a structurally equal OR expression
+     */
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof OrExpression)) {
+            return false;
+        }
+        OrExpression that = (OrExpression) other;
+        return hashCode() == that.hashCode() && Arrays.equals(operands, that.operands);
+    }
+    
+    @Override
+    public int hashCode() {
+        int h = hash;
+        if (h == 0) {
+            h = 31 * Arrays.hashCode(operands) + 2;
+            hash = h;
+        }
+        return h;
     }
     
     @Override
     public String toString() {
-        return "(" + left + " OR " + right + ")";
+        StringBuilder text = new StringBuilder("(");
+        for (int i = 0; i < operands.length; i++) {
+            if (i > 0) {
+                text.append(" OR ");
+            }
+            text.append(operands[i]);
+        }
+        return text.append(")").toString();
     }
 }
-
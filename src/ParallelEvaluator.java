@@ -0,0 +1,166 @@
+/**
+ * ParallelEvaluator.java
+ *
+ * Evaluates one context against a large rule set on several cores. The rule range is
+ * split in halves on a ForkJoinPool down to chunks of CHUNK_SIZE rules, so idle
+ * workers steal the remaining halves, and each chunk is scanned with Rule.matches().
+ *
+ * All-matches: each chunk marks its matches in a shared bitset. Chunks start on a
+ * multiple of 64 rules, so no two chunks write the same word, and reading the bitset
+ * afterwards gives the matches in rule order without merging per-chunk lists.
+ *
+ * First-match: the calling thread scans the first chunk before forking anything,
+ * since most contexts match one of the early, high-priority rules. The remaining
+ * chunks publish the lowest matching index found so far. A chunk that starts after
+ * it is not scanned, a running chunk stops once it passes it, and a forked half that
+ * has not started yet is cancelled as soon as the half before it has a match. The
+ * result is the same rule a sequential scan finds.
+ *
+ * Rule conditions only read the context, so chunks share it; it must not be changed
+ * while an evaluation runs.
+ */
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public final class ParallelEvaluator {
+    // Rules per chunk, a multiple of 64; small enough to balance, large enough that a
+    // chunk of tens of microseconds dwarfs the cost of forking it
+    static final int CHUNK_SIZE = 2048;
+
+    private ParallelEvaluator() {
+    }
+
+    /**
+     * Finds the indexes of all matching rules.
+     *
+     * @param rules The rule set
+     * @param context The context containing condition values
+     * @param pool The pool to run the chunks on
+     * @return A bitset of matching rule indexes, 64 per word
+     */
+    public static long[] allMatches(RuleSet rules, Context context, ForkJoinPool pool) {
+        long[] matches = new long[(rules.size() + 63) >>> 6];
+        pool.invoke(new AllMatches(rules, context, matches, 0, rules.size()));
+        return matches;
+    }
+
+    /**
+     * Finds the first matching rule.
+     *
+     * @param rules The rule set
+     * @param context The context containing condition values
+     * @param pool The pool to run the chunks on
+     * @return The index of the first matching rule, or -1 if no rule matches
+     */
+    public static int firstMatch(RuleSet rules, Context context, ForkJoinPool pool) {
+        int head = Math.min(CHUNK_SIZE, rules.size());
+        for (int i = 0; i < head; i++) {
+            if (rules.get(i).matches(context)) {
+                return i;
+            }
+        }
+        if (head == rules.size()) {
+            return -1;
+        }
+        AtomicInteger first = new AtomicInteger(Integer.MAX_VALUE);
+        pool.invoke(new FirstMatch(rules, context, first, head, rules.size()));
+        int index = first.get();
+        return index == Integer.MAX_VALUE ? -1 : index;
+    }
+
+    private static final class AllMatches extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final RuleSet rules;
+        private final Context context;
+        private final long[] matches;
+        private final int from;
+        private final int to;
+
+        AllMatches(RuleSet rules, Context context, long[] matches, int from, int to) {
+            this.rules = rules;
+            this.context = context;
+            this.matches = matches;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= CHUNK_SIZE) {
+                for (int i = from; i < to; i++) {
+                    if (rules.get(i).matches(context)) {
+                        matches[i >>> 6] |= 1L << i;
+                    }
+                }
+                return;
+            }
+            int middle = split(from, to);
+            invokeAll(new AllMatches(rules, context, matches, from, middle),
+                new AllMatches(rules, context, matches, middle, to));
+        }
+    }
+
+    private static final class FirstMatch extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final RuleSet rules;
+        private final Context context;
+        private final AtomicInteger first;
+        private final int from;
+        private final int to;
+
+        FirstMatch(RuleSet rules, Context context, AtomicInteger first, int from, int to) {
+            this.rules = rules;
+            this.context = context;
+            this.first = first;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (first.get() < from) {
+                return;
+            }
+            if (to - from <= CHUNK_SIZE) {
+                for (int i = from; i < to; i++) {
+                    // Checked once per 64 rules, which keeps the shared read off the hot loop
+                    if ((i & 63) == 0 && first.get() < i) {
+                        return;
+                    }
+                    if (rules.get(i).matches(context)) {
+                        lower(i);
+                        return;
+                    }
+                }
+                return;
+            }
+            int middle = split(from, to);
+            FirstMatch later = new FirstMatch(rules, context, first, middle, to);
+            later.fork();
+            new FirstMatch(rules, context, first, from, middle).compute();
+            // A match before middle makes the later half irrelevant; drop it if no
+            // worker has taken it yet, otherwise it stops at its next check
+            if (first.get() < middle && later.cancel(false)) {
+                return;
+            }
+            later.join();
+        }
+
+        private void lower(int index) {
+            int current;
+            while (index < (current = first.get()) && !first.compareAndSet(current, index)) {
+                // retry
+            }
+        }
+    }
+
+    /**
+     * Splits a range in the middle, rounded to a multiple of 64 rules.
+     */
+    private static int split(int from, int to) {
+        return (from + (to - from) / 2) & ~63;
+    }
+}
@@ -5,13 +5,21 @@
  * When the condition evaluates to true, all associated actions are executed.
  */
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
 
 public class Rule {
     private String name;
     private Expression condition;
+    private Expression optimizedCondition;
+    private Expression compiledCondition;
     private List<String> actions;
+    private List<String> actionView;
+    private ActionSet actionSet;
+    // Shared with copies made by withOptimizedCondition, which stand for the same rule
+    private LongAdder hits = new LongAdder();
+    private volatile long evaluationsAtInstall;
     
     /**
      * Creates a new rule with a name, condition, and actions.
@@ -23,22 +31,115 @@ public class Rule {
     public Rule(String name, Expression condition, String... actions) {
         this.name = name;
         this.condition = condition;
-        this.actions = new ArrayList<>(Arrays.asList(actions));
+        this.optimizedCondition = condition;
+        this.compiledCondition = condition;
+        // The set holds the registry handles, so the canonical names below stay shared
+        this.actionSet = ActionSet.of(actions);
+        this.actions = new ArrayList<>(actions.length);
+        for (String action : actions) {
+            this.actions.add(ActionRegistry.canonical(action));
+        }
+        this.actionView = Collections.unmodifiableList(this.actions);
     }
     
     /**
      * Evaluates the rule's condition and returns actions if true.
+     * The result is a new mutable list on every call; hot paths should use matches()
+     * and the shared view from getActions() instead.
      * 
      * @param context The context for evaluating the condition
      * @return List of actions if condition is true, empty list otherwise
      */
     public List<String> evaluate(Context context) {
-        if (condition.interpret(context)) {
+        if (matches(context)) {
             return new ArrayList<>(actions);
         }
         return new ArrayList<>();
     }
     
+    /**
+     * Checks whether the rule's condition holds, using the compiled form when available.
+     * 
+     * @param context The context for evaluating the condition
+     * @return true if the condition evaluates to true
+     */
+    public boolean matches(Context context) {
+        return compiledCondition.interpret(context);
+    }
+    
+    /**
+     * Replaces the evaluated form of the condition with its optimized equivalent.
+     * The original expression tree is kept for display and as the reference form.
+     */
+    void optimize() {
+        optimizedCondition = ExpressionOptimizer.optimize(condition);
+        compiledCondition = optimizedCondition;
+    }
+    
+    /**
+     * Replaces the condition and its evaluated form with their canonical, shared nodes.
+     * 
+     * @param interner The interner shared by the rules of an engine, or of several
+     */
+    void intern(ExpressionInterner interner) {
+        condition = interner.intern(condition);
+        optimizedCondition = interner.intern(optimizedCondition);
+        compiledCondition = optimizedCondition;
+    }
+    
+    /**
+     * Creates a copy of this rule that evaluates an equivalent condition.
+     * The copy is not compiled.
+     * 
+     * @param equivalent A condition with the same truth table as this rule's condition
+     * @return The new rule
+     */
+    Rule withOptimizedCondition(Expression equivalent) {
+        Rule copy = new Rule(name, condition, actions.toArray(new String[0]));
+        copy.optimizedCondition = equivalent;
+        copy.compiledCondition = equivalent;
+        copy.hits = hits;
+        copy.evaluationsAtInstall = evaluationsAtInstall;
+        return copy;
+    }
+    
+    /**
+     * Compiles the (optimized) condition so later evaluations skip the tree walk.
+     * 
+     * @param compiler The compiler to use
+     */
+    void compile(ExpressionCompiler compiler) {
+        compiledCondition = compiler.compile(optimizedCondition);
+    }
+    
+    /**
+     * Marks the point at which the rule was installed in an engine, so its evaluation
+     * count can be reported as the engine's evaluations since then.
+     * 
+     * @param engineEvaluations The engine's evaluation count at install time
+     */
+    void installed(long engineEvaluations) {
+        evaluationsAtInstall = engineEvaluations;
+    }
+    
+    long getEvaluationsAtInstall() {
+        return evaluationsAtInstall;
+    }
+    
+    void recordHit() {
+        hits.increment();
+    }
+    
+    /**
+     * Gets the number of evaluations in which this rule was the first match, counted
+     * while engine metrics were enabled.
+     * 
+     * @return The hit count
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+    
     /**
      * Gets the name of this rule.
      * 
@@ -57,6 +158,34 @@ public class Rule {
         return condition;
     }
     
+    /**
+     * Gets the condition in the form that is evaluated: the optimized tree when the rule
+     * was optimized on install, otherwise the original condition.
+     * 
+     * @return The optimized condition expression
+     */
+    public Expression getOptimizedCondition() {
+        return optimizedCondition;
+    }
+    
+    /**
+     * Gets the actions performed when this rule matches.
+     * 
+     * @return Unmodifiable view of the rule's actions, the same instance on every call
+     */
+    public List<String> getActions() {
+        return actionView;
+    }
+    
+    /**
+     * Gets the actions of this rule as a set of ActionRegistry ids.
+     * 
+     * @return The rule's action set
+     */
+    public ActionSet getActionSet() {
+        return actionSet;
+    }
+    
     @Override
     public String toString() {
         return "Rule: " + name + " | Condition: " + condition + " | Actions: " + actions;
@@ -0,0 +1,99 @@
+/**
+ * RuleApiLoadTest.java
+ *
+ * Load generator for RuleApiServer. For each client concurrency level it runs that many
+ * closed-loop clients against POST /api/rules/test for a fixed time and reports
+ * requests per second, so the effect of the server's executor setting can be compared.
+ *
+ * Usage: java RuleApiLoadTest [baseUrl] [secondsPerLevel] [levels]
+ *   e.g. java RuleApiLoadTest http://localhost:8081 5 1,2,4,8,16,32
+ */
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class RuleApiLoadTest {
+
+    private static final String[] BODIES = {
+        "{\"projectActive\":true,\"taskOverdue\":false,\"kpiBreach\":true,\"dependencyBlocked\":false}",
+        "{\"projectActive\":true,\"taskOverdue\":true,\"kpiBreach\":false,\"dependencyBlocked\":false}",
+        "{\"projectActive\":true,\"taskOverdue\":false,\"kpiBreach\":false,\"dependencyBlocked\":true}",
+        "{\"projectActive\":false,\"taskOverdue\":true,\"kpiBreach\":false,\"dependencyBlocked\":true}"
+    };
+
+    public static void main(String[] args) throws Exception {
+        String baseUrl = args.length > 0 ? args[0] : "http://localhost:8081";
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        String levels = args.length > 2 ? args[2] : "1,2,4,8,16,32";
+
+        URI target = URI.create(baseUrl + "/api/rules/test");
+        HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+
+        System.out.println("=== Rule API Load Test ===");
+        System.out.println("Target: " + target + ", " + seconds + "s per level");
+        System.out.println();
+        System.out.printf("%8s %12s %12s %10s%n", "clients", "requests", "req/s", "errors");
+
+        for (String level : levels.split(",")) {
+            int clients = Integer.parseInt(level.trim());
+            runLevel(client, target, clients, seconds);
+        }
+    }
+
+    private static void runLevel(HttpClient client, URI target, int clients, int seconds) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        List<Future<long[]>> results = new ArrayList<>();
+
+        long start = System.nanoTime();
+        for (int c = 0; c < clients; c++) {
+            int offset = c;
+            results.add(pool.submit(() -> {
+                long ok = 0;
+                long errors = 0;
+                int i = offset;
+                while (System.nanoTime() < deadline) {
+                    HttpRequest request = HttpRequest.newBuilder(target)
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofString(BODIES[i++ % BODIES.length]))
+                        .build();
+                    try {
+                        HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                        if (response.statusCode() == 200) {
+                            ok++;
+                        } else {
+                            errors++;
+                        }
+                    } catch (IOException e) {
+                        errors++;
+                    }
+                }
+                return new long[] {ok, errors};
+            }));
+        }
+
+        long ok = 0;
+        long errors = 0;
+        for (Future<long[]> result : results) {
+            long[] counts = result.get();
+            ok += counts[0];
+            errors += counts[1];
+        }
+        double elapsed = (System.nanoTime() - start) / 1_000_000_000.0;
+        pool.shutdown();
+
+        System.out.printf("%8d %12d %12.0f %10d%n", clients, ok, ok / elapsed, errors);
+    }
+}
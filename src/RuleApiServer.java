@@ -4,57 +4,363 @@
  * HTTP API server for demonstrating live rule adding capability.
  * This server exposes endpoints to add, view, and test rules in real-time,
  * showcasing the power of the Interpreter Pattern.
+ * 
+ * Every rules endpoint also serves other tenants' rule sets, selected with a path
+ * prefix (/api/{tenant}/rules/...) or an X-Tenant header; see TenantRegistry.
  */
 import com.sun.net.httpserver.HttpServer;
 import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpExchange;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.io.InputStream;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 public class RuleApiServer {
     
     private static InterpreterDashboard dashboard;
-    private static final int PORT = 8081;
+    private static TenantRegistry tenants;
+    // Exchange attribute holding the lease on the tenant a request was routed to
+    private static final String LEASE_ATTRIBUTE = "ruleapi.lease";
+    private static final String TENANT_HEADER = "X-Tenant";
+    private static final ConditionParser PARSER = new ConditionParser();
+    // Largest rule-set file accepted by /api/rules/import
+    private static final int MAX_IMPORT_BYTES = 256 << 20;
+    // Rules listed by name at startup; the rest are only counted
+    private static final int MAX_LISTED_RULES = 50;
     
     public static void main(String[] args) throws IOException {
-        dashboard = new InterpreterDashboard();
+        ServerConfig config = ServerConfig.fromArgs(args);
+        // Every engine, the default tenant's included, is set up the same way
+        Consumer<RuleEngine> engineSetup = engine -> {
+            engine.setMetricsEnabled(config.isMetricsEnabled());
+            engine.setTruthTableEnabled(true);
+            engine.setDecisionCacheCapacity(config.getDecisionCacheCapacity());
+        };
+        tenants = new TenantRegistry(config.getDataDirectory(), config.getSyncIntervalMillis(),
+            config.getTenantMemoryBudget(), config.getMaxTenants(), engineSetup);
+        RuleEngine defaultEngine = new RuleEngine(tenants.getInterner(), tenants.getCompiler());
+        engineSetup.accept(defaultEngine);
+        dashboard = new InterpreterDashboard(defaultEngine);
+        tenants.registerDefault(dashboard.getRuleEngine());
+        
+        // Headers and body go out in separate writes; without TCP_NODELAY every
+        // keep-alive response stalls on the client's delayed ACK
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
         
-        HttpServer server = HttpServer.create(new InetSocketAddress(PORT), 0);
+        HttpServer server = HttpServer.create(new InetSocketAddress(config.getPort()), config.getBacklog());
         
-        // Register endpoints
-        server.createContext("/api/rules", new ListRulesHandler());
-        server.createContext("/api/rules/add", new AddRuleHandler());
-        server.createContext("/api/rules/test", new TestRuleHandler());
-        server.createContext("/api/rules/clear", new ClearRulesHandler());
-        server.createContext("/", new HomeHandler());
+        if (config.getDataDirectory() != null) {
+            openJournal(config);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                tenants.close();
+            } catch (IOException e) {
+                System.err.println("Could not close the tenant journals: " + e.getMessage());
+            }
+        }));
         
-        server.setExecutor(null);
+        // Register endpoints; each rules endpoint is reachable as /api/<route> for the
+        // default tenant or the X-Tenant header, and as /api/{tenant}/<route>
+        Map<String, HttpHandler> routes = new HashMap<>();
+        route(server, routes, "rules", new TenantHandler(new ListRulesHandler(), false));
+        route(server, routes, "rules/add", new TenantHandler(new AddRuleHandler(), true));
+        route(server, routes, "rules/test", new TenantHandler(new TestRuleHandler(), false));
+        route(server, routes, "rules/test/batch", new TenantHandler(new BatchTestHandler(), false));
+        route(server, routes, "rules/clear", new TenantHandler(new ClearRulesHandler(), false));
+        route(server, routes, "rules/remove", new TenantHandler(new RemoveRuleHandler(), false));
+        route(server, routes, "rules/replace", new TenantHandler(new ReplaceRuleHandler(), false));
+        route(server, routes, "rules/export", new TenantHandler(new ExportRulesHandler(), false));
+        route(server, routes, "rules/import", new TenantHandler(new ImportRulesHandler(), true));
+        route(server, routes, "metrics", new TenantHandler(new MetricsHandler(), false));
+        server.createContext("/api/tenants", timed("http.tenants", new TenantsHandler()));
+        server.createContext("/api/", timed("http.tenant", new TenantRouter(routes)));
+        server.createContext("/", timed("http.home", new HomeHandler()));
+        
+        server.setExecutor(config.createExecutor());
         server.start();
         
         System.out.println("╔════════════════════════════════════════════════════════════╗");
         System.out.println("║  Rule Engine API Server - Live Rule Adding Demo           ║");
         System.out.println("╚════════════════════════════════════════════════════════════╝");
         System.out.println();
-        System.out.println("Server started on http://localhost:" + PORT);
+        System.out.println("Server started on http://localhost:" + config.getPort());
+        System.out.println("Configuration: " + config);
         System.out.println();
         System.out.println("Available endpoints:");
         System.out.println("  GET  /                    - API documentation");
         System.out.println("  GET  /api/rules           - List all rules");
         System.out.println("  POST /api/rules/add       - Add a new rule");
         System.out.println("  POST /api/rules/test      - Test rules with conditions");
+        System.out.println("  POST /api/rules/test/batch - Test many condition sets (NDJSON in/out)");
         System.out.println("  POST /api/rules/clear     - Clear all rules");
+        System.out.println("  POST /api/rules/remove    - Remove a rule by name");
+        System.out.println("  POST /api/rules/replace   - Replace a rule by name");
+        System.out.println("  GET  /api/rules/export    - Download all rules as a binary rule-set file");
+        System.out.println("  POST /api/rules/import    - Replace all rules with a rule-set file");
+        System.out.println("  GET  /api/metrics         - Rule hits and latency (JSON, or ?format=prometheus)");
+        System.out.println("  GET  /api/tenants         - Tenants, their load state and the memory budget");
+        System.out.println("  DELETE /api/tenants/{id}  - Delete a tenant and its rules");
+        System.out.println("       /api/{tenant}/...    - Any rules or metrics endpoint for another tenant");
         System.out.println();
         System.out.println("Press Ctrl+C to stop the server");
         System.out.println("════════════════════════════════════════════════════════════");
         System.out.println();
         
-        printCurrentRules();
+        printCurrentRules(dashboard.getRuleEngine());
+    }
+    
+    /**
+     * Restores the rules kept in the data directory, or stores the dashboard's initial
+     * rules there on first start, and journals every later change.
+     */
+    private static void openJournal(ServerConfig config) throws IOException {
+        RuleEngine engine = dashboard.getRuleEngine();
+        long start = System.nanoTime();
+        RuleJournal journal = RuleJournal.open(config.getDataDirectory(), config.getSyncIntervalMillis(),
+            RuleJournal.DEFAULT_COMPACTION_THRESHOLD);
+        if (journal.hasRecoveredState()) {
+            // Interpreted in one change; the conditions are compiled in the background
+            engine.replaceAllRules(journal.getRecoveredRules());
+            System.out.printf(Locale.ROOT, "Restored %d rules from %s in %.1f ms%n",
+                journal.getRuleCount(), config.getDataDirectory(), (System.nanoTime() - start) / 1e6);
+            if (journal.getDiscardedBytes() > 0) {
+                System.out.println("Discarded an incomplete journal tail of " + journal.getDiscardedBytes() + " bytes");
+            }
+        } else {
+            journal.rulesAdded(engine.getRules());
+            System.out.println("Keeping rules in " + config.getDataDirectory());
+        }
+        engine.setRuleChangeListener(journal);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                System.err.println("Could not close the rule journal: " + e.getMessage());
+            }
+        }));
+    }
+    
+    /**
+     * Registers a tenant-aware endpoint under /api/ for the default tenant and in the
+     * route table of the tenant router.
+     */
+    private static void route(HttpServer server, Map<String, HttpHandler> routes, String path, HttpHandler handler) {
+        routes.put(path, handler);
+        server.createContext("/api/" + path, timed("http." + path.replace('/', '.'), handler));
+    }
+    
+    /**
+     * Gets the engine of the tenant the request was routed to.
+     */
+    private static RuleEngine engine(HttpExchange exchange) {
+        return ((TenantRegistry.Lease) exchange.getAttribute(LEASE_ATTRIBUTE)).getEngine();
+    }
+    
+    /**
+     * Checks that the tenant the request was routed to may take on the given rules,
+     * answering 507 if its estimated size would no longer fit the memory budget.
+     * 
+     * @return true if the rules may be added
+     */
+    private static boolean admitted(HttpExchange exchange, List<Rule> rules, boolean replace) throws IOException {
+        TenantRegistry.Lease lease = (TenantRegistry.Lease) exchange.getAttribute(LEASE_ATTRIBUTE);
+        return lease.admits(rules, replace) || refuseOverBudget(exchange, lease);
+    }
+    
+    /**
+     * Checks that the tenant the request was routed to may replace the named rule,
+     * charging only the difference in size, and answers 507 if not.
+     * 
+     * @return true if the rule may be replaced
+     */
+    private static boolean admittedReplacement(HttpExchange exchange, String name, Rule rule) throws IOException {
+        TenantRegistry.Lease lease = (TenantRegistry.Lease) exchange.getAttribute(LEASE_ATTRIBUTE);
+        return lease.admitsReplacement(name, rule) || refuseOverBudget(exchange, lease);
+    }
+    
+    private static boolean refuseOverBudget(HttpExchange exchange, TenantRegistry.Lease lease) throws IOException {
+        sendResponse(exchange, 507, "{\"error\":\"Tenant '" + escapeJson(lease.getTenantId())
+            + "' would exceed the tenant memory budget of " + (tenants.getMemoryBudget() >> 20) + " MB\"}",
+            "application/json");
+        return false;
+    }
+    
+    /**
+     * Runs a handler against the engine of the tenant named by the path prefix (set
+     * by TenantRouter) or by the X-Tenant header, or else of the default tenant. The
+     * tenant stays loaded until the handler returns.
+     */
+    static class TenantHandler implements HttpHandler {
+        private final HttpHandler handler;
+        // Whether a request for an unknown tenant creates it
+        private final boolean creates;
+        
+        TenantHandler(HttpHandler handler, boolean creates) {
+            this.handler = handler;
+            this.creates = creates;
+        }
+        
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            String tenant = (String) exchange.getAttribute(TenantRouter.TENANT_ATTRIBUTE);
+            if (tenant == null) {
+                tenant = exchange.getRequestHeaders().getFirst(TENANT_HEADER);
+            }
+            if (tenant == null) {
+                tenant = TenantRegistry.DEFAULT_TENANT;
+            }
+            if (!TenantRegistry.isValidId(tenant)) {
+                sendResponse(exchange, 400, "{\"error\":\"Invalid tenant id; use 1-64 letters, digits, '-' or '_'\"}",
+                    "application/json");
+                return;
+            }
+            TenantRegistry.Lease lease;
+            try {
+                lease = tenants.acquire(tenant, creates && "POST".equals(exchange.getRequestMethod()));
+            } catch (IllegalStateException e) {
+                // The tenant limit is reached
+                sendResponse(exchange, 403, "{\"error\":\"" + escapeJson(e.getMessage()) + "\"}", "application/json");
+                return;
+            } catch (IOException | RuntimeException e) {
+                sendResponse(exchange, 500, "{\"error\":\"Could not load tenant '" + escapeJson(tenant) + "': "
+                    + escapeJson(String.valueOf(e.getMessage())) + "\"}", "application/json");
+                return;
+            }
+            if (lease == null) {
+                sendResponse(exchange, 404,
+                    "{\"error\":\"No tenant named '" + escapeJson(tenant) + "'\"}", "application/json");
+                return;
+            }
+            try (lease) {
+                exchange.setAttribute(LEASE_ATTRIBUTE, lease);
+                handler.handle(exchange);
+            }
+        }
+    }
+    
+    /**
+     * Tenant router - serves /api/{tenant}/{route} with the handler registered for
+     * /api/{route}. Paths that begin /api/rules, /api/metrics or /api/tenants reach
+     * their own contexts first, so tenants named like that need the X-Tenant header.
+     */
+    static class TenantRouter implements HttpHandler {
+        static final String TENANT_ATTRIBUTE = "ruleapi.tenant";
+        private final Map<String, HttpHandler> routes;
+        
+        TenantRouter(Map<String, HttpHandler> routes) {
+            this.routes = routes;
+        }
+        
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            String path = exchange.getRequestURI().getPath().substring("/api/".length());
+            int slash = path.indexOf('/');
+            String route = slash < 0 ? "" : path.substring(slash + 1);
+            if (route.endsWith("/")) {
+                route = route.substring(0, route.length() - 1);
+            }
+            HttpHandler handler = routes.get(route);
+            if (handler == null) {
+                sendResponse(exchange, 404, "{\"error\":\"Not found\"}", "application/json");
+                return;
+            }
+            exchange.setAttribute(TENANT_ATTRIBUTE, path.substring(0, slash));
+            handler.handle(exchange);
+        }
+    }
+    
+    /**
+     * Tenants endpoint - every known tenant with its load state, and the estimated heap
+     * of loaded engines against the memory budget; DELETE /api/tenants/{id} deletes a
+     * tenant and its rules
+     */
+    static class TenantsHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if ("DELETE".equals(exchange.getRequestMethod())) {
+                delete(exchange);
+                return;
+            }
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                sendResponse(exchange, 405, "{\"error\":\"Method not allowed\"}", "application/json");
+                return;
+            }
+            
+            List<TenantRegistry.Tenant> list = tenants.getTenants();
+            StringBuilder json = new StringBuilder();
+            json.append("{\n  \"count\": ").append(list.size()).append(",\n");
+            json.append("  \"maxTenants\": ").append(tenants.getMaxTenants()).append(",\n");
+            json.append("  \"estimatedBytes\": ").append(tenants.getLoadedBytes()).append(",\n");
+            json.append("  \"imageBytes\": ").append(tenants.getImageBytes()).append(",\n");
+            json.append("  \"memoryBudget\": ").append(tenants.getMemoryBudget()).append(",\n");
+            json.append("  \"loads\": ").append(tenants.getLoadCount()).append(",\n");
+            json.append("  \"evictions\": ").append(tenants.getEvictionCount()).append(",\n");
+            json.append("  \"tenants\": [\n");
+            for (int i = 0; i < list.size(); i++) {
+                TenantRegistry.Tenant tenant = list.get(i);
+                json.append("    {\"id\": \"").append(escapeJson(tenant.getId()))
+                    .append("\", \"loaded\": ").append(tenant.isLoaded())
+                    .append(", \"rules\": ").append(tenant.getRuleCount())
+                    .append(", \"estimatedBytes\": ").append(tenant.getEstimatedBytes())
+                    .append(", \"imageBytes\": ").append(tenant.getImageBytes())
+                    .append(", \"overBudget\": ").append(tenant.isOverBudget()).append("}");
+                if (i < list.size() - 1) {
+                    json.append(",");
+                }
+                json.append("\n");
+            }
+            json.append("  ]\n}");
+            
+            sendResponse(exchange, 200, json.toString(), "application/json");
+        }
+        
+        private void delete(HttpExchange exchange) throws IOException {
+            String path = exchange.getRequestURI().getPath();
+            String id = path.startsWith("/api/tenants/") ? path.substring("/api/tenants/".length()) : "";
+            if (!TenantRegistry.isValidId(id)) {
+                sendResponse(exchange, 400, "{\"error\":\"Use DELETE /api/tenants/{id} with a valid tenant id\"}",
+                    "application/json");
+                return;
+            }
+            boolean deleted;
+            try {
+                deleted = tenants.delete(id);
+            } catch (IllegalArgumentException e) {
+                sendResponse(exchange, 403, "{\"error\":\"" + escapeJson(e.getMessage()) + "\"}", "application/json");
+                return;
+            } catch (IllegalStateException e) {
+                sendResponse(exchange, 409, "{\"error\":\"" + escapeJson(e.getMessage()) + "\"}", "application/json");
+                return;
+            } catch (IOException e) {
+                // The tenant is gone, but its files may be left behind
+                sendResponse(exchange, 500, "{\"error\":\"Tenant '" + escapeJson(id) + "' was deleted, but its journal "
+                    + "could not be removed: " + escapeJson(String.valueOf(e.getMessage())) + "\"}", "application/json");
+                return;
+            }
+            if (!deleted) {
+                sendResponse(exchange, 404, "{\"error\":\"No tenant named '" + escapeJson(id) + "'\"}", "application/json");
+                return;
+            }
+            System.out.println("\n[TENANT DELETED] " + id);
+            sendResponse(exchange, 200, "{\"success\":true,\"message\":\"Tenant '" + escapeJson(id) + "' deleted\"}",
+                "application/json");
+        }
     }
     
     /**
@@ -116,6 +422,24 @@ public class RuleApiServer {
                         <p>Clear all rules from the engine.</p>
                     </div>
                     
+                    <div class="endpoint">
+                        <strong>GET /api/rules/export</strong>, <strong>POST /api/rules/import</strong>
+                        <p>Download the rules as a binary rule-set file, or upload one to replace every rule at once.</p>
+                    </div>
+                    
+                    <div class="endpoint">
+                        <strong>GET /api/metrics</strong>
+                        <p>Per-rule hit counts and latency histograms for evaluations and endpoints.
+                        Add <code>?format=prometheus</code> for the Prometheus text format.</p>
+                    </div>
+                    
+                    <div class="endpoint">
+                        <strong>/api/{tenant}/rules/...</strong>, <strong>GET /api/tenants</strong>,
+                        <strong>DELETE /api/tenants/{tenant}</strong>
+                        <p>Every rules and metrics endpoint for a separate tenant rule set (or send an
+                        <code>X-Tenant</code> header); adding or importing rules creates the tenant.</p>
+                    </div>
+                    
                     <h2>Quick Start Examples</h2>
                     
                     <h3>View Current Rules</h3>
@@ -151,9 +475,11 @@ public class RuleApiServer {
                 return;
             }
             
-            List<Rule> rules = dashboard.getRuleEngine().getRules();
+            RuleSet ruleSet = engine(exchange).getRuleSet();
+            List<Rule> rules = ruleSet.getRules();
             StringBuilder json = new StringBuilder();
             json.append("{\n  \"count\": ").append(rules.size()).append(",\n");
+            json.append("  \"version\": ").append(ruleSet.getVersion()).append(",\n");
             json.append("  \"rules\": [\n");
             
             for (int i = 0; i < rules.size(); i++) {
@@ -161,7 +487,9 @@ public class RuleApiServer {
                 json.append("    {\n");
                 json.append("      \"index\": ").append(i).append(",\n");
                 json.append("      \"name\": \"").append(escapeJson(rule.getName())).append("\",\n");
-                json.append("      \"condition\": \"").append(escapeJson(rule.getCondition().toString())).append("\"\n");
+                json.append("      \"condition\": \"").append(escapeJson(rule.getCondition().toString())).append("\",\n");
+                json.append("      \"optimizedCondition\": \"")
+                    .append(escapeJson(rule.getOptimizedCondition().toString())).append("\"\n");
                 json.append("    }");
                 if (i < rules.size() - 1) {
                     json.append(",");
@@ -186,13 +514,12 @@ public class RuleApiServer {
                 return;
             }
             
-            String body = readRequestBody(exchange);
-            
             try {
                 // Parse JSON manually (avoiding external dependencies)
-                String name = extractJsonString(body, "name");
-                String condition = extractJsonString(body, "condition");
-                String[] actions = extractJsonArray(body, "actions");
+                RuleRequest request = RuleRequest.read(exchange.getRequestBody());
+                String name = request.name;
+                String condition = request.condition;
+                String[] actions = request.actions;
                 
                 if (name == null || condition == null || actions == null) {
                     sendResponse(exchange, 400, 
@@ -202,24 +529,28 @@ public class RuleApiServer {
                 }
                 
                 // Parse the condition expression
-                Expression expr = parseExpression(condition);
+                Expression expr = PARSER.parse(condition);
                 
                 // Create and add the rule
                 Rule rule = new Rule(name, expr, actions);
-                dashboard.getRuleEngine().addRule(rule);
+                if (!admitted(exchange, List.of(rule), false)) {
+                    return;
+                }
+                RuleEngine engine = engine(exchange);
+                engine.addRule(rule);
                 
                 System.out.println("\n[RULE ADDED]");
                 System.out.println("  Name: " + name);
                 System.out.println("  Condition: " + condition);
                 System.out.println("  Actions: " + String.join(", ", actions));
-                System.out.println();
-                
-                printCurrentRules();
+                RuleSet ruleSet = engine.getRuleSet();
+                printRuleCount(ruleSet);
                 
                 String response = String.format(
-                    "{\"success\":true,\"message\":\"Rule '%s' added successfully\",\"totalRules\":%d}",
+                    "{\"success\":true,\"message\":\"Rule '%s' added successfully\",\"totalRules\":%d,\"version\":%d}",
                     escapeJson(name),
-                    dashboard.getRuleEngine().getRules().size()
+                    ruleSet.size(),
+                    ruleSet.getVersion()
                 );
                 
                 sendResponse(exchange, 201, response, "application/json");
@@ -242,17 +573,17 @@ public class RuleApiServer {
                 return;
             }
             
-            String body = readRequestBody(exchange);
-            
             try {
-                boolean projectActive = extractJsonBoolean(body, "projectActive");
-                boolean taskOverdue = extractJsonBoolean(body, "taskOverdue");
-                boolean kpiBreach = extractJsonBoolean(body, "kpiBreach");
-                boolean dependencyBlocked = extractJsonBoolean(body, "dependencyBlocked");
+                boolean[] conditions = readConditions(new JsonReader(exchange.getRequestBody()));
+                boolean projectActive = conditions[0];
+                boolean taskOverdue = conditions[1];
+                boolean kpiBreach = conditions[2];
+                boolean dependencyBlocked = conditions[3];
                 
-                List<String> actions = dashboard.processProjectDecision(
-                    projectActive, taskOverdue, kpiBreach, dependencyBlocked
+                EvaluationResult result = engine(exchange).evaluate(
+                    new Context(projectActive, taskOverdue, kpiBreach, dependencyBlocked)
                 );
+                List<String> actions = result.getActions();
                 
                 System.out.println("\n[RULE EVALUATION]");
                 System.out.println("  Conditions:");
@@ -260,7 +591,7 @@ public class RuleApiServer {
                 System.out.println("    taskOverdue: " + taskOverdue);
                 System.out.println("    kpiBreach: " + kpiBreach);
                 System.out.println("    dependencyBlocked: " + dependencyBlocked);
-                System.out.println("  Result: " + actions);
+                System.out.println("  Result: " + actions + " (rule set v" + result.getVersion() + ")");
                 System.out.println();
                 
                 StringBuilder json = new StringBuilder();
@@ -271,6 +602,14 @@ public class RuleApiServer {
                 json.append("    \"kpiBreach\": ").append(kpiBreach).append(",\n");
                 json.append("    \"dependencyBlocked\": ").append(dependencyBlocked).append("\n");
                 json.append("  },\n");
+                json.append("  \"ruleSetVersion\": ").append(result.getVersion()).append(",\n");
+                json.append("  \"matchedRule\": ");
+                if (result.isMatched()) {
+                    json.append("\"").append(escapeJson(result.getRule().getName())).append("\"");
+                } else {
+                    json.append("null");
+                }
+                json.append(",\n");
                 json.append("  \"actions\": [\n");
                 for (int i = 0; i < actions.size(); i++) {
                     json.append("    \"").append(escapeJson(actions.get(i))).append("\"");
@@ -289,6 +628,93 @@ public class RuleApiServer {
         }
     }
     
+    /**
+     * Batch test endpoint - reads newline-delimited JSON condition objects and streams
+     * one newline-delimited result per object back with chunked transfer encoding.
+     * Objects are evaluated as they arrive, so memory use does not grow with the batch.
+     * Unlike the single test endpoint, nothing is logged per item.
+     */
+    static class BatchTestHandler implements HttpHandler {
+        private static final JsonReader.Fields FIELDS = new JsonReader.Fields(
+            "projectActive", "taskOverdue", "kpiBreach", "dependencyBlocked", "id");
+        
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                sendResponse(exchange, 405, "{\"error\":\"Method not allowed\"}", "application/json");
+                return;
+            }
+            
+            exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson");
+            exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+            exchange.sendResponseHeaders(200, 0);
+            
+            RuleEngine engine = engine(exchange);
+            JsonReader reader = new JsonReader(exchange.getRequestBody());
+            Context context = new Context();
+            StringBuilder line = new StringBuilder(256);
+            long index = 0;
+            long matched = 0;
+            
+            try (Writer out = new BufferedWriter(
+                    new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8), 16384)) {
+                try {
+                    while (reader.nextObject()) {
+                        context.setBits(0);
+                        String id = null;
+                        int field;
+                        while ((field = reader.nextField(FIELDS)) != JsonReader.END_OF_OBJECT) {
+                            if (field >= 0 && field < 4) {
+                                // Fields 0-3 are declared in condition-slot order
+                                context.setCondition(field, reader.readBoolean());
+                            } else if (field == 4) {
+                                id = reader.readString();
+                            } else {
+                                reader.skipValue();
+                            }
+                        }
+                        
+                        EvaluationResult result = engine.evaluate(context);
+                        if (result.isMatched()) {
+                            matched++;
+                        }
+                        
+                        line.setLength(0);
+                        line.append("{\"index\":").append(index++);
+                        if (id != null) {
+                            line.append(",\"id\":\"").append(escapeJson(id)).append('"');
+                        }
+                        line.append(",\"ruleSetVersion\":").append(result.getVersion());
+                        line.append(",\"matchedRule\":");
+                        if (result.isMatched()) {
+                            line.append('"').append(escapeJson(result.getRule().getName())).append('"');
+                        } else {
+                            line.append("null");
+                        }
+                        line.append(",\"actions\":[");
+                        List<String> actions = result.getActions();
+                        for (int i = 0; i < actions.size(); i++) {
+                            if (i > 0) line.append(',');
+                            line.append('"').append(escapeJson(actions.get(i))).append('"');
+                        }
+                        line.append("]}\n");
+                        out.append(line);
+                        // Results go out as soon as the client has to wait for them
+                        if (!reader.hasReadyInput()) {
+                            out.flush();
+                        }
+                    }
+                } catch (IOException e) {
+                    // The status is already sent, so report the bad item in-band and stop
+                    out.append("{\"index\":").append(String.valueOf(index))
+                       .append(",\"error\":\"").append(escapeJson(e.getMessage())).append("\"}\n");
+                }
+            }
+            
+            System.out.println("[BATCH EVALUATION] " + index + " items, " + matched + " matched");
+        }
+    }
+    
     /**
      * Clear rules endpoint
      */
@@ -300,151 +726,484 @@ public class RuleApiServer {
                 return;
             }
             
-            dashboard.getRuleEngine().clearRules();
+            RuleEngine engine = engine(exchange);
+            engine.clearRules();
             
             System.out.println("\n[RULES CLEARED]");
             System.out.println("  All rules have been removed from the engine.");
             System.out.println();
             
             sendResponse(exchange, 200, 
-                "{\"success\":true,\"message\":\"All rules cleared\"}", 
+                "{\"success\":true,\"message\":\"All rules cleared\",\"version\":"
+                    + engine.getVersion() + "}", 
                 "application/json");
         }
     }
     
-    // Helper methods
-    
-    private static void sendResponse(HttpExchange exchange, int statusCode, String response, String contentType) throws IOException {
-        exchange.getResponseHeaders().set("Content-Type", contentType);
-        exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
-        byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
-        exchange.sendResponseHeaders(statusCode, bytes.length);
-        OutputStream os = exchange.getResponseBody();
-        os.write(bytes);
-        os.close();
-    }
-    
-    private static String readRequestBody(HttpExchange exchange) throws IOException {
-        InputStream is = exchange.getRequestBody();
-        return new String(is.readAllBytes(), StandardCharsets.UTF_8);
-    }
-    
-    private static String extractJsonString(String json, String key) {
-        String pattern = "\"" + key + "\"\\s*:\\s*\"([^\"]+)\"";
-        java.util.regex.Pattern p = java.util.regex.Pattern.compile(pattern);
-        java.util.regex.Matcher m = p.matcher(json);
-        if (m.find()) {
-            return m.group(1);
+    /**
+     * Remove rule endpoint
+     */
+    static class RemoveRuleHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                sendResponse(exchange, 405, "{\"error\":\"Method not allowed\"}", "application/json");
+                return;
+            }
+            
+            String name;
+            try {
+                name = RuleRequest.read(exchange.getRequestBody()).name;
+            } catch (IOException e) {
+                sendResponse(exchange, 400, "{\"error\":\"" + escapeJson(e.getMessage()) + "\"}", "application/json");
+                return;
+            }
+            if (name == null) {
+                sendResponse(exchange, 400, "{\"error\":\"Missing required field: name\"}", "application/json");
+                return;
+            }
+            
+            RuleEngine engine = engine(exchange);
+            if (!engine.removeRule(name)) {
+                sendResponse(exchange, 404,
+                    "{\"error\":\"No rule named '" + escapeJson(name) + "'\"}", "application/json");
+                return;
+            }
+            
+            System.out.println("\n[RULE REMOVED]");
+            System.out.println("  Name: " + name);
+            RuleSet ruleSet = engine.getRuleSet();
+            printRuleCount(ruleSet);
+            
+            sendResponse(exchange, 200, String.format(
+                "{\"success\":true,\"message\":\"Rule '%s' removed\",\"totalRules\":%d,\"version\":%d}",
+                escapeJson(name), ruleSet.size(), ruleSet.getVersion()), "application/json");
         }
-        return null;
     }
     
-    private static String[] extractJsonArray(String json, String key) {
-        String pattern = "\"" + key + "\"\\s*:\\s*\\[([^\\]]+)\\]";
-        java.util.regex.Pattern p = java.util.regex.Pattern.compile(pattern);
-        java.util.regex.Matcher m = p.matcher(json);
-        if (m.find()) {
-            String arrayContent = m.group(1);
-            String[] parts = arrayContent.split(",");
-            String[] result = new String[parts.length];
-            for (int i = 0; i < parts.length; i++) {
-                result[i] = parts[i].trim().replaceAll("^\"|\"$", "");
-            }
-            return result;
+    /**
+     * Replace rule endpoint - swaps a rule in place, keeping its priority
+     */
+    static class ReplaceRuleHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                sendResponse(exchange, 405, "{\"error\":\"Method not allowed\"}", "application/json");
+                return;
+            }
+            
+            try {
+                RuleRequest request = RuleRequest.read(exchange.getRequestBody());
+                String name = request.name;
+                String condition = request.condition;
+                String[] actions = request.actions;
+                
+                if (name == null || condition == null || actions == null) {
+                    sendResponse(exchange, 400, 
+                        "{\"error\":\"Missing required fields: name, condition, actions\"}", 
+                        "application/json");
+                    return;
+                }
+                
+                Rule rule = new Rule(name, PARSER.parse(condition), actions);
+                if (!admittedReplacement(exchange, name, rule)) {
+                    return;
+                }
+                RuleEngine engine = engine(exchange);
+                if (!engine.replaceRule(name, rule)) {
+                    sendResponse(exchange, 404,
+                        "{\"error\":\"No rule named '" + escapeJson(name) + "'\"}", "application/json");
+                    return;
+                }
+                
+                System.out.println("\n[RULE REPLACED]");
+                System.out.println("  Name: " + name);
+                System.out.println("  Condition: " + condition);
+                System.out.println("  Actions: " + String.join(", ", actions));
+                System.out.println();
+                
+                RuleSet ruleSet = engine.getRuleSet();
+                sendResponse(exchange, 200, String.format(
+                    "{\"success\":true,\"message\":\"Rule '%s' replaced\",\"totalRules\":%d,\"version\":%d}",
+                    escapeJson(name), ruleSet.size(), ruleSet.getVersion()), "application/json");
+                
+            } catch (Exception e) {
+                String errorMsg = "{\"error\":\"" + escapeJson(e.getMessage()) + "\"}";
+                sendResponse(exchange, 400, errorMsg, "application/json");
+            }
         }
-        return null;
     }
     
-    private static boolean extractJsonBoolean(String json, String key) {
-        String pattern = "\"" + key + "\"\\s*:\\s*(true|false)";
-        java.util.regex.Pattern p = java.util.regex.Pattern.compile(pattern);
-        java.util.regex.Matcher m = p.matcher(json);
-        if (m.find()) {
-            return Boolean.parseBoolean(m.group(1));
+    /**
+     * Export endpoint - the whole rule set as a RuleSetFormat file
+     */
+    static class ExportRulesHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                sendResponse(exchange, 405, "{\"error\":\"Method not allowed\"}", "application/json");
+                return;
+            }
+            
+            RuleSet ruleSet = engine(exchange).getRuleSet();
+            byte[] file;
+            try {
+                file = RuleSetFormat.encode(ruleSet);
+            } catch (IllegalArgumentException e) {
+                sendResponse(exchange, 409, "{\"error\":\"" + escapeJson(e.getMessage()) + "\"}", "application/json");
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Disposition",
+                "attachment; filename=\"rules-v" + ruleSet.getVersion() + ".rset\"");
+            sendBytes(exchange, 200, file, RuleSetFormat.CONTENT_TYPE);
         }
-        return false;
     }
     
-    private static String escapeJson(String str) {
-        return str.replace("\\", "\\\\")
-                  .replace("\"", "\\\"")
-                  .replace("\n", "\\n")
-                  .replace("\r", "\\r")
-                  .replace("\t", "\\t");
+    /**
+     * Import endpoint - replaces every rule with the rules of a RuleSetFormat file in
+     * one change, so requests in flight see either the old or the new rules
+     */
+    static class ImportRulesHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                sendResponse(exchange, 405, "{\"error\":\"Method not allowed\"}", "application/json");
+                return;
+            }
+            
+            byte[] body = exchange.getRequestBody().readNBytes(MAX_IMPORT_BYTES + 1);
+            if (body.length > MAX_IMPORT_BYTES) {
+                sendResponse(exchange, 413,
+                    "{\"error\":\"Rule-set file exceeds " + MAX_IMPORT_BYTES + " bytes\"}", "application/json");
+                return;
+            }
+            
+            long start = System.nanoTime();
+            RuleSetFormat.Contents contents;
+            try {
+                contents = RuleSetFormat.decode(ByteBuffer.wrap(body));
+            } catch (IOException e) {
+                sendResponse(exchange, 400, "{\"error\":\"" + escapeJson(e.getMessage()) + "\"}", "application/json");
+                return;
+            }
+            if (!admitted(exchange, contents.getRules(), true)) {
+                return;
+            }
+            RuleEngine engine = engine(exchange);
+            try {
+                engine.replaceAllRules(contents.getRules());
+            } catch (RuntimeException e) {
+                // The rule journal refused the change; the old rules are still in place
+                sendResponse(exchange, 500, "{\"error\":\"" + escapeJson(e.getMessage()) + "\"}", "application/json");
+                return;
+            }
+            double millis = (System.nanoTime() - start) / 1e6;
+            
+            System.out.println("\n[RULES IMPORTED]");
+            System.out.println("  Rules: " + contents.getRules().size() + " (" + body.length + " bytes)");
+            RuleSet ruleSet = engine.getRuleSet();
+            printRuleCount(ruleSet);
+            
+            sendResponse(exchange, 200, String.format(Locale.ROOT,
+                "{\"success\":true,\"message\":\"Imported %d rules\",\"totalRules\":%d,\"version\":%d,"
+                    + "\"sourceVersion\":%d,\"loadMillis\":%.3f}",
+                contents.getRules().size(), ruleSet.size(), ruleSet.getVersion(),
+                contents.getSourceVersion(), millis), "application/json");
+        }
     }
     
-    private static Expression parseExpression(String condition) {
-        condition = condition.trim();
+    /**
+     * Metrics endpoint - evaluation counts, per-rule hits and timer histograms, as JSON
+     * or, with ?format=prometheus or an Accept: text/plain header, in the Prometheus
+     * text exposition format
+     */
+    static class MetricsHandler implements HttpHandler {
+        // Histogram buckets reported to Prometheus: 128 ns up to 2^36 ns (about 69 s)
+        private static final int FIRST_BUCKET = 7;
+        private static final int LAST_BUCKET = 36;
         
-        // Handle outer parentheses
-        if (condition.startsWith("(") && condition.endsWith(")") && matchingParens(condition)) {
-            return parseExpression(condition.substring(1, condition.length() - 1));
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                sendResponse(exchange, 405, "{\"error\":\"Method not allowed\"}", "application/json");
+                return;
+            }
+            
+            RuleEngine engine = engine(exchange);
+            String query = exchange.getRequestURI().getQuery();
+            String accept = exchange.getRequestHeaders().getFirst("Accept");
+            boolean prometheus = (query != null && query.contains("format=prometheus"))
+                || (accept != null && accept.startsWith("text/plain"));
+            if (prometheus) {
+                sendResponse(exchange, 200, prometheusText(engine), "text/plain; version=0.0.4; charset=utf-8");
+            } else {
+                sendResponse(exchange, 200, json(engine), "application/json");
+            }
         }
         
-        // Handle NOT expression
-        if (condition.toUpperCase().startsWith("NOT ")) {
-            String inner = condition.substring(4).trim();
-            return new NotExpression(parseExpression(inner));
+        private static String json(RuleEngine engine) {
+            Metrics metrics = engine.getMetrics();
+            RuleSet ruleSet = engine.getRuleSet();
+            StringBuilder json = new StringBuilder();
+            json.append("{\n  \"enabled\": ").append(metrics.isEnabled()).append(",\n");
+            json.append("  \"ruleSetVersion\": ").append(ruleSet.getVersion()).append(",\n");
+            json.append("  \"evaluations\": ").append(metrics.getEvaluationCount()).append(",\n");
+            json.append("  \"unmatched\": ").append(metrics.getUnmatchedCount()).append(",\n");
+            json.append("  \"rules\": [\n");
+            for (int i = 0; i < ruleSet.size(); i++) {
+                Rule rule = ruleSet.get(i);
+                long evaluations = metrics.getEvaluationCount(rule);
+                json.append("    {\"index\": ").append(i)
+                    .append(", \"name\": \"").append(escapeJson(rule.getName())).append('"')
+                    .append(", \"hits\": ").append(rule.getHitCount())
+                    .append(", \"evaluations\": ").append(evaluations)
+                    .append(", \"hitRate\": ")
+                    .append(String.format(Locale.ROOT, "%.4f", evaluations == 0 ? 0.0 : (double) rule.getHitCount() / evaluations))
+                    .append('}');
+                json.append(i < ruleSet.size() - 1 ? ",\n" : "\n");
+            }
+            json.append("  ],\n");
+            DecisionCache cache = engine.getDecisionCache();
+            json.append("  \"decisionCache\": ");
+            if (cache == null) {
+                json.append("null,\n");
+            } else {
+                json.append("{\"size\": ").append(cache.size())
+                    .append(", \"capacity\": ").append(cache.getCapacity())
+                    .append(", \"hits\": ").append(cache.getHitCount())
+                    .append(", \"misses\": ").append(cache.getMissCount())
+                    .append(", \"staleMisses\": ").append(cache.getStaleMissCount())
+                    .append(", \"evictions\": ").append(cache.getEvictionCount())
+                    .append(", \"hitRate\": ").append(String.format(Locale.ROOT, "%.4f", cache.getHitRate()))
+                    .append("},\n");
+            }
+            json.append("  \"timers\": {\n");
+            int remaining = metrics.getTimers().size();
+            for (Metrics.Timer timer : metrics.getTimers().values()) {
+                LatencyHistogram latency = timer.getLatency();
+                json.append("    \"").append(escapeJson(timer.getName())).append("\": {")
+                    .append("\"samples\": ").append(latency.getCount())
+                    .append(", \"sampleInterval\": ").append(timer.getSampleInterval())
+                    .append(", \"meanNanos\": ").append(String.format(Locale.ROOT, "%.1f", latency.getMean()))
+                    .append(", \"p50Nanos\": ").append(latency.getPercentile(50))
+                    .append(", \"p90Nanos\": ").append(latency.getPercentile(90))
+                    .append(", \"p99Nanos\": ").append(latency.getPercentile(99))
+                    .append(", \"maxNanos\": ").append(latency.getMax())
+                    .append(", \"allocationSamples\": ").append(timer.getAllocationSampleCount())
+                    .append(", \"bytesPerOp\": ").append(String.format(Locale.ROOT, "%.1f", timer.getBytesPerOperation()))
+                    .append('}');
+                json.append(--remaining > 0 ? ",\n" : "\n");
+            }
+            json.append("  }\n}");
+            return json.toString();
         }
         
-        // Try to split by AND or OR (at top level, not inside parentheses)
-        String[] andParts = trySplitByOperator(condition, " AND ");
-        if (andParts != null) {
-            Expression left = parseExpression(andParts[0]);
-            Expression right = parseExpression(andParts[1]);
-            return new AndExpression(left, right);
+        private static String prometheusText(RuleEngine engine) {
+            Metrics metrics = engine.getMetrics();
+            RuleSet ruleSet = engine.getRuleSet();
+            StringBuilder text = new StringBuilder();
+            
+            header(text, "rule_engine_rule_set_version", "gauge", "Version of the current rule set.");
+            text.append("rule_engine_rule_set_version ").append(ruleSet.getVersion()).append('\n');
+            header(text, "rule_engine_evaluations_total", "counter", "Rule evaluations recorded while metrics were enabled.");
+            text.append("rule_engine_evaluations_total ").append(metrics.getEvaluationCount()).append('\n');
+            header(text, "rule_engine_unmatched_total", "counter", "Recorded evaluations that matched no rule.");
+            text.append("rule_engine_unmatched_total ").append(metrics.getUnmatchedCount()).append('\n');
+            
+            header(text, "rule_engine_rule_hits_total", "counter", "Evaluations in which the rule was the first match.");
+            for (Rule rule : ruleSet.getRules()) {
+                text.append("rule_engine_rule_hits_total{rule=\"").append(escapeLabel(rule.getName())).append("\"} ")
+                    .append(rule.getHitCount()).append('\n');
+            }
+            header(text, "rule_engine_rule_evaluations_total", "counter", "Evaluations since the rule was installed.");
+            for (Rule rule : ruleSet.getRules()) {
+                text.append("rule_engine_rule_evaluations_total{rule=\"").append(escapeLabel(rule.getName())).append("\"} ")
+                    .append(metrics.getEvaluationCount(rule)).append('\n');
+            }
+            
+            DecisionCache cache = engine.getDecisionCache();
+            if (cache != null) {
+                header(text, "rule_engine_decision_cache_lookups_total", "counter",
+                    "Decision cache lookups by outcome; stale misses are also counted as misses.");
+                text.append("rule_engine_decision_cache_lookups_total{result=\"hit\"} ").append(cache.getHitCount()).append('\n');
+                text.append("rule_engine_decision_cache_lookups_total{result=\"miss\"} ").append(cache.getMissCount()).append('\n');
+                header(text, "rule_engine_decision_cache_stale_misses_total", "counter",
+                    "Decision cache misses on an entry from an older rule-set version.");
+                text.append("rule_engine_decision_cache_stale_misses_total ").append(cache.getStaleMissCount()).append('\n');
+                header(text, "rule_engine_decision_cache_evictions_total", "counter", "Decision cache entries evicted to make room.");
+                text.append("rule_engine_decision_cache_evictions_total ").append(cache.getEvictionCount()).append('\n');
+                header(text, "rule_engine_decision_cache_entries", "gauge", "Decision cache entries.");
+                text.append("rule_engine_decision_cache_entries ").append(cache.size()).append('\n');
+            }
+            
+            header(text, "rule_engine_duration_seconds", "histogram",
+                "Duration of HTTP requests, and of a random sample of engine evaluations.");
+            for (Metrics.Timer timer : metrics.getTimers().values()) {
+                LatencyHistogram latency = timer.getLatency();
+                String label = "timer=\"" + escapeLabel(timer.getName()) + "\"";
+                long cumulative = 0;
+                for (int b = 0; b < FIRST_BUCKET; b++) {
+                    cumulative += latency.getBucketCount(b);
+                }
+                for (int b = FIRST_BUCKET; b <= LAST_BUCKET; b++) {
+                    cumulative += latency.getBucketCount(b);
+                    text.append("rule_engine_duration_seconds_bucket{").append(label)
+                        .append(",le=\"").append(LatencyHistogram.upperBound(b) / 1e9).append("\"} ")
+                        .append(cumulative).append('\n');
+                }
+                text.append("rule_engine_duration_seconds_bucket{").append(label).append(",le=\"+Inf\"} ")
+                    .append(latency.getCount()).append('\n');
+                text.append("rule_engine_duration_seconds_sum{").append(label).append("} ")
+                    .append(latency.getSum() / 1e9).append('\n');
+                text.append("rule_engine_duration_seconds_count{").append(label).append("} ")
+                    .append(latency.getCount()).append('\n');
+            }
+            header(text, "rule_engine_allocated_bytes_per_operation", "gauge",
+                "Mean bytes allocated per operation, from sampled operations.");
+            for (Metrics.Timer timer : metrics.getTimers().values()) {
+                text.append("rule_engine_allocated_bytes_per_operation{timer=\"").append(escapeLabel(timer.getName()))
+                    .append("\"} ").append(timer.getBytesPerOperation()).append('\n');
+            }
+            return text.toString();
         }
         
-        String[] orParts = trySplitByOperator(condition, " OR ");
-        if (orParts != null) {
-            Expression left = parseExpression(orParts[0]);
-            Expression right = parseExpression(orParts[1]);
-            return new OrExpression(left, right);
+        private static void header(StringBuilder text, String name, String type, String help) {
+            text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+            text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
         }
         
-        // Terminal expression
-        return new TerminalExpression(condition);
+        private static String escapeLabel(String value) {
+            return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+        }
     }
     
-    private static boolean matchingParens(String str) {
-        int count = 0;
-        for (int i = 0; i < str.length(); i++) {
-            if (str.charAt(i) == '(') count++;
-            else if (str.charAt(i) == ')') count--;
-            if (count == 0 && i < str.length() - 1) return false;
+    /**
+     * Wraps a handler so every request it serves is recorded by a timer of the
+     * engine's metrics.
+     */
+    static class TimedHandler implements HttpHandler {
+        private final HttpHandler handler;
+        private final Metrics.Timer timer;
+        
+        TimedHandler(HttpHandler handler, Metrics.Timer timer) {
+            this.handler = handler;
+            this.timer = timer;
+        }
+        
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            long start = timer.start();
+            try {
+                handler.handle(exchange);
+            } finally {
+                timer.stop(start);
+            }
         }
-        return count == 0;
     }
     
-    private static String[] trySplitByOperator(String condition, String operator) {
-        int level = 0;
-        String upperCondition = condition.toUpperCase();
-        String upperOperator = operator.toUpperCase();
+    private static HttpHandler timed(String name, HttpHandler handler) {
+        return new TimedHandler(handler, dashboard.getRuleEngine().getMetrics().timer(name));
+    }
+    
+    // Helper methods
+    
+    private static void sendResponse(HttpExchange exchange, int statusCode, String response, String contentType) throws IOException {
+        sendBytes(exchange, statusCode, response.getBytes(StandardCharsets.UTF_8), contentType);
+    }
+    
+    private static void sendBytes(HttpExchange exchange, int statusCode, byte[] bytes, String contentType) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+        exchange.sendResponseHeaders(statusCode, bytes.length);
+        OutputStream os = exchange.getResponseBody();
+        os.write(bytes);
+        os.close();
+    }
+    
+    /**
+     * The fields of a rule definition request, pulled from the body in one pass.
+     * Fields that are absent are left null.
+     */
+    static class RuleRequest {
+        private static final JsonReader.Fields FIELDS = new JsonReader.Fields("name", "condition", "actions");
+        
+        String name;
+        String condition;
+        String[] actions;
         
-        for (int i = 0; i < condition.length(); i++) {
-            char c = condition.charAt(i);
-            if (c == '(') level++;
-            else if (c == ')') level--;
-            else if (level == 0 && upperCondition.substring(i).startsWith(upperOperator)) {
-                return new String[] {
-                    condition.substring(0, i).trim(),
-                    condition.substring(i + operator.length()).trim()
-                };
+        static RuleRequest read(InputStream body) throws IOException {
+            RuleRequest request = new RuleRequest();
+            JsonReader reader = new JsonReader(body);
+            if (!reader.nextObject()) {
+                return request;
             }
+            int field;
+            while ((field = reader.nextField(FIELDS)) != JsonReader.END_OF_OBJECT) {
+                switch (field) {
+                    case 0: request.name = reader.readString(); break;
+                    case 1: request.condition = reader.readString(); break;
+                    case 2: request.actions = reader.readStringArray(); break;
+                    default: reader.skipValue();
+                }
+            }
+            return request;
         }
-        
-        return null;
     }
     
-    private static void printCurrentRules() {
-        List<Rule> rules = dashboard.getRuleEngine().getRules();
+    private static final JsonReader.Fields CONDITION_FIELDS =
+        new JsonReader.Fields("projectActive", "taskOverdue", "kpiBreach", "dependencyBlocked");
+    
+    /**
+     * Reads the four dashboard conditions from the next object; missing ones are false.
+     * 
+     * @return The conditions in projectActive, taskOverdue, kpiBreach, dependencyBlocked order
+     */
+    private static boolean[] readConditions(JsonReader reader) throws IOException {
+        boolean[] conditions = new boolean[4];
+        if (!reader.nextObject()) {
+            return conditions;
+        }
+        int field;
+        while ((field = reader.nextField(CONDITION_FIELDS)) != JsonReader.END_OF_OBJECT) {
+            if (field >= 0) {
+                conditions[field] = reader.readBoolean();
+            } else {
+                reader.skipValue();
+            }
+        }
+        return conditions;
+    }
+    
+    private static String escapeJson(String str) {
+        return str.replace("\\", "\\\\")
+                  .replace("\"", "\\\"")
+                  .replace("\n", "\\n")
+                  .replace("\r", "\\r")
+                  .replace("\t", "\\t");
+    }
+    
+    private static void printCurrentRules(RuleEngine engine) {
+        List<Rule> rules = engine.getRules();
         System.out.println("─────────────────────────────────────────────────────────────");
         System.out.println("Current Rules in Engine: " + rules.size());
         System.out.println("─────────────────────────────────────────────────────────────");
-        for (int i = 0; i < rules.size(); i++) {
+        int listed = Math.min(rules.size(), MAX_LISTED_RULES);
+        for (int i = 0; i < listed; i++) {
             System.out.println((i + 1) + ". " + rules.get(i).getName());
         }
+        if (listed < rules.size()) {
+            System.out.println("... and " + (rules.size() - listed) + " more");
+        }
         System.out.println("─────────────────────────────────────────────────────────────");
         System.out.println();
     }
+    
+    /**
+     * Logs the size and version of a rule set after a change. Handlers log this rather
+     * than the rules, which for a large rule set would be a line per rule per request.
+     */
+    private static void printRuleCount(RuleSet ruleSet) {
+        System.out.println("  Rules now: " + ruleSet.size() + " (version " + ruleSet.getVersion() + ")");
+        System.out.println();
+    }
 }
@@ -0,0 +1,45 @@
+/**
+ * RuleChangeListener.java
+ * 
+ * Is told about every change to a RuleEngine's rules, in the order the changes are
+ * made. The engine calls the listener while it holds its write lock, after preparing
+ * the change but before publishing it, so a listener that throws aborts the change:
+ * readers never see a rule set the listener did not accept.
+ */
+import java.util.List;
+
+public interface RuleChangeListener {
+    /**
+     * Called when rules are appended to the end of the rule list.
+     * 
+     * @param rules The added rules, in evaluation order
+     */
+    void rulesAdded(List<Rule> rules);
+    
+    /**
+     * Called when a rule is removed.
+     * 
+     * @param index The index of the removed rule before the change
+     */
+    void ruleRemoved(int index);
+    
+    /**
+     * Called when a rule is replaced in place.
+     * 
+     * @param index The index of the replaced rule
+     * @param rule The new rule
+     */
+    void ruleReplaced(int index, Rule rule);
+    
+    /**
+     * Called when every rule is removed.
+     */
+    void rulesCleared();
+    
+    /**
+     * Called when the whole rule list is replaced in one change.
+     * 
+     * @param rules The new rules, in evaluation order
+     */
+    void allRulesReplaced(List<Rule> rules);
+}
@@ -1,77 +1,1242 @@
 /**
  * RuleEngine.java
- * 
+ *
  * The rule engine that manages and evaluates all business rules.
  * Rules are evaluated in order until one matches (first-match wins).
+ *
+ * The rules are held as an immutable, versioned RuleSet snapshot published through an
+ * atomic reference. Readers pick up the current snapshot and evaluate without locks;
+ * writers build the next snapshot copy-on-write and swap it in, one writer at a time.
  */
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class RuleEngine {
-    private LinkedList<Rule> rules;
-    
+    private final AtomicReference<RuleSet> ruleSet;
+    private final Object writeLock = new Object();
+    private final ExpressionCompiler compiler;
+    private final ExpressionInterner interner;
+    private volatile boolean compilationEnabled;
+    private volatile boolean optimizationEnabled;
+
+    // Truth-table mode: the table is built lazily for each new rule-set snapshot
+    private static final int DEFAULT_TRUTH_TABLE_MAX_CONDITIONS = 12;
+    private volatile boolean truthTableEnabled;
+    private volatile int truthTableMaxConditions;
+
+    // Decision-diagram mode: used for first-match when no truth table is available
+    private volatile boolean decisionDiagramEnabled;
+
+    // Literal-index mode: only rules whose required conditions are all set are checked
+    private volatile boolean literalIndexEnabled;
+
+    // Program mode: all conditions run as one flat postfix program instead of per-rule trees
+    private volatile boolean programEnabled;
+
+    // Parallel mode: scans of rule sets of at least parallelThreshold rules are split
+    // across the common ForkJoinPool
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 16_384;
+    private volatile boolean parallelEvaluationEnabled;
+    private volatile int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+    // On a single core, splitting only adds overhead
+    private static final boolean PARALLEL_CPUS = Runtime.getRuntime().availableProcessors() > 1;
+
+    // Adaptive mode: sample operand outcomes and periodically reorder AND/OR operands
+    private static final int DEFAULT_SAMPLE_INTERVAL = 64;
+    private static final int DEFAULT_REBUILD_SAMPLES = 1024;
+    private volatile boolean adaptiveReorderingEnabled;
+    private volatile int sampleInterval = DEFAULT_SAMPLE_INTERVAL;
+    private volatile int rebuildSamples = DEFAULT_REBUILD_SAMPLES;
+    private final OperandProfile operandProfile = new OperandProfile();
+    private final AtomicLong evaluationCount = new AtomicLong();
+    // Rebuilds run on one daemon thread shared by all engines, at most one per engine at a time
+    private static final ExecutorService REBUILDS = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "adaptive-reorder");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean rebuildScheduled = new AtomicBoolean();
+
+    // Background compilation: replaceAllRules installs interpreted rules and compiles
+    // them on one daemon thread shared by all engines, swapping in COMPILE_BATCH at a time
+    private static final int COMPILE_BATCH = 4096;
+    private static final ExecutorService COMPILES = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "rule-compiler");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Bumped by every replaceAllRules, so compilation of rules that were replaced stops
+    private final AtomicLong compileGeneration = new AtomicLong();
+
+    // Memoized mode: linear scans evaluate each shared subexpression once per context
+    private volatile boolean memoizationEnabled;
+
+    // Decision cache: first-match results by condition vector, null when disabled
+    private volatile DecisionCache decisionCache;
+
+    // Instrumentation: off by default, and then a single volatile read per evaluation.
+    // Evaluations take tens of nanoseconds, so only one in EVALUATION_TIMER_SAMPLING is timed
+    private static final int EVALUATION_TIMER_SAMPLING = 16;
+    private final Metrics metrics = new Metrics();
+    private final Metrics.Timer evaluateTimer = metrics.timer("engine.evaluate", EVALUATION_TIMER_SAMPLING);
+    private final Metrics.Timer evaluateAllTimer = metrics.timer("engine.evaluateAll", EVALUATION_TIMER_SAMPLING);
+
+    // Told about every change before it is published, e.g. a RuleJournal; may be null
+    private volatile RuleChangeListener changeListener;
+
+    // Reused by evaluateAllActions() when there is no truth table
+    private static final ThreadLocal<ActionSet.Accumulator> ACCUMULATOR =
+        ThreadLocal.withInitial(ActionSet.Accumulator::new);
+
     /**
      * Creates a new rule engine with an empty rule set.
      */
     public RuleEngine() {
-        rules = new LinkedList<>();
+        this(new ExpressionInterner(), new ExpressionCompiler());
+    }
+
+    /**
+     * Creates a new rule engine with an empty rule set that interns and compiles its
+     * conditions through the given instances, so several engines holding similar rules
+     * share their condition nodes and generated classes.
+     *
+     * @param interner The interner for condition nodes
+     * @param compiler The compiler for conditions
+     */
+    public RuleEngine(ExpressionInterner interner, ExpressionCompiler compiler) {
+        ruleSet = new AtomicReference<>(new RuleSet(0, new Rule[0]));
+        this.compiler = compiler;
+        this.interner = interner;
+        compilationEnabled = true;
+        optimizationEnabled = true;
+        truthTableMaxConditions = DEFAULT_TRUTH_TABLE_MAX_CONDITIONS;
+    }
+
+    /**
+     * Publishes a new snapshot with the next version number.
+     * Callers must hold the write lock.
+     */
+    private void publish(Rule[] rules) {
+        ruleSet.set(new RuleSet(ruleSet.get().getVersion() + 1, rules));
     }
-    
+
+    /**
+     * Republishes the current rules under the same version so that compiled forms
+     * are rebuilt with new settings.
+     */
+    private void refreshCompiledForms() {
+        synchronized (writeLock) {
+            RuleSet current = ruleSet.get();
+            ruleSet.set(new RuleSet(current.getVersion(), current.copyRules()));
+        }
+    }
+
+    private Rule prepare(Rule rule) {
+        return prepare(rule, compilationEnabled);
+    }
+
+    private Rule prepare(Rule rule, boolean compile) {
+        // Interning, optimizing, compiling and interpreting all recurse over the tree
+        if (Expressions.exceedsDepth(rule.getCondition(), ConditionParser.MAX_DEPTH)) {
+            throw new IllegalArgumentException("Condition of rule '" + rule.getName() + "' is nested deeper than "
+                + ConditionParser.MAX_DEPTH + " levels");
+        }
+        if (optimizationEnabled) {
+            rule.optimize();
+        }
+        rule.intern(interner);
+        if (compile) {
+            rule.compile(compiler);
+        }
+        rule.installed(metrics.getEvaluationCount());
+        return rule;
+    }
+
     /**
      * Adds a rule to the engine.
-     * 
+     * The rule's condition is optimized and compiled at this point when those
+     * settings are enabled, and its nodes are interned so that subexpressions shared
+     * with other rules become the same objects.
+     *
      * @param rule The rule to add
+     * @throws IllegalArgumentException if the condition is nested deeper than
+     *         ConditionParser.MAX_DEPTH levels
      */
     public void addRule(Rule rule) {
-        rules.add(rule);
+        synchronized (writeLock) {
+            Rule[] current = ruleSet.get().copyRules();
+            Rule[] next = Arrays.copyOf(current, current.length + 1);
+            next[current.length] = prepare(rule);
+            RuleChangeListener listener = changeListener;
+            if (listener != null) {
+                listener.rulesAdded(List.of(rule));
+            }
+            publish(next);
+        }
+    }
+
+    /**
+     * Adds several rules at the end of the engine in one change, so a large rule set
+     * is published as a single new version instead of one per rule.
+     *
+     * @param rules The rules to add, in evaluation order
+     * @throws IllegalArgumentException if a condition is nested deeper than
+     *         ConditionParser.MAX_DEPTH levels; no rule is added then
+     */
+    public void addRules(List<Rule> rules) {
+        synchronized (writeLock) {
+            Rule[] current = ruleSet.get().copyRules();
+            Rule[] next = Arrays.copyOf(current, current.length + rules.size());
+            for (int i = 0; i < rules.size(); i++) {
+                next[current.length + i] = prepare(rules.get(i));
+            }
+            RuleChangeListener listener = changeListener;
+            if (listener != null && !rules.isEmpty()) {
+                listener.rulesAdded(List.of(Arrays.copyOfRange(next, current.length, next.length)));
+            }
+            publish(next);
+        }
+    }
+
+    /**
+     * Replaces every rule in one change: readers see either the old rules or the new
+     * ones, never a mix or an empty engine in between.
+     * The new rules are installed with interpreted conditions, so a large rule set
+     * takes effect without waiting for a class to be generated per condition. When
+     * compilation is enabled the conditions are then compiled on a background thread
+     * and swapped in batch by batch under the same version.
+     *
+     * @param rules The new rules, in evaluation order
+     * @throws IllegalArgumentException if a condition is nested deeper than
+     *         ConditionParser.MAX_DEPTH levels; the rules are not replaced then
+     */
+    public void replaceAllRules(List<Rule> rules) {
+        synchronized (writeLock) {
+            Rule[] next = new Rule[rules.size()];
+            for (int i = 0; i < next.length; i++) {
+                next[i] = prepare(rules.get(i), false);
+            }
+            RuleChangeListener listener = changeListener;
+            if (listener != null) {
+                listener.allRulesReplaced(List.of(next));
+            }
+            publish(next);
+            long generation = compileGeneration.incrementAndGet();
+            if (compilationEnabled && next.length > 0) {
+                COMPILES.execute(() -> compileInBackground(next, generation));
+            }
+        }
+    }
+
+    /**
+     * Compiles rules installed by replaceAllRules. Each batch is compiled into copies
+     * outside the write lock, then the copies replace the rules that are still in the
+     * current snapshot. Stops once the rules are replaced again or compilation is
+     * turned off.
+     */
+    private void compileInBackground(Rule[] installed, long generation) {
+        for (int start = 0; start < installed.length; start += COMPILE_BATCH) {
+            int end = Math.min(start + COMPILE_BATCH, installed.length);
+            Map<Rule, Rule> compiled = new IdentityHashMap<>();
+            for (int i = start; i < end; i++) {
+                if (compileGeneration.get() != generation || !compilationEnabled) {
+                    return;
+                }
+                Rule copy = installed[i].withOptimizedCondition(installed[i].getOptimizedCondition());
+                copy.compile(compiler);
+                compiled.put(installed[i], copy);
+            }
+            synchronized (writeLock) {
+                if (compileGeneration.get() != generation || !compilationEnabled) {
+                    return;
+                }
+                RuleSet current = ruleSet.get();
+                Rule[] next = current.copyRules();
+                boolean changed = false;
+                for (int i = 0; i < next.length; i++) {
+                    Rule copy = compiled.get(next[i]);
+                    if (copy != null) {
+                        next[i] = copy;
+                        changed = true;
+                    }
+                }
+                if (changed) {
+                    ruleSet.set(new RuleSet(current.getVersion(), next));
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the rule at the given position.
+     *
+     * @param index The rule index
+     * @return The removed rule
+     * @throws IndexOutOfBoundsException if there is no rule at that index
+     */
+    public Rule removeRule(int index) {
+        synchronized (writeLock) {
+            Rule[] current = ruleSet.get().copyRules();
+            Rule removed = current[index];
+            Rule[] next = new Rule[current.length - 1];
+            System.arraycopy(current, 0, next, 0, index);
+            System.arraycopy(current, index + 1, next, index, current.length - index - 1);
+            RuleChangeListener listener = changeListener;
+            if (listener != null) {
+                listener.ruleRemoved(index);
+            }
+            publish(next);
+            return removed;
+        }
+    }
+
+    /**
+     * Removes the first rule with the given name.
+     *
+     * @param name The rule name
+     * @return true if a rule was removed
+     */
+    public boolean removeRule(String name) {
+        synchronized (writeLock) {
+            int index = ruleSet.get().indexOf(name);
+            if (index < 0) {
+                return false;
+            }
+            removeRule(index);
+            return true;
+        }
+    }
+
+    /**
+     * Replaces the rule at the given position, keeping its place in the evaluation order.
+     *
+     * @param index The rule index
+     * @param rule The new rule
+     * @return The rule that was replaced
+     * @throws IndexOutOfBoundsException if there is no rule at that index
+     * @throws IllegalArgumentException if the condition is nested deeper than
+     *         ConditionParser.MAX_DEPTH levels
+     */
+    public Rule replaceRule(int index, Rule rule) {
+        synchronized (writeLock) {
+            Rule[] next = ruleSet.get().copyRules();
+            Rule replaced = next[index];
+            next[index] = prepare(rule);
+            RuleChangeListener listener = changeListener;
+            if (listener != null) {
+                listener.ruleReplaced(index, rule);
+            }
+            publish(next);
+            return replaced;
+        }
+    }
+
+    /**
+     * Replaces the first rule with the given name.
+     *
+     * @param name The name of the rule to replace
+     * @param rule The new rule
+     * @return true if a rule was replaced
+     */
+    public boolean replaceRule(String name, Rule rule) {
+        synchronized (writeLock) {
+            int index = ruleSet.get().indexOf(name);
+            if (index < 0) {
+                return false;
+            }
+            replaceRule(index, rule);
+            return true;
+        }
+    }
+
+    /**
+     * Sets the listener that is told about every rule change. It is called under the
+     * write lock before the change is published, and an exception it throws aborts
+     * the change.
+     *
+     * @param listener The listener, or null for none
+     */
+    public void setRuleChangeListener(RuleChangeListener listener) {
+        synchronized (writeLock) {
+            changeListener = listener;
+        }
+    }
+
+    /**
+     * Gets the rule change listener.
+     *
+     * @return The listener, or null if none is set
+     */
+    public RuleChangeListener getRuleChangeListener() {
+        return changeListener;
+    }
+
+    /**
+     * Enables or disables compilation of rule conditions for rules added from now on.
+     * When disabled, conditions are evaluated by walking the expression tree.
+     *
+     * @param enabled true to compile conditions when rules are added
+     */
+    public void setCompilationEnabled(boolean enabled) {
+        this.compilationEnabled = enabled;
+    }
+
+    /**
+     * Checks whether rule conditions are compiled when rules are added.
+     *
+     * @return true if compilation is enabled
+     */
+    public boolean isCompilationEnabled() {
+        return compilationEnabled;
+    }
+
+    /**
+     * Enables or disables the optimizer pass for rules added from now on.
+     * When enabled, conditions are flattened, constant-folded and simplified by
+     * ExpressionOptimizer before they are compiled.
+     *
+     * @param enabled true to optimize conditions when rules are added
+     */
+    public void setOptimizationEnabled(boolean enabled) {
+        this.optimizationEnabled = enabled;
+    }
+
+    /**
+     * Checks whether rule conditions are optimized when rules are added.
+     *
+     * @return true if optimization is enabled
+     */
+    public boolean isOptimizationEnabled() {
+        return optimizationEnabled;
+    }
+
+    /**
+     * Enables or disables truth-table mode.
+     * In this mode the first-match and all-matches results for every combination of
+     * the conditions the rules read are precomputed, so evaluation is a table lookup.
+     * Rule sets that read more than the configured number of conditions are
+     * evaluated normally.
+     *
+     * @param enabled true to evaluate through a precomputed truth table
+     */
+    public void setTruthTableEnabled(boolean enabled) {
+        this.truthTableEnabled = enabled;
+        refreshCompiledForms();
     }
-    
+
+    /**
+     * Checks whether truth-table mode is enabled.
+     *
+     * @return true if truth-table mode is enabled
+     */
+    public boolean isTruthTableEnabled() {
+        return truthTableEnabled;
+    }
+
+    /**
+     * Sets the largest number of distinct conditions that will be enumerated into a
+     * truth table. The table has 2^N entries, so this bounds its memory use.
+     *
+     * @param maxConditions The maximum number of conditions
+     */
+    public void setTruthTableMaxConditions(int maxConditions) {
+        this.truthTableMaxConditions = maxConditions;
+        refreshCompiledForms();
+    }
+
+    /**
+     * Gets the largest number of conditions that will be enumerated into a truth table.
+     *
+     * @return The maximum number of conditions
+     */
+    public int getTruthTableMaxConditions() {
+        return truthTableMaxConditions;
+    }
+
+    /**
+     * Gets the truth table for the current rule set, building it if needed.
+     *
+     * @return The truth table, or null if truth-table mode is off or not applicable
+     */
+    public TruthTable getTruthTable() {
+        return truthTable(ruleSet.get());
+    }
+
+    private TruthTable truthTable(RuleSet rules) {
+        return truthTableEnabled ? rules.truthTable(truthTableMaxConditions) : null;
+    }
+
+    /**
+     * Enables or disables decision-diagram mode.
+     * In this mode the whole first-match rule list is compiled into a reduced ordered
+     * binary decision diagram, so a context is decided in at most one test per
+     * condition. A truth table takes precedence when one is available.
+     *
+     * @param enabled true to evaluate first-match through a decision diagram
+     */
+    public void setDecisionDiagramEnabled(boolean enabled) {
+        this.decisionDiagramEnabled = enabled;
+    }
+
+    /**
+     * Checks whether decision-diagram mode is enabled.
+     *
+     * @return true if decision-diagram mode is enabled
+     */
+    public boolean isDecisionDiagramEnabled() {
+        return decisionDiagramEnabled;
+    }
+
+    /**
+     * Gets the decision diagram for the current rule set, compiling it if needed.
+     * Its toString() reports the node count and compile time.
+     *
+     * @return The decision diagram, or null if the mode is off or not applicable
+     */
+    public DecisionDiagram getDecisionDiagram() {
+        return decisionDiagramEnabled ? ruleSet.get().decisionDiagram() : null;
+    }
+
+    /**
+     * Enables or disables adaptive reordering.
+     * In this mode one evaluation in every sample interval also records how often each
+     * AND/OR operand is true. After each batch of samples the conditions are rebuilt so
+     * that ANDs test their most-likely-false operand first and ORs their
+     * most-likely-true operand first. Rebuilt conditions are equivalent and rule order
+     * is unchanged, so the rule-set version stays the same. The rebuild runs on a
+     * background thread, so the evaluation that completes a batch does not wait for it
+     * or for the write lock.
+     *
+     * @param enabled true to profile and reorder operands at runtime
+     */
+    public void setAdaptiveReorderingEnabled(boolean enabled) {
+        this.adaptiveReorderingEnabled = enabled;
+    }
+
+    /**
+     * Checks whether adaptive reordering is enabled.
+     *
+     * @return true if adaptive reordering is enabled
+     */
+    public boolean isAdaptiveReorderingEnabled() {
+        return adaptiveReorderingEnabled;
+    }
+
+    /**
+     * Sets how often adaptive reordering samples and rebuilds.
+     *
+     * @param sampleInterval Sample one evaluation in this many
+     * @param rebuildSamples Rebuild the conditions after this many samples
+     */
+    public void setAdaptiveReorderingIntervals(int sampleInterval, int rebuildSamples) {
+        if (sampleInterval < 1 || rebuildSamples < 1) {
+            throw new IllegalArgumentException("Intervals must be positive");
+        }
+        this.sampleInterval = sampleInterval;
+        this.rebuildSamples = rebuildSamples;
+    }
+
+    /**
+     * Gets the statistics collected by adaptive reordering.
+     *
+     * @return The operand profile
+     */
+    public OperandProfile getOperandProfile() {
+        return operandProfile;
+    }
+
+    /**
+     * Samples an evaluation for adaptive reordering, scheduling a rebuild of the
+     * conditions when enough samples have been collected and none is pending.
+     */
+    private void profile(RuleSet rules, Context context) {
+        if (evaluationCount.incrementAndGet() % sampleInterval != 0) {
+            return;
+        }
+        operandProfile.sample(rules, context);
+        if (operandProfile.claimRebuild(rebuildSamples) && rebuildScheduled.compareAndSet(false, true)) {
+            try {
+                REBUILDS.execute(this::reorderFromProfile);
+            } catch (RuntimeException e) {
+                rebuildScheduled.set(false);
+                throw e;
+            }
+        }
+    }
+
+    private void reorderFromProfile() {
+        try {
+            reorder();
+        } finally {
+            rebuildScheduled.set(false);
+        }
+    }
+
+    private void reorder() {
+        synchronized (writeLock) {
+            RuleSet current = ruleSet.get();
+            Rule[] next = current.copyRules();
+            boolean changed = false;
+            for (int i = 0; i < next.length; i++) {
+                Expression condition = next[i].getOptimizedCondition();
+                Expression reordered = operandProfile.reorder(condition);
+                if (reordered != condition) {
+                    next[i] = next[i].withOptimizedCondition(interner.intern(reordered));
+                    if (compilationEnabled) {
+                        next[i].compile(compiler);
+                    }
+                    changed = true;
+                }
+            }
+            operandProfile.retain(next);
+            operandProfile.rebuilt();
+            if (changed) {
+                ruleSet.set(new RuleSet(current.getVersion(), next));
+            }
+        }
+    }
+
+    /**
+     * Finds the first matching rule in a snapshot using the fastest available form.
+     */
+    private int firstMatchIndex(RuleSet rules, Context context) {
+        TruthTable table = truthTable(rules);
+        if (table != null) {
+            return table.firstMatch(context);
+        }
+        if (decisionDiagramEnabled) {
+            DecisionDiagram diagram = rules.decisionDiagram();
+            if (diagram != null) {
+                return diagram.firstMatch(context);
+            }
+        }
+        if (literalIndexEnabled) {
+            return rules.literalIndex().firstMatch(context);
+        }
+        if (parallel(rules)) {
+            return ParallelEvaluator.firstMatch(rules, context, ForkJoinPool.commonPool());
+        }
+        if (programEnabled) {
+            RuleProgram program = rules.program();
+            if (program != null) {
+                return program.firstMatch(context);
+            }
+        }
+        if (memoizationEnabled) {
+            SharedExpressionGraph graph = rules.sharedGraph();
+            SharedExpressionGraph.Evaluation evaluation = graph.begin(context);
+            for (int i = 0; i < rules.size(); i++) {
+                if (graph.matches(i, evaluation)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        for (int i = 0; i < rules.size(); i++) {
+            if (rules.get(i).matches(context)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Enables or disables literal-index mode.
+     * In this mode the rule set keeps an inverted index from each condition to the
+     * rules that require it, and evaluation only checks rules whose required conditions
+     * are all set in the context, in rule order. Rules that require no condition are
+     * always checked. This pays off for large rule sets of mostly conjunctive rules.
+     * Truth tables and decision diagrams take precedence when enabled.
+     *
+     * @param enabled true to evaluate through the literal index
+     */
+    public void setLiteralIndexEnabled(boolean enabled) {
+        this.literalIndexEnabled = enabled;
+    }
+
+    /**
+     * Checks whether literal-index mode is enabled.
+     *
+     * @return true if literal-index mode is enabled
+     */
+    public boolean isLiteralIndexEnabled() {
+        return literalIndexEnabled;
+    }
+
+    /**
+     * Gets the literal index for the current rule set, building it if needed.
+     * Its toString() reports how many rules are indexed.
+     *
+     * @return The literal index, or null if the mode is off
+     */
+    public LiteralIndex getLiteralIndex() {
+        return literalIndexEnabled ? ruleSet.get().literalIndex() : null;
+    }
+
+    /**
+     * Checks whether scans of a snapshot run in parallel.
+     */
+    private boolean parallel(RuleSet rules) {
+        return parallelEvaluationEnabled && rules.size() >= parallelThreshold && PARALLEL_CPUS;
+    }
+
+    /**
+     * Scans a snapshot in parallel, then passes the matches to a sink in rule order on
+     * the calling thread.
+     */
+    private static int parallelAllMatches(RuleSet rules, Context context, ActionSink sink) {
+        long[] matches = ParallelEvaluator.allMatches(rules, context, ForkJoinPool.commonPool());
+        int first = -1;
+        for (int word = 0; word < matches.length; word++) {
+            for (long bits = matches[word]; bits != 0; bits &= bits - 1) {
+                int index = (word << 6) + Long.numberOfTrailingZeros(bits);
+                if (first < 0) {
+                    first = index;
+                }
+                sink.accept(index, rules.get(index));
+            }
+        }
+        return first;
+    }
+
+    /**
+     * Enables or disables parallel mode.
+     * In this mode a rule set of at least getParallelThreshold() rules is scanned in
+     * chunks on the common ForkJoinPool: all-matches marks matches per chunk and
+     * reports them in rule order on the calling thread, and first-match skips the
+     * chunks after a match that has already been found. Below the threshold, and on a
+     * single-core machine, the sequential paths are used. A parallel scan allocates
+     * its tasks and a bitset of the matches. Truth tables, decision
+     * diagrams and the literal index take precedence when enabled; program and
+     * memoized mode apply only below the threshold.
+     *
+     * @param enabled true to scan large rule sets in parallel
+     */
+    public void setParallelEvaluationEnabled(boolean enabled) {
+        this.parallelEvaluationEnabled = enabled;
+    }
+
+    /**
+     * Checks whether parallel mode is enabled.
+     *
+     * @return true if parallel mode is enabled
+     */
+    public boolean isParallelEvaluationEnabled() {
+        return parallelEvaluationEnabled;
+    }
+
+    /**
+     * Sets the smallest rule set that parallel mode splits. Each chunk holds
+     * ParallelEvaluator.CHUNK_SIZE rules, so smaller rule sets gain little.
+     *
+     * @param minRules The rule count from which scans run in parallel
+     * @throws IllegalArgumentException if minRules is less than 1
+     */
+    public void setParallelThreshold(int minRules) {
+        if (minRules < 1) {
+            throw new IllegalArgumentException("Parallel threshold must be positive: " + minRules);
+        }
+        this.parallelThreshold = minRules;
+    }
+
+    /**
+     * Gets the smallest rule set that parallel mode splits.
+     *
+     * @return The rule count from which scans run in parallel
+     */
+    public int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    /**
+     * Enables or disables program mode.
+     * In this mode the conditions of the rule set are lowered into one flat postfix
+     * program with short-circuit jumps, and a linear scan runs it in a single loop
+     * instead of walking each rule's expression tree. Neither building nor running the
+     * program recurses, but the engine still refuses conditions nested deeper than
+     * ConditionParser.MAX_DEPTH, because installing a rule interns and optimizes its
+     * condition recursively. Truth tables, decision diagrams and the literal index take
+     * precedence when enabled.
+     *
+     * @param enabled true to evaluate through the rule program
+     */
+    public void setProgramEnabled(boolean enabled) {
+        this.programEnabled = enabled;
+    }
+
+    /**
+     * Checks whether program mode is enabled.
+     *
+     * @return true if program mode is enabled
+     */
+    public boolean isProgramEnabled() {
+        return programEnabled;
+    }
+
+    /**
+     * Gets the rule program for the current rule set, assembling it if needed.
+     * Its toString() reports the program length.
+     *
+     * @return The rule program, or null if the mode is off or the rules are too large
+     */
+    public RuleProgram getProgram() {
+        return programEnabled ? ruleSet.get().program() : null;
+    }
+
+    /**
+     * Enables or disables memoized mode.
+     * In this mode a linear scan over the rules evaluates the shared-subexpression
+     * graph of the rule set, so a subexpression used by several rules is computed at
+     * most once per context. This pays off when rules repeat large subterms; for small
+     * conditions the compiled per-rule code is faster. Truth tables and decision
+     * diagrams take precedence when enabled.
+     *
+     * @param enabled true to memoize shared subexpressions during evaluation
+     */
+    public void setMemoizationEnabled(boolean enabled) {
+        this.memoizationEnabled = enabled;
+    }
+
+    /**
+     * Checks whether memoized mode is enabled.
+     *
+     * @return true if memoized mode is enabled
+     */
+    public boolean isMemoizationEnabled() {
+        return memoizationEnabled;
+    }
+
+    /**
+     * Gets how much subexpression sharing the current rule set has, building its shared
+     * graph if needed. Its toString() reports tree nodes, distinct nodes and shared nodes.
+     *
+     * @return The shared expression graph of the current rule set
+     */
+    public SharedExpressionGraph getSharingStats() {
+        return ruleSet.get().sharedGraph();
+    }
+
+    /**
+     * Enables or disables the decision cache.
+     * In this mode first-match results are cached by the packed condition vector of the
+     * context, tagged with the rule-set version they were computed against. Every rule
+     * change bumps the version, so a cached result is never served after the rules
+     * changed. A truth table is already a lookup and takes precedence when available.
+     *
+     * @param enabled true to cache first-match results
+     */
+    public void setDecisionCacheEnabled(boolean enabled) {
+        setDecisionCacheCapacity(enabled ? DecisionCache.DEFAULT_CAPACITY : 0);
+    }
+
+    /**
+     * Enables the decision cache with the given capacity, replacing any current cache.
+     *
+     * @param capacity The largest number of condition vectors to cache, or 0 to disable
+     */
+    public void setDecisionCacheCapacity(int capacity) {
+        decisionCache = capacity > 0 ? new DecisionCache(capacity) : null;
+    }
+
+    /**
+     * Checks whether the decision cache is enabled.
+     *
+     * @return true if first-match results are cached
+     */
+    public boolean isDecisionCacheEnabled() {
+        return decisionCache != null;
+    }
+
+    /**
+     * Gets the decision cache. Its toString() reports hits, misses and evictions.
+     *
+     * @return The decision cache, or null if it is disabled
+     */
+    public DecisionCache getDecisionCache() {
+        return decisionCache;
+    }
+
+    /**
+     * Enables or disables metrics: evaluation counts, per-rule hit counts and the
+     * latency and allocation of a sample of evaluations. When disabled, recording
+     * costs one volatile read per evaluation.
+     *
+     * @param enabled true to record metrics
+     */
+    public void setMetricsEnabled(boolean enabled) {
+        metrics.setEnabled(enabled);
+    }
+
+    /**
+     * Checks whether metrics are being recorded.
+     *
+     * @return true if metrics are enabled
+     */
+    public boolean isMetricsEnabled() {
+        return metrics.isEnabled();
+    }
+
+    /**
+     * Gets the metrics of this engine. Other components, such as the HTTP server,
+     * can register their own timers on it so one switch controls all recording.
+     *
+     * @return The engine metrics
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Gets the interner that canonicalizes the conditions of this engine's rules.
+     *
+     * @return The expression interner
+     */
+    public ExpressionInterner getInterner() {
+        return interner;
+    }
+
+    /**
+     * Evaluates the rules in order against the context and reports the first match
+     * together with the rule-set version that was used.
+     *
+     * @param context The context containing condition values
+     * @return The first-match result
+     */
+    public EvaluationResult evaluate(Context context) {
+        RuleSet rules = ruleSet.get();
+        return firstMatch(rules, firstMatchRecorded(rules, context));
+    }
+
+    private static EvaluationResult firstMatch(RuleSet rules, int index) {
+        Rule rule = index < 0 ? null : rules.get(index);
+        return new EvaluationResult(rules.getVersion(), index, rule, rule == null ? List.of() : rule.getActions());
+    }
+
+    /**
+     * Evaluates the rules in order and reports only the position of the first match.
+     * Once warmed up this allocates nothing, except for a decision-cache key when the
+     * context has conditions above the first few slots set.
+     *
+     * @param context The context containing condition values
+     * @return The index of the first matching rule in the current rule set, or -1 if
+     *         no rule matches
+     */
+    public int evaluateFirstMatchIndex(Context context) {
+        return firstMatchRecorded(ruleSet.get(), context);
+    }
+
+    /**
+     * Evaluates the rules in order and returns the first matching rule's actions as the
+     * rule's own shared view, so nothing is copied.
+     *
+     * @param context The context containing condition values
+     * @return Unmodifiable actions of the first matching rule, or an empty list if no
+     *         rule matches
+     */
+    public List<String> evaluateFirstMatchActions(Context context) {
+        RuleSet rules = ruleSet.get();
+        int index = firstMatchRecorded(rules, context);
+        return index < 0 ? List.of() : rules.get(index).getActions();
+    }
+
+    /**
+     * Finds the first match in a snapshot through the decision cache when enabled,
+     * recording metrics and profiling samples on the way.
+     */
+    private int firstMatchRecorded(RuleSet rules, Context context) {
+        boolean measured = metrics.isEnabled();
+        long start = measured ? evaluateTimer.start() : 0;
+        if (adaptiveReorderingEnabled) {
+            profile(rules, context);
+        }
+        int index;
+        DecisionCache cache = decisionCache;
+        if (cache != null && truthTable(rules) == null) {
+            EvaluationResult result = cache.get(context, rules.getVersion());
+            if (result == null) {
+                result = firstMatch(rules, firstMatchIndex(rules, context));
+                cache.put(context, result);
+            }
+            index = result.getRuleIndex();
+        } else {
+            index = firstMatchIndex(rules, context);
+        }
+        if (measured) {
+            metrics.recordEvaluation(index < 0 ? null : rules.get(index));
+            evaluateTimer.stop(start);
+        }
+        return index;
+    }
+
     /**
      * Evaluates all rules against the context and returns the first matching rule's actions.
-     * 
+     *
      * @param context The context containing condition values
      * @return List of actions from the first matching rule, or empty list if no match
      */
     public List<String> evaluateFirstMatch(Context context) {
-        for (Rule rule : rules) {
-            List<String> actions = rule.evaluate(context);
-            if (!actions.isEmpty()) {
-                return actions;
+        return new ArrayList<>(evaluateFirstMatchActions(context));
+    }
+
+    /**
+     * Evaluates first-match for every row of a columnar batch, 64 rows at a time.
+     * Results are identical to calling evaluateFirstMatch once per row.
+     *
+     * @param batch The condition values, one bit-column per condition
+     * @return The index of the first matching rule for each row, or -1 where no rule matches
+     */
+    public int[] evaluateFirstMatchBatch(ConditionBatch batch) {
+        return evaluateFirstMatchBatch(ruleSet.get(), batch);
+    }
+
+    /**
+     * Evaluates first-match for every row of a batch against a specific snapshot, so
+     * the caller can report which version produced the rule indexes.
+     *
+     * @param rules The rule-set snapshot, normally from getRuleSet()
+     * @param batch The condition values, one bit-column per condition
+     * @return The index of the first matching rule for each row, or -1 where no rule matches
+     */
+    public static int[] evaluateFirstMatchBatch(RuleSet rules, ConditionBatch batch) {
+        int[] result = new int[batch.getRows()];
+        Arrays.fill(result, -1);
+        int words = ConditionBatch.wordsFor(batch.getRows());
+        for (int word = 0; word < words; word++) {
+            long remaining = batch.validRows(word);
+            for (int r = 0; r < rules.size() && remaining != 0; r++) {
+                long matched = BitParallelEvaluator.evaluate(rules.get(r).getOptimizedCondition(), batch, word, remaining)
+                    & remaining;
+                remaining &= ~matched;
+                for (; matched != 0; matched &= matched - 1) {
+                    result[(word << 6) + Long.numberOfTrailingZeros(matched)] = r;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Evaluates all rules and reports the actions of every matching rule together with
+     * the rule-set version that was used.
+     *
+     * @param context The context containing condition values
+     * @return The all-matches result; its rule is the first matching rule
+     */
+    public EvaluationResult evaluateAll(Context context) {
+        boolean measured = metrics.isEnabled();
+        long start = measured ? evaluateAllTimer.start() : 0;
+        EvaluationResult result = allMatches(ruleSet.get(), context);
+        if (measured) {
+            metrics.recordEvaluation(result.getRule());
+            evaluateAllTimer.stop(start);
+        }
+        return result;
+    }
+
+    private EvaluationResult allMatches(RuleSet rules, Context context) {
+        if (adaptiveReorderingEnabled) {
+            profile(rules, context);
+        }
+        TruthTable table = truthTable(rules);
+        if (table != null) {
+            int first = table.firstMatch(context);
+            return new EvaluationResult(rules.getVersion(), first, first < 0 ? null : rules.get(first),
+                table.allMatches(context));
+        }
+        if (literalIndexEnabled) {
+            int[] matches = rules.literalIndex().allMatches(context);
+            List<String> allActions = new ArrayList<>();
+            for (int index : matches) {
+                allActions.addAll(rules.get(index).getActions());
+            }
+            int first = matches.length == 0 ? -1 : matches[0];
+            return new EvaluationResult(rules.getVersion(), first, first < 0 ? null : rules.get(first),
+                Collections.unmodifiableList(allActions));
+        }
+        if (parallel(rules)) {
+            List<String> allActions = new ArrayList<>();
+            int first = parallelAllMatches(rules, context, (index, rule) -> allActions.addAll(rule.getActions()));
+            return new EvaluationResult(rules.getVersion(), first, first < 0 ? null : rules.get(first),
+                Collections.unmodifiableList(allActions));
+        }
+        RuleProgram program = programEnabled ? rules.program() : null;
+        if (program != null) {
+            List<String> allActions = new ArrayList<>();
+            int first = program.allMatches(context, (index, rule) -> allActions.addAll(rule.getActions()));
+            return new EvaluationResult(rules.getVersion(), first, first < 0 ? null : rules.get(first),
+                Collections.unmodifiableList(allActions));
+        }
+        SharedExpressionGraph graph = memoizationEnabled ? rules.sharedGraph() : null;
+        SharedExpressionGraph.Evaluation evaluation = graph == null ? null : graph.begin(context);
+        int first = -1;
+        List<String> allActions = new ArrayList<>();
+        for (int i = 0; i < rules.size(); i++) {
+            Rule rule = rules.get(i);
+            if (graph != null ? graph.matches(i, evaluation) : rule.matches(context)) {
+                if (first < 0) {
+                    first = i;
+                }
+                allActions.addAll(rule.getActions());
             }
         }
-        return new ArrayList<>();
+        return new EvaluationResult(rules.getVersion(), first, first < 0 ? null : rules.get(first),
+            Collections.unmodifiableList(allActions));
     }
-    
+
+    /**
+     * Evaluates all rules and passes every matching rule to a sink, in rule order.
+     * The engine builds no action list, so with a sink that reuses its own storage
+     * this allocates nothing once warmed up.
+     *
+     * @param context The context containing condition values
+     * @param sink Receives each matching rule
+     * @return The index of the first matching rule, or -1 if no rule matches
+     */
+    public int evaluateAllMatches(Context context, ActionSink sink) {
+        boolean measured = metrics.isEnabled();
+        long start = measured ? evaluateAllTimer.start() : 0;
+        RuleSet rules = ruleSet.get();
+        if (adaptiveReorderingEnabled) {
+            profile(rules, context);
+        }
+        int first = -1;
+        TruthTable table = truthTable(rules);
+        if (table != null) {
+            int[] matches = table.allMatchIndexes(context);
+            for (int index : matches) {
+                sink.accept(index, rules.get(index));
+            }
+            first = matches.length == 0 ? -1 : matches[0];
+        } else if (literalIndexEnabled) {
+            first = rules.literalIndex().allMatches(context, sink);
+        } else if (parallel(rules)) {
+            first = parallelAllMatches(rules, context, sink);
+        } else if (programEnabled && rules.program() != null) {
+            first = rules.program().allMatches(context, sink);
+        } else {
+            SharedExpressionGraph graph = memoizationEnabled ? rules.sharedGraph() : null;
+            SharedExpressionGraph.Evaluation evaluation = graph == null ? null : graph.begin(context);
+            for (int i = 0; i < rules.size(); i++) {
+                Rule rule = rules.get(i);
+                if (graph != null ? graph.matches(i, evaluation) : rule.matches(context)) {
+                    if (first < 0) {
+                        first = i;
+                    }
+                    sink.accept(i, rule);
+                }
+            }
+        }
+        if (measured) {
+            metrics.recordEvaluation(first < 0 ? null : rules.get(first));
+            evaluateAllTimer.stop(start);
+        }
+        return first;
+    }
+
     /**
      * Evaluates all rules and collects actions from all matching rules.
-     * 
+     * Actions are listed per matching rule, in rule order, duplicates included; see
+     * evaluateAllActions() for the de-duplicated set.
+     *
      * @param context The context containing condition values
      * @return List of all actions from all matching rules
      */
     public List<String> evaluateAllMatches(Context context) {
-        List<String> allActions = new ArrayList<>();
-        for (Rule rule : rules) {
-            List<String> actions = rule.evaluate(context);
-            allActions.addAll(actions);
+        List<String> actions = new ArrayList<>();
+        evaluateAllMatches(context, (index, rule) -> actions.addAll(rule.getActions()));
+        return actions;
+    }
+
+    /**
+     * Evaluates all rules and collects the distinct actions of the matching rules as
+     * the bitwise OR of their action sets. No action strings are touched; with a truth
+     * table the union is precomputed, otherwise it is accumulated in per-thread storage.
+     *
+     * @param context The context containing condition values
+     * @return The actions of all matching rules, each once
+     */
+    public ActionSet evaluateAllActions(Context context) {
+        RuleSet rules = ruleSet.get();
+        TruthTable table = truthTable(rules);
+        if (table == null) {
+            ActionSet.Accumulator accumulator = ACCUMULATOR.get();
+            accumulator.clear();
+            evaluateAllMatches(context, accumulator);
+            return accumulator.toActionSet();
         }
-        return allActions;
+        boolean measured = metrics.isEnabled();
+        long start = measured ? evaluateAllTimer.start() : 0;
+        if (adaptiveReorderingEnabled) {
+            profile(rules, context);
+        }
+        ActionSet actions = table.allMatchActions(context);
+        if (measured) {
+            int first = table.firstMatch(context);
+            metrics.recordEvaluation(first < 0 ? null : rules.get(first));
+            evaluateAllTimer.stop(start);
+        }
+        return actions;
+    }
+
+    /**
+     * Evaluates all rules and collects the distinct actions of the matching rules.
+     * This is the string adapter for evaluateAllActions(); unlike evaluateAllMatches()
+     * an action shared by several matching rules appears once.
+     *
+     * @param context The context containing condition values
+     * @return Unmodifiable list of the distinct actions, in action registration order
+     */
+    public List<String> evaluateDistinctActions(Context context) {
+        return evaluateAllActions(context).toList();
     }
-    
+
     /**
      * Gets all rules in the engine.
-     * 
+     *
      * @return List of all rules
      */
     public List<Rule> getRules() {
-        return new ArrayList<>(rules);
+        return new ArrayList<>(ruleSet.get().getRules());
     }
-    
+
+    /**
+     * Gets the current rule-set snapshot.
+     *
+     * @return The current immutable rule set
+     */
+    public RuleSet getRuleSet() {
+        return ruleSet.get();
+    }
+
+    /**
+     * Gets the current rule-set version. The version increases with every change.
+     *
+     * @return The rule-set version
+     */
+    public long getVersion() {
+        return ruleSet.get().getVersion();
+    }
+
     /**
      * Removes all rules from the engine.
      */
     public void clearRules() {
-        rules.clear();
+        synchronized (writeLock) {
+            RuleChangeListener listener = changeListener;
+            if (listener != null) {
+                listener.rulesCleared();
+            }
+            publish(new Rule[0]);
+        }
     }
 }
-
@@ -0,0 +1,165 @@
+/**
+ * RuleEngineBenchmark.java
+ *
+ * Throughput comparison between the evaluation strategies of the rule engine.
+ * Each scenario is checked against the per-row evaluateFirstMatch result before it
+ * is timed, so a faster strategy that gives different answers is reported as a failure.
+ *
+ * Usage: java RuleEngineBenchmark [rows]
+ */
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class RuleEngineBenchmark {
+
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURED_ROUNDS = 5;
+
+    public static void main(String[] args) {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+
+        System.out.println("=== Rule Engine Benchmark ===");
+        System.out.println("Rows per round: " + rows);
+        System.out.println();
+
+        benchmarkBatchEvaluation(rows);
+        System.out.println();
+        benchmarkRequestParsing(rows / 10);
+    }
+
+    /**
+     * Compares per-row evaluateFirstMatch against bit-parallel batch evaluation.
+     */
+    private static void benchmarkBatchEvaluation(int rows) {
+        RuleEngine engine = new InterpreterDashboard().getRuleEngine();
+        engine.setTruthTableEnabled(false);
+        List<Rule> rules = engine.getRules();
+
+        Random random = new Random(42);
+        ConditionBatch batch = new ConditionBatch(rows);
+        String[] names = {"projectActive", "taskOverdue", "kpiBreach", "dependencyBlocked"};
+        for (String name : names) {
+            long[] column = new long[ConditionBatch.wordsFor(rows)];
+            for (int i = 0; i < column.length; i++) {
+                column[i] = random.nextLong();
+            }
+            batch.setColumn(name, column);
+        }
+        Context[] contexts = new Context[rows];
+        for (int row = 0; row < rows; row++) {
+            contexts[row] = batch.toContext(row);
+        }
+
+        int[] batchResult = engine.evaluateFirstMatchBatch(batch);
+        for (int row = 0; row < rows; row++) {
+            List<String> expected = engine.evaluateFirstMatch(contexts[row]);
+            List<String> actual = batchResult[row] < 0 ? List.of() : rules.get(batchResult[row]).getActions();
+            if (!expected.equals(actual)) {
+                throw new IllegalStateException("Batch result differs at row " + row);
+            }
+        }
+
+        report("evaluateFirstMatch (per row)", rows, () -> {
+            int sink = 0;
+            for (Context context : contexts) {
+                sink += engine.evaluateFirstMatch(context).size();
+            }
+            return sink;
+        });
+        report("evaluateFirstMatchBatch", rows, () -> {
+            int[] result = engine.evaluateFirstMatchBatch(batch);
+            return result[result.length - 1];
+        });
+    }
+
+    /**
+     * Compares the streaming JsonReader against the per-key regex extraction the API
+     * server used before, on a typical add-rule request body.
+     */
+    private static void benchmarkRequestParsing(int requests) {
+        String body = "{\n  \"name\": \"All Systems Critical\",\n"
+            + "  \"condition\": \"projectActive AND taskOverdue AND kpiBreach AND dependencyBlocked\",\n"
+            + "  \"actions\": [\"RED ALERT\", \"Notify Everyone\", \"Emergency Shutdown Protocols\"]\n}";
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        JsonReader.Fields fields = new JsonReader.Fields("name", "condition", "actions");
+
+        report("regex extraction (legacy)", requests, () -> {
+            long sink = 0;
+            for (int i = 0; i < requests; i++) {
+                String text = new String(bytes, StandardCharsets.UTF_8);
+                sink += legacyExtractString(text, "name").length();
+                sink += legacyExtractString(text, "condition").length();
+                sink += legacyExtractArray(text, "actions").length;
+            }
+            return sink;
+        });
+        report("JsonReader single pass", requests, () -> {
+            long sink = 0;
+            try {
+                for (int i = 0; i < requests; i++) {
+                    JsonReader reader = new JsonReader(new ByteArrayInputStream(bytes), 512);
+                    reader.nextObject();
+                    int field;
+                    while ((field = reader.nextField(fields)) != JsonReader.END_OF_OBJECT) {
+                        switch (field) {
+                            case 0:
+                            case 1: sink += reader.readString().length(); break;
+                            case 2: sink += reader.readStringArray().length; break;
+                            default: reader.skipValue();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return sink;
+        });
+    }
+
+    private static String legacyExtractString(String json, String key) {
+        Matcher m = Pattern.compile("\"" + key + "\"\\s*:\\s*\"([^\"]+)\"").matcher(json);
+        return m.find() ? m.group(1) : null;
+    }
+
+    private static String[] legacyExtractArray(String json, String key) {
+        Matcher m = Pattern.compile("\"" + key + "\"\\s*:\\s*\\[([^\\]]+)\\]").matcher(json);
+        if (!m.find()) {
+            return null;
+        }
+        String[] parts = m.group(1).split(",");
+        String[] result = new String[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            result[i] = parts[i].trim().replaceAll("^\"|\"$", "");
+        }
+        return result;
+    }
+
+    /**
+     * Runs a scenario through warmup and measured rounds and prints its throughput.
+     */
+    private static void report(String name, int operationsPerRound, Scenario scenario) {
+        long sink = 0;
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            sink += scenario.run();
+        }
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            long start = System.nanoTime();
+            sink += scenario.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        double perSecond = operationsPerRound / (best / 1_000_000_000.0);
+        System.out.printf("%-40s %12.0f ops/s  %8.2f ns/op  (sink %d)%n",
+            name, perSecond, (double) best / operationsPerRound, sink);
+    }
+
+    private interface Scenario {
+        long run();
+    }
+}
@@ -0,0 +1,625 @@
+/**
+ * RuleJournal.java
+ *
+ * Keeps a RuleEngine's rules on disk so they survive a restart. Installed as the
+ * engine's RuleChangeListener, it appends every change (add, remove, replace, clear,
+ * replace all) to a journal file before the engine publishes it, and from time to time
+ * compacts the journal into a snapshot of the whole rule list: after
+ * compactionThreshold records, and soon after the whole list is replaced.
+ *
+ * Journal records are framed as [int length][int CRC-32][payload] with the payload
+ * [long sequence][byte type][body], bodies being rule indexes and RuleSetFormat
+ * files, the same encoding the export endpoint serves. The snapshot holds one such
+ * file behind its own header.
+ * Appends go to the OS right away, so a crashed process loses nothing; fsync is batched
+ * on a background thread every syncIntervalMillis (0 syncs every append), which bounds
+ * what a power failure can lose to that window.
+ *
+ * The snapshot is written to a temporary file, synced and renamed over the old one,
+ * and records the sequence number it covers; the journal is truncated afterwards.
+ * Records the snapshot already covers (left by a crash between the two steps) are
+ * skipped on recovery. The snapshot is read through a memory-mapped FileChannel and
+ * decoded straight into expression nodes, without parsing condition text.
+ *
+ * Recovery replays the journal on top of the snapshot and stops at the first record
+ * that is cut short or fails its checksum. A crash in the middle of an append leaves
+ * such a record only at the very end, so when nothing valid follows it the torn tail
+ * is truncated and new records follow the last complete one. A bad record with
+ * complete records after it is damage, not a crash, and opening the journal fails
+ * rather than dropping the later changes.
+ */
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+public class RuleJournal implements RuleChangeListener, Closeable {
+    public static final String SNAPSHOT_FILE = "rules.snapshot";
+    public static final String JOURNAL_FILE = "rules.journal";
+    public static final long DEFAULT_SYNC_INTERVAL_MILLIS = 50;
+    public static final int DEFAULT_COMPACTION_THRESHOLD = 10_000;
+
+    private static final int SNAPSHOT_MAGIC = 0x52534E50; // "RSNP"
+    private static final int SNAPSHOT_FORMAT = 1;
+    // magic, format, sequence, payload length, payload CRC-32
+    private static final int SNAPSHOT_HEADER_BYTES = 4 + 4 + 8 + 4 + 4;
+    // length, CRC-32
+    private static final int RECORD_HEADER_BYTES = 4 + 4;
+    // sequence, type
+    private static final int MIN_PAYLOAD_BYTES = 8 + 1;
+    // How often compaction is checked when every append is synced
+    private static final long COMPACTION_CHECK_MILLIS = 1000;
+
+    private static final byte ADD = 1;
+    private static final byte REMOVE = 2;
+    private static final byte REPLACE = 3;
+    private static final byte CLEAR = 4;
+    private static final byte REPLACE_ALL = 5;
+
+    private final Path directory;
+    private final long syncIntervalMillis;
+    private final int compactionThreshold;
+    private final FileChannel journal;
+    private final ScheduledExecutorService background;
+    // The journaled rule list, so a snapshot can be written at any time
+    private final List<Rule> rules = new ArrayList<>();
+    private final List<Rule> recoveredRules;
+    private final boolean recoveredState;
+    private final long discardedBytes;
+    private final ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream();
+
+    // Guarded by this
+    private long sequence;
+    private long snapshotSequence;
+    private long position;
+    private int recordsSinceSnapshot;
+    // Set when the journal holds a whole rule list, which a snapshot should absorb soon
+    private boolean compactionRequested;
+    private boolean dirty;
+    private boolean closed;
+    private volatile IOException failure;
+
+    private interface Body {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private RuleJournal(Path directory, long syncIntervalMillis, int compactionThreshold) throws IOException {
+        this.directory = directory;
+        this.syncIntervalMillis = syncIntervalMillis;
+        this.compactionThreshold = compactionThreshold;
+
+        Files.deleteIfExists(directory.resolve(SNAPSHOT_FILE + ".tmp"));
+        Path snapshot = directory.resolve(SNAPSHOT_FILE);
+        boolean found = false;
+        if (Files.exists(snapshot)) {
+            snapshotSequence = readSnapshot(snapshot, rules);
+            sequence = snapshotSequence;
+            found = true;
+        }
+
+        journal = FileChannel.open(directory.resolve(JOURNAL_FILE),
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long size = journal.size();
+            position = replay();
+            discardedBytes = size - position;
+            if (discardedBytes > 0) {
+                journal.truncate(position);
+                journal.force(true);
+            }
+        } catch (IOException | RuntimeException e) {
+            journal.close();
+            throw e;
+        }
+        found |= position > 0;
+        recoveredState = found;
+        recoveredRules = Collections.unmodifiableList(new ArrayList<>(rules));
+
+        background = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "rule-journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = syncIntervalMillis > 0 ? syncIntervalMillis : COMPACTION_CHECK_MILLIS;
+        background.scheduleWithFixedDelay(this::syncAndCompact, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Opens the journal in a directory with the default sync interval and compaction
+     * threshold, recovering the rules stored there.
+     *
+     * @param directory The data directory; created if it does not exist
+     * @return The open journal
+     * @throws IOException if the directory cannot be used, or its snapshot or the
+     *         middle of its journal is corrupt
+     */
+    public static RuleJournal open(Path directory) throws IOException {
+        return open(directory, DEFAULT_SYNC_INTERVAL_MILLIS, DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    /**
+     * Opens the journal in a directory, recovering the rules stored there.
+     *
+     * @param directory The data directory; created if it does not exist
+     * @param syncIntervalMillis How long appended records may wait for fsync, 0 to sync
+     *        every append
+     * @param compactionThreshold Number of journal records after which the journal is
+     *        compacted into a snapshot
+     * @return The open journal
+     * @throws IOException if the directory cannot be used, its snapshot is corrupt, a
+     *         complete journal record cannot be applied, or a corrupt record is followed
+     *         by complete ones
+     */
+    public static RuleJournal open(Path directory, long syncIntervalMillis, int compactionThreshold)
+            throws IOException {
+        if (syncIntervalMillis < 0) {
+            throw new IllegalArgumentException("Sync interval must not be negative");
+        }
+        if (compactionThreshold < 1) {
+            throw new IllegalArgumentException("Compaction threshold must be positive");
+        }
+        Files.createDirectories(directory);
+        return new RuleJournal(directory, syncIntervalMillis, compactionThreshold);
+    }
+
+    /**
+     * Maps the snapshot file and decodes its rules.
+     *
+     * @return The journal sequence number the snapshot covers
+     */
+    private static long readSnapshot(Path path, List<Rule> rules) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < SNAPSHOT_HEADER_BYTES) {
+                throw new IOException("Snapshot " + path + " is too short");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt() != SNAPSHOT_MAGIC) {
+                throw new IOException(path + " is not a rule snapshot");
+            }
+            int format = buffer.getInt();
+            if (format != SNAPSHOT_FORMAT) {
+                throw new IOException("Unsupported snapshot format " + format + " in " + path);
+            }
+            long sequence = buffer.getLong();
+            int length = buffer.getInt();
+            int crc = buffer.getInt();
+            if (length < 0 || length != buffer.remaining()) {
+                throw new IOException("Snapshot " + path + " has the wrong length");
+            }
+            if (crcOf(buffer.duplicate()) != crc) {
+                throw new IOException("Snapshot " + path + " fails its checksum");
+            }
+            rules.addAll(RuleSetFormat.decode(buffer).getRules());
+            return sequence;
+        }
+    }
+
+    /**
+     * Applies the complete records of the journal that the snapshot does not cover.
+     *
+     * @return The offset just past the last complete record
+     */
+    private long replay() throws IOException {
+        long size = journal.size();
+        if (size == 0) {
+            return 0;
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Journal is too large to replay: " + size + " bytes");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        while (buffer.hasRemaining()) {
+            if (journal.read(buffer, buffer.position()) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+
+        int end = 0;
+        long lastSequence = 0;
+        int length;
+        while ((length = recordLength(buffer, end, Long.MIN_VALUE, Long.MAX_VALUE)) >= 0) {
+            ByteBuffer payload = buffer.slice(end + RECORD_HEADER_BYTES, length);
+            long recordSequence = payload.getLong();
+            if (recordSequence > sequence) {
+                try {
+                    apply(payload.get(), payload);
+                } catch (IOException | IndexOutOfBoundsException e) {
+                    throw new IOException("Journal record " + recordSequence + " at offset " + end
+                        + " cannot be applied: " + e.getMessage(), e);
+                }
+                sequence = recordSequence;
+                recordsSinceSnapshot++;
+            }
+            lastSequence = recordSequence;
+            end += RECORD_HEADER_BYTES + length;
+        }
+        if (end < buffer.limit()) {
+            int next = findRecord(buffer, end + 1, lastSequence);
+            if (next >= 0) {
+                throw new IOException("Journal record at offset " + end + " is corrupt but a complete record"
+                    + " follows at offset " + next + "; refusing to discard the changes after it");
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Checks for a complete record with a good checksum at an offset.
+     *
+     * @return The payload length, or -1 if there is no such record or its sequence
+     *         number is outside (after, upTo]
+     */
+    private static int recordLength(ByteBuffer buffer, int at, long after, long upTo) {
+        int available = buffer.limit() - at - RECORD_HEADER_BYTES;
+        if (available < MIN_PAYLOAD_BYTES) {
+            return -1;
+        }
+        int length = buffer.getInt(at);
+        if (length < MIN_PAYLOAD_BYTES || length > available) {
+            return -1;
+        }
+        long recordSequence = buffer.getLong(at + RECORD_HEADER_BYTES);
+        if (recordSequence <= after || recordSequence > upTo) {
+            return -1;
+        }
+        if (crcOf(buffer.slice(at + RECORD_HEADER_BYTES, length)) != buffer.getInt(at + 4)) {
+            return -1;
+        }
+        return length;
+    }
+
+    /**
+     * Looks for a complete record anywhere from an offset on that could follow the last
+     * good one. A crash in the middle of an append leaves none: a torn record is always
+     * the last one. Only sequence numbers that fit in the rest of the journal are
+     * considered, so the checksum is rarely computed while scanning.
+     *
+     * @return The offset of the first such record, or -1 if there is none
+     */
+    private int findRecord(ByteBuffer buffer, int from, long lastSequence) {
+        long after = Math.min(lastSequence, sequence);
+        long upTo = Math.max(lastSequence, sequence)
+            + (buffer.limit() - from) / (RECORD_HEADER_BYTES + MIN_PAYLOAD_BYTES) + 1;
+        for (int at = from; at <= buffer.limit() - RECORD_HEADER_BYTES - MIN_PAYLOAD_BYTES; at++) {
+            if (recordLength(buffer, at, after, upTo) >= 0) {
+                return at;
+            }
+        }
+        return -1;
+    }
+
+    private void apply(byte type, ByteBuffer body) throws IOException {
+        switch (type) {
+            case ADD:
+                rules.addAll(RuleSetFormat.decode(body).getRules());
+                break;
+            case REMOVE:
+                rules.remove(body.getInt());
+                break;
+            case REPLACE:
+                int index = body.getInt();
+                List<Rule> replaced = RuleSetFormat.decode(body).getRules();
+                if (replaced.size() != 1) {
+                    throw new IOException("Replace record holds " + replaced.size() + " rules");
+                }
+                rules.set(index, replaced.get(0));
+                break;
+            case CLEAR:
+                rules.clear();
+                break;
+            case REPLACE_ALL:
+                List<Rule> replacement = RuleSetFormat.decode(body).getRules();
+                rules.clear();
+                rules.addAll(replacement);
+                break;
+            default:
+                throw new IOException("Unknown record type " + type);
+        }
+    }
+
+    private static int crcOf(ByteBuffer data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Writes one record at the end of the journal.
+     *
+     * @throws UncheckedIOException if the journal cannot be written; the journal then
+     *         refuses every later change
+     * @throws IllegalArgumentException if a rule cannot be encoded
+     */
+    private void append(byte type, Body body) {
+        if (closed) {
+            throw new IllegalStateException("Rule journal is closed");
+        }
+        if (failure != null) {
+            throw new UncheckedIOException("Rule journal failed earlier", failure);
+        }
+        byte[] payload;
+        try {
+            recordBuffer.reset();
+            DataOutputStream out = new DataOutputStream(recordBuffer);
+            out.writeLong(sequence + 1);
+            out.writeByte(type);
+            body.write(out);
+            payload = recordBuffer.toByteArray();
+        } catch (IOException e) {
+            // Writing to memory does not fail
+            throw new UncheckedIOException(e);
+        }
+
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + payload.length);
+        record.putInt(payload.length).putInt(crcOf(ByteBuffer.wrap(payload))).put(payload).flip();
+        try {
+            long at = position;
+            while (record.hasRemaining()) {
+                at += journal.write(record, at);
+            }
+            if (syncIntervalMillis == 0) {
+                journal.force(false);
+            }
+            position = at;
+        } catch (IOException e) {
+            failure = e;
+            throw new UncheckedIOException("Cannot write rule journal", e);
+        }
+        sequence++;
+        recordsSinceSnapshot++;
+        dirty = syncIntervalMillis > 0;
+    }
+
+    @Override
+    public synchronized void rulesAdded(List<Rule> added) {
+        append(ADD, out -> out.write(RuleSetFormat.encode(added, 0)));
+        rules.addAll(added);
+    }
+
+    @Override
+    public synchronized void ruleRemoved(int index) {
+        append(REMOVE, out -> out.writeInt(index));
+        rules.remove(index);
+    }
+
+    @Override
+    public synchronized void ruleReplaced(int index, Rule rule) {
+        append(REPLACE, out -> {
+            out.writeInt(index);
+            out.write(RuleSetFormat.encode(List.of(rule), 0));
+        });
+        rules.set(index, rule);
+    }
+
+    @Override
+    public synchronized void rulesCleared() {
+        append(CLEAR, out -> { });
+        rules.clear();
+    }
+
+    @Override
+    public synchronized void allRulesReplaced(List<Rule> replacement) {
+        append(REPLACE_ALL, out -> out.write(RuleSetFormat.encode(replacement, 0)));
+        rules.clear();
+        rules.addAll(replacement);
+        compactionRequested = true;
+    }
+
+    /**
+     * Runs on the background thread: syncs appended records and compacts the journal
+     * once it holds enough records. The sync happens outside the lock, so appends do
+     * not wait for the disk. A failed sync stops the journal; a failed compaction
+     * leaves the journal as it was and is retried on the next run.
+     */
+    private void syncAndCompact() {
+        boolean sync;
+        synchronized (this) {
+            sync = dirty && !closed && failure == null;
+            dirty = false;
+        }
+        if (sync) {
+            try {
+                journal.force(false);
+            } catch (IOException e) {
+                failure = e;
+                System.err.println("Rule journal sync failed, further rule changes are refused: "
+                    + e.getMessage());
+                return;
+            }
+        }
+        synchronized (this) {
+            boolean due = compactionRequested || recordsSinceSnapshot >= compactionThreshold;
+            if (!closed && failure == null && due) {
+                try {
+                    compact();
+                } catch (IOException e) {
+                    System.err.println("Rule journal compaction failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Forces every appended record to disk.
+     *
+     * @throws IOException if the sync fails
+     */
+    public void sync() throws IOException {
+        synchronized (this) {
+            dirty = false;
+        }
+        journal.force(false);
+    }
+
+    /**
+     * Writes a snapshot of the current rules and empties the journal.
+     *
+     * @throws IOException if the snapshot cannot be written; the journal is left as it was
+     */
+    public synchronized void compact() throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Rule journal is closed");
+        }
+        byte[] payload = RuleSetFormat.encode(rules, sequence);
+
+        ByteBuffer header = ByteBuffer.allocate(SNAPSHOT_HEADER_BYTES);
+        header.putInt(SNAPSHOT_MAGIC).putInt(SNAPSHOT_FORMAT).putLong(sequence)
+            .putInt(payload.length).putInt(crcOf(ByteBuffer.wrap(payload))).flip();
+        Path temporary = directory.resolve(SNAPSHOT_FILE + ".tmp");
+        try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer[] buffers = {header, ByteBuffer.wrap(payload)};
+            while (buffers[1].hasRemaining()) {
+                out.write(buffers);
+            }
+            out.force(true);
+        }
+        Files.move(temporary, directory.resolve(SNAPSHOT_FILE),
+            StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory();
+
+        // The snapshot covers every record, so a crash from here on only leaves
+        // records that recovery skips
+        journal.truncate(0);
+        journal.force(true);
+        position = 0;
+        snapshotSequence = sequence;
+        recordsSinceSnapshot = 0;
+        compactionRequested = false;
+        dirty = false;
+    }
+
+    /**
+     * Makes the rename of the snapshot durable. Not every platform can sync a directory.
+     */
+    private void syncDirectory() {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // The rename is still atomic, only its durability is up to the file system
+        }
+    }
+
+    /**
+     * Syncs outstanding records and closes the journal. Later changes are refused.
+     *
+     * @throws IOException if the final sync fails
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        background.shutdown();
+        try {
+            background.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            if (failure == null) {
+                journal.force(true);
+            }
+        } finally {
+            journal.close();
+        }
+    }
+
+    /**
+     * Gets the data directory.
+     *
+     * @return The directory holding the snapshot and journal files
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Checks whether a snapshot or journal records were found when the journal was opened.
+     *
+     * @return true if rules were stored before, even if the stored list is empty
+     */
+    public boolean hasRecoveredState() {
+        return recoveredState;
+    }
+
+    /**
+     * Gets the rules recovered when the journal was opened.
+     *
+     * @return Unmodifiable list of the recovered rules, in evaluation order
+     */
+    public List<Rule> getRecoveredRules() {
+        return recoveredRules;
+    }
+
+    /**
+     * Gets the number of bytes cut from the end of the journal during recovery.
+     *
+     * @return The size of the torn tail, 0 after a clean shutdown
+     */
+    public long getDiscardedBytes() {
+        return discardedBytes;
+    }
+
+    /**
+     * Gets the sequence number of the last journaled change.
+     *
+     * @return The last sequence number, 0 if nothing was ever journaled
+     */
+    public synchronized long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Gets the sequence number covered by the current snapshot.
+     *
+     * @return The snapshot's sequence number, 0 if there is no snapshot
+     */
+    public synchronized long getSnapshotSequence() {
+        return snapshotSequence;
+    }
+
+    /**
+     * Gets the number of records in the journal since the last snapshot.
+     *
+     * @return The record count
+     */
+    public synchronized int getRecordsSinceSnapshot() {
+        return recordsSinceSnapshot;
+    }
+
+    /**
+     * Gets the number of journaled rules.
+     *
+     * @return The size of the journaled rule list
+     */
+    public synchronized int getRuleCount() {
+        return rules.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("RuleJournal: %s, %d rules, sequence %d (snapshot %d), %d records, %d bytes",
+            directory, rules.size(), sequence, snapshotSequence, recordsSinceSnapshot, position);
+    }
+}
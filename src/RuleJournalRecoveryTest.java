@@ -0,0 +1,284 @@
+/**
+ * RuleJournalRecoveryTest.java
+ *
+ * Crash-recovery checks for RuleJournal. It journals a series of rule changes,
+ * remembering the rules and journal length after each one, and then damages copies
+ * of the data directory the way crashes and bad disks do:
+ *
+ * - the journal is cut at every byte offset, as a crash in the middle of an append
+ *   leaves it; recovery must give the rules after the last complete record, and a
+ *   change appended afterwards must survive the next restart;
+ * - a byte is flipped in the last record, which recovery must treat as a torn tail;
+ * - a byte is flipped in an earlier record, or its length is damaged, which opening
+ *   must refuse instead of dropping the later records;
+ * - a journal left over from before a compaction is replayed over the newer snapshot.
+ *
+ * Exits with status 1 on the first failed check.
+ *
+ * Usage: java RuleJournalRecoveryTest [cutStride]
+ *   e.g. java RuleJournalRecoveryTest 1
+ */
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+public class RuleJournalRecoveryTest {
+
+    private final ConditionParser parser = new ConditionParser();
+    private final Path work;
+    private int checks;
+
+    private RuleJournalRecoveryTest(Path work) {
+        this.work = work;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int stride = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+        Path work = Files.createTempDirectory("rule-journal-test");
+        RuleJournalRecoveryTest test = new RuleJournalRecoveryTest(work);
+        try {
+            System.out.println("=== Rule Journal Recovery Test ===");
+            test.tornTails(stride);
+            test.corruptLastRecord();
+            test.corruptEarlierRecord();
+            test.corruptEarlierLength();
+            test.journalOlderThanSnapshot();
+            System.out.println("All " + test.checks + " checks passed");
+        } catch (AssertionError e) {
+            System.out.println("FAILED: " + e.getMessage());
+            System.exit(1);
+        } finally {
+            delete(work);
+        }
+    }
+
+    /**
+     * A journal written by one of each change, with the rules and the journal length
+     * after every record.
+     */
+    private static final class History {
+        final Path directory;
+        final List<List<String>> states = new ArrayList<>();
+        final List<Long> ends = new ArrayList<>();
+
+        History(Path directory) {
+            this.directory = directory;
+        }
+
+        long size() throws IOException {
+            return Files.size(directory.resolve(RuleJournal.JOURNAL_FILE));
+        }
+    }
+
+    private History write(String name) throws IOException {
+        History history = new History(work.resolve(name));
+        try (RuleJournal journal = RuleJournal.open(history.directory, 0, Integer.MAX_VALUE)) {
+            List<Rule> rules = new ArrayList<>();
+            record(history, rules);
+            change(journal, rules, history, () -> {
+                List<Rule> added = List.of(
+                    rule("Escalate", "projectActive AND (taskOverdue OR kpiBreach)", "Notify Manager", "Escalate"),
+                    rule("Blocked", "dependencyBlocked AND NOT kpiBreach", "Flag Dependency"));
+                journal.rulesAdded(added);
+                rules.addAll(added);
+            });
+            change(journal, rules, history, () -> {
+                Rule replacement = rule("Blocked", "dependencyBlocked", "Flag Dependency", "Notify Owner");
+                journal.ruleReplaced(1, replacement);
+                rules.set(1, replacement);
+            });
+            change(journal, rules, history, () -> {
+                journal.ruleRemoved(0);
+                rules.remove(0);
+            });
+            change(journal, rules, history, () -> {
+                journal.rulesCleared();
+                rules.clear();
+            });
+            change(journal, rules, history, () -> {
+                List<Rule> replacement = new ArrayList<>();
+                for (int i = 0; i < 20; i++) {
+                    replacement.add(rule("Rule " + i, "c" + i + " OR (c" + (i + 1) + " AND NOT c" + (i + 2) + ")",
+                        "Action " + (i % 3)));
+                }
+                journal.allRulesReplaced(replacement);
+                rules.clear();
+                rules.addAll(replacement);
+            });
+            change(journal, rules, history, () -> {
+                Rule added = rule("Last", "NOT projectActive", "Archive");
+                journal.rulesAdded(List.of(added));
+                rules.add(added);
+            });
+        }
+        return history;
+    }
+
+    private void change(RuleJournal journal, List<Rule> rules, History history, Runnable change) throws IOException {
+        change.run();
+        record(history, rules);
+    }
+
+    private void record(History history, List<Rule> rules) throws IOException {
+        history.states.add(describe(rules));
+        history.ends.add(Files.exists(history.directory.resolve(RuleJournal.JOURNAL_FILE)) ? history.size() : 0L);
+    }
+
+    private void tornTails(int stride) throws IOException {
+        History history = write("torn");
+        long size = history.size();
+        int cuts = 0;
+        for (long cut = 0; cut <= size; cut += stride) {
+            int last = 0;
+            while (last + 1 < history.ends.size() && history.ends.get(last + 1) <= cut) {
+                last++;
+            }
+            Path copy = copy(history.directory);
+            truncate(copy, cut);
+            try (RuleJournal journal = RuleJournal.open(copy, 0, Integer.MAX_VALUE)) {
+                check(describe(journal.getRecoveredRules()).equals(history.states.get(last)),
+                    "cut at " + cut + " recovers the rules after record " + last);
+                check(journal.getDiscardedBytes() == cut - history.ends.get(last),
+                    "cut at " + cut + " discards only the torn tail");
+                journal.rulesAdded(List.of(rule("After", "kpiBreach", "Recover")));
+            }
+            List<String> expected = new ArrayList<>(history.states.get(last));
+            expected.add(describe(List.of(rule("After", "kpiBreach", "Recover"))).get(0));
+            try (RuleJournal journal = RuleJournal.open(copy, 0, Integer.MAX_VALUE)) {
+                check(describe(journal.getRecoveredRules()).equals(expected),
+                    "cut at " + cut + " keeps a change appended after recovery");
+                check(journal.getDiscardedBytes() == 0, "cut at " + cut + " leaves a clean journal");
+            }
+            delete(copy);
+            cuts++;
+        }
+        System.out.println("Torn tails: " + cuts + " cuts of a " + size + "-byte journal recovered");
+    }
+
+    private void corruptLastRecord() throws IOException {
+        History history = write("last");
+        int records = history.ends.size() - 1;
+        long start = history.ends.get(records - 1);
+        for (long at = start; at < history.ends.get(records); at++) {
+            Path copy = copy(history.directory);
+            flip(copy, at);
+            try (RuleJournal journal = RuleJournal.open(copy, 0, Integer.MAX_VALUE)) {
+                check(describe(journal.getRecoveredRules()).equals(history.states.get(records - 1)),
+                    "a flipped byte at " + at + " in the last record drops only that record");
+            }
+            delete(copy);
+        }
+        System.out.println("Corrupt last record: treated as a torn tail");
+    }
+
+    private void corruptEarlierRecord() throws IOException {
+        History history = write("earlier");
+        for (int record = 1; record < history.ends.size() - 1; record++) {
+            // A payload byte; a damaged length is checked separately
+            long at = (history.ends.get(record - 1) + 8 + history.ends.get(record)) / 2;
+            Path copy = copy(history.directory);
+            flip(copy, at);
+            expectRefused(copy, "a flipped byte in record " + record + " of " + (history.ends.size() - 1));
+            delete(copy);
+        }
+        System.out.println("Corrupt earlier record: opening refused");
+    }
+
+    private void corruptEarlierLength() throws IOException {
+        History history = write("length");
+        for (int record = 1; record < history.ends.size() - 1; record++) {
+            Path copy = copy(history.directory);
+            flip(copy, history.ends.get(record - 1) + 3);
+            expectRefused(copy, "a damaged length in record " + record);
+            delete(copy);
+        }
+        System.out.println("Corrupt earlier length: opening refused");
+    }
+
+    private void journalOlderThanSnapshot() throws IOException {
+        History history = write("compacted");
+        Path journalFile = history.directory.resolve(RuleJournal.JOURNAL_FILE);
+        Path saved = work.resolve("saved.journal");
+        Files.copy(journalFile, saved);
+        try (RuleJournal journal = RuleJournal.open(history.directory, 0, Integer.MAX_VALUE)) {
+            journal.compact();
+        }
+        // A crash between renaming the snapshot and truncating the journal
+        Files.copy(saved, journalFile, StandardCopyOption.REPLACE_EXISTING);
+        try (RuleJournal journal = RuleJournal.open(history.directory, 0, Integer.MAX_VALUE)) {
+            check(describe(journal.getRecoveredRules()).equals(history.states.get(history.states.size() - 1)),
+                "records covered by the snapshot are skipped");
+            check(journal.getRecordsSinceSnapshot() == 0, "no covered record is applied again");
+        }
+        System.out.println("Journal older than snapshot: covered records skipped");
+    }
+
+    private void expectRefused(Path directory, String damage) {
+        try (RuleJournal journal = RuleJournal.open(directory, 0, Integer.MAX_VALUE)) {
+            throw new AssertionError(damage + " was accepted with " + journal.getRuleCount() + " rules");
+        } catch (IOException e) {
+            checks++;
+        }
+    }
+
+    private Rule rule(String name, String condition, String... actions) {
+        return new Rule(name, parser.parse(condition), actions);
+    }
+
+    private static List<String> describe(List<Rule> rules) {
+        List<String> described = new ArrayList<>();
+        for (Rule rule : rules) {
+            described.add(rule.toString());
+        }
+        return described;
+    }
+
+    private void check(boolean condition, String description) {
+        if (!condition) {
+            throw new AssertionError(description);
+        }
+        checks++;
+    }
+
+    private Path copy(Path directory) throws IOException {
+        Path copy = work.resolve("copy");
+        delete(copy);
+        Files.createDirectories(copy);
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.copy(file, copy.resolve(file.getFileName()));
+            }
+        }
+        return copy;
+    }
+
+    private static void truncate(Path directory, long size) throws IOException {
+        Path journal = directory.resolve(RuleJournal.JOURNAL_FILE);
+        byte[] bytes = Files.readAllBytes(journal);
+        Files.write(journal, Arrays.copyOf(bytes, (int) size));
+    }
+
+    private static void flip(Path directory, long at) throws IOException {
+        Path journal = directory.resolve(RuleJournal.JOURNAL_FILE);
+        byte[] bytes = Files.readAllBytes(journal);
+        bytes[(int) at] ^= 0x5a;
+        Files.write(journal, bytes);
+    }
+
+    private static void delete(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(path)) {
+            for (Path p : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(p);
+            }
+        }
+    }
+}
@@ -0,0 +1,393 @@
+/**
+ * RuleProgram.java
+ *
+ * The conditions of a whole rule set lowered into one flat instruction array, run by a
+ * small non-recursive interpreter loop. Compared with walking Expression objects, the
+ * evaluation touches one contiguous int[] in rule order instead of chasing pointers
+ * through nodes scattered over the heap. Neither building nor running a program
+ * recurses; the depth of conditions is bounded by RuleEngine, which refuses rules
+ * nested deeper than ConditionParser.MAX_DEPTH before they reach a program.
+ *
+ * Each instruction is one int: the opcode in the low 8 bits and its operand above.
+ * Operands come before operators (postfix) and a single boolean register carries the
+ * value of the last instruction:
+ *
+ *   LOAD slot    acc = condition        LOADN slot   acc = !condition
+ *   NOT          acc = !acc             CONST v      acc = v
+ *   JF target    if !acc jump           JT target    if acc jump
+ *   CALL n       acc = fallbacks[n].interpret(context), for custom expression types
+ *   MATCH rule   if acc the rule matches; then continue with the next rule
+ *   HALT         end of the program
+ *
+ * AND(a, b, c) becomes a JF L b JF L c L: (OR uses JT), so a short circuit jumps past
+ * the remaining operands with the register already holding the result. A condition
+ * load directly followed by a jump is fused into one two-word instruction (TESTF,
+ * TESTNF, TESTT, TESTNT slot, then the target), which halves the dispatches for the
+ * common conjunctions of literals. A final pass threads jumps that land on another
+ * jump or on a MATCH whose outcome is already known, so a failed conjunction jumps
+ * straight to the next rule.
+ */
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class RuleProgram {
+    // Operands must fit in the 24 bits above the opcode
+    public static final int MAX_OPERAND = (1 << 23) - 1;
+
+    private static final int LOAD = 0;
+    private static final int LOADN = 1;
+    private static final int NOT = 2;
+    private static final int CONST = 3;
+    private static final int JF = 4;
+    private static final int JT = 5;
+    private static final int CALL = 6;
+    private static final int MATCH = 7;
+    private static final int HALT = 8;
+    // LOAD or LOADN fused with the following JF or JT; the next word is the target
+    private static final int TESTF = 9;
+    private static final int TESTNF = 10;
+    private static final int TESTT = 11;
+    private static final int TESTNT = 12;
+
+    private final Rule[] rules;
+    private final int[] code;
+    private final Expression[] fallbacks;
+
+    private RuleProgram(Rule[] rules, int[] code, Expression[] fallbacks) {
+        this.rules = rules;
+        this.code = code;
+        this.fallbacks = fallbacks;
+    }
+
+    /**
+     * Compiles the optimized conditions of a rule list into one program.
+     *
+     * @param rules The rules in evaluation order
+     * @return The program, or null if it would need operands beyond MAX_OPERAND
+     */
+    public static RuleProgram build(List<Rule> rules) {
+        Assembler assembler = new Assembler();
+        for (int r = 0; r < rules.size(); r++) {
+            assembler.condition(rules.get(r).getOptimizedCondition());
+            assembler.emit(MATCH, r);
+        }
+        assembler.emit(HALT, 0);
+        if (assembler.tooLarge) {
+            return null;
+        }
+        int[] code = Arrays.copyOf(assembler.code, assembler.length);
+        threadJumps(code);
+        return new RuleProgram(rules.toArray(new Rule[0]), code, assembler.fallbacks.toArray(new Expression[0]));
+    }
+
+    /**
+     * Lowers expressions to instructions with an explicit stack instead of recursion.
+     */
+    private static final class Assembler {
+        int[] code = new int[64];
+        int length;
+        // The last position a junction's jumps were patched to land on
+        int label = -1;
+        boolean tooLarge;
+        final List<Expression> fallbacks = new ArrayList<>();
+
+        /**
+         * An AND or OR whose operands are being emitted, with the jumps that must be
+         * patched to land after its last operand.
+         */
+        private static final class Junction {
+            final Expression[] operands;
+            final int jump;
+            int next;
+            int[] pending = new int[4];
+            int pendingCount;
+
+            Junction(Expression[] operands, int jump) {
+                this.operands = operands;
+                this.jump = jump;
+            }
+        }
+
+        void emit(int opcode, int operand) {
+            if (operand < 0 || operand > MAX_OPERAND) {
+                tooLarge = true;
+                operand = 0;
+            }
+            if (length == code.length) {
+                code = Arrays.copyOf(code, length * 2);
+            }
+            code[length++] = opcode | operand << 8;
+        }
+
+        void condition(Expression root) {
+            // A NOT over an operand is a pending negation applied once the operand is done
+            List<Object> stack = new ArrayList<>();
+            Expression expression = root;
+            while (true) {
+                // Descend into expression, leaving junctions and NOTs on the stack
+                while (expression != null) {
+                    if (expression instanceof AndExpression || expression instanceof OrExpression) {
+                        Junction junction = new Junction(Expressions.operandsOf(expression),
+                            expression instanceof AndExpression ? JF : JT);
+                        stack.add(junction);
+                        expression = junction.operands[junction.next++];
+                    } else if (expression instanceof NotExpression) {
+                        Expression operand = ((NotExpression) expression).getExpression();
+                        if (operand instanceof TerminalExpression) {
+                            emit(LOADN, ((TerminalExpression) operand).getSlot());
+                            expression = null;
+                        } else {
+                            stack.add(expression);
+                            expression = operand;
+                        }
+                    } else {
+                        leaf(expression);
+                        expression = null;
+                    }
+                }
+                // Climb back up until a junction has another operand to emit
+                while (expression == null) {
+                    if (stack.isEmpty()) {
+                        return;
+                    }
+                    Object top = stack.get(stack.size() - 1);
+                    if (top instanceof NotExpression) {
+                        emit(NOT, 0);
+                        stack.remove(stack.size() - 1);
+                        continue;
+                    }
+                    Junction junction = (Junction) top;
+                    if (junction.next == junction.operands.length) {
+                        for (int i = 0; i < junction.pendingCount; i++) {
+                            code[junction.pending[i]] = junction.jump | length << 8;
+                        }
+                        if (length > MAX_OPERAND) {
+                            tooLarge = true;
+                        }
+                        label = length;
+                        stack.remove(stack.size() - 1);
+                        continue;
+                    }
+                    if (junction.pendingCount == junction.pending.length) {
+                        junction.pending = Arrays.copyOf(junction.pending, junction.pendingCount * 2);
+                    }
+                    // A load that no jump lands after becomes a test-and-jump
+                    int last = code[length - 1] & 0xFF;
+                    if (label != length && (last == LOAD || last == LOADN)) {
+                        int test = junction.jump == JF ? (last == LOAD ? TESTF : TESTNF)
+                            : (last == LOAD ? TESTT : TESTNT);
+                        code[length - 1] = test | code[length - 1] & ~0xFF;
+                    }
+                    junction.pending[junction.pendingCount++] = length;
+                    emit(junction.jump, 0);
+                    expression = junction.operands[junction.next++];
+                }
+            }
+        }
+
+        void leaf(Expression expression) {
+            if (expression instanceof TerminalExpression) {
+                emit(LOAD, ((TerminalExpression) expression).getSlot());
+            } else if (expression instanceof ConstantExpression) {
+                emit(CONST, ((ConstantExpression) expression).getValue() ? 1 : 0);
+            } else {
+                emit(CALL, fallbacks.size());
+                fallbacks.add(expression);
+            }
+        }
+    }
+
+    /**
+     * Retargets each jump past instructions whose effect is known from the register
+     * value that caused the jump: a jump of the same kind is followed, and a jump of the
+     * other kind, or a MATCH reached by a JF, is skipped.
+     */
+    private static void threadJumps(int[] code) {
+        for (int pc = 0; pc < code.length; pc++) {
+            int opcode = code[pc] & 0xFF;
+            int at = pc;
+            if (opcode >= TESTF) {
+                // The jump word of a test carries the kind of jump it was fused from
+                at = ++pc;
+                opcode = code[at] & 0xFF;
+            } else if (opcode != JF && opcode != JT) {
+                continue;
+            }
+            int target = code[at] >>> 8;
+            // Each step moves forward, so the chain ends
+            while (true) {
+                int next = code[target] & 0xFF;
+                if (next == opcode) {
+                    target = code[target] >>> 8;
+                } else if (next == (opcode == JF ? JT : JF) || (next == MATCH && opcode == JF)) {
+                    target++;
+                } else {
+                    break;
+                }
+            }
+            code[at] = opcode | target << 8;
+        }
+    }
+
+    /**
+     * Finds the first matching rule for a context.
+     *
+     * @param context The context containing condition values
+     * @return The index of the first matching rule, or -1 if no rule matches
+     */
+    public int firstMatch(Context context) {
+        int[] code = this.code;
+        boolean acc = false;
+        int pc = 0;
+        while (true) {
+            int instruction = code[pc++];
+            switch (instruction & 0xFF) {
+                case LOAD:
+                    acc = context.getCondition(instruction >>> 8);
+                    break;
+                case LOADN:
+                    acc = !context.getCondition(instruction >>> 8);
+                    break;
+                case NOT:
+                    acc = !acc;
+                    break;
+                case CONST:
+                    acc = instruction >>> 8 != 0;
+                    break;
+                case JF:
+                    if (!acc) {
+                        pc = instruction >>> 8;
+                    }
+                    break;
+                case JT:
+                    if (acc) {
+                        pc = instruction >>> 8;
+                    }
+                    break;
+                case TESTF:
+                    acc = context.getCondition(instruction >>> 8);
+                    pc = acc ? pc + 1 : code[pc] >>> 8;
+                    break;
+                case TESTNF:
+                    acc = !context.getCondition(instruction >>> 8);
+                    pc = acc ? pc + 1 : code[pc] >>> 8;
+                    break;
+                case TESTT:
+                    acc = context.getCondition(instruction >>> 8);
+                    pc = acc ? code[pc] >>> 8 : pc + 1;
+                    break;
+                case TESTNT:
+                    acc = !context.getCondition(instruction >>> 8);
+                    pc = acc ? code[pc] >>> 8 : pc + 1;
+                    break;
+                case CALL:
+                    acc = fallbacks[instruction >>> 8].interpret(context);
+                    break;
+                case MATCH:
+                    if (acc) {
+                        return instruction >>> 8;
+                    }
+                    break;
+                default:
+                    return -1;
+            }
+        }
+    }
+
+    /**
+     * Passes every matching rule for a context to a sink, in rule order.
+     *
+     * @param context The context containing condition values
+     * @param sink Receives each matching rule
+     * @return The index of the first matching rule, or -1 if no rule matches
+     */
+    public int allMatches(Context context, ActionSink sink) {
+        int[] code = this.code;
+        boolean acc = false;
+        int first = -1;
+        int pc = 0;
+        while (true) {
+            int instruction = code[pc++];
+            switch (instruction & 0xFF) {
+                case LOAD:
+                    acc = context.getCondition(instruction >>> 8);
+                    break;
+                case LOADN:
+                    acc = !context.getCondition(instruction >>> 8);
+                    break;
+                case NOT:
+                    acc = !acc;
+                    break;
+                case CONST:
+                    acc = instruction >>> 8 != 0;
+                    break;
+                case JF:
+                    if (!acc) {
+                        pc = instruction >>> 8;
+                    }
+                    break;
+                case JT:
+                    if (acc) {
+                        pc = instruction >>> 8;
+                    }
+                    break;
+                case TESTF:
+                    acc = context.getCondition(instruction >>> 8);
+                    pc = acc ? pc + 1 : code[pc] >>> 8;
+                    break;
+                case TESTNF:
+                    acc = !context.getCondition(instruction >>> 8);
+                    pc = acc ? pc + 1 : code[pc] >>> 8;
+                    break;
+                case TESTT:
+                    acc = context.getCondition(instruction >>> 8);
+                    pc = acc ? code[pc] >>> 8 : pc + 1;
+                    break;
+                case TESTNT:
+                    acc = !context.getCondition(instruction >>> 8);
+                    pc = acc ? code[pc] >>> 8 : pc + 1;
+                    break;
+                case CALL:
+                    acc = fallbacks[instruction >>> 8].interpret(context);
+                    break;
+                case MATCH:
+                    if (acc) {
+                        int rule = instruction >>> 8;
+                        if (first < 0) {
+                            first = rule;
+                        }
+                        sink.accept(rule, rules[rule]);
+                    }
+                    break;
+                default:
+                    return first;
+            }
+        }
+    }
+
+    /**
+     * Gets the number of code words; fused tests take two.
+     *
+     * @return The program length
+     */
+    public int size() {
+        return code.length;
+    }
+
+    /**
+     * Gets the number of expression nodes of custom types that are called through
+     * interpret() instead of being lowered.
+     *
+     * @return The fallback count
+     */
+    public int getFallbackCount() {
+        return fallbacks.length;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("RuleProgram: %d rules, %d code words (%d bytes), %d fallbacks",
+            rules.length, code.length, code.length * 4, fallbacks.length);
+    }
+}
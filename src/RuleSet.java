@@ -0,0 +1,170 @@
+/**
+ * RuleSet.java
+ * 
+ * An immutable, versioned snapshot of the rules in a RuleEngine.
+ * The engine publishes a new snapshot on every change, so a reader that picked up a
+ * snapshot evaluates against a consistent rule list without taking any locks.
+ * Compiled forms derived from the rules (truth table, decision diagram, shared graph,
+ * literal index, postfix program) are built
+ * lazily and cached on the snapshot they belong to.
+ */
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public final class RuleSet {
+    private final long version;
+    private final Rule[] rules;
+    private final List<Rule> view;
+    
+    // Lazily built compiled forms; a racing duplicate build is harmless
+    private volatile TruthTable truthTable;
+    private volatile boolean truthTableBuilt;
+    private volatile DecisionDiagram decisionDiagram;
+    private volatile boolean decisionDiagramBuilt;
+    private volatile SharedExpressionGraph sharedGraph;
+    private volatile LiteralIndex literalIndex;
+    private volatile RuleProgram program;
+    private volatile boolean programBuilt;
+    
+    /**
+     * Creates a snapshot.
+     * 
+     * @param version The rule-set version this snapshot represents
+     * @param rules The rules in evaluation order; the array must not be modified afterwards
+     */
+    RuleSet(long version, Rule[] rules) {
+        this.version = version;
+        this.rules = rules;
+        this.view = Collections.unmodifiableList(Arrays.asList(rules));
+    }
+    
+    /**
+     * Gets the version of this snapshot. Versions increase with every change.
+     * 
+     * @return The rule-set version
+     */
+    public long getVersion() {
+        return version;
+    }
+    
+    /**
+     * Gets the rules in evaluation order.
+     * 
+     * @return Unmodifiable list of rules
+     */
+    public List<Rule> getRules() {
+        return view;
+    }
+    
+    /**
+     * Gets a rule by position.
+     * 
+     * @param index The rule index
+     * @return The rule
+     */
+    public Rule get(int index) {
+        return rules[index];
+    }
+    
+    /**
+     * Gets the number of rules.
+     * 
+     * @return The rule count
+     */
+    public int size() {
+        return rules.length;
+    }
+    
+    /**
+     * Finds the position of the first rule with the given name.
+     * 
+     * @param name The rule name
+     * @return The rule index, or -1 if there is no such rule
+     */
+    public int indexOf(String name) {
+        for (int i = 0; i < rules.length; i++) {
+            if (rules[i].getName().equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Copies the rule array for building the next snapshot.
+     * 
+     * @return A mutable copy of the rules
+     */
+    Rule[] copyRules() {
+        return rules.clone();
+    }
+    
+    /**
+     * Gets the truth table for this snapshot, building it on first use.
+     * 
+     * @param maxConditions The largest number of conditions to enumerate
+     * @return The truth table, or null if it is not applicable to these rules
+     */
+    TruthTable truthTable(int maxConditions) {
+        if (!truthTableBuilt) {
+            truthTable = TruthTable.build(view, maxConditions);
+            truthTableBuilt = true;
+        }
+        return truthTable;
+    }
+    
+    /**
+     * Gets the decision diagram for this snapshot, compiling it on first use.
+     * 
+     * @return The decision diagram, or null if it is not applicable to these rules
+     */
+    DecisionDiagram decisionDiagram() {
+        if (!decisionDiagramBuilt) {
+            decisionDiagram = DecisionDiagram.build(view);
+            decisionDiagramBuilt = true;
+        }
+        return decisionDiagram;
+    }
+    
+    /**
+     * Gets the shared-subexpression graph for this snapshot, building it on first use.
+     * 
+     * @return The shared expression graph
+     */
+    SharedExpressionGraph sharedGraph() {
+        SharedExpressionGraph graph = sharedGraph;
+        if (graph == null) {
+            graph = SharedExpressionGraph.build(view);
+            sharedGraph = graph;
+        }
+        return graph;
+    }
+    
+    /**
+     * Gets the inverted literal index for this snapshot, building it on first use.
+     * 
+     * @return The literal index
+     */
+    LiteralIndex literalIndex() {
+        LiteralIndex index = literalIndex;
+        if (index == null) {
+            index = LiteralIndex.build(view);
+            literalIndex = index;
+        }
+        return index;
+    }
+    
+    /**
+     * Gets the postfix program for this snapshot, assembling it on first use.
+     * 
+     * @return The rule program, or null if the rules are too large to encode
+     */
+    RuleProgram program() {
+        if (!programBuilt) {
+            program = RuleProgram.build(view);
+            programBuilt = true;
+        }
+        return program;
+    }
+}
@@ -0,0 +1,410 @@
+/**
+ * RuleSetFormat.java
+ *
+ * A versioned binary file format for a whole rule set, for moving rules between
+ * environments without sending condition text through the parser. RuleJournal
+ * stores its records and snapshots in the same format.
+ *
+ *   file    = header, string*, rule*, int CRC-32 of everything before it
+ *   header  = int magic "RSET", short formatVersion, long sourceVersion,
+ *             varint stringCount, varint ruleCount
+ *   string  = varint byteLength, UTF-8 bytes
+ *   rule    = varint nameRef, varint actionCount, varint actionRef*, varint codeLength, code
+ *   code    = postfix instructions: FALSE | TRUE | LOAD varint nameRef | NOT
+ *             | AND varint operandCount | OR varint operandCount
+ *
+ * Every string (rule names, condition names, actions) is stored once and referred to
+ * by its index. Conditions are postfix bytecode: operands come before their operator,
+ * so a condition is rebuilt with an operand stack in one pass and no recursion.
+ *
+ * The decoder treats its input as untrusted. It verifies the checksum first, then
+ * checks every count against the bytes left before allocating for it, every reference
+ * and operand count against what exists, the nesting depth against
+ * ConditionParser.MAX_DEPTH, and rejects trailing bytes, so a malformed file fails
+ * with an IOException rather than exhausting memory or the stack. Names the condition
+ * or action registry refuses (too long, or too many in use) fail the same way.
+ */
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+public final class RuleSetFormat {
+    public static final int MAGIC = 0x52534554; // "RSET"
+    public static final int FORMAT_VERSION = 1;
+    public static final String CONTENT_TYPE = "application/vnd.rule-set";
+
+    private static final int HEADER_BYTES = 4 + 2 + 8;
+    private static final int CRC_BYTES = 4;
+
+    private static final byte FALSE = 0;
+    private static final byte TRUE = 1;
+    private static final byte LOAD = 2;
+    private static final byte NOT = 3;
+    private static final byte AND = 4;
+    private static final byte OR = 5;
+
+    private RuleSetFormat() {
+    }
+
+    /**
+     * A decoded rule-set file.
+     */
+    public static final class Contents {
+        private final int formatVersion;
+        private final long sourceVersion;
+        private final List<Rule> rules;
+
+        private Contents(int formatVersion, long sourceVersion, List<Rule> rules) {
+            this.formatVersion = formatVersion;
+            this.sourceVersion = sourceVersion;
+            this.rules = rules;
+        }
+
+        /**
+         * Gets the format version the file was written with.
+         *
+         * @return The format version
+         */
+        public int getFormatVersion() {
+            return formatVersion;
+        }
+
+        /**
+         * Gets the version of the rule set the file was exported from.
+         *
+         * @return The rule-set version in the exporting engine
+         */
+        public long getSourceVersion() {
+            return sourceVersion;
+        }
+
+        /**
+         * Gets the decoded rules.
+         *
+         * @return Unmodifiable list of the rules, in evaluation order
+         */
+        public List<Rule> getRules() {
+            return rules;
+        }
+    }
+
+    /**
+     * Growable byte array with big-endian and varint writes.
+     */
+    private static final class Output {
+        byte[] bytes = new byte[256];
+        int length;
+
+        void ensure(int extra) {
+            if (length + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+            }
+        }
+
+        void writeByte(int value) {
+            ensure(1);
+            bytes[length++] = (byte) value;
+        }
+
+        void writeShort(int value) {
+            writeByte(value >>> 8);
+            writeByte(value);
+        }
+
+        void writeInt(int value) {
+            writeShort(value >>> 16);
+            writeShort(value);
+        }
+
+        void writeLong(long value) {
+            writeInt((int) (value >>> 32));
+            writeInt((int) value);
+        }
+
+        void writeVarint(int value) {
+            while ((value & ~0x7F) != 0) {
+                writeByte((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            writeByte(value);
+        }
+
+        void write(byte[] data, int offset, int count) {
+            ensure(count);
+            System.arraycopy(data, offset, bytes, length, count);
+            length += count;
+        }
+    }
+
+    /**
+     * Encodes a rule set. The rules' original conditions are written, not their
+     * optimized or compiled forms.
+     *
+     * @param ruleSet The rule set to encode
+     * @return The file contents
+     * @throws IllegalArgumentException if a condition contains a custom expression type
+     *         or is nested deeper than ConditionParser.MAX_DEPTH
+     */
+    public static byte[] encode(RuleSet ruleSet) {
+        return encode(ruleSet.getRules(), ruleSet.getVersion());
+    }
+
+    /**
+     * Encodes a list of rules.
+     *
+     * @param rules The rules, in evaluation order
+     * @param sourceVersion The rule-set version to record in the header
+     * @return The file contents
+     * @throws IllegalArgumentException if a condition contains a custom expression type
+     *         or is nested deeper than ConditionParser.MAX_DEPTH
+     */
+    public static byte[] encode(List<Rule> rules, long sourceVersion) {
+        Map<String, Integer> strings = new LinkedHashMap<>();
+        Output code = new Output();
+        int[] codeEnds = new int[rules.size()];
+        for (int r = 0; r < rules.size(); r++) {
+            Rule rule = rules.get(r);
+            strings.putIfAbsent(rule.getName(), strings.size());
+            for (String action : rule.getActions()) {
+                strings.putIfAbsent(action, strings.size());
+            }
+            writeCode(code, rule.getCondition(), strings, 0);
+            codeEnds[r] = code.length;
+        }
+
+        Output out = new Output();
+        out.writeInt(MAGIC);
+        out.writeShort(FORMAT_VERSION);
+        out.writeLong(sourceVersion);
+        out.writeVarint(strings.size());
+        out.writeVarint(rules.size());
+        for (String string : strings.keySet()) {
+            byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+            out.writeVarint(utf8.length);
+            out.write(utf8, 0, utf8.length);
+        }
+        int codeStart = 0;
+        for (int r = 0; r < rules.size(); r++) {
+            Rule rule = rules.get(r);
+            out.writeVarint(strings.get(rule.getName()));
+            out.writeVarint(rule.getActions().size());
+            for (String action : rule.getActions()) {
+                out.writeVarint(strings.get(action));
+            }
+            out.writeVarint(codeEnds[r] - codeStart);
+            out.write(code.bytes, codeStart, codeEnds[r] - codeStart);
+            codeStart = codeEnds[r];
+        }
+        CRC32 crc = new CRC32();
+        crc.update(out.bytes, 0, out.length);
+        out.writeInt((int) crc.getValue());
+        return Arrays.copyOf(out.bytes, out.length);
+    }
+
+    private static void writeCode(Output code, Expression expression, Map<String, Integer> strings, int depth) {
+        if (depth > ConditionParser.MAX_DEPTH) {
+            throw new IllegalArgumentException("Condition nesting exceeds " + ConditionParser.MAX_DEPTH + " levels");
+        }
+        if (expression instanceof ConstantExpression) {
+            code.writeByte(((ConstantExpression) expression).getValue() ? TRUE : FALSE);
+        } else if (expression instanceof TerminalExpression) {
+            String name = ((TerminalExpression) expression).getConditionName();
+            strings.putIfAbsent(name, strings.size());
+            code.writeByte(LOAD);
+            code.writeVarint(strings.get(name));
+        } else if (expression instanceof NotExpression) {
+            writeCode(code, ((NotExpression) expression).getExpression(), strings, depth + 1);
+            code.writeByte(NOT);
+        } else if (expression instanceof AndExpression || expression instanceof OrExpression) {
+            Expression[] operands = Expressions.operandsOf(expression);
+            for (Expression operand : operands) {
+                writeCode(code, operand, strings, depth + 1);
+            }
+            code.writeByte(expression instanceof AndExpression ? AND : OR);
+            code.writeVarint(operands.length);
+        } else {
+            throw new IllegalArgumentException("Cannot encode expression type " + expression.getClass().getName());
+        }
+    }
+
+    /**
+     * Decodes a rule-set file.
+     *
+     * @param in The file contents, from the buffer's position to its limit
+     * @return The decoded rules and header fields
+     * @throws IOException if the data is not a valid rule-set file of a supported version
+     */
+    public static Contents decode(ByteBuffer in) throws IOException {
+        ByteBuffer data = in.slice();
+        if (data.remaining() < HEADER_BYTES + 2 + CRC_BYTES) {
+            throw new IOException("Too short for a rule-set file: " + data.remaining() + " bytes");
+        }
+        if (data.getInt(0) != MAGIC) {
+            throw new IOException("Not a rule-set file");
+        }
+        int formatVersion = data.getShort(4) & 0xFFFF;
+        if (formatVersion != FORMAT_VERSION) {
+            throw new IOException("Unsupported rule-set format version " + formatVersion
+                + " (this build reads version " + FORMAT_VERSION + ")");
+        }
+        int bodyEnd = data.limit() - CRC_BYTES;
+        CRC32 crc = new CRC32();
+        crc.update(data.duplicate().limit(bodyEnd));
+        if ((int) crc.getValue() != data.getInt(bodyEnd)) {
+            throw new IOException("Rule-set file fails its checksum");
+        }
+
+        ByteBuffer body = data.limit(bodyEnd).position(6);
+        try {
+            long sourceVersion = body.getLong();
+            int stringCount = readCount(body, 1, "string");
+            int ruleCount = readCount(body, 4, "rule");
+            CharsetDecoder utf8 = StandardCharsets.UTF_8.newDecoder();
+            String[] strings = new String[stringCount];
+            for (int i = 0; i < stringCount; i++) {
+                int length = readCount(body, 1, "string byte");
+                ByteBuffer bytes = body.slice(body.position(), length);
+                strings[i] = utf8.decode(bytes).toString();
+                body.position(body.position() + length);
+            }
+
+            TerminalExpression[] terminals = new TerminalExpression[stringCount];
+            Expression[] stack = new Expression[16];
+            int[] depths = new int[16];
+            List<Rule> rules = new ArrayList<>(ruleCount);
+            for (int r = 0; r < ruleCount; r++) {
+                String name = strings[readRef(body, stringCount)];
+                int actionCount = readCount(body, 1, "action");
+                String[] actions = new String[actionCount];
+                for (int a = 0; a < actionCount; a++) {
+                    actions[a] = strings[readRef(body, stringCount)];
+                }
+                int codeLength = readCount(body, 1, "code byte");
+                int codeEnd = body.position() + codeLength;
+                // Each instruction is at least a byte, so the stack never outgrows the code
+                if (stack.length < codeLength) {
+                    stack = new Expression[codeLength];
+                    depths = new int[codeLength];
+                }
+                int top = 0;
+                while (body.position() < codeEnd) {
+                    byte op = body.get();
+                    switch (op) {
+                        case FALSE:
+                        case TRUE:
+                            stack[top] = ConstantExpression.of(op == TRUE);
+                            depths[top++] = 0;
+                            break;
+                        case LOAD:
+                            int ref = readRef(body, stringCount);
+                            if (terminals[ref] == null) {
+                                terminals[ref] = new TerminalExpression(strings[ref]);
+                            }
+                            stack[top] = terminals[ref];
+                            depths[top++] = 0;
+                            break;
+                        case NOT:
+                            if (top < 1) {
+                                throw new IOException("NOT without an operand in rule " + r);
+                            }
+                            stack[top - 1] = new NotExpression(stack[top - 1]);
+                            depths[top - 1] = checkDepth(depths[top - 1] + 1);
+                            break;
+                        case AND:
+                        case OR:
+                            int count = readCount(body, 0, "operand");
+                            if (count < 1 || count > top) {
+                                throw new IOException("Operator needs " + count + " operands but " + top
+                                    + " are available in rule " + r);
+                            }
+                            Expression[] operands = Arrays.copyOfRange(stack, top - count, top);
+                            int depth = 0;
+                            for (int i = top - count; i < top; i++) {
+                                depth = Math.max(depth, depths[i]);
+                            }
+                            top -= count;
+                            stack[top] = op == AND ? new AndExpression(operands) : new OrExpression(operands);
+                            depths[top++] = checkDepth(depth + 1);
+                            break;
+                        default:
+                            throw new IOException("Unknown instruction " + op + " in rule " + r);
+                    }
+                }
+                if (body.position() != codeEnd) {
+                    throw new IOException("Instruction runs past the end of the code of rule " + r);
+                }
+                if (top != 1) {
+                    throw new IOException("Code of rule " + r + " leaves " + top + " values instead of one");
+                }
+                rules.add(new Rule(name, stack[0], actions));
+            }
+            if (body.hasRemaining()) {
+                throw new IOException(body.remaining() + " unexpected bytes after the last rule");
+            }
+            return new Contents(formatVersion, sourceVersion, Collections.unmodifiableList(rules));
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException("Rule-set file ends in the middle of a field");
+        } catch (CharacterCodingException e) {
+            throw new IOException("Rule-set file contains a string that is not UTF-8");
+        } catch (IllegalArgumentException e) {
+            // Thrown by the registries when a condition or action name is refused
+            throw new IOException("Rule-set file cannot be loaded: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reads an unsigned LEB128 varint that fits in a non-negative int.
+     */
+    private static int readVarint(ByteBuffer in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift <= 28; shift += 7) {
+            byte b = in.get();
+            // The fifth byte may only carry the top three bits of a non-negative int
+            if (shift == 28 && (b & 0xF8) != 0) {
+                break;
+            }
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed or oversized varint");
+    }
+
+    /**
+     * Reads a count and rejects it if the remaining input cannot hold that many items
+     * of at least minBytes each, before anything is allocated for it.
+     */
+    private static int readCount(ByteBuffer in, int minBytes, String what) throws IOException {
+        int count = readVarint(in);
+        if (minBytes > 0 && count > in.remaining() / minBytes) {
+            throw new IOException("Invalid " + what + " count " + count);
+        }
+        return count;
+    }
+
+    private static int readRef(ByteBuffer in, int stringCount) throws IOException {
+        int ref = readVarint(in);
+        if (ref >= stringCount) {
+            throw new IOException("String reference " + ref + " out of range");
+        }
+        return ref;
+    }
+
+    private static int checkDepth(int depth) throws IOException {
+        if (depth > ConditionParser.MAX_DEPTH) {
+            throw new IOException("Condition nesting exceeds " + ConditionParser.MAX_DEPTH + " levels");
+        }
+        return depth;
+    }
+}
@@ -0,0 +1,274 @@
+/**
+ * RuleSetFormatTest.java
+ *
+ * Round-trip and fuzz checks for RuleSetFormat, the encoding shared by rule-set export
+ * and import and by the rule journal.
+ *
+ * - Round trip: the dashboard rules, random nested conditions, constants, rules
+ *   without actions, non-ASCII names and conditions nested ConditionParser.MAX_DEPTH
+ *   levels deep decode to the same rules, which also evaluate the same way.
+ * - Encoding refuses conditions it could not read back.
+ * - Fuzz: valid files with flipped, inserted and deleted bytes, cut short, or with
+ *   their checksum recomputed so the decoder gets past it, must decode or fail with an
+ *   IOException; anything else thrown is a failure.
+ * - Names the condition or action registry refuses fail with an IOException.
+ *
+ * Exits with status 1 on the first failed check.
+ *
+ * Usage: java RuleSetFormatTest [fuzzIterations] [seed]
+ *   e.g. java RuleSetFormatTest 200000 42
+ */
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+public class RuleSetFormatTest {
+
+    private static final String[] CONDITIONS = {
+        "projectActive", "taskOverdue", "kpiBreach", "dependencyBlocked", "budgetExceeded"
+    };
+
+    private final ConditionParser parser = new ConditionParser();
+    private final Random random;
+    private int checks;
+
+    private RuleSetFormatTest(long seed) {
+        this.random = new Random(seed);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 42;
+        RuleSetFormatTest test = new RuleSetFormatTest(seed);
+        try {
+            System.out.println("=== Rule-Set Format Test ===");
+            test.roundTrips();
+            test.refusesUnencodable();
+            test.fuzz(iterations);
+            test.refusedNames();
+            System.out.println("All " + test.checks + " checks passed");
+        } catch (AssertionError e) {
+            System.out.println("FAILED: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private void roundTrips() throws IOException {
+        roundTrip("dashboard rules", new InterpreterDashboard().getRuleEngine().getRules());
+
+        List<Rule> mixed = new ArrayList<>();
+        mixed.add(new Rule("Always", ConstantExpression.TRUE, "Log"));
+        mixed.add(new Rule("Never", ConstantExpression.FALSE));
+        // The parser only reads ASCII names, but the format stores any string
+        mixed.add(new Rule("Ünïcödé ✓",
+            new AndExpression(new TerminalExpression("größe"), new NotExpression(new TerminalExpression("条件"))),
+            "Benachrichtigen", "通知"));
+        mixed.add(rule("", "kpiBreach", ""));
+        roundTrip("constants, empty and non-ASCII names", mixed);
+
+        Expression deep = new TerminalExpression("projectActive");
+        for (int i = 0; i < ConditionParser.MAX_DEPTH; i++) {
+            deep = i % 2 == 0 ? new NotExpression(deep) : new AndExpression(deep, new TerminalExpression("kpiBreach"));
+        }
+        roundTrip("a condition " + ConditionParser.MAX_DEPTH + " levels deep", List.of(new Rule("Deep", deep, "Dig")));
+
+        for (int set = 0; set < 50; set++) {
+            List<Rule> rules = new ArrayList<>();
+            int count = 1 + random.nextInt(40);
+            for (int r = 0; r < count; r++) {
+                String[] actions = new String[random.nextInt(4)];
+                for (int a = 0; a < actions.length; a++) {
+                    actions[a] = "Action " + random.nextInt(10);
+                }
+                rules.add(rule("Rule " + r, randomCondition(4), actions));
+            }
+            roundTrip("random rule set " + set, rules);
+        }
+        System.out.println("Round trips: dashboard, edge cases and 50 random rule sets");
+    }
+
+    private void roundTrip(String what, List<Rule> rules) throws IOException {
+        long version = random.nextLong() & Long.MAX_VALUE;
+        byte[] encoded = RuleSetFormat.encode(rules, version);
+        RuleSetFormat.Contents contents = RuleSetFormat.decode(ByteBuffer.wrap(encoded));
+        check(contents.getSourceVersion() == version, what + " keeps the source version");
+        check(contents.getFormatVersion() == RuleSetFormat.FORMAT_VERSION, what + " has the current format version");
+        List<Rule> decoded = contents.getRules();
+        check(decoded.size() == rules.size(), what + " keeps the rule count");
+        for (int r = 0; r < rules.size(); r++) {
+            check(decoded.get(r).toString().equals(rules.get(r).toString()), what + " keeps rule " + r);
+        }
+        for (int c = 0; c < 32; c++) {
+            Context context = randomContext();
+            for (int r = 0; r < rules.size(); r++) {
+                check(decoded.get(r).matches(context) == rules.get(r).matches(context),
+                    what + " evaluates rule " + r + " the same way");
+            }
+        }
+        check(Arrays.equals(RuleSetFormat.encode(decoded, version), encoded), what + " re-encodes to the same bytes");
+    }
+
+    private void refusesUnencodable() {
+        Expression tooDeep = new TerminalExpression("projectActive");
+        for (int i = 0; i <= ConditionParser.MAX_DEPTH; i++) {
+            tooDeep = new NotExpression(tooDeep);
+        }
+        expectUnencodable("a condition nested too deep", new Rule("Too deep", tooDeep, "Dig"));
+        Expression custom = context -> true;
+        expectUnencodable("a custom expression type", new Rule("Custom", custom, "Run"));
+        System.out.println("Encoding refuses: too deep and custom conditions");
+    }
+
+    private void expectUnencodable(String what, Rule rule) {
+        try {
+            RuleSetFormat.encode(List.of(rule), 1);
+            throw new AssertionError(what + " was encoded");
+        } catch (IllegalArgumentException e) {
+            checks++;
+        }
+    }
+
+    private void fuzz(int iterations) {
+        List<byte[]> seeds = new ArrayList<>();
+        seeds.add(RuleSetFormat.encode(new InterpreterDashboard().getRuleEngine().getRules(), 7));
+        for (int s = 0; s < 8; s++) {
+            List<Rule> rules = new ArrayList<>();
+            for (int r = 0; r < 1 + random.nextInt(6); r++) {
+                rules.add(rule("R" + r, randomCondition(3), "A" + random.nextInt(3)));
+            }
+            seeds.add(RuleSetFormat.encode(rules, s));
+        }
+
+        int decoded = 0;
+        int refused = 0;
+        for (int i = 0; i < iterations; i++) {
+            byte[] data = mutate(seeds.get(random.nextInt(seeds.size())));
+            // Most mutations would only ever reach the checksum check otherwise
+            if (data.length >= 4 && random.nextInt(4) != 0) {
+                fixChecksum(data);
+            }
+            try {
+                RuleSetFormat.decode(ByteBuffer.wrap(data));
+                decoded++;
+            } catch (IOException e) {
+                refused++;
+            } catch (RuntimeException | StackOverflowError | OutOfMemoryError e) {
+                throw new AssertionError("fuzz case " + i + " threw " + e + " for " + Arrays.toString(data));
+            }
+            checks++;
+        }
+        System.out.println("Fuzz: " + iterations + " mutated files, " + decoded + " decoded, "
+            + refused + " refused with an IOException");
+    }
+
+    private byte[] mutate(byte[] seed) {
+        byte[] data = seed.clone();
+        int mutations = 1 + random.nextInt(4);
+        for (int m = 0; m < mutations && data.length > 0; m++) {
+            int at = random.nextInt(data.length);
+            switch (random.nextInt(5)) {
+                case 0:
+                    data[at] ^= (byte) (1 << random.nextInt(8));
+                    break;
+                case 1:
+                    data[at] = (byte) random.nextInt(256);
+                    break;
+                case 2:
+                    data = Arrays.copyOf(data, at);
+                    break;
+                case 3:
+                    byte[] inserted = new byte[data.length + 1];
+                    System.arraycopy(data, 0, inserted, 0, at);
+                    inserted[at] = (byte) random.nextInt(256);
+                    System.arraycopy(data, at, inserted, at + 1, data.length - at);
+                    data = inserted;
+                    break;
+                default:
+                    byte[] removed = new byte[data.length - 1];
+                    System.arraycopy(data, 0, removed, 0, at);
+                    System.arraycopy(data, at + 1, removed, at, data.length - at - 1);
+                    data = removed;
+                    break;
+            }
+        }
+        return data;
+    }
+
+    private void refusedNames() throws IOException {
+        // The long rule name is string 0; pointing a condition or action at it gives a
+        // name the registries refuse, which the encoder itself cannot produce
+        String longName = "n".repeat(ConditionRegistry.MAX_NAME_LENGTH + 44);
+        byte[] condition = RuleSetFormat.encode(List.of(rule(longName, "kpiBreach", "Act")), 1);
+        // The code is the last two bytes before the checksum: LOAD, string 2
+        condition[condition.length - 5] = 0;
+        fixChecksum(condition);
+        expectRefused("a condition name longer than the registry allows", condition);
+
+        byte[] action = RuleSetFormat.encode(List.of(rule(longName, "kpiBreach", "Act")), 1);
+        // name ref, action count, action ref, code length, LOAD, string ref
+        action[action.length - 8] = 0;
+        fixChecksum(action);
+        expectRefused("an action name longer than the registry allows", action);
+        System.out.println("Refused names: fail with an IOException");
+    }
+
+    private void expectRefused(String what, byte[] data) {
+        try {
+            RuleSetFormat.decode(ByteBuffer.wrap(data));
+            throw new AssertionError(what + " was decoded");
+        } catch (IOException e) {
+            checks++;
+        }
+    }
+
+    private static void fixChecksum(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length - 4);
+        ByteBuffer.wrap(data).putInt(data.length - 4, (int) crc.getValue());
+    }
+
+    private String randomCondition(int depth) {
+        if (depth == 0 || random.nextInt(3) == 0) {
+            int pick = random.nextInt(CONDITIONS.length + 2);
+            if (pick >= CONDITIONS.length) {
+                return pick == CONDITIONS.length ? "TRUE" : "FALSE";
+            }
+            return random.nextInt(4) == 0 ? "NOT " + CONDITIONS[pick] : CONDITIONS[pick];
+        }
+        String operator = random.nextBoolean() ? " AND " : " OR ";
+        int operands = 2 + random.nextInt(3);
+        StringBuilder text = new StringBuilder(random.nextInt(4) == 0 ? "NOT (" : "(");
+        for (int i = 0; i < operands; i++) {
+            if (i > 0) {
+                text.append(operator);
+            }
+            text.append(randomCondition(depth - 1));
+        }
+        return text.append(')').toString();
+    }
+
+    private Context randomContext() {
+        Context context = new Context();
+        for (String condition : CONDITIONS) {
+            context.setCondition(condition, random.nextBoolean());
+        }
+        context.setCondition("größe", random.nextBoolean());
+        context.setCondition("条件", random.nextBoolean());
+        return context;
+    }
+
+    private Rule rule(String name, String condition, String... actions) {
+        return new Rule(name, parser.parse(condition), actions);
+    }
+
+    private void check(boolean condition, String description) {
+        if (!condition) {
+            throw new AssertionError(description);
+        }
+        checks++;
+    }
+}
@@ -0,0 +1,309 @@
+/**
+ * ServerConfig.java
+ * 
+ * Startup settings for RuleApiServer: port, accept backlog, execution model, metrics,
+ * where rules are kept and how much memory tenant engines may use.
+ * 
+ * Each setting can be given as a command-line flag (--port=8081) or as a system
+ * property (-Druleapi.port=8081); flags win over properties, which win over defaults.
+ * 
+ *   --port          / ruleapi.port         Port to listen on (default 8081)
+ *   --backlog       / ruleapi.backlog      TCP accept backlog, 0 for the system default (default 0)
+ *   --executor      / ruleapi.executor     virtual, pool or single (default virtual)
+ *   --threads       / ruleapi.threads      Pool size for the pool executor (default: CPU count)
+ *   --queue         / ruleapi.queue        Pending-request bound for the pool executor (default 1024)
+ *   --metrics       / ruleapi.metrics      Record evaluation and request metrics, true or false (default true)
+ *   --data-dir      / ruleapi.dataDir      Directory to keep the rules in across restarts (default: none)
+ *   --sync-interval / ruleapi.syncInterval Milliseconds an append may wait for fsync, 0 syncs each (default 50)
+ *   --tenant-memory / ruleapi.tenantMemory Estimated MB of loaded tenant engines before idle ones are evicted (default 256)
+ *   --max-tenants   / ruleapi.maxTenants   Tenants that may exist besides the default one (default 10000)
+ *   --decision-cache / ruleapi.decisionCache First-match results cached per engine, 0 for none (default 0)
+ */
+import java.lang.reflect.Method;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ServerConfig {
+    
+    /**
+     * How requests are dispatched to handlers.
+     */
+    public enum ExecutorType {
+        // One virtual thread per request (falls back to POOL before Java 21)
+        VIRTUAL,
+        // Bounded pool of platform threads
+        POOL,
+        // Everything on one thread, as the original server did
+        SINGLE
+    }
+    
+    private int port = 8081;
+    private int backlog = 0;
+    private ExecutorType executorType = ExecutorType.VIRTUAL;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int queueCapacity = 1024;
+    private boolean metricsEnabled = true;
+    private Path dataDirectory;
+    private long syncIntervalMillis = RuleJournal.DEFAULT_SYNC_INTERVAL_MILLIS;
+    private long tenantMemoryBudget = TenantRegistry.DEFAULT_MEMORY_BUDGET;
+    private int maxTenants = TenantRegistry.DEFAULT_MAX_TENANTS;
+    private int decisionCacheCapacity = 0;
+    
+    /**
+     * Reads the configuration from system properties and command-line flags.
+     * 
+     * @param args The command-line arguments
+     * @return The resolved configuration
+     * @throws IllegalArgumentException if a flag is unknown or a value is invalid
+     */
+    public static ServerConfig fromArgs(String[] args) {
+        ServerConfig config = new ServerConfig();
+        config.apply("port", System.getProperty("ruleapi.port"));
+        config.apply("backlog", System.getProperty("ruleapi.backlog"));
+        config.apply("executor", System.getProperty("ruleapi.executor"));
+        config.apply("threads", System.getProperty("ruleapi.threads"));
+        config.apply("queue", System.getProperty("ruleapi.queue"));
+        config.apply("metrics", System.getProperty("ruleapi.metrics"));
+        config.apply("data-dir", System.getProperty("ruleapi.dataDir"));
+        config.apply("sync-interval", System.getProperty("ruleapi.syncInterval"));
+        config.apply("tenant-memory", System.getProperty("ruleapi.tenantMemory"));
+        config.apply("max-tenants", System.getProperty("ruleapi.maxTenants"));
+        config.apply("decision-cache", System.getProperty("ruleapi.decisionCache"));
+        
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Expected --name=value but got: " + arg);
+            }
+            int split = arg.indexOf('=');
+            config.apply(arg.substring(2, split), arg.substring(split + 1));
+        }
+        return config;
+    }
+    
+    private void apply(String name, String value) {
+        if (value == null) {
+            return;
+        }
+        switch (name) {
+            case "port":
+                port = Integer.parseInt(value);
+                break;
+            case "backlog":
+                backlog = Integer.parseInt(value);
+                break;
+            case "executor":
+                executorType = ExecutorType.valueOf(value.trim().toUpperCase());
+                break;
+            case "threads":
+                threads = Integer.parseInt(value);
+                break;
+            case "queue":
+                queueCapacity = Integer.parseInt(value);
+                break;
+            case "metrics":
+                if (!value.equalsIgnoreCase("true") && !value.equalsIgnoreCase("false")) {
+                    throw new IllegalArgumentException("Expected true or false for --metrics but got: " + value);
+                }
+                metricsEnabled = Boolean.parseBoolean(value);
+                break;
+            case "data-dir":
+                dataDirectory = value.isEmpty() ? null : Paths.get(value);
+                break;
+            case "sync-interval":
+                syncIntervalMillis = Long.parseLong(value);
+                if (syncIntervalMillis < 0) {
+                    throw new IllegalArgumentException("--sync-interval must not be negative: " + value);
+                }
+                break;
+            case "tenant-memory":
+                long megabytes = Long.parseLong(value);
+                if (megabytes < 0) {
+                    throw new IllegalArgumentException("--tenant-memory must not be negative: " + value);
+                }
+                tenantMemoryBudget = megabytes << 20;
+                break;
+            case "max-tenants":
+                maxTenants = Integer.parseInt(value);
+                if (maxTenants < 0) {
+                    throw new IllegalArgumentException("--max-tenants must not be negative: " + value);
+                }
+                break;
+            case "decision-cache":
+                decisionCacheCapacity = Integer.parseInt(value);
+                if (decisionCacheCapacity < 0) {
+                    throw new IllegalArgumentException("--decision-cache must not be negative: " + value);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown option: --" + name);
+        }
+    }
+    
+    /**
+     * Creates the executor for the configured execution model.
+     * 
+     * @return The executor to hand to the HTTP server
+     */
+    public ExecutorService createExecutor() {
+        switch (executorType) {
+            case VIRTUAL:
+                ExecutorService virtual = newVirtualThreadExecutor();
+                if (virtual != null) {
+                    return virtual;
+                }
+                System.out.println("Virtual threads are not available on this JVM; using a thread pool.");
+                executorType = ExecutorType.POOL;
+                return createExecutor();
+            case POOL:
+                // Bounded queue; when it is full the dispatcher thread runs the request itself,
+                // which stops it accepting more connections until the pool catches up
+                return new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(queueCapacity), namedThreads("rule-api-"),
+                    new ThreadPoolExecutor.CallerRunsPolicy());
+            case SINGLE:
+            default:
+                return Executors.newSingleThreadExecutor(namedThreads("rule-api-"));
+        }
+    }
+    
+    /**
+     * Looks up Executors.newVirtualThreadPerTaskExecutor reflectively so the server
+     * still compiles and runs on JVMs without virtual threads.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+    
+    private static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+    
+    /**
+     * Gets the port to listen on.
+     * 
+     * @return The port to listen on
+     */
+    public int getPort() {
+        return port;
+    }
+    
+    /**
+     * Gets the TCP accept backlog.
+     * 
+     * @return The TCP accept backlog, 0 for the system default
+     */
+    public int getBacklog() {
+        return backlog;
+    }
+    
+    /**
+     * Gets the execution model.
+     * 
+     * @return The execution model
+     */
+    public ExecutorType getExecutorType() {
+        return executorType;
+    }
+    
+    /**
+     * Gets the pool size for the pool executor.
+     * 
+     * @return The pool size for the pool executor
+     */
+    public int getThreads() {
+        return threads;
+    }
+    
+    /**
+     * Gets the pending-request bound for the pool executor.
+     * 
+     * @return The pending-request bound for the pool executor
+     */
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+    
+    /**
+     * Checks whether metrics are recorded.
+     * 
+     * @return true if metrics are recorded
+     */
+    public boolean isMetricsEnabled() {
+        return metricsEnabled;
+    }
+    
+    /**
+     * Gets the directory the rules are kept in.
+     * 
+     * @return The data directory, or null if rules are not kept across restarts
+     */
+    public Path getDataDirectory() {
+        return dataDirectory;
+    }
+    
+    /**
+     * Gets how long journal appends may wait for fsync.
+     * 
+     * @return The sync interval in milliseconds, 0 to sync every append
+     */
+    public long getSyncIntervalMillis() {
+        return syncIntervalMillis;
+    }
+    
+    /**
+     * Gets the estimated heap that loaded tenant engines may use.
+     * 
+     * @return The tenant memory budget in bytes
+     */
+    public long getTenantMemoryBudget() {
+        return tenantMemoryBudget;
+    }
+    
+    /**
+     * Gets the number of tenants that may exist besides the default one.
+     * 
+     * @return The tenant limit
+     */
+    public int getMaxTenants() {
+        return maxTenants;
+    }
+    
+    /**
+     * Gets the number of first-match results each engine caches.
+     * 
+     * @return The decision cache capacity, 0 if engines do not cache
+     */
+    public int getDecisionCacheCapacity() {
+        return decisionCacheCapacity;
+    }
+    
+    @Override
+    public String toString() {
+        String model = executorType == ExecutorType.POOL
+            ? "pool (" + threads + " threads, queue " + queueCapacity + ")"
+            : executorType.name().toLowerCase();
+        return "port " + port + ", backlog " + backlog + ", executor " + model
+            + ", metrics " + (metricsEnabled ? "on" : "off")
+            + (dataDirectory == null ? ", rules in memory only"
+                : ", rules kept in " + dataDirectory + " (sync every " + syncIntervalMillis + " ms)")
+            + ", tenant memory " + (tenantMemoryBudget >> 20) + " MB, at most " + maxTenants + " tenants"
+            + (decisionCacheCapacity > 0 ? ", decision cache " + decisionCacheCapacity : "");
+    }
+}
@@ -0,0 +1,288 @@
+/**
+ * SharedExpressionGraph.java
+ *
+ * The conditions of a rule set viewed as one DAG of distinct nodes, evaluated with a
+ * per-evaluation memo so a subexpression shared by several rules is computed at most
+ * once per context.
+ *
+ * Rule conditions are interned by the engine, so shared subterms are the same object;
+ * this class numbers the distinct nodes by identity and lays them out in flat arrays.
+ * An evaluation stamps every AND/OR/NOT/custom node result with the evaluation number,
+ * so starting a new evaluation never has to clear the memo. Leaves are read straight
+ * from the context, which is cheaper than a memo lookup. Short-circuiting is kept:
+ * a node is only computed when an evaluation actually reaches it.
+ */
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class SharedExpressionGraph {
+
+    private static final int LEAF = 0;
+    private static final int CONSTANT = 1;
+    private static final int NOT = 2;
+    private static final int AND = 3;
+    private static final int OR = 4;
+    private static final int CUSTOM = 5;
+
+    private final int[] kind;
+    // Slot for leaves, 0/1 for constants, index into custom for custom nodes
+    private final int[] operand;
+    private final int[] childStart;
+    private final int[] children;
+    private final Expression[] custom;
+    private final int[] roots;
+    private final int treeNodeCount;
+    private final int sharedNodeCount;
+
+    private static final ThreadLocal<Evaluation> EVALUATIONS = ThreadLocal.withInitial(Evaluation::new);
+
+    /**
+     * The memo of one evaluation. Instances are reused per thread; get one from begin().
+     */
+    public static final class Evaluation {
+        private int[] stamps = new int[0];
+        private boolean[] values = new boolean[0];
+        private int current;
+        private Context context;
+        private long computed;
+        private long reused;
+
+        /**
+         * Gets the number of memoized nodes this thread has computed.
+         *
+         * @return The computed node count
+         */
+        public long getComputedCount() {
+            return computed;
+        }
+
+        /**
+         * Gets the number of times this thread reused a memoized node result.
+         *
+         * @return The reuse count
+         */
+        public long getReusedCount() {
+            return reused;
+        }
+    }
+
+    private SharedExpressionGraph(int[] kind, int[] operand, int[] childStart, int[] children,
+                                  Expression[] custom, int[] roots, int treeNodeCount, int sharedNodeCount) {
+        this.kind = kind;
+        this.operand = operand;
+        this.childStart = childStart;
+        this.children = children;
+        this.custom = custom;
+        this.roots = roots;
+        this.treeNodeCount = treeNodeCount;
+        this.sharedNodeCount = sharedNodeCount;
+    }
+
+    /**
+     * Builds the graph over the conditions of a rule list.
+     *
+     * @param rules The rules in evaluation order
+     * @return The graph
+     */
+    public static SharedExpressionGraph build(List<Rule> rules) {
+        Builder builder = new Builder();
+        int[] roots = new int[rules.size()];
+        int treeNodes = 0;
+        for (int r = 0; r < rules.size(); r++) {
+            Expression condition = rules.get(r).getOptimizedCondition();
+            roots[r] = builder.add(condition);
+            treeNodes += ExpressionOptimizer.nodeCount(condition);
+        }
+        return builder.finish(roots, treeNodes);
+    }
+
+    /**
+     * Starts an evaluation against a context. The returned memo belongs to the calling
+     * thread and is valid until that thread calls begin() again.
+     *
+     * @param context The context containing condition values
+     * @return The evaluation to pass to matches()
+     */
+    public Evaluation begin(Context context) {
+        Evaluation evaluation = EVALUATIONS.get();
+        if (evaluation.stamps.length < kind.length) {
+            evaluation.stamps = new int[kind.length];
+            evaluation.values = new boolean[kind.length];
+            evaluation.current = 0;
+        }
+        if (++evaluation.current == 0) {
+            // Stamps wrapped around: forget every old result
+            Arrays.fill(evaluation.stamps, 0);
+            evaluation.current = 1;
+        }
+        evaluation.context = context;
+        return evaluation;
+    }
+
+    /**
+     * Checks whether a rule's condition holds, reusing results already computed in
+     * this evaluation.
+     *
+     * @param ruleIndex The rule index
+     * @param evaluation The evaluation from begin()
+     * @return true if the rule's condition evaluates to true
+     */
+    public boolean matches(int ruleIndex, Evaluation evaluation) {
+        return evaluate(roots[ruleIndex], evaluation);
+    }
+
+    private boolean evaluate(int node, Evaluation evaluation) {
+        switch (kind[node]) {
+            case LEAF:
+                return evaluation.context.getCondition(operand[node]);
+            case CONSTANT:
+                return operand[node] != 0;
+            default:
+                break;
+        }
+        if (evaluation.stamps[node] == evaluation.current) {
+            evaluation.reused++;
+            return evaluation.values[node];
+        }
+        boolean value;
+        switch (kind[node]) {
+            case NOT:
+                value = !evaluate(children[childStart[node]], evaluation);
+                break;
+            case AND:
+                value = true;
+                for (int c = childStart[node]; c < childStart[node + 1] && value; c++) {
+                    value = evaluate(children[c], evaluation);
+                }
+                break;
+            case OR:
+                value = false;
+                for (int c = childStart[node]; c < childStart[node + 1] && !value; c++) {
+                    value = evaluate(children[c], evaluation);
+                }
+                break;
+            default:
+                value = custom[operand[node]].interpret(evaluation.context);
+        }
+        evaluation.computed++;
+        evaluation.stamps[node] = evaluation.current;
+        evaluation.values[node] = value;
+        return value;
+    }
+
+    /**
+     * Gets the total number of nodes in the rule conditions counted as separate trees.
+     *
+     * @return The tree node count
+     */
+    public int getTreeNodeCount() {
+        return treeNodeCount;
+    }
+
+    /**
+     * Gets the number of distinct nodes once shared subexpressions are merged.
+     *
+     * @return The distinct node count
+     */
+    public int getDistinctNodeCount() {
+        return kind.length;
+    }
+
+    /**
+     * Gets the number of distinct nodes referenced from more than one place, either by
+     * several parents or as the root of several rules.
+     *
+     * @return The shared node count
+     */
+    public int getSharedNodeCount() {
+        return sharedNodeCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SharedExpressionGraph: %d tree nodes -> %d distinct nodes, %d shared",
+            treeNodeCount, kind.length, sharedNodeCount);
+    }
+
+    /**
+     * Numbers distinct nodes by identity, children before parents.
+     */
+    private static class Builder {
+        private final Map<Expression, Integer> ids = new IdentityHashMap<>();
+        private final List<Integer> kinds = new ArrayList<>();
+        private final List<Integer> operands = new ArrayList<>();
+        private final List<int[]> childLists = new ArrayList<>();
+        private final List<Expression> customNodes = new ArrayList<>();
+        private final List<Integer> references = new ArrayList<>();
+
+        int add(Expression expression) {
+            Integer existing = ids.get(expression);
+            if (existing != null) {
+                references.set(existing, references.get(existing) + 1);
+                return existing;
+            }
+            int nodeKind;
+            int nodeOperand = 0;
+            int[] nodeChildren = new int[0];
+            if (expression instanceof TerminalExpression) {
+                nodeKind = LEAF;
+                nodeOperand = ((TerminalExpression) expression).getSlot();
+            } else if (expression instanceof ConstantExpression) {
+                nodeKind = CONSTANT;
+                nodeOperand = ((ConstantExpression) expression).getValue() ? 1 : 0;
+            } else if (expression instanceof NotExpression) {
+                nodeKind = NOT;
+                nodeChildren = new int[] {add(((NotExpression) expression).getExpression())};
+            } else if (expression instanceof AndExpression || expression instanceof OrExpression) {
+                nodeKind = expression instanceof AndExpression ? AND : OR;
+                Expression[] operandExpressions = Expressions.operandsOf(expression);
+                nodeChildren = new int[operandExpressions.length];
+                for (int i = 0; i < operandExpressions.length; i++) {
+                    nodeChildren[i] = add(operandExpressions[i]);
+                }
+            } else {
+                nodeKind = CUSTOM;
+                nodeOperand = customNodes.size();
+                customNodes.add(expression);
+            }
+            int id = kinds.size();
+            kinds.add(nodeKind);
+            operands.add(nodeOperand);
+            childLists.add(nodeChildren);
+            references.add(1);
+            ids.put(expression, id);
+            return id;
+        }
+
+        SharedExpressionGraph finish(int[] roots, int treeNodes) {
+            int count = kinds.size();
+            int[] kind = new int[count];
+            int[] operand = new int[count];
+            int[] childStart = new int[count + 1];
+            int total = 0;
+            int shared = 0;
+            for (int i = 0; i < count; i++) {
+                total += childLists.get(i).length;
+            }
+            int[] children = new int[total];
+            int next = 0;
+            for (int i = 0; i < count; i++) {
+                kind[i] = kinds.get(i);
+                operand[i] = operands.get(i);
+                childStart[i] = next;
+                for (int child : childLists.get(i)) {
+                    children[next++] = child;
+                }
+                if (references.get(i) > 1) {
+                    shared++;
+                }
+            }
+            childStart[count] = next;
+            return new SharedExpressionGraph(kind, operand, childStart, children,
+                customNodes.toArray(new Expression[0]), roots, treeNodes, shared);
+        }
+    }
+}
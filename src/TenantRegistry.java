@@ -0,0 +1,758 @@
+/**
+ * TenantRegistry.java
+ *
+ * One rule engine per tenant (for example a customer workspace), with the state that
+ * thousands of mostly similar rule sets would otherwise duplicate held once:
+ *
+ * - every engine interns its conditions through one ExpressionInterner, so equal
+ *   subexpressions are the same objects across tenants;
+ * - every engine compiles through one ExpressionCompiler, whose cache gives equal
+ *   conditions one generated class;
+ * - action names are canonical strings from the JVM-wide ActionRegistry.
+ *
+ * A tenant's engine is loaded on first use and may be evicted again while no request
+ * is using it. Each time a request releases a tenant, the estimated heap of all loaded
+ * engines is compared with the memory budget and the least recently used tenants are
+ * evicted until it fits; the tenant just released is never evicted for it. An evicted
+ * tenant keeps only its rules: in its journal under the data directory when there is
+ * one, otherwise as a RuleSetFormat image in memory, which is a small fraction of the
+ * loaded size. Loading decodes the rules and prepares them afresh; the rule-set
+ * version of a reloaded tenant starts over, as it does for the default rules after a
+ * restart.
+ *
+ * Tenant ids arrive in request paths and headers, so what they can hold is bounded:
+ *
+ * - at most maxTenants tenants exist besides the default one, and a tenant created by
+ *   a request is dropped again if it still has no rules when the request ends;
+ * - a change that would make one tenant's estimate exceed the whole budget is refused
+ *   (see Lease.admits); a tenant that is over it anyway, e.g. after the budget was
+ *   lowered, is reported as over budget;
+ * - without a data directory the images of evicted tenants may take up to the memory
+ *   budget as well; past that, tenants stay loaded, and once the loaded engines no
+ *   longer fit the budget tenants stop growing until one is deleted.
+ *
+ * The size estimate counts rules, condition nodes and compiled classes without
+ * subtracting what is shared, so it is an upper bound on what eviction frees.
+ */
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+public final class TenantRegistry implements Closeable {
+    public static final String DEFAULT_TENANT = "default";
+    public static final long DEFAULT_MEMORY_BUDGET = 256L << 20;
+    public static final int DEFAULT_MAX_TENANTS = 10_000;
+
+    private static final Pattern VALID_ID = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
+    // Estimated heap per rule (rule, action list, action set, hit counter), per action
+    // (list entry and set entry), per condition node, and per rule with a generated
+    // class (class metadata and instance)
+    private static final long RULE_BYTES = 256;
+    private static final long ACTION_BYTES = 24;
+    private static final long NODE_BYTES = 40;
+    private static final long COMPILED_RULE_BYTES = 2048;
+
+    private final ExpressionInterner interner = new ExpressionInterner();
+    private final ExpressionCompiler compiler = new ExpressionCompiler();
+    private final ConcurrentHashMap<String, Tenant> tenants = new ConcurrentHashMap<>();
+    private final Path dataDirectory;
+    private final long syncIntervalMillis;
+    private final long memoryBudget;
+    private final int maxTenants;
+    private final Consumer<RuleEngine> engineSetup;
+    // Tenants other than the default one
+    private final AtomicInteger tenantCount = new AtomicInteger();
+    private final AtomicLong loadedBytes = new AtomicLong();
+    private final AtomicLong imageBytes = new AtomicLong();
+    private final AtomicLong loadCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final Object evictionLock = new Object();
+
+    /**
+     * A tenant and, while it is loaded, its engine. The mutable fields are guarded by
+     * the tenant's monitor.
+     */
+    public static final class Tenant {
+        private final String id;
+        private final boolean pinned;
+        // Created by a request and without rules so far; dropped when released empty
+        private boolean provisional;
+        private boolean deleted;
+        private boolean overBudget;
+        private RuleEngine engine;
+        private RuleJournal journal;
+        private byte[] image;
+        private int leases;
+        private long lastUsed;
+        private long estimatedBytes;
+        private long sizedVersion = -1;
+        private int ruleCount;
+
+        private Tenant(String id, boolean pinned) {
+            this.id = id;
+            this.pinned = pinned;
+        }
+
+        /**
+         * Gets the tenant id.
+         *
+         * @return The tenant id
+         */
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * Checks whether the tenant's engine is in memory.
+         *
+         * @return true if the tenant is loaded
+         */
+        public synchronized boolean isLoaded() {
+            return engine != null;
+        }
+
+        /**
+         * Gets the number of rules, as of the last release or eviction.
+         *
+         * @return The rule count
+         */
+        public synchronized int getRuleCount() {
+            return ruleCount;
+        }
+
+        /**
+         * Gets the estimated heap of the loaded engine, as of the last release.
+         *
+         * @return The estimated bytes, 0 when the tenant is evicted
+         */
+        public synchronized long getEstimatedBytes() {
+            return engine == null ? 0 : estimatedBytes;
+        }
+
+        /**
+         * Gets the size of the in-memory image kept while the tenant is evicted.
+         *
+         * @return The image size in bytes, 0 if there is none
+         */
+        public synchronized int getImageBytes() {
+            return image == null ? 0 : image.length;
+        }
+
+        /**
+         * Checks whether the loaded engine alone is estimated to need more than the
+         * whole memory budget, as of the last release.
+         *
+         * @return true if the tenant is over budget
+         */
+        public synchronized boolean isOverBudget() {
+            return engine != null && overBudget;
+        }
+    }
+
+    /**
+     * A tenant in use by one request. Closing it releases the tenant, after which it
+     * may be evicted.
+     */
+    public final class Lease implements Closeable {
+        private final Tenant tenant;
+        private final RuleEngine engine;
+        private boolean released;
+
+        private Lease(Tenant tenant, RuleEngine engine) {
+            this.tenant = tenant;
+            this.engine = engine;
+        }
+
+        /**
+         * Gets the tenant id.
+         *
+         * @return The tenant id
+         */
+        public String getTenantId() {
+            return tenant.id;
+        }
+
+        /**
+         * Gets the tenant's engine, which stays loaded until the lease is closed.
+         *
+         * @return The rule engine
+         */
+        public RuleEngine getEngine() {
+            return engine;
+        }
+
+        /**
+         * Checks whether the tenant may take on more rules. Its estimated size after
+         * the change must fit the memory budget on its own, and without a data
+         * directory the loaded engines must fit the budget, which they no longer do
+         * once evicted images have used up theirs. The default tenant is not limited.
+         *
+         * @param rules The rules to add
+         * @param replace true if the rules replace all of the tenant's rules
+         * @return true if the change may be made
+         */
+        public boolean admits(List<Rule> rules, boolean replace) {
+            if (tenant.pinned) {
+                return true;
+            }
+            long added = estimateBytes(rules, engine.isCompilationEnabled());
+            return fits(replace ? added : currentBytes() + added);
+        }
+
+        /**
+         * Checks whether the tenant may replace the named rule. Only the difference in
+         * size between the two rules is charged, so a rule can be edited in place by a
+         * tenant at its budget, and a replacement that is no larger is always admitted.
+         *
+         * @param name The name of the rule to replace
+         * @param rule The new rule
+         * @return true if the change may be made
+         */
+        public boolean admitsReplacement(String name, Rule rule) {
+            if (tenant.pinned) {
+                return true;
+            }
+            RuleSet ruleSet = engine.getRuleSet();
+            int index = ruleSet.indexOf(name);
+            boolean compiled = engine.isCompilationEnabled();
+            long growth = estimateBytes(List.of(rule), compiled)
+                - (index < 0 ? 0 : estimateBytes(List.of(ruleSet.get(index)), compiled));
+            return growth <= 0 || fits(currentBytes() + growth);
+        }
+
+        private long currentBytes() {
+            synchronized (tenant) {
+                resize(tenant);
+                return tenant.estimatedBytes;
+            }
+        }
+
+        private boolean fits(long bytes) {
+            if (bytes > memoryBudget) {
+                return false;
+            }
+            // Every release evicts down to the budget, so loaded engines over it could not be evicted
+            return dataDirectory != null || loadedBytes.get() <= memoryBudget;
+        }
+
+        @Override
+        public void close() {
+            if (!released) {
+                released = true;
+                release(tenant);
+            }
+        }
+    }
+
+    /**
+     * Creates a registry. Tenants found under dataDirectory/tenants are registered
+     * unloaded.
+     *
+     * @param dataDirectory The directory holding a journal per tenant, or null to keep
+     *                      evicted tenants in memory
+     * @param syncIntervalMillis The sync interval for tenant journals
+     * @param memoryBudget The estimated heap that loaded engines may use
+     * @param maxTenants The number of tenants that may exist besides the default one
+     * @param engineSetup Applies settings to every newly created engine before it is loaded
+     * @throws IOException if the tenant directories cannot be listed
+     */
+    public TenantRegistry(Path dataDirectory, long syncIntervalMillis, long memoryBudget, int maxTenants,
+                          Consumer<RuleEngine> engineSetup) throws IOException {
+        this.dataDirectory = dataDirectory == null ? null : dataDirectory.resolve("tenants");
+        this.syncIntervalMillis = syncIntervalMillis;
+        this.memoryBudget = memoryBudget;
+        this.maxTenants = maxTenants;
+        this.engineSetup = engineSetup;
+        if (this.dataDirectory != null && Files.isDirectory(this.dataDirectory)) {
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(this.dataDirectory)) {
+                for (Path entry : entries) {
+                    String id = entry.getFileName().toString();
+                    if (Files.isDirectory(entry) && isValidId(id) && !id.equals(DEFAULT_TENANT)) {
+                        tenants.put(id, new Tenant(id, false));
+                        tenantCount.incrementAndGet();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks whether a string can be used as a tenant id: 1 to 64 letters, digits,
+     * '-' or '_'.
+     *
+     * @param id The candidate id
+     * @return true if the id is valid
+     */
+    public static boolean isValidId(String id) {
+        return id != null && VALID_ID.matcher(id).matches();
+    }
+
+    /**
+     * Registers the default tenant with an engine that is never evicted. The caller
+     * keeps managing its persistence.
+     *
+     * @param engine The engine of the default tenant
+     */
+    public void registerDefault(RuleEngine engine) {
+        Tenant tenant = new Tenant(DEFAULT_TENANT, true);
+        synchronized (tenant) {
+            tenant.engine = engine;
+            resize(tenant);
+        }
+        tenants.put(DEFAULT_TENANT, tenant);
+    }
+
+    /**
+     * Gets the interner shared by all tenant engines.
+     *
+     * @return The shared interner
+     */
+    public ExpressionInterner getInterner() {
+        return interner;
+    }
+
+    /**
+     * Gets the compiler shared by all tenant engines.
+     *
+     * @return The shared compiler
+     */
+    public ExpressionCompiler getCompiler() {
+        return compiler;
+    }
+
+    /**
+     * Leases a tenant, loading its engine if it is evicted. A tenant created here is
+     * dropped again if it has no rules when its last lease is closed.
+     *
+     * @param id The tenant id
+     * @param create true to create the tenant with no rules if it does not exist
+     * @return The lease, or null if the tenant does not exist and create is false
+     * @throws IllegalArgumentException if the id is not valid
+     * @throws IllegalStateException if the tenant would be created but maxTenants
+     *         tenants already exist
+     * @throws IOException if the tenant's journal cannot be opened
+     */
+    public Lease acquire(String id, boolean create) throws IOException {
+        if (!isValidId(id)) {
+            throw new IllegalArgumentException("Invalid tenant id: " + id);
+        }
+        while (true) {
+            Tenant tenant = create ? tenants.computeIfAbsent(id, this::create) : tenants.get(id);
+            if (tenant == null) {
+                return null;
+            }
+            Lease lease;
+            boolean loaded = false;
+            synchronized (tenant) {
+                if (tenant.deleted) {
+                    continue;
+                }
+                if (tenant.engine == null) {
+                    try {
+                        load(tenant);
+                    } catch (IOException | RuntimeException e) {
+                        if (tenant.provisional && tenant.leases == 0) {
+                            discard(tenant);
+                        }
+                        throw e;
+                    }
+                    loaded = true;
+                }
+                tenant.leases++;
+                lease = new Lease(tenant, tenant.engine);
+            }
+            if (loaded) {
+                enforceBudget(tenant);
+            }
+            return lease;
+        }
+    }
+
+    private Tenant create(String id) {
+        if (tenantCount.incrementAndGet() > maxTenants) {
+            tenantCount.decrementAndGet();
+            throw new IllegalStateException("No more than " + maxTenants + " tenants can exist");
+        }
+        Tenant tenant = new Tenant(id, false);
+        tenant.provisional = true;
+        return tenant;
+    }
+
+    private void release(Tenant tenant) {
+        synchronized (tenant) {
+            tenant.leases--;
+            tenant.lastUsed = System.nanoTime();
+            resize(tenant);
+            if (tenant.provisional) {
+                if (tenant.ruleCount > 0) {
+                    tenant.provisional = false;
+                } else if (tenant.leases == 0) {
+                    discard(tenant);
+                    return;
+                }
+            }
+        }
+        enforceBudget(tenant);
+    }
+
+    /**
+     * Deletes a tenant and its rules, including its journal under the data directory.
+     *
+     * @param id The tenant id
+     * @return true if the tenant was deleted, false if it does not exist
+     * @throws IllegalArgumentException if the id is the default tenant's
+     * @throws IllegalStateException if a request is using the tenant
+     * @throws IOException if the tenant's journal cannot be closed or deleted; the
+     *         tenant is removed from the registry regardless
+     */
+    public boolean delete(String id) throws IOException {
+        if (DEFAULT_TENANT.equals(id)) {
+            throw new IllegalArgumentException("The default tenant cannot be deleted");
+        }
+        Tenant tenant = tenants.get(id);
+        if (tenant == null) {
+            return false;
+        }
+        synchronized (tenant) {
+            if (tenant.deleted) {
+                return false;
+            }
+            if (tenant.leases > 0) {
+                throw new IllegalStateException("Tenant " + id + " is in use");
+            }
+            remove(tenant);
+        }
+        return true;
+    }
+
+    /**
+     * Removes a tenant that was created but never given rules, reporting rather than
+     * throwing if its journal directory cannot be deleted. Callers must hold the
+     * tenant's monitor.
+     */
+    private void discard(Tenant tenant) {
+        try {
+            remove(tenant);
+        } catch (IOException e) {
+            System.err.println("Could not delete the journal of tenant " + tenant.id + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Removes a tenant from the registry and deletes what it stores. Callers must hold
+     * the tenant's monitor, and the tenant must have no leases.
+     */
+    private void remove(Tenant tenant) throws IOException {
+        tenant.deleted = true;
+        tenants.remove(tenant.id, tenant);
+        tenantCount.decrementAndGet();
+        if (tenant.engine != null) {
+            loadedBytes.addAndGet(-tenant.estimatedBytes);
+            tenant.engine.setCompilationEnabled(false);
+            tenant.engine = null;
+        }
+        if (tenant.image != null) {
+            imageBytes.addAndGet(-tenant.image.length);
+            tenant.image = null;
+        }
+        IOException failure = null;
+        if (tenant.journal != null) {
+            try {
+                tenant.journal.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+            tenant.journal = null;
+        }
+        if (dataDirectory != null) {
+            try {
+                deleteDirectory(dataDirectory.resolve(tenant.id));
+            } catch (IOException e) {
+                failure = failure == null ? e : failure;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static void deleteDirectory(Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    /**
+     * Loads an evicted tenant. Callers must hold the tenant's monitor, so the rules are
+     * installed interpreted and compiled in the background rather than while requests
+     * for the tenant wait.
+     */
+    private void load(Tenant tenant) throws IOException {
+        RuleEngine engine = new RuleEngine(interner, compiler);
+        engineSetup.accept(engine);
+        if (dataDirectory != null) {
+            RuleJournal journal = RuleJournal.open(dataDirectory.resolve(tenant.id), syncIntervalMillis,
+                RuleJournal.DEFAULT_COMPACTION_THRESHOLD);
+            if (journal.hasRecoveredState()) {
+                engine.replaceAllRules(journal.getRecoveredRules());
+            }
+            engine.setRuleChangeListener(journal);
+            tenant.journal = journal;
+        } else if (tenant.image != null) {
+            engine.replaceAllRules(RuleSetFormat.decode(ByteBuffer.wrap(tenant.image)).getRules());
+            imageBytes.addAndGet(-tenant.image.length);
+            tenant.image = null;
+        }
+        tenant.engine = engine;
+        tenant.sizedVersion = -1;
+        resize(tenant);
+        loadCount.incrementAndGet();
+    }
+
+    /**
+     * Evicts an idle tenant. Callers must hold the tenant's monitor.
+     *
+     * @return true if the tenant was evicted
+     */
+    private boolean evict(Tenant tenant) {
+        if (tenant.engine == null || tenant.leases > 0 || tenant.pinned) {
+            return false;
+        }
+        if (tenant.journal != null) {
+            try {
+                tenant.journal.close();
+            } catch (IOException e) {
+                System.err.println("Could not close the journal of tenant " + tenant.id + ": " + e.getMessage());
+                return false;
+            }
+            tenant.journal = null;
+        } else {
+            byte[] image;
+            try {
+                image = RuleSetFormat.encode(tenant.engine.getRuleSet());
+            } catch (IllegalArgumentException e) {
+                // Rules with custom expression types cannot be stored, so they stay loaded
+                return false;
+            }
+            if (imageBytes.get() + image.length > memoryBudget) {
+                return false;
+            }
+            tenant.image = image;
+            imageBytes.addAndGet(image.length);
+        }
+        tenant.ruleCount = tenant.engine.getRuleSet().size();
+        // Stops compiling rules that will not be evaluated again
+        tenant.engine.setCompilationEnabled(false);
+        tenant.engine = null;
+        loadedBytes.addAndGet(-tenant.estimatedBytes);
+        evictionCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Updates a loaded tenant's size estimate after its rules changed. Callers must
+     * hold the tenant's monitor.
+     */
+    private void resize(Tenant tenant) {
+        RuleSet ruleSet = tenant.engine.getRuleSet();
+        if (ruleSet.getVersion() == tenant.sizedVersion) {
+            return;
+        }
+        long previous = tenant.sizedVersion < 0 ? 0 : tenant.estimatedBytes;
+        long bytes = estimateBytes(ruleSet.getRules(), tenant.engine.isCompilationEnabled());
+        boolean overBudget = !tenant.pinned && bytes > memoryBudget;
+        if (overBudget && !tenant.overBudget) {
+            System.err.println("Tenant " + tenant.id + " needs an estimated " + (bytes >> 10)
+                + " KB, more than the whole budget of " + (memoryBudget >> 10) + " KB");
+        }
+        tenant.estimatedBytes = bytes;
+        tenant.overBudget = overBudget;
+        tenant.sizedVersion = ruleSet.getVersion();
+        tenant.ruleCount = ruleSet.size();
+        loadedBytes.addAndGet(bytes - previous);
+    }
+
+    private static long estimateBytes(List<Rule> rules, boolean compiled) {
+        long bytes = 0;
+        long perRule = RULE_BYTES + (compiled ? COMPILED_RULE_BYTES : 0);
+        for (Rule rule : rules) {
+            bytes += perRule + ACTION_BYTES * rule.getActions().size()
+                + NODE_BYTES * (countNodes(rule.getCondition()) + countNodes(rule.getOptimizedCondition()));
+        }
+        return bytes;
+    }
+
+    private static long countNodes(Expression root) {
+        long nodes = 0;
+        ArrayDeque<Expression> pending = new ArrayDeque<>();
+        pending.push(root);
+        while (!pending.isEmpty()) {
+            Expression expression = pending.pop();
+            nodes++;
+            if (expression instanceof NotExpression) {
+                pending.push(((NotExpression) expression).getExpression());
+            } else if (expression instanceof AndExpression || expression instanceof OrExpression) {
+                for (Expression operand : Expressions.operandsOf(expression)) {
+                    pending.push(operand);
+                }
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * Evicts least recently used idle tenants until the loaded engines fit the budget.
+     * The tenant that was just used is kept, so one that is over budget on its own
+     * does not have to be loaded again for every request.
+     *
+     * @param current The tenant just loaded or released
+     */
+    private void enforceBudget(Tenant current) {
+        if (loadedBytes.get() <= memoryBudget) {
+            return;
+        }
+        synchronized (evictionLock) {
+            List<Tenant> candidates = new ArrayList<>();
+            for (Tenant tenant : tenants.values()) {
+                if (tenant != current && !tenant.pinned && tenant.isLoaded()) {
+                    candidates.add(tenant);
+                }
+            }
+            candidates.sort(Comparator.comparingLong(tenant -> {
+                synchronized (tenant) {
+                    return tenant.lastUsed;
+                }
+            }));
+            for (Tenant tenant : candidates) {
+                if (loadedBytes.get() <= memoryBudget) {
+                    break;
+                }
+                synchronized (tenant) {
+                    evict(tenant);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets every known tenant, loaded or not.
+     *
+     * @return The tenants sorted by id
+     */
+    public List<Tenant> getTenants() {
+        List<Tenant> list = new ArrayList<>(tenants.values());
+        list.sort(Comparator.comparing(Tenant::getId));
+        return list;
+    }
+
+    /**
+     * Gets the estimated heap of all loaded engines.
+     *
+     * @return The estimated bytes
+     */
+    public long getLoadedBytes() {
+        return loadedBytes.get();
+    }
+
+    /**
+     * Gets the memory budget for loaded engines.
+     *
+     * @return The budget in bytes
+     */
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Gets the size of the in-memory images of evicted tenants.
+     *
+     * @return The image bytes, 0 when evicted tenants are kept in the data directory
+     */
+    public long getImageBytes() {
+        return imageBytes.get();
+    }
+
+    /**
+     * Gets the number of tenants that may exist besides the default one.
+     *
+     * @return The tenant limit
+     */
+    public int getMaxTenants() {
+        return maxTenants;
+    }
+
+    /**
+     * Gets how often a tenant engine has been loaded.
+     *
+     * @return The load count
+     */
+    public long getLoadCount() {
+        return loadCount.get();
+    }
+
+    /**
+     * Gets how often a tenant engine has been evicted.
+     *
+     * @return The eviction count
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * Closes the journals of all loaded tenants; their engines stay usable but stop
+     * being persisted.
+     *
+     * @throws IOException if a journal fails to close; the others are still closed
+     */
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (Tenant tenant : tenants.values()) {
+            synchronized (tenant) {
+                if (tenant.journal != null) {
+                    try {
+                        tenant.journal.close();
+                    } catch (IOException e) {
+                        failure = failure == null ? e : failure;
+                    }
+                    tenant.journal = null;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public String toString() {
+        int loaded = 0;
+        for (Tenant tenant : tenants.values()) {
+            if (tenant.isLoaded()) {
+                loaded++;
+            }
+        }
+        return String.format("TenantRegistry: %d tenants, %d loaded, ~%d of %d KB, %d loads, %d evictions",
+            tenants.size(), loaded, loadedBytes.get() >> 10, memoryBudget >> 10, loadCount.get(), evictionCount.get());
+    }
+}
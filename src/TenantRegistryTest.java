@@ -0,0 +1,258 @@
+/**
+ * TenantRegistryTest.java
+ *
+ * Checks for the limits TenantRegistry puts on tenants, with and without a data
+ * directory:
+ *
+ * - a tenant that is over the memory budget on its own stays loaded across requests
+ *   instead of being evicted by its own release, and is reported as over budget;
+ * - a change that would take one tenant over the budget is not admitted, but a rule
+ *   replaced by one of the same size is;
+ * - a tenant created by a request that adds no rules is dropped again, and no more
+ *   than maxTenants tenants can be created;
+ * - a deleted tenant is gone with its journal, and one in use cannot be deleted;
+ * - without a data directory the images of evicted tenants stay within the budget,
+ *   and tenants stop growing once the loaded engines cannot be brought under it.
+ *
+ * Exits with status 1 on the first failed check.
+ *
+ * Usage: java TenantRegistryTest
+ */
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+public class TenantRegistryTest {
+
+    private final ConditionParser parser = new ConditionParser();
+    private final Path work;
+    private int checks;
+
+    private TenantRegistryTest(Path work) {
+        this.work = work;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path work = Files.createTempDirectory("tenant-registry-test");
+        TenantRegistryTest test = new TenantRegistryTest(work);
+        try {
+            System.out.println("=== Tenant Registry Test ===");
+            test.oversizedTenantStaysLoaded();
+            test.admission();
+            test.provisionalTenants();
+            test.tenantLimit();
+            test.deletion();
+            test.imageBudget();
+            System.out.println("All " + test.checks + " checks passed");
+        } catch (AssertionError e) {
+            System.out.println("FAILED: " + e.getMessage());
+            System.exit(1);
+        } finally {
+            delete(work);
+        }
+    }
+
+    private void oversizedTenantStaysLoaded() throws IOException {
+        TenantRegistry registry = registry(null, 64 << 10, 10);
+        addRules(registry, "small", 10);
+        // Built directly on the engine, as a budget lowered after a restart leaves it
+        try (TenantRegistry.Lease lease = registry.acquire("large", true)) {
+            lease.getEngine().addRules(rules("large", 200));
+        }
+        TenantRegistry.Tenant large = tenant(registry, "large");
+        check(large.isLoaded() && large.isOverBudget(), "a tenant over budget on its own is flagged and kept");
+        long loads = registry.getLoadCount();
+        for (int i = 0; i < 20; i++) {
+            try (TenantRegistry.Lease lease = registry.acquire("large", false)) {
+                check(lease.getEngine().getRuleSet().size() == 200, "the large tenant keeps its rules");
+            }
+        }
+        check(registry.getLoadCount() == loads, "requests for the large tenant do not reload it");
+        check(!tenant(registry, "small").isLoaded(), "other tenants are evicted to make room");
+        try (TenantRegistry.Lease lease = registry.acquire("small", false)) {
+            check(lease.getEngine().getRuleSet().size() == 10, "an evicted tenant reloads its rules");
+        }
+        check(!large.isLoaded(), "the large tenant gives way once another tenant is used");
+        System.out.println("Oversized tenant: kept loaded across 20 requests, flagged over budget");
+    }
+
+    private void admission() throws IOException {
+        TenantRegistry registry = registry(null, 64 << 10, 10);
+        addRules(registry, "acme", 10);
+        try (TenantRegistry.Lease lease = registry.acquire("acme", false)) {
+            check(lease.admits(rules("more", 10), false), "a change within the budget is admitted");
+            check(!lease.admits(rules("more", 200), false), "a change past the budget is refused");
+            check(!lease.admits(rules("more", 200), true), "a replacement past the budget is refused");
+            check(lease.admits(rules("fewer", 5), true), "a smaller replacement is admitted");
+
+            // Filled until one more rule is refused, the tenant can still edit a rule in place
+            int filled = 0;
+            while (lease.admits(rules("fill" + filled, 1), false)) {
+                lease.getEngine().addRules(rules("fill" + filled, 1));
+                filled++;
+            }
+            Rule edited = new Rule("acme 0", parser.parse("c9 AND (c8 OR NOT c7)"), "Action 1");
+            check(!lease.admits(List.of(edited), false), "another rule at the budget is refused");
+            check(lease.admitsReplacement("acme 0", edited), "a rule of the same size replaces one at the budget");
+            StringBuilder condition = new StringBuilder("c0");
+            for (int i = 1; i < 300; i++) {
+                condition.append(i % 2 == 0 ? " AND c" : " OR c").append(i);
+            }
+            Rule larger = new Rule("acme 0", parser.parse(condition.toString()), "Action 1");
+            check(!lease.admitsReplacement("acme 0", larger), "a larger replacement past the budget is refused");
+        }
+        System.out.println("Admission: changes that exceed the budget alone are refused, edits in place are not");
+    }
+
+    private void provisionalTenants() throws IOException {
+        Path data = work.resolve("provisional");
+        TenantRegistry registry = registry(data, 1 << 20, 10);
+        try (TenantRegistry.Lease lease = registry.acquire("probe", true)) {
+            check(lease.getEngine().getRuleSet().size() == 0, "a created tenant starts empty");
+        }
+        check(tenant(registry, "probe") == null, "a tenant released without rules is dropped");
+        check(!Files.exists(data.resolve("tenants").resolve("probe")), "its journal directory is removed");
+        check(registry.acquire("probe", false) == null, "a dropped tenant is unknown");
+
+        addRules(registry, "kept", 3);
+        try (TenantRegistry.Lease lease = registry.acquire("kept", false)) {
+            lease.getEngine().clearRules();
+        }
+        check(tenant(registry, "kept") != null, "a tenant that had rules is kept when cleared");
+        registry.close();
+        System.out.println("Provisional tenants: dropped when a request leaves them empty");
+    }
+
+    private void tenantLimit() throws IOException {
+        TenantRegistry registry = registry(null, 1 << 20, 3);
+        for (int i = 0; i < 3; i++) {
+            addRules(registry, "t" + i, 1);
+        }
+        try {
+            registry.acquire("t3", true);
+            throw new AssertionError("a tenant past the limit was created");
+        } catch (IllegalStateException e) {
+            checks++;
+        }
+        check(tenant(registry, "t3") == null, "a refused tenant is not registered");
+        try (TenantRegistry.Lease lease = registry.acquire("t0", true)) {
+            check(lease != null, "existing tenants can still be used at the limit");
+        }
+        check(registry.delete("t0"), "a tenant can be deleted");
+        addRules(registry, "t3", 1);
+        check(tenant(registry, "t3") != null, "deleting a tenant makes room for another");
+        System.out.println("Tenant limit: creation refused past " + registry.getMaxTenants() + " tenants");
+    }
+
+    private void deletion() throws IOException {
+        Path data = work.resolve("deletion");
+        TenantRegistry registry = registry(data, 1 << 20, 10);
+        addRules(registry, "gone", 5);
+        check(Files.isDirectory(data.resolve("tenants").resolve("gone")), "a tenant journals under the data directory");
+        try (TenantRegistry.Lease lease = registry.acquire("gone", false)) {
+            try {
+                registry.delete("gone");
+                throw new AssertionError("a tenant in use was deleted");
+            } catch (IllegalStateException e) {
+                checks++;
+            }
+            check(lease.getEngine().getRuleSet().size() == 5, "a refused deletion leaves the tenant alone");
+        }
+        check(registry.delete("gone"), "an idle tenant is deleted");
+        check(!registry.delete("gone"), "deleting it again finds nothing");
+        check(!Files.exists(data.resolve("tenants").resolve("gone")), "its journal is deleted");
+        check(registry.getLoadedBytes() == 0, "its estimate is released");
+        try {
+            registry.delete(TenantRegistry.DEFAULT_TENANT);
+            throw new AssertionError("the default tenant was deleted");
+        } catch (IllegalArgumentException e) {
+            checks++;
+        }
+        registry.close();
+
+        TenantRegistry reopened = registry(data, 1 << 20, 10);
+        check(tenant(reopened, "gone") == null, "a deleted tenant does not come back after a restart");
+        reopened.close();
+        System.out.println("Deletion: tenant and journal removed, refused while in use");
+    }
+
+    private void imageBudget() throws IOException {
+        long budget = 96 << 10;
+        TenantRegistry registry = registry(null, budget, 1000);
+        int tenants = 0;
+        int refused = 0;
+        for (int i = 0; i < 400 && refused == 0; i++) {
+            try (TenantRegistry.Lease lease = registry.acquire("img" + i, true)) {
+                List<Rule> rules = rules("img" + i, 20);
+                if (lease.admits(rules, false)) {
+                    lease.getEngine().addRules(rules);
+                    tenants++;
+                } else {
+                    refused++;
+                }
+            }
+            check(registry.getImageBytes() <= budget, "images of evicted tenants stay within the budget");
+        }
+        check(refused > 0, "tenants stop growing once images fill their budget");
+        check(registry.getLoadedBytes() <= budget + budget / 2, "loaded engines stay near the budget");
+        long images = registry.getImageBytes();
+        for (int i = 0; i < 10; i++) {
+            registry.delete("img" + i);
+        }
+        check(registry.getImageBytes() < images, "deleting evicted tenants frees their images");
+        System.out.println("Image budget: " + tenants + " tenants stored in " + (images >> 10) + " KB of images, "
+            + "growth refused after that");
+    }
+
+    private TenantRegistry registry(Path data, long budget, int maxTenants) throws IOException {
+        TenantRegistry registry = new TenantRegistry(data, 0, budget, maxTenants, engine -> { });
+        registry.registerDefault(new RuleEngine(registry.getInterner(), registry.getCompiler()));
+        return registry;
+    }
+
+    private void addRules(TenantRegistry registry, String id, int count) throws IOException {
+        try (TenantRegistry.Lease lease = registry.acquire(id, true)) {
+            lease.getEngine().addRules(rules(id, count));
+        }
+    }
+
+    private List<Rule> rules(String prefix, int count) {
+        List<Rule> rules = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            rules.add(new Rule(prefix + " " + i,
+                parser.parse("c" + i + " AND (c" + (i + 1) + " OR NOT c" + (i + 2) + ")"), "Action " + (i % 4)));
+        }
+        return rules;
+    }
+
+    private static TenantRegistry.Tenant tenant(TenantRegistry registry, String id) {
+        for (TenantRegistry.Tenant tenant : registry.getTenants()) {
+            if (tenant.getId().equals(id)) {
+                return tenant;
+            }
+        }
+        return null;
+    }
+
+    private void check(boolean condition, String description) {
+        if (!condition) {
+            throw new AssertionError(description);
+        }
+        checks++;
+    }
+
+    private static void delete(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(path)) {
+            for (Path p : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(p);
+            }
+        }
+    }
+}
@@ -3,17 +3,23 @@
  * 
  * TerminalExpression - represents constants or basic conditions.
  * These are the leaf nodes in the expression tree.
+ * A terminal holds its ConditionRegistry slot for as long as it is reachable.
  */
 public class TerminalExpression implements Expression {
     private String conditionName;
+    private int slot;
+    private ConditionRegistry.Slot registered;
     
     /**
      * Creates a terminal expression for a specific condition.
      * 
      * @param conditionName The name of the condition to evaluate
+     * @throws IllegalArgumentException if the name cannot be registered
      */
     public TerminalExpression(String conditionName) {
-        this.conditionName = conditionName;
+        this.registered = ConditionRegistry.register(conditionName);
+        this.conditionName = registered.getName();
+        this.slot = registered.getIndex();
     }
     
     /**
@@ -24,7 +30,41 @@ public class TerminalExpression implements Expression {
      */
     @Override
     public boolean interpret(Context context) {
-        return context.getCondition(conditionName);
+        return context.getCondition(slot);
+    }
+    
+    /**
+     * Gets the name of the condition this terminal reads.
+     * 
+     * @return The condition name
+     */
+    public String getConditionName() {
+        return conditionName;
+    }
+    
+    /**
+     * Gets the ConditionRegistry slot this terminal reads.
+     * 
+     * @return The condition slot
+     */
+    public int getSlot() {
+        return slot;
+    }
+    
+    /**
+     * Compares structurally: two terminals are equal when they read the same condition.
+     * 
+     * @param other The object to compare with
+     * @return true if other is a terminal for the same condition
+     */
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof TerminalExpression && slot == ((TerminalExpression) other).slot;
+    }
+    
+    @Override
+    public int hashCode() {
+        return slot;
     }
     
     @Override
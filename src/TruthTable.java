@@ -0,0 +1,183 @@
+/**
+ * TruthTable.java
+ * 
+ * A precomputed decision table for a frozen rule set.
+ * When the rules only read a handful of conditions, every one of the 2^N condition
+ * combinations is evaluated up front, and evaluation becomes a single array load
+ * indexed by the context bits.
+ */
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class TruthTable {
+    
+    // Hard ceiling on table size regardless of configuration (2^24 entries)
+    public static final int MAX_SUPPORTED_CONDITIONS = 24;
+    
+    private final int[] slots;
+    private final boolean contiguous;
+    private final long mask;
+    private final int[] firstMatch;
+    private final int[] allMatches;
+    private final List<List<String>> actionLists;
+    // Matching rule indexes for each entry of actionLists
+    private final int[][] matchLists;
+    // Union of the matching rules' action sets for each entry of actionLists
+    private final ActionSet[] actionSets;
+    
+    private TruthTable(int[] slots, int[] firstMatch, int[] allMatches, List<List<String>> actionLists,
+                       int[][] matchLists, ActionSet[] actionSets) {
+        this.slots = slots;
+        this.firstMatch = firstMatch;
+        this.allMatches = allMatches;
+        this.actionLists = actionLists;
+        this.matchLists = matchLists;
+        this.actionSets = actionSets;
+        
+        boolean identity = true;
+        for (int i = 0; i < slots.length; i++) {
+            identity &= slots[i] == i;
+        }
+        this.contiguous = identity;
+        this.mask = (1L << slots.length) - 1;
+    }
+    
+    /**
+     * Builds a truth table for the given rules.
+     * 
+     * @param rules The rules in evaluation order
+     * @param maxConditions The largest number of distinct conditions to enumerate
+     * @return The table, or null if the rules read too many conditions or contain
+     *         expression nodes whose inputs cannot be determined
+     */
+    public static TruthTable build(List<Rule> rules, int maxConditions) {
+        BitSet used = Expressions.collectSlots(rules);
+        if (used == null || used.cardinality() > Math.min(maxConditions, MAX_SUPPORTED_CONDITIONS)) {
+            return null;
+        }
+        int[] slots = used.stream().toArray();
+        int size = 1 << slots.length;
+        int[] firstMatch = new int[size];
+        int[] allMatches = new int[size];
+        
+        // Identical match sets share one precomputed action list
+        List<List<String>> actionLists = new ArrayList<>();
+        List<int[]> matchLists = new ArrayList<>();
+        List<ActionSet> actionSets = new ArrayList<>();
+        Map<BitSet, Integer> listIndexes = new HashMap<>();
+        
+        Context context = new Context();
+        for (int index = 0; index < size; index++) {
+            for (int i = 0; i < slots.length; i++) {
+                context.setCondition(slots[i], (index >>> i & 1) != 0);
+            }
+            
+            BitSet matched = new BitSet();
+            for (int r = 0; r < rules.size(); r++) {
+                if (rules.get(r).matches(context)) {
+                    matched.set(r);
+                }
+            }
+            firstMatch[index] = matched.nextSetBit(0);
+            
+            Integer listIndex = listIndexes.get(matched);
+            if (listIndex == null) {
+                List<String> actions = new ArrayList<>();
+                ActionSet actionSet = ActionSet.EMPTY;
+                for (int r = matched.nextSetBit(0); r >= 0; r = matched.nextSetBit(r + 1)) {
+                    actions.addAll(rules.get(r).getActions());
+                    actionSet = actionSet.union(rules.get(r).getActionSet());
+                }
+                listIndex = actionLists.size();
+                actionLists.add(Collections.unmodifiableList(actions));
+                matchLists.add(matched.stream().toArray());
+                actionSets.add(actionSet);
+                listIndexes.put(matched, listIndex);
+            }
+            allMatches[index] = listIndex;
+        }
+        return new TruthTable(slots, firstMatch, allMatches, actionLists, matchLists.toArray(new int[0][]),
+            actionSets.toArray(new ActionSet[0]));
+    }
+    
+    /**
+     * Computes the table index for a context.
+     * 
+     * @param context The context containing condition values
+     * @return The table index
+     */
+    private int indexOf(Context context) {
+        if (contiguous) {
+            return (int) (context.getBits() & mask);
+        }
+        int index = 0;
+        for (int i = 0; i < slots.length; i++) {
+            if (context.getCondition(slots[i])) {
+                index |= 1 << i;
+            }
+        }
+        return index;
+    }
+    
+    /**
+     * Looks up the first matching rule for a context.
+     * 
+     * @param context The context containing condition values
+     * @return The index of the first matching rule, or -1 if no rule matches
+     */
+    public int firstMatch(Context context) {
+        return firstMatch[indexOf(context)];
+    }
+    
+    /**
+     * Looks up the actions of all matching rules for a context.
+     * 
+     * @param context The context containing condition values
+     * @return Unmodifiable list of all actions from all matching rules, in rule order
+     */
+    public List<String> allMatches(Context context) {
+        return actionLists.get(allMatches[indexOf(context)]);
+    }
+    
+    /**
+     * Looks up the distinct actions of all matching rules for a context.
+     * 
+     * @param context The context containing condition values
+     * @return The union of the matching rules' action sets
+     */
+    public ActionSet allMatchActions(Context context) {
+        return actionSets[allMatches[indexOf(context)]];
+    }
+    
+    /**
+     * Looks up the indexes of all matching rules for a context.
+     * 
+     * @param context The context containing condition values
+     * @return The rule indexes in rule order; shared by the table, must not be modified
+     */
+    int[] allMatchIndexes(Context context) {
+        return matchLists[allMatches[indexOf(context)]];
+    }
+    
+    /**
+     * Gets the number of distinct conditions the table enumerates.
+     * 
+     * @return The number of conditions
+     */
+    public int getConditionCount() {
+        return slots.length;
+    }
+    
+    /**
+     * Gets the number of entries in the table.
+     * 
+     * @return 2^N for N conditions
+     */
+    public int size() {
+        return firstMatch.length;
+    }
+}